@@ -0,0 +1,263 @@
+/**
+ * Admission control
+ * Limits how many service calls reach the database at once. Each operation class
+ * has its own adaptive (AIMD) concurrency limit and bounded wait queue, and all
+ * classes share an adaptive global limit. Freed permits go to waiting circulation
+ * writes before catalog writes, lookups and browsing. Calls that cannot be queued
+ * or wait too long fail fast with AdmissionRejectedException.
+ */
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+class AdmissionController {
+    interface SqlCall<T> {
+        T call() throws SQLException;
+    }
+
+    private static final int GLOBAL_INITIAL_LIMIT = 32;
+    private static final int GLOBAL_MAX_LIMIT = 256;
+    private static final long GLOBAL_TARGET_LATENCY_MILLIS = 100;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<OperationClass, ClassState> classes = new EnumMap<>(OperationClass.class);
+    private final AdaptiveLimit globalLimit;
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+    // Calls made while already admitted (service methods calling each other) pass straight through
+    private final ThreadLocal<Boolean> admitted = ThreadLocal.withInitial(() -> Boolean.FALSE);
+    private int globalInFlight;
+    private long sequence;
+
+    public AdmissionController() {
+        for (OperationClass operationClass : OperationClass.values()) {
+            classes.put(operationClass, new ClassState(operationClass));
+        }
+        globalLimit = new AdaptiveLimit(GLOBAL_INITIAL_LIMIT, 1, GLOBAL_MAX_LIMIT,
+                                        TimeUnit.MILLISECONDS.toNanos(GLOBAL_TARGET_LATENCY_MILLIS));
+    }
+
+    public <T> T call(OperationClass operationClass, SqlCall<T> call) throws SQLException {
+        if (admitted.get()) {
+            return call.call();
+        }
+
+        acquire(operationClass);
+        admitted.set(Boolean.TRUE);
+        long start = System.nanoTime();
+        boolean failed = false;
+        try {
+            return call.call();
+        } catch (SQLException e) {
+            failed = isOverload(e);
+            throw e;
+        } finally {
+            admitted.set(Boolean.FALSE);
+            release(operationClass, System.nanoTime() - start, failed);
+        }
+    }
+
+    // Only errors that say the database is struggling shrink the limits; business outcomes such as a
+    // patron at their loan limit or a duplicate ISBN are answers, not overload
+    static boolean isOverload(SQLException e) {
+        if (e instanceof SQLTransientException || e instanceof SQLRecoverableException
+            || e instanceof SQLNonTransientConnectionException) {
+            return true;
+        }
+        String state = e.getSQLState();
+        // 08: connection exception, 40: transaction rollback such as a deadlock or lock wait timeout
+        return state != null && (state.startsWith("08") || state.startsWith("40"));
+    }
+
+    public List<AdmissionMetrics> getMetrics() {
+        lock.lock();
+        try {
+            List<AdmissionMetrics> metrics = new ArrayList<>();
+            for (ClassState state : classes.values()) {
+                metrics.add(new AdmissionMetrics(state.operationClass.name(), state.limit.get(), state.inFlight,
+                                                 state.queued, state.admittedCount, state.rejectedCount,
+                                                 state.admittedCount == 0 ? 0 : state.totalLatencyNanos / state.admittedCount));
+            }
+            metrics.add(new AdmissionMetrics("GLOBAL", globalLimit.get(), globalInFlight, waiters.size(),
+                                             0, 0, 0));
+            return metrics;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void acquire(OperationClass operationClass) throws AdmissionRejectedException {
+        ClassState state = classes.get(operationClass);
+        lock.lock();
+        try {
+            // Admit immediately unless a waiter of equal or higher priority could use the capacity first
+            if (canAdmit(state) && !hasAdmissibleWaitersAtOrAbove(operationClass)) {
+                admit(state);
+                return;
+            }
+            if (state.queued >= operationClass.getMaxQueued()) {
+                state.rejectedCount++;
+                throw new AdmissionRejectedException(operationClass, "wait queue full");
+            }
+
+            Waiter waiter = new Waiter(state, sequence++, lock.newCondition());
+            waiters.add(waiter);
+            state.queued++;
+            long remaining = TimeUnit.MILLISECONDS.toNanos(operationClass.getMaxWaitMillis());
+            try {
+                while (!waiter.granted && remaining > 0) {
+                    remaining = waiter.condition.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (!waiter.granted) {
+                    waiters.remove(waiter);
+                    state.queued--;
+                }
+            }
+
+            if (!waiter.granted) {
+                state.rejectedCount++;
+                // Timing out in the queue is treated like an overload signal for the class
+                state.limit.onDrop();
+                throw new AdmissionRejectedException(operationClass, "timed out waiting for capacity");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(OperationClass operationClass, long latencyNanos, boolean failed) {
+        ClassState state = classes.get(operationClass);
+        lock.lock();
+        try {
+            state.inFlight--;
+            globalInFlight--;
+            state.totalLatencyNanos += latencyNanos;
+            state.limit.onSample(latencyNanos, failed, state.inFlight + 1);
+            globalLimit.onSample(latencyNanos, failed, globalInFlight + 1);
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Hand free capacity to waiters in priority order, skipping classes at their own limit
+    private void dispatch() {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        List<Waiter> ordered = new ArrayList<>(waiters);
+        ordered.sort(null);
+        for (Iterator<Waiter> it = ordered.iterator(); it.hasNext() && globalInFlight < globalLimit.get(); ) {
+            Waiter waiter = it.next();
+            if (canAdmit(waiter.state)) {
+                waiters.remove(waiter);
+                waiter.state.queued--;
+                waiter.granted = true;
+                admit(waiter.state);
+                waiter.condition.signal();
+            }
+        }
+    }
+
+    private boolean canAdmit(ClassState state) {
+        return state.inFlight < state.limit.get() && globalInFlight < globalLimit.get();
+    }
+
+    // A waiter whose own class is at its limit can't take the permit, so it doesn't hold back lower classes
+    private boolean hasAdmissibleWaitersAtOrAbove(OperationClass operationClass) {
+        for (Waiter waiter : waiters) {
+            if (waiter.state.operationClass.ordinal() <= operationClass.ordinal()
+                && waiter.state.inFlight < waiter.state.limit.get()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void admit(ClassState state) {
+        state.inFlight++;
+        state.admittedCount++;
+        globalInFlight++;
+    }
+
+    private static class ClassState {
+        final OperationClass operationClass;
+        final AdaptiveLimit limit;
+        int inFlight;
+        int queued;
+        long admittedCount;
+        long rejectedCount;
+        long totalLatencyNanos;
+
+        ClassState(OperationClass operationClass) {
+            this.operationClass = operationClass;
+            this.limit = new AdaptiveLimit(operationClass.getInitialLimit(), 1, operationClass.getInitialLimit() * 8,
+                                           TimeUnit.MILLISECONDS.toNanos(operationClass.getTargetLatencyMillis()));
+        }
+    }
+
+    private static class Waiter implements Comparable<Waiter> {
+        final ClassState state;
+        final long sequence;
+        final Condition condition;
+        boolean granted;
+
+        Waiter(ClassState state, long sequence, Condition condition) {
+            this.state = state;
+            this.sequence = sequence;
+            this.condition = condition;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            int byPriority = Integer.compare(state.operationClass.ordinal(), other.state.operationClass.ordinal());
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    // Additive increase while latency is under target and the limit is in use, multiplicative decrease otherwise
+    static class AdaptiveLimit {
+        private static final double BACKOFF_RATIO = 0.9;
+
+        private final int minLimit;
+        private final int maxLimit;
+        private final long targetLatencyNanos;
+        private double limit;
+
+        AdaptiveLimit(int initialLimit, int minLimit, int maxLimit, long targetLatencyNanos) {
+            this.limit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.targetLatencyNanos = targetLatencyNanos;
+        }
+
+        int get() {
+            return (int) limit;
+        }
+
+        void onSample(long latencyNanos, boolean failed, int inFlight) {
+            if (failed || latencyNanos > targetLatencyNanos) {
+                onDrop();
+            } else if (inFlight * 2 >= limit) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+        }
+
+        void onDrop() {
+            limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+        }
+    }
+}
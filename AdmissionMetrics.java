@@ -0,0 +1,46 @@
+/**
+ * Admission metrics
+ * Snapshot of one operation class in an AdmissionController.
+ */
+
+class AdmissionMetrics {
+    private final String name;
+    private final int limit;
+    private final int inFlight;
+    private final int queued;
+    private final long admitted;
+    private final long rejected;
+    private final long averageLatencyNanos;
+
+    AdmissionMetrics(String name, int limit, int inFlight, int queued, long admitted, long rejected,
+                     long averageLatencyNanos) {
+        this.name = name;
+        this.limit = limit;
+        this.inFlight = inFlight;
+        this.queued = queued;
+        this.admitted = admitted;
+        this.rejected = rejected;
+        this.averageLatencyNanos = averageLatencyNanos;
+    }
+
+    public String getName() { return name; }
+
+    public int getLimit() { return limit; }
+
+    public int getInFlight() { return inFlight; }
+
+    public int getQueued() { return queued; }
+
+    public long getAdmitted() { return admitted; }
+
+    public long getRejected() { return rejected; }
+
+    public long getAverageLatencyNanos() { return averageLatencyNanos; }
+
+    @Override
+    public String toString() {
+        return name + " | Limit: " + limit + " | In flight: " + inFlight + " | Queued: " + queued
+               + " | Admitted: " + admitted + " | Rejected: " + rejected
+               + " | Avg latency: " + averageLatencyNanos / 1000 + " us";
+    }
+}
@@ -0,0 +1,19 @@
+/**
+ * Admission rejection
+ * Raised when an AdmissionController sheds a request instead of queueing it.
+ */
+
+import java.sql.SQLTransientException;
+
+class AdmissionRejectedException extends SQLTransientException {
+    private static final long serialVersionUID = 1L;
+
+    private final OperationClass operationClass;
+
+    public AdmissionRejectedException(OperationClass operationClass, String reason) {
+        super("Request rejected (" + operationClass + "): " + reason);
+        this.operationClass = operationClass;
+    }
+
+    public OperationClass getOperationClass() { return operationClass; }
+}
@@ -0,0 +1,65 @@
+/**
+ * Availability estimate
+ * When the requested number of copies of a title is expected to be free.
+ */
+
+import java.time.LocalDate;
+
+class AvailabilityEstimate {
+    private final int bookId;
+    private final int copiesRequested;
+    private final int availableNow;
+    private final int activeLoans;
+    private final int returnsNeeded;
+    private final int dueDay;
+
+    AvailabilityEstimate(int bookId, int copiesRequested, int availableNow, int activeLoans, int returnsNeeded,
+                         int dueDay) {
+        this.bookId = bookId;
+        this.copiesRequested = copiesRequested;
+        this.availableNow = availableNow;
+        this.activeLoans = activeLoans;
+        this.returnsNeeded = returnsNeeded;
+        this.dueDay = dueDay;
+    }
+
+    public int getBookId() { return bookId; }
+
+    public int getCopiesRequested() { return copiesRequested; }
+
+    public int getAvailableNow() { return availableNow; }
+
+    public int getActiveLoans() { return activeLoans; }
+
+    // Returns that must come in first: the position in line for the last copy requested
+    public int getReturnsNeeded() { return returnsNeeded; }
+
+    public boolean isAvailableNow() { return returnsNeeded == 0; }
+
+    // False when more copies were requested than the library holds
+    public boolean isReachable() { return dueDay != Integer.MAX_VALUE; }
+
+    // Due date of the loan whose return completes the request; null if available now or never reachable
+    public LocalDate getExpectedDate() {
+        return isAvailableNow() || !isReachable() ? null : EpochDays.toDate(dueDay);
+    }
+
+    // The deciding loan is already past due, so the copy could come back any day
+    public boolean isOverdue() {
+        LocalDate expected = getExpectedDate();
+        return expected != null && expected.isBefore(LocalDate.now());
+    }
+
+    @Override
+    public String toString() {
+        if (isAvailableNow()) {
+            return "Available now | On shelf: " + availableNow + " | On loan: " + activeLoans;
+        }
+        if (!isReachable()) {
+            return "Only " + (availableNow + activeLoans) + " copies exist; " + copiesRequested + " requested";
+        }
+        return "Expected by " + getExpectedDate() + (isOverdue() ? " (that loan is overdue)" : "")
+               + " | Returns needed: " + returnsNeeded + " | On loan: " + activeLoans
+               + " | On shelf: " + availableNow;
+    }
+}
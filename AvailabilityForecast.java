@@ -0,0 +1,129 @@
+/**
+ * Next-available-copy forecast
+ * Keeps, per title, the copies on the shelf and the due dates of the copies
+ * out on loan as a sorted array, updated from checkouts, returns and inventory
+ * changes. "When is the next copy free" and "when will N copies be free" are
+ * answered by indexing into that array, without a query.
+ */
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+class AvailabilityForecast implements CatalogListener, CirculationListener {
+    private final ConcurrentHashMap<Integer, TitleLoans> titles = new ConcurrentHashMap<>();
+
+    // Copies on the shelf from the catalog, due dates from the active loans
+    public void load(BookService bookService, BorrowingService borrowingService) throws SQLException {
+        BookBatch books = bookService.getAllBooksBatch(new StringDictionary());
+        for (int i = 0; i < books.size(); i++) {
+            title(books.getBookId(i)).available = books.getCopiesAvailable(i);
+        }
+        LoanBatch loans = borrowingService.getActiveBorrowingsBatch();
+        for (int i = 0; i < loans.size(); i++) {
+            TitleLoans title = titles.get(loans.bookIds[i]);
+            if (title != null) {
+                title.addDueDay(loans.dueDays[i]);
+            }
+        }
+    }
+
+    public AvailabilityEstimate nextAvailable(int bookId) {
+        return whenAvailable(bookId, 1);
+    }
+
+    // When the given number of copies will be free at once: copies on the shelf count now, the rest come back in
+    // due-date order. A patron at queue position N for a title waits for the Nth copy
+    public AvailabilityEstimate whenAvailable(int bookId, int copies) {
+        TitleLoans title = titles.get(bookId);
+        if (title == null) {
+            return null;
+        }
+        synchronized (title) {
+            int available = Math.max(0, title.available);
+            int returnsNeeded = Math.max(0, copies - available);
+            int dueDay = returnsNeeded == 0 ? EpochDays.NONE
+                       : returnsNeeded <= title.size ? title.dueDays[returnsNeeded - 1]
+                       : Integer.MAX_VALUE;
+            return new AvailabilityEstimate(bookId, copies, available, title.size, returnsNeeded, dueDay);
+        }
+    }
+
+    @Override
+    public void onBorrow(BorrowingRecord record) {
+        TitleLoans title = title(record.getBookId());
+        synchronized (title) {
+            title.addDueDay((int) record.getDueDate().toEpochDay());
+            // Checkouts take their copy inside BorrowingService, so it is counted here rather than by onInventoryChanged
+            title.available--;
+        }
+    }
+
+    @Override
+    public void onReturn(BorrowingRecord record) {
+        TitleLoans title = title(record.getBookId());
+        synchronized (title) {
+            title.removeDueDay((int) record.getDueDate().toEpochDay());
+            title.available++;
+        }
+    }
+
+    @Override
+    public void onBookAdded(Book book) {
+        TitleLoans title = title(book.getBookId());
+        synchronized (title) {
+            title.available = book.getCopiesAvailable();
+        }
+    }
+
+    @Override
+    public void onBookUpdated(Book book) {
+        // The copy count on an update may be stale; inventory arrives through onInventoryChanged
+    }
+
+    @Override
+    public void onInventoryChanged(int bookId, int delta) {
+        TitleLoans title = title(bookId);
+        synchronized (title) {
+            title.available += delta;
+        }
+    }
+
+    @Override
+    public void onBookDeleted(int bookId) {
+        titles.remove(bookId);
+    }
+
+    private TitleLoans title(int bookId) {
+        return titles.computeIfAbsent(bookId, key -> new TitleLoans());
+    }
+
+    // Due days of a title's active loans in ascending order; guarded by the instance's monitor.
+    // A title has at most as many loans as copies, so inserts shift only a short array
+    private static final class TitleLoans {
+        int available;
+        int[] dueDays = new int[4];
+        int size;
+
+        void addDueDay(int day) {
+            if (size == dueDays.length) {
+                dueDays = Arrays.copyOf(dueDays, size * 2);
+            }
+            int position = Arrays.binarySearch(dueDays, 0, size, day);
+            if (position < 0) {
+                position = -position - 1;
+            }
+            System.arraycopy(dueDays, position, dueDays, position + 1, size - position);
+            dueDays[position] = day;
+            size++;
+        }
+
+        void removeDueDay(int day) {
+            int position = Arrays.binarySearch(dueDays, 0, size, day);
+            if (position >= 0) {
+                System.arraycopy(dueDays, position + 1, dueDays, position, size - position - 1);
+                size--;
+            }
+        }
+    }
+}
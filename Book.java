@@ -0,0 +1,51 @@
+/**
+ * Book
+ * A catalog title and the number of copies currently on the shelf.
+ */
+
+class Book {
+    private int bookId;
+    private String title;
+    private String author;
+    private String isbn;
+    private int publicationYear;
+    private int copiesAvailable;
+    private int version;
+    
+    public Book(int bookId, String title, String author, String isbn, int publicationYear, int copiesAvailable) {
+        this.bookId = bookId;
+        this.title = title;
+        this.author = author;
+        this.isbn = isbn;
+        this.publicationYear = publicationYear;
+        this.copiesAvailable = copiesAvailable;
+    }
+    
+    // Getters and setters
+    public int getBookId() { return bookId; }
+    public void setBookId(int bookId) { this.bookId = bookId; }
+    
+    public String getTitle() { return title; }
+    public void setTitle(String title) { this.title = title; }
+    
+    public String getAuthor() { return author; }
+    public void setAuthor(String author) { this.author = author; }
+    
+    public String getIsbn() { return isbn; }
+    public void setIsbn(String isbn) { this.isbn = isbn; }
+    
+    public int getPublicationYear() { return publicationYear; }
+    public void setPublicationYear(int publicationYear) { this.publicationYear = publicationYear; }
+    
+    public int getCopiesAvailable() { return copiesAvailable; }
+    public void setCopiesAvailable(int copiesAvailable) { this.copiesAvailable = copiesAvailable; }
+    
+    public int getVersion() { return version; }
+    public void setVersion(int version) { this.version = version; }
+    
+    @Override
+    public String toString() {
+        return "Book ID: " + bookId + " | Title: " + title + " | Author: " + author + 
+               " | ISBN: " + isbn + " | Year: " + publicationYear + " | Copies: " + copiesAvailable;
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Book batch
+ * Books held column-wise in parallel arrays, with authors shared through
+ * a StringDictionary.
+ */
+
+import java.util.Arrays;
+
+final class BookBatch {
+    private final StringDictionary authors;
+    private int[] bookIds;
+    private String[] titles;
+    private int[] authorCodes;
+    private String[] isbns;
+    private int[] publicationYears;
+    private int[] copiesAvailable;
+    private int size;
+
+    public BookBatch(StringDictionary authors, int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        this.authors = authors;
+        this.bookIds = new int[capacity];
+        this.titles = new String[capacity];
+        this.authorCodes = new int[capacity];
+        this.isbns = new String[capacity];
+        this.publicationYears = new int[capacity];
+        this.copiesAvailable = new int[capacity];
+    }
+
+    public void add(int bookId, String title, String author, String isbn, int publicationYear, int copies) {
+        if (size == bookIds.length) {
+            grow();
+        }
+        bookIds[size] = bookId;
+        titles[size] = title;
+        authorCodes[size] = authors.encode(author);
+        isbns[size] = isbn;
+        publicationYears[size] = publicationYear;
+        copiesAvailable[size] = copies;
+        size++;
+    }
+
+    public int size() { return size; }
+
+    public StringDictionary getAuthors() { return authors; }
+
+    public int getBookId(int index) { return bookIds[index]; }
+
+    public String getTitle(int index) { return titles[index]; }
+
+    public int getAuthorCode(int index) { return authorCodes[index]; }
+
+    public String getAuthor(int index) { return authors.decode(authorCodes[index]); }
+
+    public String getIsbn(int index) { return isbns[index]; }
+
+    public int getPublicationYear(int index) { return publicationYears[index]; }
+
+    public int getCopiesAvailable(int index) { return copiesAvailable[index]; }
+
+    public CompactBook get(int index) {
+        return new CompactBook(bookIds[index], titles[index], getAuthor(index), isbns[index],
+                               publicationYears[index], copiesAvailable[index]);
+    }
+
+    private void grow() {
+        int capacity = bookIds.length * 2;
+        bookIds = Arrays.copyOf(bookIds, capacity);
+        titles = Arrays.copyOf(titles, capacity);
+        authorCodes = Arrays.copyOf(authorCodes, capacity);
+        isbns = Arrays.copyOf(isbns, capacity);
+        publicationYears = Arrays.copyOf(publicationYears, capacity);
+        copiesAvailable = Arrays.copyOf(copiesAvailable, capacity);
+    }
+}
@@ -0,0 +1,394 @@
+/**
+ * Book service
+ * CRUD operations on the books table, with ISBN screening and copy counts;
+ * catalog listeners are told about every committed change.
+ */
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+class BookService {
+    private Connection connection;
+    private List<CatalogListener> listeners = new CopyOnWriteArrayList<>();
+    private IsbnIndex isbnIndex;
+    private BranchInventory branchInventory;
+    
+    public BookService(Connection connection) {
+        this.connection = connection;
+    }
+    
+    public void addCatalogListener(CatalogListener listener) {
+        listeners.add(listener);
+    }
+    
+    // Use the index for ISBN lookups and duplicate screening; it is kept in sync as a listener
+    public void setIsbnIndex(IsbnIndex isbnIndex) {
+        this.isbnIndex = isbnIndex;
+        addCatalogListener(isbnIndex);
+    }
+    
+    public void setBranchInventory(BranchInventory branchInventory) {
+        this.branchInventory = branchInventory;
+    }
+    
+    // Create
+    public int addBook(Book book) throws SQLException {
+        checkIsbnAvailable(book.getIsbn(), 0);
+        String sql = "INSERT INTO books (title, author, isbn, isbn_normalized, publication_year, copies_available, "
+                     + "total_copies) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        
+        try (PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            statement.setString(1, book.getTitle());
+            statement.setString(2, book.getAuthor());
+            statement.setString(3, book.getIsbn());
+            statement.setString(4, Isbn.canonicalize(book.getIsbn()));
+            statement.setInt(5, book.getPublicationYear());
+            statement.setInt(6, book.getCopiesAvailable());
+            statement.setInt(7, book.getCopiesAvailable());
+            
+            int affectedRows = statement.executeUpdate();
+            if (affectedRows == 0) {
+                throw new SQLException("Creating book failed, no rows affected.");
+            }
+            
+            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                if (generatedKeys.next()) {
+                    int bookId = generatedKeys.getInt(1);
+                    book.setBookId(bookId);
+                    for (CatalogListener listener : listeners) {
+                        listener.onBookAdded(book);
+                    }
+                    return bookId;
+                } else {
+                    throw new SQLException("Creating book failed, no ID obtained.");
+                }
+            }
+        }
+    }
+    
+    // Read
+    public Book getBookById(int bookId) throws SQLException {
+        String sql = "SELECT * FROM books WHERE book_id = ? AND deleted_at IS NULL";
+        
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, bookId);
+            
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    return extractBookFromResultSet(resultSet);
+                }
+            }
+        }
+        
+        return null;
+    }
+    
+    // Read - Many books in chunked IN queries, keyed by book ID; unknown IDs are absent
+    public Map<Integer, Book> getBooksByIds(Collection<Integer> bookIds) throws SQLException {
+        Map<Integer, Book> books = new HashMap<>();
+        
+        for (List<Integer> chunk : SqlInList.chunks(bookIds)) {
+            String sql = "SELECT * FROM books WHERE book_id IN (" + SqlInList.placeholders(chunk.size()) + ") "
+                         + "AND deleted_at IS NULL";
+            
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    statement.setInt(i + 1, chunk.get(i));
+                }
+                
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        Book book = extractBookFromResultSet(resultSet);
+                        books.put(book.getBookId(), book);
+                    }
+                }
+            }
+        }
+        
+        return books;
+    }
+    
+    public List<Book> getBooksByTitle(String title) throws SQLException {
+        List<Book> books = new ArrayList<>();
+        String sql = "SELECT * FROM books WHERE title LIKE ? AND deleted_at IS NULL";
+        
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, "%" + title + "%");
+            
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    books.add(extractBookFromResultSet(resultSet));
+                }
+            }
+        }
+        
+        return books;
+    }
+    
+    public Book getBookByIsbn(String isbn) throws SQLException {
+        if (isbnIndex != null) {
+            int bookId = isbnIndex.lookup(isbn);
+            return bookId > 0 ? getBookById(bookId) : null;
+        }
+        
+        String sql = "SELECT * FROM books WHERE isbn = ? AND deleted_at IS NULL";
+        
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, isbn);
+            
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    return extractBookFromResultSet(resultSet);
+                }
+            }
+        }
+        
+        return null;
+    }
+    
+    public List<Book> getAllBooks() throws SQLException {
+        List<Book> books = new ArrayList<>();
+        String sql = "SELECT * FROM books WHERE deleted_at IS NULL";
+        
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            
+            while (resultSet.next()) {
+                books.add(extractBookFromResultSet(resultSet));
+            }
+        }
+        
+        return books;
+    }
+    
+    // Read - ISBNs still held by tombstoned books, keyed by book ID; they stay taken until the purge
+    public Map<Integer, String> getTombstonedIsbns() throws SQLException {
+        Map<Integer, String> isbns = new HashMap<>();
+        String sql = "SELECT book_id, isbn FROM books WHERE deleted_at IS NOT NULL AND isbn IS NOT NULL";
+        
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            while (resultSet.next()) {
+                isbns.put(resultSet.getInt(1), resultSet.getString(2));
+            }
+        }
+        
+        return isbns;
+    }
+    
+    // Read - All books as a columnar batch, sharing author strings through the dictionary
+    public BookBatch getAllBooksBatch(StringDictionary authors) throws SQLException {
+        String sql = "SELECT book_id, title, author, isbn, publication_year, copies_available FROM books "
+                     + "WHERE deleted_at IS NULL";
+        BookBatch batch = new BookBatch(authors, 1024);
+        
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            
+            while (resultSet.next()) {
+                batch.add(resultSet.getInt(1), resultSet.getString(2), resultSet.getString(3),
+                          resultSet.getString(4), resultSet.getInt(5), resultSet.getInt(6));
+            }
+        }
+        
+        return batch;
+    }
+    
+    // Update - Title, author, ISBN and year, only if the row still has the version the book was read with.
+    // The book's copy count is ignored: checkouts and returns change it without a version bump, so a
+    // count from an earlier read would undo them. Stock changes go through adjustTotalCopies
+    public UpdateResult tryUpdateBook(Book book) throws SQLException {
+        checkIsbnAvailable(book.getIsbn(), book.getBookId());
+        String sql = "UPDATE books SET title = ?, author = ?, isbn = ?, isbn_normalized = ?, publication_year = ?, "
+                     + "version = version + 1 WHERE book_id = ? AND version = ? AND deleted_at IS NULL";
+        
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, book.getTitle());
+            statement.setString(2, book.getAuthor());
+            statement.setString(3, book.getIsbn());
+            statement.setString(4, Isbn.canonicalize(book.getIsbn()));
+            statement.setInt(5, book.getPublicationYear());
+            statement.setInt(6, book.getBookId());
+            statement.setInt(7, book.getVersion());
+            
+            int affectedRows = statement.executeUpdate();
+            if (affectedRows == 0) {
+                return getBookById(book.getBookId()) != null ? UpdateResult.CONFLICT : UpdateResult.NOT_FOUND;
+            }
+        }
+        
+        book.setVersion(book.getVersion() + 1);
+        for (CatalogListener listener : listeners) {
+            listener.onBookUpdated(book);
+        }
+        return UpdateResult.UPDATED;
+    }
+    
+    // Same as tryUpdateBook, and likewise ignores copies_available
+    public boolean updateBook(Book book) throws SQLException {
+        return tryUpdateBook(book) == UpdateResult.UPDATED;
+    }
+    
+    // Update - Read the current row, apply the change and write the details, retrying on conflict
+    public UpdateResult modifyBookDetails(int bookId, Consumer<Book> change, int maxAttempts) throws SQLException {
+        return OptimisticRetry.run(maxAttempts, () -> {
+            Book book = getBookById(bookId);
+            if (book == null) {
+                return UpdateResult.NOT_FOUND;
+            }
+            change.accept(book);
+            return tryUpdateBook(book);
+        });
+    }
+    
+    // Update - Atomically add delta to copies_available; fails rather than going below zero.
+    // Inventory changes do not bump the version, so they never conflict with detail edits
+    public boolean adjustCopiesAvailable(int bookId, int delta) throws SQLException {
+        String sql = "UPDATE books SET copies_available = copies_available + ? WHERE book_id = ? AND copies_available + ? >= 0";
+        
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, delta);
+            statement.setInt(2, bookId);
+            statement.setInt(3, delta);
+            
+            int affectedRows = statement.executeUpdate();
+            if (affectedRows > 0) {
+                for (CatalogListener listener : listeners) {
+                    listener.onInventoryChanged(bookId, delta);
+                }
+            }
+            return affectedRows > 0;
+        }
+    }
+    
+    // Update - Add copies to the collection, or withdraw them with a negative delta; unlike
+    // adjustCopiesAvailable this changes total_copies too, so it is for stock changes, not loans
+    public boolean adjustTotalCopies(int bookId, int delta) throws SQLException {
+        String sql = "UPDATE books SET total_copies = total_copies + ?, copies_available = copies_available + ? "
+                     + "WHERE book_id = ? AND copies_available + ? >= 0";
+        
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, delta);
+            statement.setInt(2, delta);
+            statement.setInt(3, bookId);
+            statement.setInt(4, delta);
+            
+            int affectedRows = statement.executeUpdate();
+            if (affectedRows > 0) {
+                for (CatalogListener listener : listeners) {
+                    listener.onInventoryChanged(bookId, delta);
+                }
+            }
+            return affectedRows > 0;
+        }
+    }
+    
+    // Update - Add copies held at a branch, or withdraw them with a negative delta.
+    // The title total in copies_available follows through the branch inventory roll-up
+    public boolean addBranchCopies(int bookId, int branchId, int delta) throws SQLException {
+        if (branchInventory == null || !branchInventory.isKnownBranch(branchId)) {
+            throw new SQLException("Unknown branch: " + branchId);
+        }
+        String sql = delta >= 0
+            ? "INSERT INTO book_branch_copies (book_id, branch_id, copies_available) VALUES (?, ?, ?) " +
+              "ON DUPLICATE KEY UPDATE copies_available = copies_available + VALUES(copies_available)"
+            : "UPDATE book_branch_copies SET copies_available = copies_available + ? " +
+              "WHERE book_id = ? AND branch_id = ? AND copies_available + ? >= 0";
+        
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            if (delta >= 0) {
+                statement.setInt(1, bookId);
+                statement.setInt(2, branchId);
+                statement.setInt(3, delta);
+            } else {
+                statement.setInt(1, delta);
+                statement.setInt(2, bookId);
+                statement.setInt(3, branchId);
+                statement.setInt(4, delta);
+            }
+            
+            if (statement.executeUpdate() == 0) {
+                return false;
+            }
+        }
+        
+        // Stock changes here at once; copies_available catches up with the roll-up
+        try (PreparedStatement statement = connection.prepareStatement(
+                 "UPDATE books SET total_copies = total_copies + ? WHERE book_id = ?")) {
+            statement.setInt(1, delta);
+            statement.setInt(2, bookId);
+            statement.executeUpdate();
+        }
+        
+        branchInventory.apply(bookId, branchId, delta);
+        for (CatalogListener listener : listeners) {
+            listener.onInventoryChanged(bookId, delta);
+        }
+        return true;
+    }
+    
+    // Delete - Tombstone the row; it disappears from every read now and is archived and purged later.
+    // Loans already out can still be returned, and the ISBN stays taken until the purge
+    public boolean deleteBook(int bookId) throws SQLException {
+        String sql = "UPDATE books SET deleted_at = NOW(), version = version + 1 WHERE book_id = ? AND deleted_at IS NULL";
+        
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, bookId);
+            
+            int affectedRows = statement.executeUpdate();
+            if (affectedRows > 0) {
+                for (CatalogListener listener : listeners) {
+                    listener.onBookDeleted(bookId);
+                }
+            }
+            return affectedRows > 0;
+        }
+    }
+    
+    // Helper methods
+    // Reject an ISBN held by another book before any write; certainly-new ISBNs skip the database check
+    private void checkIsbnAvailable(String isbn, int bookId) throws SQLException {
+        if (isbnIndex == null || isbn == null || !isbnIndex.mightContain(isbn)) {
+            return;
+        }
+        
+        int existingId = isbnIndex.lookup(isbn);
+        if (existingId == 0) {
+            // Bloom filter false positive or a row written outside this service. Stored ISBNs keep the
+            // spelling they were entered with, so look up the canonical form kept beside them
+            String sql = "SELECT book_id FROM books WHERE isbn_normalized = ? AND book_id <> ? LIMIT 1";
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setString(1, Isbn.canonicalize(isbn));
+                statement.setInt(2, bookId);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        existingId = resultSet.getInt(1);
+                    }
+                }
+            }
+        }
+        
+        if (existingId != 0 && existingId != bookId) {
+            throw new DuplicateIsbnException(isbn, existingId);
+        }
+    }
+    
+    private Book extractBookFromResultSet(ResultSet resultSet) throws SQLException {
+        int bookId = resultSet.getInt("book_id");
+        String title = resultSet.getString("title");
+        String author = resultSet.getString("author");
+        String isbn = resultSet.getString("isbn");
+        int publicationYear = resultSet.getInt("publication_year");
+        int copiesAvailable = resultSet.getInt("copies_available");
+        
+        Book book = new Book(bookId, title, author, isbn, publicationYear, copiesAvailable);
+        book.setVersion(resultSet.getInt("version"));
+        return book;
+    }
+}
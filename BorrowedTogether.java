@@ -0,0 +1,380 @@
+/**
+ * "Borrowed together" recommendations
+ * Keeps a sparse title co-occurrence matrix, counting the patrons who have
+ * borrowed both titles of each pair within their most recent titles, and the
+ * top neighbours of every title precomputed from it. The matrix is built in
+ * parallel from borrowing_records and then follows new checkouts
+ * incrementally, including titles that age out of a patron's window, so it
+ * always matches a fresh build and lookups never touch the database.
+ */
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class BorrowedTogether implements CirculationListener {
+    // Only the most recent titles of a long history contribute pairs, which bounds the work per patron
+    private static final int MAX_HISTORY = 200;
+
+    private final ConnectionFactory connections;
+    private final int neighbourCount;
+    private final int workers;
+    // Guarded by this: pair counts keyed by book_id, and each patron's distinct titles, oldest first
+    private Map<Integer, IntIntMap> matrix = new HashMap<>();
+    private Map<Integer, int[]> histories = new HashMap<>();
+    // Published per title; replaced, never modified, so readers need no lock
+    private final ConcurrentHashMap<Integer, Neighbours> topNeighbours = new ConcurrentHashMap<>();
+
+    public BorrowedTogether(ConnectionFactory connections, int neighbourCount, int workers) {
+        this.connections = connections;
+        this.neighbourCount = neighbourCount;
+        this.workers = workers;
+    }
+
+    // Recompute the matrix and every title's neighbours from borrowing_records
+    public synchronized void build() throws SQLException {
+        Map<Integer, int[]> loaded = loadHistories();
+        List<int[]> patronTitles = new ArrayList<>(loaded.values());
+
+        // Each worker owns the rows whose book_id falls in its partition, so no row is shared between threads
+        ExecutorService pool = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "borrowed-together-build");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<Integer, IntIntMap> built = new HashMap<>();
+        Map<Integer, Neighbours> ranked = new HashMap<>();
+        try {
+            List<Future<Map<Integer, IntIntMap>>> partitions = new ArrayList<>();
+            for (int partition = 0; partition < workers; partition++) {
+                int owned = partition;
+                partitions.add(pool.submit(() -> countPairs(patronTitles, owned)));
+            }
+            for (Future<Map<Integer, IntIntMap>> partition : partitions) {
+                built.putAll(partition.get());
+            }
+
+            List<Future<Map<Integer, Neighbours>>> rankings = new ArrayList<>();
+            List<Integer> bookIds = new ArrayList<>(built.keySet());
+            int chunk = (bookIds.size() + workers - 1) / Math.max(1, workers);
+            for (int from = 0; from < bookIds.size(); from += chunk) {
+                List<Integer> slice = bookIds.subList(from, Math.min(bookIds.size(), from + chunk));
+                rankings.add(pool.submit(() -> {
+                    Map<Integer, Neighbours> result = new HashMap<>();
+                    for (int bookId : slice) {
+                        result.put(bookId, Neighbours.rank(built.get(bookId), neighbourCount));
+                    }
+                    return result;
+                }));
+            }
+            for (Future<Map<Integer, Neighbours>> ranking : rankings) {
+                ranked.putAll(ranking.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Recommendation build interrupted", e);
+        } catch (ExecutionException e) {
+            throw new SQLException("Recommendation build failed: " + e.getCause(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        matrix = built;
+        histories = loaded;
+        topNeighbours.clear();
+        topNeighbours.putAll(ranked);
+    }
+
+    // Each new title in a patron's history pairs with every title already there. A full history
+    // drops its oldest title first, along with that title's pairs
+    @Override
+    public synchronized void onBorrow(BorrowingRecord record) {
+        int bookId = record.getBookId();
+        int[] titles = histories.get(record.getPatronId());
+        if (titles == null) {
+            histories.put(record.getPatronId(), new int[] {bookId});
+            return;
+        }
+        for (int i = 0; i < titles.length; i++) {
+            if (titles[i] == bookId) {
+                // Borrowed again: now the most recent title, as a rebuild would order it
+                System.arraycopy(titles, i + 1, titles, i, titles.length - i - 1);
+                titles[titles.length - 1] = bookId;
+                return;
+            }
+        }
+
+        int kept = 0;
+        if (titles.length == MAX_HISTORY) {
+            kept = 1;
+            for (int i = 1; i < titles.length; i++) {
+                unpair(titles[0], titles[i]);
+                unpair(titles[i], titles[0]);
+            }
+        }
+        for (int i = kept; i < titles.length; i++) {
+            offer(titles[i], bookId, row(titles[i]).addTo(bookId, 1));
+            offer(bookId, titles[i], row(bookId).addTo(titles[i], 1));
+        }
+
+        int[] updated = Arrays.copyOfRange(titles, kept, titles.length + 1);
+        updated[updated.length - 1] = bookId;
+        histories.put(record.getPatronId(), updated);
+    }
+
+    @Override
+    public void onReturn(BorrowingRecord record) {
+        // A return does not change who has borrowed what
+    }
+
+    // Book IDs most often borrowed by patrons who borrowed this title, most frequent first
+    public int[] getNeighbours(int bookId) {
+        Neighbours neighbours = topNeighbours.get(bookId);
+        return neighbours != null ? neighbours.bookIds.clone() : new int[0];
+    }
+
+    // Number of patrons who have borrowed both titles
+    public synchronized int getCoBorrowCount(int bookId, int otherBookId) {
+        IntIntMap row = matrix.get(bookId);
+        return row != null ? row.get(otherBookId) : 0;
+    }
+
+    // A raised count can only move its title up, so the top list is patched in place
+    private void offer(int bookId, int candidate, int count) {
+        Neighbours current = topNeighbours.get(bookId);
+        if (current == null) {
+            current = Neighbours.EMPTY;
+        }
+        Neighbours next = current.offer(candidate, count, neighbourCount);
+        if (next != current) {
+            topNeighbours.put(bookId, next);
+        }
+    }
+
+    // A lowered count may let a title outside the top list overtake it, so the row is ranked again
+    private void unpair(int bookId, int other) {
+        IntIntMap row = row(bookId);
+        row.addTo(other, -1);
+        Neighbours current = topNeighbours.get(bookId);
+        if (current != null && current.contains(other)) {
+            topNeighbours.put(bookId, Neighbours.rank(row, neighbourCount));
+        }
+    }
+
+    private IntIntMap row(int bookId) {
+        return matrix.computeIfAbsent(bookId, key -> new IntIntMap());
+    }
+
+    private Map<Integer, IntIntMap> countPairs(List<int[]> patronTitles, int partition) {
+        Map<Integer, IntIntMap> rows = new HashMap<>();
+        for (int[] titles : patronTitles) {
+            for (int title : titles) {
+                if (Math.floorMod(title, workers) != partition) {
+                    continue;
+                }
+                IntIntMap row = rows.computeIfAbsent(title, key -> new IntIntMap());
+                for (int other : titles) {
+                    if (other != title) {
+                        row.addTo(other, 1);
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+
+    // Distinct titles per patron, keeping the most recent MAX_HISTORY
+    private Map<Integer, int[]> loadHistories() throws SQLException {
+        Map<Integer, int[]> loaded = new HashMap<>();
+        String sql = "SELECT patron_id, book_id FROM borrowing_records "
+                     + "ORDER BY patron_id, borrow_date DESC, record_id DESC";
+        try (Connection connection = connections.open();
+             Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            StreamingFetch.enable(statement);
+            try (ResultSet resultSet = statement.executeQuery(sql)) {
+                int patronId = 0;
+                IntIntMap seen = new IntIntMap();
+                int[] titles = new int[MAX_HISTORY];
+                int count = 0;
+                while (resultSet.next()) {
+                    int nextPatronId = resultSet.getInt("patron_id");
+                    if (nextPatronId != patronId) {
+                        if (count > 0) {
+                            loaded.put(patronId, reversed(titles, count));
+                        }
+                        patronId = nextPatronId;
+                        seen = new IntIntMap();
+                        count = 0;
+                    }
+                    int bookId = resultSet.getInt("book_id");
+                    if (count < MAX_HISTORY && seen.addTo(bookId, 1) == 1) {
+                        titles[count++] = bookId;
+                    }
+                }
+                if (count > 0) {
+                    loaded.put(patronId, reversed(titles, count));
+                }
+            }
+        }
+        return loaded;
+    }
+
+    private static int[] reversed(int[] titles, int count) {
+        int[] oldestFirst = new int[count];
+        for (int i = 0; i < count; i++) {
+            oldestFirst[i] = titles[count - 1 - i];
+        }
+        return oldestFirst;
+    }
+
+    // A title's top neighbours in rank order; ties go to the lower book_id
+    private static final class Neighbours {
+        static final Neighbours EMPTY = new Neighbours(new int[0], new int[0]);
+
+        final int[] bookIds;
+        final int[] counts;
+
+        Neighbours(int[] bookIds, int[] counts) {
+            this.bookIds = bookIds;
+            this.counts = counts;
+        }
+
+        static Neighbours rank(IntIntMap row, int limit) {
+            Neighbours ranked = EMPTY;
+            int[] keys = row.keys;
+            int[] values = row.values;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0 && values[i] > 0) {
+                    ranked = ranked.offer(keys[i], values[i], limit);
+                }
+            }
+            return ranked;
+        }
+
+        boolean contains(int bookId) {
+            for (int candidate : bookIds) {
+                if (candidate == bookId) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // A copy with the candidate at its new count, or this instance if the top list is unchanged
+        Neighbours offer(int candidate, int count, int limit) {
+            int existing = -1;
+            for (int i = 0; i < bookIds.length; i++) {
+                if (bookIds[i] == candidate) {
+                    existing = i;
+                    break;
+                }
+            }
+            if (existing < 0 && bookIds.length == limit && !outranks(candidate, count, limit - 1)) {
+                return this;
+            }
+
+            int size = existing >= 0 || bookIds.length == limit ? bookIds.length : bookIds.length + 1;
+            int[] nextIds = new int[size];
+            int[] nextCounts = new int[size];
+            int out = 0;
+            boolean placed = false;
+            for (int i = 0; i < bookIds.length && out < size; i++) {
+                if (i == existing) {
+                    continue;
+                }
+                if (!placed && outranks(candidate, count, i)) {
+                    nextIds[out] = candidate;
+                    nextCounts[out++] = count;
+                    placed = true;
+                    if (out == size) {
+                        break;
+                    }
+                }
+                nextIds[out] = bookIds[i];
+                nextCounts[out++] = counts[i];
+            }
+            if (!placed && out < size) {
+                nextIds[out] = candidate;
+                nextCounts[out] = count;
+            }
+            return new Neighbours(nextIds, nextCounts);
+        }
+
+        private boolean outranks(int candidate, int count, int index) {
+            return count > counts[index] || (count == counts[index] && candidate < bookIds[index]);
+        }
+    }
+}
+
+// Open-addressing int-to-int hash map with linear probing; key 0 marks an empty slot
+final class IntIntMap {
+    int[] keys = new int[8];
+    int[] values = new int[8];
+    private int size;
+
+    int get(int key) {
+        int mask = keys.length - 1;
+        for (int slot = mix(key) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        return 0;
+    }
+
+    // Adds delta to the value for key, inserting it at zero first, and returns the new value
+    int addTo(int key, int delta) {
+        if (key == 0) {
+            throw new IllegalArgumentException("Key 0 is reserved");
+        }
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                return values[slot] += delta;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = delta;
+        if (++size * 4 > keys.length * 3) {
+            grow();
+        }
+        return delta;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = mix(oldKeys[i]) & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Borrowing record
+ * One loan of a book to a patron, open until its return date is set.
+ */
+
+import java.time.LocalDate;
+
+class BorrowingRecord {
+    private int recordId;
+    private int bookId;
+    private int patronId;
+    private LocalDate borrowDate;
+    private LocalDate dueDate;
+    private LocalDate returnDate;
+    private int branchId;
+    
+    public BorrowingRecord(int recordId, int bookId, int patronId, LocalDate borrowDate, LocalDate dueDate, LocalDate returnDate) {
+        this.recordId = recordId;
+        this.bookId = bookId;
+        this.patronId = patronId;
+        this.borrowDate = borrowDate;
+        this.dueDate = dueDate;
+        this.returnDate = returnDate;
+    }
+    
+    // Getters and setters
+    public int getRecordId() { return recordId; }
+    public void setRecordId(int recordId) { this.recordId = recordId; }
+
+    public int getBookId() { return bookId; }
+    public void setBookId(int bookId) { this.bookId = bookId; }
+    
+    public int getPatronId() { return patronId; }
+    public void setPatronId(int patronId) { this.patronId = patronId; }
+    
+    public LocalDate getBorrowDate() { return borrowDate; }
+    public void setBorrowDate(LocalDate borrowDate) { this.borrowDate = borrowDate; }
+    
+    public LocalDate getDueDate() { return dueDate; }
+    public void setDueDate(LocalDate dueDate) { this.dueDate = dueDate; }
+    
+    public LocalDate getReturnDate() { return returnDate; }
+    public void setReturnDate(LocalDate returnDate) { this.returnDate = returnDate; }
+    
+    // Lending branch; 0 for loans made outside branch inventory
+    public int getBranchId() { return branchId; }
+    public void setBranchId(int branchId) { this.branchId = branchId; }
+    
+    @Override
+    public String toString() {
+        return "Record ID: " + recordId + " | Book ID: " + bookId + " | Patron ID: " + patronId + 
+               " | Borrow Date: " + borrowDate + " | Due Date: " + dueDate + 
+               " | Return Date: " + (returnDate != null ? returnDate : "Not returned") +
+               (branchId != 0 ? " | Branch ID: " + branchId : "");
+    }
+}
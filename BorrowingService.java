@@ -0,0 +1,527 @@
+/**
+ * Borrowing service
+ * Checkouts, returns and loan queries over borrowing_records; circulation
+ * listeners are told about every committed checkout and return.
+ */
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+class BorrowingService {
+    private static final int ACTIVE_BATCH_INITIAL_CAPACITY = 1024;
+    // Branches tried by a checkout that names none, in case another checkout takes the chosen branch's last copy
+    private static final int ANY_BRANCH_ATTEMPTS = 3;
+    
+    private Connection connection;
+    private List<CirculationListener> listeners = new CopyOnWriteArrayList<>();
+    private BranchInventory branchInventory;
+    private LoanLimits loanLimits;
+    private IdempotencyStore idempotency;
+    private PatronTimelineCache timelineCache;
+    
+    public BorrowingService(Connection connection) {
+        this.connection = connection;
+    }
+    
+    public void addCirculationListener(CirculationListener listener) {
+        listeners.add(listener);
+    }
+    
+    public void setBranchInventory(BranchInventory branchInventory) {
+        this.branchInventory = branchInventory;
+    }
+    
+    public void setLoanLimits(LoanLimits loanLimits) {
+        this.loanLimits = loanLimits;
+    }
+    
+    public void setIdempotencyStore(IdempotencyStore idempotency) {
+        this.idempotency = idempotency;
+    }
+    
+    public void setTimelineCache(PatronTimelineCache timelineCache) {
+        this.timelineCache = timelineCache;
+    }
+    
+    // Create - Take a copy off the shelf and record the loan; returns 0 if no copy is available.
+    // Titles stocked at branches are lent from the branch with the most copies on hand.
+    // Throws LoanLimitExceededException if the patron is at their limit
+    public int borrowBook(BorrowingRecord record) throws SQLException {
+        acquireLoanSlot(record.getPatronId());
+        int recordId = 0;
+        try {
+            recordId = branchInventory != null && branchInventory.hasBranchStock(record.getBookId())
+                ? takeCopyFromAnyBranch(record)
+                : takeCopy(record);
+            return recordId;
+        } finally {
+            if (recordId == 0) {
+                releaseLoanSlot(record.getPatronId());
+            }
+        }
+    }
+    
+    // Create - Checkout under the client's idempotency key; a retry with the same key gets the original
+    // record ID, or 0 again, without taking another copy or writing another loan
+    public int borrowBook(BorrowingRecord record, String idempotencyKey) throws SQLException {
+        if (idempotency == null || idempotencyKey == null) {
+            return borrowBook(record);
+        }
+        int recordId = idempotency.execute("borrow", idempotencyKey, () -> borrowBook(record));
+        if (recordId != 0) {
+            record.setRecordId(recordId);
+        }
+        return recordId;
+    }
+    
+    // The conditional decrement fails instead of overselling; the copy goes back if the loan can't be written
+    private int takeCopy(BorrowingRecord record) throws SQLException {
+        String takeSql = "UPDATE books SET copies_available = copies_available - 1 WHERE book_id = ? AND copies_available > 0";
+        
+        try (PreparedStatement statement = connection.prepareStatement(takeSql)) {
+            statement.setInt(1, record.getBookId());
+            if (statement.executeUpdate() == 0) {
+                return 0;
+            }
+        }
+        
+        try {
+            return insertBorrowingRecord(record);
+        } catch (SQLException | RuntimeException e) {
+            String giveBackSql = "UPDATE books SET copies_available = copies_available + 1 WHERE book_id = ?";
+            try (PreparedStatement statement = connection.prepareStatement(giveBackSql)) {
+                statement.setInt(1, record.getBookId());
+                statement.executeUpdate();
+            }
+            throw e;
+        }
+    }
+    
+    // A branch-stocked title's copies live in its branch rows, so they are never taken from books.copies_available
+    private int takeCopyFromAnyBranch(BorrowingRecord record) throws SQLException {
+        for (int attempt = 0; attempt < ANY_BRANCH_ATTEMPTS; attempt++) {
+            int branchId = branchInventory.chooseBranch(record.getBookId(), 0);
+            if (branchId == 0) {
+                return 0;
+            }
+            int recordId = takeBranchCopy(record, branchId);
+            if (recordId != 0) {
+                return recordId;
+            }
+        }
+        return 0;
+    }
+    
+    private int insertBorrowingRecord(BorrowingRecord record) throws SQLException {
+        String sql = "INSERT INTO borrowing_records (book_id, patron_id, borrow_date, due_date) VALUES (?, ?, ?, ?)";
+        
+        try (PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            statement.setInt(1, record.getBookId());
+            statement.setInt(2, record.getPatronId());
+            statement.setDate(3, Date.valueOf(record.getBorrowDate()));
+            statement.setDate(4, Date.valueOf(record.getDueDate()));
+            
+            int affectedRows = statement.executeUpdate();
+            if (affectedRows == 0) {
+                throw new SQLException("Creating borrowing record failed, no rows affected.");
+            }
+            
+            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                if (generatedKeys.next()) {
+                    int recordId = generatedKeys.getInt(1);
+                    record.setRecordId(recordId);
+                    for (CirculationListener listener : listeners) {
+                        listener.onBorrow(record);
+                    }
+                    return recordId;
+                } else {
+                    throw new SQLException("Creating borrowing record failed, no ID obtained.");
+                }
+            }
+        }
+    }
+    
+    // Update - Return a book
+    public boolean returnBook(int recordId) throws SQLException {
+        // First, get the borrowing record
+        BorrowingRecord record = getBorrowingRecordById(recordId);
+        if (record == null || record.getReturnDate() != null) {
+            return false; // Record doesn't exist or book already returned
+        }
+        
+        // Branch loans go back to their lending branch
+        if (record.getBranchId() != 0) {
+            return completeBranchReturn(record, record.getBranchId());
+        }
+        
+        // Update the borrowing record with return date; only one of two concurrent returns gets the row
+        String updateSql = "UPDATE borrowing_records SET return_date = ? WHERE record_id = ? AND return_date IS NULL";
+        LocalDate returnDate = LocalDate.now();
+        
+        try (PreparedStatement statement = connection.prepareStatement(updateSql)) {
+            statement.setDate(1, Date.valueOf(returnDate));
+            statement.setInt(2, recordId);
+            
+            int affectedRows = statement.executeUpdate();
+            if (affectedRows == 0) {
+                return false;
+            }
+        }
+        releaseLoanSlot(record.getPatronId());
+        
+        // Update the book's available copies
+        String bookSql = "UPDATE books SET copies_available = copies_available + 1 WHERE book_id = ?";
+        
+        try (PreparedStatement statement = connection.prepareStatement(bookSql)) {
+            statement.setInt(1, record.getBookId());
+            statement.executeUpdate();
+        }
+        
+        record.setReturnDate(returnDate);
+        for (CirculationListener listener : listeners) {
+            listener.onReturn(record);
+        }
+        
+        return true;
+    }
+    
+    // Update - Return a book under the client's idempotency key; a retry gets the original outcome
+    public boolean returnBook(int recordId, String idempotencyKey) throws SQLException {
+        if (idempotency == null || idempotencyKey == null) {
+            return returnBook(recordId);
+        }
+        return idempotency.execute("return", idempotencyKey, () -> returnBook(recordId) ? 1 : 0) == 1;
+    }
+    
+    // Create - Borrow a copy held at the given branch; returns 0 if the branch has no copy available.
+    // Only the branch row is locked, so checkouts of one title at different branches don't contend
+    public int borrowBookAtBranch(BorrowingRecord record, int branchId) throws SQLException {
+        if (branchInventory == null) {
+            throw new SQLException("Branch inventory is not configured");
+        }
+        acquireLoanSlot(record.getPatronId());
+        int recordId = 0;
+        try {
+            recordId = takeBranchCopy(record, branchId);
+            return recordId;
+        } finally {
+            if (recordId == 0) {
+                releaseLoanSlot(record.getPatronId());
+            }
+        }
+    }
+    
+    // Create - Branch checkout under the client's idempotency key; a retry gets the original record ID, or 0 again
+    public int borrowBookAtBranch(BorrowingRecord record, int branchId, String idempotencyKey) throws SQLException {
+        if (idempotency == null || idempotencyKey == null) {
+            return borrowBookAtBranch(record, branchId);
+        }
+        int recordId = idempotency.execute("borrow", idempotencyKey, () -> borrowBookAtBranch(record, branchId));
+        if (recordId != 0) {
+            record.setRecordId(recordId);
+            record.setBranchId(branchId);
+        }
+        return recordId;
+    }
+    
+    private int takeBranchCopy(BorrowingRecord record, int branchId) throws SQLException {
+        int bookId = record.getBookId();
+        if (!branchInventory.reserve(bookId, branchId)) {
+            return 0;
+        }
+        
+        String takeSql = "UPDATE book_branch_copies SET copies_available = copies_available - 1 " +
+                         "WHERE book_id = ? AND branch_id = ? AND copies_available > 0";
+        boolean taken;
+        try (PreparedStatement statement = connection.prepareStatement(takeSql)) {
+            statement.setInt(1, bookId);
+            statement.setInt(2, branchId);
+            taken = statement.executeUpdate() > 0;
+        } catch (SQLException e) {
+            branchInventory.release(bookId, branchId);
+            throw e;
+        }
+        if (!taken) {
+            // The in-memory count was ahead of the database; keeping the reservation corrects it
+            return 0;
+        }
+        
+        String sql = "INSERT INTO borrowing_records (book_id, patron_id, borrow_date, due_date, branch_id) VALUES (?, ?, ?, ?, ?)";
+        int recordId;
+        try (PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            statement.setInt(1, bookId);
+            statement.setInt(2, record.getPatronId());
+            statement.setDate(3, Date.valueOf(record.getBorrowDate()));
+            statement.setDate(4, Date.valueOf(record.getDueDate()));
+            statement.setInt(5, branchId);
+            
+            if (statement.executeUpdate() == 0) {
+                throw new SQLException("Creating borrowing record failed, no rows affected.");
+            }
+            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                if (!generatedKeys.next()) {
+                    throw new SQLException("Creating borrowing record failed, no ID obtained.");
+                }
+                recordId = generatedKeys.getInt(1);
+            }
+        } catch (SQLException e) {
+            // Give the copy back to the branch
+            returnCopyToBranch(bookId, branchId);
+            branchInventory.release(bookId, branchId);
+            throw e;
+        }
+        
+        record.setRecordId(recordId);
+        record.setBranchId(branchId);
+        branchInventory.rollUp(bookId, -1);
+        for (CirculationListener listener : listeners) {
+            listener.onBorrow(record);
+        }
+        return recordId;
+    }
+    
+    // Update - Return a book at the given branch, or at its lending branch when branchId is 0.
+    // Copies stay where they are returned, so stock floats between branches. A loan not made at a branch
+    // can't be returned to one: the new branch row would move its title's remaining shelf stock out of reach
+    public boolean returnBookAtBranch(int recordId, int branchId) throws SQLException {
+        BorrowingRecord record = getBorrowingRecordById(recordId);
+        if (record == null || record.getReturnDate() != null) {
+            return false;
+        }
+        if (branchId > 0 && record.getBranchId() == 0) {
+            throw new SQLException("Loan " + recordId + " was not made at a branch; return it without a branch ID");
+        }
+        int targetBranchId = branchId > 0 ? branchId : record.getBranchId();
+        if (targetBranchId == 0) {
+            return returnBook(recordId);
+        }
+        return completeBranchReturn(record, targetBranchId);
+    }
+    
+    // Update - Branch return under the client's idempotency key; a retry gets the original outcome
+    public boolean returnBookAtBranch(int recordId, int branchId, String idempotencyKey) throws SQLException {
+        if (idempotency == null || idempotencyKey == null) {
+            return returnBookAtBranch(recordId, branchId);
+        }
+        return idempotency.execute("return", idempotencyKey, () -> returnBookAtBranch(recordId, branchId) ? 1 : 0) == 1;
+    }
+    
+    // Read - Get borrowing record by ID
+    public BorrowingRecord getBorrowingRecordById(int recordId) throws SQLException {
+        String sql = "SELECT * FROM borrowing_records WHERE record_id = ?";
+        
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, recordId);
+            
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    return extractBorrowingRecordFromResultSet(resultSet);
+                }
+            }
+        }
+        
+        return null;
+    }
+    
+    // Read - Get active borrowings (not returned yet)
+    public List<BorrowingRecord> getActiveBorrowings() throws SQLException {
+        List<BorrowingRecord> records = new ArrayList<>();
+        String sql = "SELECT * FROM borrowing_records WHERE return_date IS NULL";
+        
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            
+            while (resultSet.next()) {
+                records.add(extractBorrowingRecordFromResultSet(resultSet));
+            }
+        }
+        
+        return records;
+    }
+    
+    // Read - Get active borrowings as a columnar batch, grown as rows arrive
+    public LoanBatch getActiveBorrowingsBatch() throws SQLException {
+        String sql = "SELECT record_id, book_id, patron_id, borrow_date, due_date FROM borrowing_records WHERE return_date IS NULL";
+        
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            LoanBatch batch = new LoanBatch(ACTIVE_BATCH_INITIAL_CAPACITY);
+            while (resultSet.next()) {
+                batch.add(resultSet.getInt(1), resultSet.getInt(2), resultSet.getInt(3),
+                          EpochDays.of(resultSet.getDate(4)), EpochDays.of(resultSet.getDate(5)), EpochDays.NONE);
+            }
+            return batch;
+        }
+    }
+    
+    // Read - Get borrowing history for a patron, most recent first
+    public List<BorrowingRecord> getPatronBorrowingHistory(int patronId) throws SQLException {
+        return readBorrowingHistory(patronId, 0, Integer.MAX_VALUE);
+    }
+    
+    // Read - One page of a patron's history, most recent first
+    public List<BorrowingRecord> getPatronBorrowingHistory(int patronId, int offset, int limit) throws SQLException {
+        return readBorrowingHistory(patronId, offset, limit);
+    }
+    
+    // A cache miss loads the patron's whole timeline once; later pages and checkouts are served from it
+    private List<BorrowingRecord> readBorrowingHistory(int patronId, int offset, int limit) throws SQLException {
+        if (timelineCache != null) {
+            List<BorrowingRecord> page = timelineCache.getHistoryPage(patronId, offset, limit);
+            if (page != null) {
+                return page;
+            }
+            long stamp = timelineCache.stamp(patronId);
+            PatronTimeline timeline = readTimeline(patronId);
+            timelineCache.putTimeline(patronId, stamp, timeline);
+            return timeline.page(patronId, offset, limit);
+        }
+        
+        List<BorrowingRecord> records = new ArrayList<>();
+        String sql = "SELECT * FROM borrowing_records WHERE patron_id = ? ORDER BY borrow_date DESC, record_id DESC "
+                     + "LIMIT ? OFFSET ?";
+        
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, patronId);
+            statement.setInt(2, limit);
+            statement.setInt(3, offset);
+            
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    records.add(extractBorrowingRecordFromResultSet(resultSet));
+                }
+            }
+        }
+        
+        return records;
+    }
+    
+    private PatronTimeline readTimeline(int patronId) throws SQLException {
+        PatronTimeline timeline = new PatronTimeline();
+        String sql = "SELECT record_id, book_id, borrow_date, due_date, return_date, branch_id FROM borrowing_records "
+                     + "WHERE patron_id = ? ORDER BY borrow_date, record_id";
+        
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, patronId);
+            
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    timeline.append(resultSet.getInt(1), resultSet.getInt(2), EpochDays.of(resultSet.getDate(3)),
+                                    EpochDays.of(resultSet.getDate(4)), EpochDays.of(resultSet.getDate(5)),
+                                    resultSet.getInt(6));
+                }
+            }
+        }
+        
+        return timeline;
+    }
+    
+    // Read - Loan views: one join returns each loan with its title and patron name
+    private static final String LOAN_VIEW_SQL =
+        "SELECT r.*, b.title, p.first_name, p.last_name FROM borrowing_records r " +
+        "LEFT JOIN books b ON b.book_id = r.book_id " +
+        "LEFT JOIN patrons p ON p.patron_id = r.patron_id ";
+    
+    public LoanView getLoanViewById(int recordId) throws SQLException {
+        List<LoanView> views = queryLoanViews(LOAN_VIEW_SQL + "WHERE r.record_id = ?", recordId);
+        return views.isEmpty() ? null : views.get(0);
+    }
+    
+    public List<LoanView> getActiveLoanViews() throws SQLException {
+        return queryLoanViews(LOAN_VIEW_SQL + "WHERE r.return_date IS NULL");
+    }
+    
+    public List<LoanView> getPatronLoanViews(int patronId) throws SQLException {
+        return queryLoanViews(LOAN_VIEW_SQL + "WHERE r.patron_id = ? ORDER BY r.borrow_date DESC", patronId);
+    }
+    
+    // Helper methods
+    private boolean completeBranchReturn(BorrowingRecord record, int branchId) throws SQLException {
+        if (branchInventory == null) {
+            throw new SQLException("Branch inventory is not configured");
+        }
+        String updateSql = "UPDATE borrowing_records SET return_date = ? WHERE record_id = ? AND return_date IS NULL";
+        LocalDate returnDate = LocalDate.now();
+        
+        try (PreparedStatement statement = connection.prepareStatement(updateSql)) {
+            statement.setDate(1, Date.valueOf(returnDate));
+            statement.setInt(2, record.getRecordId());
+            
+            if (statement.executeUpdate() == 0) {
+                return false;
+            }
+        }
+        releaseLoanSlot(record.getPatronId());
+        
+        returnCopyToBranch(record.getBookId(), branchId);
+        branchInventory.apply(record.getBookId(), branchId, 1);
+        
+        record.setReturnDate(returnDate);
+        for (CirculationListener listener : listeners) {
+            listener.onReturn(record);
+        }
+        return true;
+    }
+    
+    private void acquireLoanSlot(int patronId) throws SQLException {
+        if (loanLimits != null && !loanLimits.tryAcquire(patronId)) {
+            throw new LoanLimitExceededException(patronId, loanLimits.getLimit(patronId));
+        }
+    }
+    
+    private void releaseLoanSlot(int patronId) {
+        if (loanLimits != null) {
+            loanLimits.release(patronId);
+        }
+    }
+    
+    private void returnCopyToBranch(int bookId, int branchId) throws SQLException {
+        String sql = "INSERT INTO book_branch_copies (book_id, branch_id, copies_available) VALUES (?, ?, 1) " +
+                     "ON DUPLICATE KEY UPDATE copies_available = copies_available + 1";
+        
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, bookId);
+            statement.setInt(2, branchId);
+            statement.executeUpdate();
+        }
+    }
+    
+    private List<LoanView> queryLoanViews(String sql, int... parameters) throws SQLException {
+        List<LoanView> views = new ArrayList<>();
+        
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setInt(i + 1, parameters[i]);
+            }
+            
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    BorrowingRecord record = extractBorrowingRecordFromResultSet(resultSet);
+                    String firstName = resultSet.getString("first_name");
+                    String patronName = firstName != null ? firstName + " " + resultSet.getString("last_name") : null;
+                    views.add(new LoanView(record, resultSet.getString("title"), patronName));
+                }
+            }
+        }
+        
+        return views;
+    }
+    
+    private BorrowingRecord extractBorrowingRecordFromResultSet(ResultSet resultSet) throws SQLException {
+        int recordId = resultSet.getInt("record_id");
+        int bookId = resultSet.getInt("book_id");
+        int patronId = resultSet.getInt("patron_id");
+        LocalDate borrowDate = resultSet.getDate("borrow_date").toLocalDate();
+        LocalDate dueDate = resultSet.getDate("due_date").toLocalDate();
+        
+        Date returnDateDb = resultSet.getDate("return_date");
+        LocalDate returnDate = (returnDateDb != null) ? returnDateDb.toLocalDate() : null;
+        
+        BorrowingRecord record = new BorrowingRecord(recordId, bookId, patronId, borrowDate, dueDate, returnDate);
+        record.setBranchId(resultSet.getInt("branch_id"));
+        return record;
+    }
+}
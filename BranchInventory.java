@@ -0,0 +1,255 @@
+/**
+ * Per-branch inventory
+ * Holds copies available per (book_id, branch) in memory, one counter cell per
+ * branch for each title, so "available anywhere" and "available at branch X" are
+ * answered without a query. Checkouts and returns update the branch rows in
+ * book_branch_copies directly; the per-title totals in books.copies_available are
+ * rolled up from accumulated deltas in batches.
+ */
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+class BranchInventory implements AutoCloseable {
+    private Connection connection;
+    // Branch IDs in slot order, and the slot for each branch ID
+    private volatile int[] branchIds = new int[0];
+    private volatile Map<Integer, Integer> slots = Collections.emptyMap();
+    private volatile Map<Integer, String> branchNames = Collections.emptyMap();
+    private ConcurrentHashMap<Integer, AtomicIntegerArray> counters = new ConcurrentHashMap<>();
+    // Unflushed changes to books.copies_available keyed by book_id
+    private ConcurrentHashMap<Integer, Integer> pendingTotals = new ConcurrentHashMap<>();
+    private ScheduledExecutorService flusher;
+
+    // The connection is used only for loading and flushing and should not be shared with the services
+    public BranchInventory(Connection connection) {
+        this.connection = connection;
+    }
+
+    public void load() throws SQLException {
+        Map<Integer, String> names = new LinkedHashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT branch_id, name FROM branches ORDER BY branch_id")) {
+            while (resultSet.next()) {
+                names.put(resultSet.getInt("branch_id"), resultSet.getString("name"));
+            }
+        }
+
+        int[] ids = new int[names.size()];
+        Map<Integer, Integer> slotMap = new HashMap<>();
+        int slot = 0;
+        for (int branchId : names.keySet()) {
+            ids[slot] = branchId;
+            slotMap.put(branchId, slot++);
+        }
+
+        ConcurrentHashMap<Integer, AtomicIntegerArray> loaded = new ConcurrentHashMap<>();
+        try (Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            StreamingFetch.enable(statement);
+            try (ResultSet resultSet = statement.executeQuery(
+                     "SELECT book_id, branch_id, copies_available FROM book_branch_copies")) {
+                while (resultSet.next()) {
+                    Integer branchSlot = slotMap.get(resultSet.getInt("branch_id"));
+                    if (branchSlot != null) {
+                        loaded.computeIfAbsent(resultSet.getInt("book_id"), key -> new AtomicIntegerArray(ids.length))
+                              .set(branchSlot, resultSet.getInt("copies_available"));
+                    }
+                }
+            }
+        }
+
+        branchNames = Collections.unmodifiableMap(names);
+        slots = slotMap;
+        branchIds = ids;
+        counters = loaded;
+    }
+
+    // Roll totals up periodically on a daemon thread
+    public synchronized void start(long periodSeconds) {
+        if (flusher != null) {
+            return;
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "branch-inventory-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (SQLException e) {
+                System.out.println("Branch inventory flush failed: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    public Map<Integer, String> getBranches() {
+        return branchNames;
+    }
+
+    public boolean isKnownBranch(int branchId) {
+        return slots.containsKey(branchId);
+    }
+
+    // Titles with branch stock are checked out through the branch rows rather than books.copies_available
+    public boolean hasBranchStock(int bookId) {
+        return counters.containsKey(bookId);
+    }
+
+    public int getAvailable(int bookId) {
+        AtomicIntegerArray cells = counters.get(bookId);
+        int total = 0;
+        if (cells != null) {
+            for (int i = 0; i < cells.length(); i++) {
+                total += Math.max(0, cells.get(i));
+            }
+        }
+        return total;
+    }
+
+    public int getAvailable(int bookId, int branchId) {
+        AtomicIntegerArray cells = counters.get(bookId);
+        Integer slot = slots.get(branchId);
+        return cells != null && slot != null ? Math.max(0, cells.get(slot)) : 0;
+    }
+
+    // Copies available per branch ID, for branches that have any
+    public Map<Integer, Integer> getAvailabilityByBranch(int bookId) {
+        Map<Integer, Integer> availability = new LinkedHashMap<>();
+        AtomicIntegerArray cells = counters.get(bookId);
+        if (cells != null) {
+            int[] ids = branchIds;
+            for (int i = 0; i < cells.length() && i < ids.length; i++) {
+                if (cells.get(i) > 0) {
+                    availability.put(ids[i], cells.get(i));
+                }
+            }
+        }
+        return availability;
+    }
+
+    // The preferred branch if it has a copy, otherwise the branch with the most copies, starting the scan
+    // at a random branch so checkouts of a busy title spread over the branch rows; 0 if none has a copy
+    public int chooseBranch(int bookId, int preferredBranchId) {
+        if (preferredBranchId > 0 && getAvailable(bookId, preferredBranchId) > 0) {
+            return preferredBranchId;
+        }
+        AtomicIntegerArray cells = counters.get(bookId);
+        int[] ids = branchIds;
+        if (cells == null || ids.length == 0) {
+            return 0;
+        }
+        int best = -1;
+        int bestCopies = 0;
+        int offset = ThreadLocalRandom.current().nextInt(ids.length);
+        for (int i = 0; i < ids.length && i < cells.length(); i++) {
+            int slot = (offset + i) % ids.length;
+            int copies = cells.get(slot);
+            if (copies > bestCopies) {
+                best = slot;
+                bestCopies = copies;
+            }
+        }
+        return best >= 0 ? ids[best] : 0;
+    }
+
+    // Take a copy in memory ahead of the database update; false means the branch certainly has none
+    boolean reserve(int bookId, int branchId) {
+        AtomicIntegerArray cells = counters.get(bookId);
+        Integer slot = slots.get(branchId);
+        if (cells == null || slot == null) {
+            return false;
+        }
+        while (true) {
+            int current = cells.get(slot);
+            if (current <= 0) {
+                return false;
+            }
+            if (cells.compareAndSet(slot, current, current - 1)) {
+                return true;
+            }
+        }
+    }
+
+    // Undo a reservation whose database update failed
+    void release(int bookId, int branchId) {
+        adjustCell(bookId, branchId, 1);
+    }
+
+    // A committed change to a branch row: update the cell and queue the change for the title total
+    void apply(int bookId, int branchId, int delta) {
+        adjustCell(bookId, branchId, delta);
+        rollUp(bookId, delta);
+    }
+
+    // A committed checkout whose copy was already taken by reserve()
+    void rollUp(int bookId, int delta) {
+        pendingTotals.merge(bookId, delta, Integer::sum);
+    }
+
+    // Apply accumulated totals in one transaction; deltas are put back if the write fails
+    public synchronized void flush() throws SQLException {
+        Map<Integer, Integer> totals = new HashMap<>();
+        List<Integer> keys = new ArrayList<>(pendingTotals.keySet());
+        for (Integer bookId : keys) {
+            Integer delta = pendingTotals.remove(bookId);
+            if (delta != null && delta != 0) {
+                totals.put(bookId, delta);
+            }
+        }
+        if (totals.isEmpty()) {
+            return;
+        }
+
+        String sql = "UPDATE books SET copies_available = copies_available + ? WHERE book_id = ?";
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (Map.Entry<Integer, Integer> entry : totals.entrySet()) {
+                statement.setInt(1, entry.getValue());
+                statement.setInt(2, entry.getKey());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            for (Map.Entry<Integer, Integer> entry : totals.entrySet()) {
+                pendingTotals.merge(entry.getKey(), entry.getValue(), Integer::sum);
+            }
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        synchronized (this) {
+            if (flusher != null) {
+                flusher.shutdown();
+                flusher = null;
+            }
+        }
+        flush();
+    }
+
+    private void adjustCell(int bookId, int branchId, int delta) {
+        Integer slot = slots.get(branchId);
+        if (slot != null) {
+            int branchCount = branchIds.length;
+            counters.computeIfAbsent(bookId, key -> new AtomicIntegerArray(branchCount)).addAndGet(slot, delta);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+/**
+ * Catalog listener
+ * Notified by BookService after each committed change to the books table.
+ */
+
+interface CatalogListener {
+    // Called after a book has been inserted and given its ID
+    void onBookAdded(Book book);
+    
+    // Called after title, author, ISBN and year were updated; the book's copy count may be stale
+    void onBookUpdated(Book book);
+    
+    // Called after copies_available was changed by delta without touching the other columns
+    default void onInventoryChanged(int bookId, int delta) {
+    }
+    
+    // Called after a book row has been deleted
+    void onBookDeleted(int bookId);
+}
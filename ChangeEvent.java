@@ -0,0 +1,49 @@
+/**
+ * Change event
+ * A ring buffer slot. Slots are reused, so handlers must copy what they need
+ * before returning; the compact payloads themselves are immutable and may be kept
+ */
+
+final class ChangeEvent {
+    private ChangeType type;
+    private int entityId;
+    private int delta;
+    private long publishedAtNanos;
+    private CompactBook book;
+    private CompactPatron patron;
+    private CompactBorrowingRecord record;
+
+    void set(ChangeType type, int entityId, int delta, CompactBook book, CompactPatron patron,
+             CompactBorrowingRecord record) {
+        this.type = type;
+        this.entityId = entityId;
+        this.delta = delta;
+        this.book = book;
+        this.patron = patron;
+        this.record = record;
+        this.publishedAtNanos = System.nanoTime();
+    }
+
+    public ChangeType getType() { return type; }
+
+    // book_id, patron_id or record_id depending on the type
+    public int getEntityId() { return entityId; }
+
+    // Copy count change for BOOK_INVENTORY_CHANGED
+    public int getDelta() { return delta; }
+
+    public long getPublishedAtNanos() { return publishedAtNanos; }
+
+    public CompactBook getBook() { return book; }
+
+    public CompactPatron getPatron() { return patron; }
+
+    public CompactBorrowingRecord getRecord() { return record; }
+
+    @Override
+    public String toString() {
+        Object payload = book != null ? book : patron != null ? patron : record;
+        return type + " | ID: " + entityId + (type == ChangeType.BOOK_INVENTORY_CHANGED ? " | Delta: " + delta : "")
+               + (payload != null ? " | " + payload : "");
+    }
+}
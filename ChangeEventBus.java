@@ -0,0 +1,272 @@
+/**
+ * Change-data event bus
+ * Publishes a typed event for every committed catalog, patron and circulation
+ * mutation onto a preallocated ring buffer. Producers claim slots with a single
+ * atomic increment and never take a lock; each consumer runs on its own thread,
+ * tracks its own sequence and drains whatever has been published as one batch.
+ * Producers only wait when the slowest consumer is a full ring behind.
+ * Events published before start are held in the ring until the consumers run.
+ * Publishing happens after the change has committed, so events past a full
+ * ring before start, or after close, are dropped and counted rather than
+ * failing the write.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+class ChangeEventBus implements CatalogListener, CirculationListener, PatronListener, AutoCloseable {
+    private static final int MAX_BATCH = 1024;
+
+    private final ChangeEvent[] slots;
+    private final int mask;
+    private final int indexShift;
+    // Lap number of the last publish into each slot, so consumers can tell published slots from claimed ones
+    private final AtomicIntegerArray published;
+    private final Sequence claimed = new Sequence(0);
+    private final WaitStrategy waitStrategy;
+    private final List<EventConsumer> consumers = new ArrayList<>();
+    private final LongAdder dropped = new LongAdder();
+    private volatile Sequence[] gatingSequences = new Sequence[0];
+    private volatile long cachedGatingSequence = -1;
+    private volatile boolean running;
+    private volatile boolean started;
+    private volatile boolean closed;
+
+    public ChangeEventBus(int bufferSize, WaitStrategy waitStrategy) {
+        if (bufferSize < 1 || Integer.bitCount(bufferSize) != 1) {
+            throw new IllegalArgumentException("Buffer size must be a power of two: " + bufferSize);
+        }
+        this.slots = new ChangeEvent[bufferSize];
+        for (int i = 0; i < bufferSize; i++) {
+            slots[i] = new ChangeEvent();
+        }
+        this.mask = bufferSize - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(bufferSize);
+        this.published = new AtomicIntegerArray(bufferSize);
+        for (int i = 0; i < bufferSize; i++) {
+            published.set(i, -1);
+        }
+        this.waitStrategy = waitStrategy;
+    }
+
+    // Consumers see every event published after start, each on its own thread
+    public synchronized void addConsumer(String name, ChangeEventHandler handler) {
+        if (started) {
+            throw new IllegalStateException("Consumers must be added before the bus is started");
+        }
+        consumers.add(new EventConsumer(name, handler));
+    }
+
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        Sequence[] sequences = new Sequence[consumers.size()];
+        for (int i = 0; i < sequences.length; i++) {
+            sequences[i] = consumers.get(i).sequence;
+        }
+        gatingSequences = sequences;
+        running = true;
+        started = true;
+        for (EventConsumer consumer : consumers) {
+            consumer.thread.start();
+        }
+    }
+
+    // Events already published are delivered before the consumer threads exit
+    @Override
+    public void close() {
+        closed = true;
+        running = false;
+        waitStrategy.signalAll();
+        for (EventConsumer consumer : consumers) {
+            try {
+                consumer.thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public long getPublishedCount() {
+        return claimed.get();
+    }
+
+    // Events not published because the bus was closed, or not started with its buffer full
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public List<EventConsumerMetrics> getMetrics() {
+        long head = claimed.get() - 1;
+        List<EventConsumerMetrics> metrics = new ArrayList<>();
+        for (EventConsumer consumer : consumers) {
+            long position = consumer.sequence.get();
+            metrics.add(new EventConsumerMetrics(consumer.name, position + 1, Math.max(0, head - position),
+                                                 consumer.batches, consumer.failures));
+        }
+        return metrics;
+    }
+
+    @Override
+    public void onBookAdded(Book book) {
+        publish(ChangeType.BOOK_ADDED, book.getBookId(), 0, compact(book), null, null);
+    }
+
+    @Override
+    public void onBookUpdated(Book book) {
+        publish(ChangeType.BOOK_UPDATED, book.getBookId(), 0, compact(book), null, null);
+    }
+
+    @Override
+    public void onInventoryChanged(int bookId, int delta) {
+        publish(ChangeType.BOOK_INVENTORY_CHANGED, bookId, delta, null, null, null);
+    }
+
+    @Override
+    public void onBookDeleted(int bookId) {
+        publish(ChangeType.BOOK_DELETED, bookId, 0, null, null, null);
+    }
+
+    @Override
+    public void onPatronAdded(Patron patron) {
+        publish(ChangeType.PATRON_ADDED, patron.getPatronId(), 0, null, compact(patron), null);
+    }
+
+    @Override
+    public void onPatronUpdated(Patron patron) {
+        publish(ChangeType.PATRON_UPDATED, patron.getPatronId(), 0, null, compact(patron), null);
+    }
+
+    @Override
+    public void onPatronDeleted(int patronId) {
+        publish(ChangeType.PATRON_DELETED, patronId, 0, null, null, null);
+    }
+
+    @Override
+    public void onBorrow(BorrowingRecord record) {
+        publish(ChangeType.BOOK_BORROWED, record.getRecordId(), 0, null, null, CompactBorrowingRecord.from(record));
+    }
+
+    @Override
+    public void onReturn(BorrowingRecord record) {
+        publish(ChangeType.BOOK_RETURNED, record.getRecordId(), 0, null, null, CompactBorrowingRecord.from(record));
+    }
+
+    private void publish(ChangeType type, int entityId, int delta, CompactBook book, CompactPatron patron,
+                         CompactBorrowingRecord record) {
+        if (!running) {
+            // Nothing gates the ring before start, so only one ring's worth can be held without overwriting
+            if (closed || claimed.get() >= slots.length) {
+                dropped.increment();
+                return;
+            }
+        }
+        long sequence = next();
+        slots[(int) (sequence & mask)].set(type, entityId, delta, book, patron, record);
+        published.lazySet((int) (sequence & mask), (int) (sequence >>> indexShift));
+        waitStrategy.signalAll();
+    }
+
+    // Claim the next slot, waiting only if it still holds an event some consumer has not seen
+    private long next() {
+        long sequence = claimed.getAndIncrement();
+        long wrapPoint = sequence - slots.length;
+        if (wrapPoint > cachedGatingSequence) {
+            long minimum;
+            while (wrapPoint > (minimum = minimumGatingSequence(sequence - 1)) && running) {
+                LockSupport.parkNanos(1000);
+            }
+            cachedGatingSequence = minimum;
+        }
+        return sequence;
+    }
+
+    private long minimumGatingSequence(long defaultValue) {
+        long minimum = defaultValue;
+        for (Sequence sequence : gatingSequences) {
+            minimum = Math.min(minimum, sequence.get());
+        }
+        return minimum;
+    }
+
+    private boolean isPublished(long sequence) {
+        return published.get((int) (sequence & mask)) == (int) (sequence >>> indexShift);
+    }
+
+    private static CompactBook compact(Book book) {
+        return new CompactBook(book.getBookId(), book.getTitle(), book.getAuthor(), book.getIsbn(),
+                               book.getPublicationYear(), book.getCopiesAvailable());
+    }
+
+    private static CompactPatron compact(Patron patron) {
+        return new CompactPatron(patron.getPatronId(), patron.getFirstName(), patron.getLastName(), patron.getEmail(),
+                                 patron.getPhone(), EpochDays.of(patron.getRegistrationDate()));
+    }
+
+    private class EventConsumer implements Runnable {
+        final String name;
+        final ChangeEventHandler handler;
+        final Sequence sequence = new Sequence(-1);
+        final Thread thread;
+        volatile long batches;
+        volatile long failures;
+
+        EventConsumer(String name, ChangeEventHandler handler) {
+            this.name = name;
+            this.handler = handler;
+            this.thread = new Thread(this, "change-events-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long next = sequence.get() + 1;
+            int idle = 0;
+            while (true) {
+                if (isPublished(next)) {
+                    long end = next;
+                    long limit = next + MAX_BATCH - 1;
+                    while (end < limit && isPublished(end + 1)) {
+                        end++;
+                    }
+                    for (long current = next; current <= end; current++) {
+                        try {
+                            handler.onEvent(slots[(int) (current & mask)], current, current == end);
+                        } catch (RuntimeException e) {
+                            failures++;
+                            System.out.println("Change event consumer " + name + " failed: " + e.getMessage());
+                        }
+                    }
+                    // Releases the whole batch of slots back to producers at once
+                    sequence.lazySet(end);
+                    batches++;
+                    next = end + 1;
+                    idle = 0;
+                } else if (!running) {
+                    return;
+                } else {
+                    idle = waitStrategy.idle(idle);
+                }
+            }
+        }
+    }
+
+    // Sequence counter padded onto its own cache line so consumers and producers don't false-share
+    @SuppressWarnings("unused")
+    private static final class Sequence extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+
+        long p1, p2, p3, p4, p5, p6, p7;
+
+        Sequence(long initialValue) {
+            super(initialValue);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Change event handler
+ * Consumer callback for ChangeEventBus, with adapters onto the listener interfaces.
+ */
+
+interface ChangeEventHandler {
+    // endOfBatch is true for the last event currently available, a good point to flush
+    void onEvent(ChangeEvent event, long sequence, boolean endOfBatch);
+
+    // Adapters that replay events onto the existing listener interfaces
+    static ChangeEventHandler forCatalog(CatalogListener listener) {
+        return (event, sequence, endOfBatch) -> {
+            switch (event.getType()) {
+                case BOOK_ADDED:
+                    listener.onBookAdded(event.getBook().toBook());
+                    break;
+                case BOOK_UPDATED:
+                    listener.onBookUpdated(event.getBook().toBook());
+                    break;
+                case BOOK_INVENTORY_CHANGED:
+                    listener.onInventoryChanged(event.getEntityId(), event.getDelta());
+                    break;
+                case BOOK_DELETED:
+                    listener.onBookDeleted(event.getEntityId());
+                    break;
+                default:
+                    break;
+            }
+        };
+    }
+
+    static ChangeEventHandler forPatrons(PatronListener listener) {
+        return (event, sequence, endOfBatch) -> {
+            switch (event.getType()) {
+                case PATRON_ADDED:
+                    listener.onPatronAdded(event.getPatron().toPatron());
+                    break;
+                case PATRON_UPDATED:
+                    listener.onPatronUpdated(event.getPatron().toPatron());
+                    break;
+                case PATRON_DELETED:
+                    listener.onPatronDeleted(event.getEntityId());
+                    break;
+                default:
+                    break;
+            }
+        };
+    }
+
+    static ChangeEventHandler forCirculation(CirculationListener listener) {
+        return (event, sequence, endOfBatch) -> {
+            switch (event.getType()) {
+                case BOOK_BORROWED:
+                    listener.onBorrow(event.getRecord().toBorrowingRecord());
+                    break;
+                case BOOK_RETURNED:
+                    listener.onReturn(event.getRecord().toBorrowingRecord());
+                    break;
+                default:
+                    break;
+            }
+        };
+    }
+}
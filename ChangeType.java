@@ -0,0 +1,17 @@
+/**
+ * Change types
+ * Kinds of mutation published on the ChangeEventBus.
+ */
+
+enum ChangeType {
+    BOOK_ADDED,
+    // Title, author, ISBN and year changed; the book's copy count is not authoritative
+    BOOK_UPDATED,
+    BOOK_INVENTORY_CHANGED,
+    BOOK_DELETED,
+    PATRON_ADDED,
+    PATRON_UPDATED,
+    PATRON_DELETED,
+    BOOK_BORROWED,
+    BOOK_RETURNED
+}
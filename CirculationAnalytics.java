@@ -0,0 +1,354 @@
+/**
+ * Circulation analytics
+ * Streams borrowing_records once in fixed-size chunks and aggregates each chunk
+ * in parallel with fork/join over primitive arrays. Each worker keeps one set of
+ * accumulators for the whole scan, merged once at the end, so memory stays
+ * bounded by the chunk size and parallelism times the id ranges rather than by
+ * the number of loans.
+ */
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+class CirculationAnalytics {
+    private static final int DEFAULT_CHUNK_SIZE = 1_000_000;
+
+    private Connection connection;
+    private ForkJoinPool pool;
+    private int chunkSize;
+
+    public CirculationAnalytics(Connection connection) {
+        this(connection, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    public CirculationAnalytics(Connection connection, ForkJoinPool pool, int chunkSize) {
+        this.connection = connection;
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    // Run all aggregates in a single pass over borrowing_records
+    public CirculationReport run(int topN, LocalDate asOf) throws SQLException {
+        int maxBookId = queryInt("SELECT COALESCE(MAX(book_id), 0) FROM books");
+        int maxPatronId = queryInt("SELECT COALESCE(MAX(patron_id), 0) FROM patrons");
+
+        // Publication year per book, indexed by book_id
+        int[] bookYear = new int[maxBookId + 1];
+        int minYear = Integer.MAX_VALUE;
+        int maxYear = Integer.MIN_VALUE;
+        try (Statement statement = createStreamingStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT book_id, publication_year FROM books")) {
+            while (resultSet.next()) {
+                int bookId = resultSet.getInt(1);
+                // Books added since the MAX query are left out, like their loans below
+                if (bookId < 0 || bookId >= bookYear.length) {
+                    continue;
+                }
+                int year = resultSet.getInt(2);
+                bookYear[bookId] = year;
+                minYear = Math.min(minYear, year);
+                maxYear = Math.max(maxYear, year);
+            }
+        }
+        if (minYear > maxYear) {
+            minYear = maxYear = 0;
+        }
+
+        // Day range covered by checkouts and returns
+        int firstDay = 0;
+        int lastDay = -1;
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(
+                 "SELECT MIN(borrow_date), MAX(borrow_date), MAX(return_date) FROM borrowing_records")) {
+            if (resultSet.next() && resultSet.getDate(1) != null) {
+                firstDay = (int) resultSet.getDate(1).toLocalDate().toEpochDay();
+                lastDay = (int) resultSet.getDate(2).toLocalDate().toEpochDay();
+                Date lastReturn = resultSet.getDate(3);
+                if (lastReturn != null) {
+                    lastDay = Math.max(lastDay, (int) lastReturn.toLocalDate().toEpochDay());
+                }
+            }
+        }
+
+        Totals totals = new Totals(maxBookId, maxPatronId, minYear, maxYear, firstDay, lastDay);
+        // One accumulator per worker, reused for every chunk; the first is the result itself
+        Totals[] partials = new Totals[Math.max(1, pool.getParallelism())];
+        partials[0] = totals;
+        for (int i = 1; i < partials.length; i++) {
+            partials[i] = totals.emptyCopy();
+        }
+        int asOfDay = (int) asOf.toEpochDay();
+        LoanBatch chunk = new LoanBatch(chunkSize);
+        String sql = "SELECT record_id, book_id, patron_id, borrow_date, due_date, return_date FROM borrowing_records";
+
+        try (Statement statement = createStreamingStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            while (resultSet.next()) {
+                chunk.add(resultSet.getInt(1), resultSet.getInt(2), resultSet.getInt(3),
+                          EpochDays.of(resultSet.getDate(4)), EpochDays.of(resultSet.getDate(5)),
+                          EpochDays.of(resultSet.getDate(6)));
+                if (chunk.isFull()) {
+                    aggregate(chunk, bookYear, asOfDay, partials);
+                    chunk.clear();
+                }
+            }
+        }
+        if (chunk.size() > 0) {
+            aggregate(chunk, bookYear, asOfDay, partials);
+        }
+        for (int i = 1; i < partials.length; i++) {
+            totals.merge(partials[i]);
+        }
+
+        int[] topBookIds = topN(totals.loansPerBook, topN);
+        Map<Integer, String> titles = loadTitles(topBookIds);
+        return new CirculationReport(totals, topBookIds, titles, asOf);
+    }
+
+    private void aggregate(LoanBatch chunk, int[] bookYear, int asOfDay, Totals[] partials) {
+        pool.invoke(new AggregateTask(chunk, 0, chunk.size(), bookYear, asOfDay, partials, 0, partials.length));
+    }
+
+    private Statement createStreamingStatement() throws SQLException {
+        Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        StreamingFetch.enable(statement);
+        return statement;
+    }
+
+    private int queryInt(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+    private Map<Integer, String> loadTitles(int[] bookIds) throws SQLException {
+        Map<Integer, String> titles = new HashMap<>();
+        if (bookIds.length == 0) {
+            return titles;
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT book_id, title FROM books WHERE book_id IN (");
+        for (int i = 0; i < bookIds.length; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(")");
+
+        try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+            for (int i = 0; i < bookIds.length; i++) {
+                statement.setInt(i + 1, bookIds[i]);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    titles.put(resultSet.getInt(1), resultSet.getString(2));
+                }
+            }
+        }
+        return titles;
+    }
+
+    // Indices of the n largest non-zero counts, largest first, using a primitive min-heap
+    static int[] topN(int[] counts, int n) {
+        int[] heap = new int[Math.max(0, n)];
+        int size = 0;
+        for (int id = 0; id < counts.length && n > 0; id++) {
+            if (counts[id] == 0) {
+                continue;
+            }
+            if (size < n) {
+                heap[size] = id;
+                siftUp(heap, size++, counts);
+            } else if (counts[id] > counts[heap[0]]) {
+                heap[0] = id;
+                siftDown(heap, size, counts);
+            }
+        }
+
+        int[] result = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            result[i] = heap[0];
+            heap[0] = heap[i];
+            siftDown(heap, i, counts);
+        }
+        return result;
+    }
+
+    private static void siftUp(int[] heap, int index, int[] counts) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (counts[heap[parent]] <= counts[heap[index]]) {
+                break;
+            }
+            swap(heap, parent, index);
+            index = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, int size, int[] counts) {
+        int index = 0;
+        while (true) {
+            int left = 2 * index + 1;
+            if (left >= size) {
+                break;
+            }
+            int smallest = left;
+            if (left + 1 < size && counts[heap[left + 1]] < counts[heap[left]]) {
+                smallest = left + 1;
+            }
+            if (counts[heap[index]] <= counts[heap[smallest]]) {
+                break;
+            }
+            swap(heap, index, smallest);
+            index = smallest;
+        }
+    }
+
+    private static void swap(int[] array, int i, int j) {
+        int tmp = array[i];
+        array[i] = array[j];
+        array[j] = tmp;
+    }
+
+    // Aggregates a slice of a chunk into a range of the per-worker accumulators, splitting both in step
+    // until each leaf owns exactly one accumulator, so no two leaves write the same arrays
+    static class AggregateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final LoanBatch chunk;
+        private final int from;
+        private final int to;
+        private final int[] bookYear;
+        private final int asOfDay;
+        private final Totals[] partials;
+        private final int firstPartial;
+        private final int partialCount;
+
+        AggregateTask(LoanBatch chunk, int from, int to, int[] bookYear, int asOfDay, Totals[] partials,
+                      int firstPartial, int partialCount) {
+            this.chunk = chunk;
+            this.from = from;
+            this.to = to;
+            this.bookYear = bookYear;
+            this.asOfDay = asOfDay;
+            this.partials = partials;
+            this.firstPartial = firstPartial;
+            this.partialCount = partialCount;
+        }
+
+        @Override
+        protected void compute() {
+            if (partialCount == 1 || to - from <= 1) {
+                Totals totals = partials[firstPartial];
+                for (int i = from; i < to; i++) {
+                    totals.accept(chunk.bookIds[i], chunk.patronIds[i], chunk.borrowDays[i],
+                                  chunk.dueDays[i], chunk.returnDays[i], bookYear, asOfDay);
+                }
+                return;
+            }
+
+            int half = partialCount / 2;
+            int mid = from + (int) ((long) (to - from) * half / partialCount);
+            invokeAll(new AggregateTask(chunk, from, mid, bookYear, asOfDay, partials, firstPartial, half),
+                      new AggregateTask(chunk, mid, to, bookYear, asOfDay, partials, firstPartial + half,
+                                        partialCount - half));
+        }
+    }
+
+    // Primitive accumulators indexed by book_id, patron_id, year offset and day offset
+    static class Totals {
+        final int[] loansPerBook;
+        final int[] loansPerPatron;
+        final int minYear;
+        final long[] loansPerYear;
+        final long[] overduePerYear;
+        final int firstDay;
+        final int[] checkoutsPerDay;
+        final int[] returnsPerDay;
+        long loanCount;
+        long returnedCount;
+        long totalLoanDays;
+        long overdueCount;
+
+        Totals(int maxBookId, int maxPatronId, int minYear, int maxYear, int firstDay, int lastDay) {
+            this.loansPerBook = new int[maxBookId + 1];
+            this.loansPerPatron = new int[maxPatronId + 1];
+            this.minYear = minYear;
+            this.loansPerYear = new long[maxYear - minYear + 1];
+            this.overduePerYear = new long[maxYear - minYear + 1];
+            this.firstDay = firstDay;
+            this.checkoutsPerDay = new int[Math.max(0, lastDay - firstDay + 1)];
+            this.returnsPerDay = new int[Math.max(0, lastDay - firstDay + 1)];
+        }
+
+        Totals emptyCopy() {
+            return new Totals(loansPerBook.length - 1, loansPerPatron.length - 1, minYear,
+                              minYear + loansPerYear.length - 1, firstDay, firstDay + checkoutsPerDay.length - 1);
+        }
+
+        void accept(int bookId, int patronId, int borrowDay, int dueDay, int returnDay, int[] bookYear, int asOfDay) {
+            loanCount++;
+            if (bookId > 0 && bookId < loansPerBook.length) {
+                loansPerBook[bookId]++;
+            }
+            if (patronId > 0 && patronId < loansPerPatron.length) {
+                loansPerPatron[patronId]++;
+            }
+            // The ranges were read before the scan, so loans and returns written since fall outside them
+            int borrowIndex = borrowDay - firstDay;
+            if (borrowIndex >= 0 && borrowIndex < checkoutsPerDay.length) {
+                checkoutsPerDay[borrowIndex]++;
+            }
+
+            boolean overdue;
+            if (returnDay != EpochDays.NONE) {
+                returnedCount++;
+                totalLoanDays += returnDay - borrowDay;
+                int returnIndex = returnDay - firstDay;
+                if (returnIndex >= 0 && returnIndex < returnsPerDay.length) {
+                    returnsPerDay[returnIndex]++;
+                }
+                overdue = returnDay > dueDay;
+            } else {
+                overdue = dueDay < asOfDay;
+            }
+
+            if (overdue) {
+                overdueCount++;
+            }
+            if (bookId > 0 && bookId < bookYear.length) {
+                int yearIndex = bookYear[bookId] - minYear;
+                if (yearIndex >= 0 && yearIndex < loansPerYear.length) {
+                    loansPerYear[yearIndex]++;
+                    if (overdue) {
+                        overduePerYear[yearIndex]++;
+                    }
+                }
+            }
+        }
+
+        void merge(Totals other) {
+            add(loansPerBook, other.loansPerBook);
+            add(loansPerPatron, other.loansPerPatron);
+            add(checkoutsPerDay, other.checkoutsPerDay);
+            add(returnsPerDay, other.returnsPerDay);
+            for (int i = 0; i < loansPerYear.length; i++) {
+                loansPerYear[i] += other.loansPerYear[i];
+                overduePerYear[i] += other.overduePerYear[i];
+            }
+            loanCount += other.loanCount;
+            returnedCount += other.returnedCount;
+            totalLoanDays += other.totalLoanDays;
+            overdueCount += other.overdueCount;
+        }
+
+        private static void add(int[] target, int[] source) {
+            for (int i = 0; i < target.length; i++) {
+                target[i] += source[i];
+            }
+        }
+    }
+}
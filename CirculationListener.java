@@ -0,0 +1,12 @@
+/**
+ * Circulation listener
+ * Notified by BorrowingService after each committed checkout and return.
+ */
+
+interface CirculationListener {
+    // Called after a borrowing record has been inserted
+    void onBorrow(BorrowingRecord record);
+    
+    // Called after a borrowing record has been marked returned
+    void onReturn(BorrowingRecord record);
+}
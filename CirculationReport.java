@@ -0,0 +1,142 @@
+/**
+ * Circulation report
+ * Result of a CirculationAnalytics pass, written out as CSV files or one JSON document
+ */
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Map;
+
+class CirculationReport {
+    private final CirculationAnalytics.Totals totals;
+    private final int[] topBookIds;
+    private final Map<Integer, String> titles;
+    private final LocalDate asOf;
+
+    CirculationReport(CirculationAnalytics.Totals totals, int[] topBookIds, Map<Integer, String> titles, LocalDate asOf) {
+        this.totals = totals;
+        this.topBookIds = topBookIds;
+        this.titles = titles;
+        this.asOf = asOf;
+    }
+
+    public long getLoanCount() { return totals.loanCount; }
+
+    public long getOverdueCount() { return totals.overdueCount; }
+
+    public double getAverageLoanDays() {
+        return totals.returnedCount == 0 ? 0.0 : (double) totals.totalLoanDays / totals.returnedCount;
+    }
+
+    public int[] getTopBookIds() { return topBookIds.clone(); }
+
+    public int getLoansForBook(int bookId) {
+        return bookId >= 0 && bookId < totals.loansPerBook.length ? totals.loansPerBook[bookId] : 0;
+    }
+
+    // One CSV file per aggregate inside the given directory
+    public void writeCsv(Path directory) throws IOException {
+        Files.createDirectories(directory);
+
+        try (BufferedWriter writer = Files.newBufferedWriter(directory.resolve("summary.csv"), StandardCharsets.UTF_8)) {
+            writer.write("as_of,loans,returned,overdue,average_loan_days\n");
+            writer.write(asOf + "," + totals.loanCount + "," + totals.returnedCount + ","
+                         + totals.overdueCount + "," + getAverageLoanDays() + "\n");
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(directory.resolve("top_titles.csv"), StandardCharsets.UTF_8)) {
+            writer.write("rank,book_id,title,loans\n");
+            for (int i = 0; i < topBookIds.length; i++) {
+                int bookId = topBookIds[i];
+                writer.write((i + 1) + "," + bookId + "," + TextFormat.csv(titles.get(bookId)) + ","
+                             + totals.loansPerBook[bookId] + "\n");
+            }
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(directory.resolve("loans_per_patron.csv"), StandardCharsets.UTF_8)) {
+            writer.write("patron_id,loans\n");
+            for (int patronId = 0; patronId < totals.loansPerPatron.length; patronId++) {
+                if (totals.loansPerPatron[patronId] > 0) {
+                    writer.write(patronId + "," + totals.loansPerPatron[patronId] + "\n");
+                }
+            }
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(directory.resolve("overdue_by_year.csv"), StandardCharsets.UTF_8)) {
+            writer.write("publication_year,loans,overdue,overdue_rate\n");
+            for (int i = 0; i < totals.loansPerYear.length; i++) {
+                if (totals.loansPerYear[i] > 0) {
+                    writer.write((totals.minYear + i) + "," + totals.loansPerYear[i] + ","
+                                 + totals.overduePerYear[i] + "," + overdueRate(i) + "\n");
+                }
+            }
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(directory.resolve("daily_circulation.csv"), StandardCharsets.UTF_8)) {
+            writer.write("date,checkouts,returns\n");
+            for (int i = 0; i < totals.checkoutsPerDay.length; i++) {
+                if (totals.checkoutsPerDay[i] > 0 || totals.returnsPerDay[i] > 0) {
+                    writer.write(LocalDate.ofEpochDay(totals.firstDay + i) + "," + totals.checkoutsPerDay[i]
+                                 + "," + totals.returnsPerDay[i] + "\n");
+                }
+            }
+        }
+    }
+
+    // Single JSON document, written incrementally so large sections are never buffered
+    public void writeJson(Writer writer) throws IOException {
+        writer.write("{\"asOf\":\"" + asOf + "\",\"loans\":" + totals.loanCount
+                     + ",\"returned\":" + totals.returnedCount + ",\"overdue\":" + totals.overdueCount
+                     + ",\"averageLoanDays\":" + getAverageLoanDays());
+
+        writer.write(",\"topTitles\":[");
+        for (int i = 0; i < topBookIds.length; i++) {
+            int bookId = topBookIds[i];
+            writer.write((i == 0 ? "" : ",") + "{\"bookId\":" + bookId + ",\"title\":"
+                         + TextFormat.json(titles.get(bookId)) + ",\"loans\":" + totals.loansPerBook[bookId] + "}");
+        }
+
+        writer.write("],\"loansPerPatron\":{");
+        boolean first = true;
+        for (int patronId = 0; patronId < totals.loansPerPatron.length; patronId++) {
+            if (totals.loansPerPatron[patronId] > 0) {
+                writer.write((first ? "\"" : ",\"") + patronId + "\":" + totals.loansPerPatron[patronId]);
+                first = false;
+            }
+        }
+
+        writer.write("},\"overdueByYear\":[");
+        first = true;
+        for (int i = 0; i < totals.loansPerYear.length; i++) {
+            if (totals.loansPerYear[i] > 0) {
+                writer.write((first ? "" : ",") + "{\"year\":" + (totals.minYear + i) + ",\"loans\":"
+                             + totals.loansPerYear[i] + ",\"overdue\":" + totals.overduePerYear[i]
+                             + ",\"rate\":" + overdueRate(i) + "}");
+                first = false;
+            }
+        }
+
+        writer.write("],\"dailyCirculation\":[");
+        first = true;
+        for (int i = 0; i < totals.checkoutsPerDay.length; i++) {
+            if (totals.checkoutsPerDay[i] > 0 || totals.returnsPerDay[i] > 0) {
+                writer.write((first ? "" : ",") + "{\"date\":\"" + LocalDate.ofEpochDay(totals.firstDay + i)
+                             + "\",\"checkouts\":" + totals.checkoutsPerDay[i]
+                             + ",\"returns\":" + totals.returnsPerDay[i] + "}");
+                first = false;
+            }
+        }
+        writer.write("]}\n");
+        writer.flush();
+    }
+
+    private double overdueRate(int yearIndex) {
+        long loans = totals.loansPerYear[yearIndex];
+        return loans == 0 ? 0.0 : (double) totals.overduePerYear[yearIndex] / loans;
+    }
+}
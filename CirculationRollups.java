@@ -0,0 +1,901 @@
+/**
+ * Circulation rollups
+ * Keeps loans, returns, late returns and overdue loan-days per title and for
+ * the whole library in circulation_rollups, so dashboards can chart years of
+ * activity without scanning borrowing_records. Checkouts and returns are
+ * counted in memory and upserted as additive deltas every few seconds. When
+ * a day closes, an indexed query over open and recently returned loans
+ * records how many loans per title were overdue that day, and the library
+ * row is summed from those. Recent days stay as daily rows; older ones are
+ * compacted into weeks, and the oldest into months. Weeks are cut at month
+ * ends, so a month is exactly the sum of its weeks. Title and library rows
+ * also carry a small mergeable sketch of the patrons seen, so distinct
+ * active patrons can be estimated over any range.
+ */
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+class CirculationRollups implements CirculationListener, AutoCloseable {
+    // book_id of the rows covering the whole library
+    public static final int LIBRARY = 0;
+
+    static final int LOANS = 0;
+    static final int RETURNS = 1;
+    static final int OVERDUE_RETURNS = 2;
+    static final int OVERDUE_LOAN_DAYS = 3;
+    static final int COUNTERS = 4;
+
+    private static final int MAX_CATCH_UP_DAYS = 31;
+    private static final int RANGE_SIZE = 10_000;
+    private static final int UPSERT_CHUNK = 1000;
+    private static final int DELETE_CHUNK = 10_000;
+    private static final String UPSERT_SQL =
+        "INSERT INTO circulation_rollups (period, period_start, book_id, loans, returns, overdue_returns, "
+        + "overdue_loan_days) VALUES (?, ?, ?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE loans = loans + VALUES(loans), "
+        + "returns = returns + VALUES(returns), overdue_returns = overdue_returns + VALUES(overdue_returns), "
+        + "overdue_loan_days = overdue_loan_days + VALUES(overdue_loan_days)";
+    private static final String SKETCH_SQL =
+        "INSERT INTO circulation_rollups (period, period_start, book_id, patron_sketch) VALUES (?, ?, ?, ?) "
+        + "ON DUPLICATE KEY UPDATE patron_sketch = VALUES(patron_sketch)";
+
+    private final ConnectionFactory connectionFactory;
+    private final int dailyRetentionDays;
+    private final int weeklyRetentionDays;
+    private final int backfillWorkers;
+    // Unflushed counters keyed by (epoch day, book_id)
+    private final ConcurrentHashMap<Long, int[]> pending = new ConcurrentHashMap<>();
+    // Unflushed patrons seen, keyed by (epoch day, book_id) and (epoch day, LIBRARY)
+    private final ConcurrentHashMap<Long, PatronSketch> pendingPatrons = new ConcurrentHashMap<>();
+    private Connection connection;
+    private ScheduledExecutorService flusher;
+
+    // Days stay daily for dailyRetentionDays and weekly for weeklyRetentionDays, then become months
+    public CirculationRollups(ConnectionFactory connectionFactory, int dailyRetentionDays, int weeklyRetentionDays,
+                              int backfillWorkers) {
+        this.connectionFactory = connectionFactory;
+        // Days being caught up must still be daily rows
+        this.dailyRetentionDays = Math.max(dailyRetentionDays, MAX_CATCH_UP_DAYS + 7);
+        this.weeklyRetentionDays = Math.max(weeklyRetentionDays, this.dailyRetentionDays + 31);
+        this.backfillWorkers = backfillWorkers;
+    }
+
+    // Builds the rollups from the loan history on first use, otherwise closes the days missed while stopped
+    public void load() throws SQLException {
+        if (closedThrough() == null) {
+            System.out.println("Building circulation rollups from loan history...");
+            System.out.println("Circulation rollups: " + backfill());
+        } else {
+            closeDays();
+        }
+    }
+
+    // Flush every periodSeconds; days are closed and compacted on the same thread once the date changes
+    public synchronized void start(long periodSeconds) {
+        if (flusher != null) {
+            return;
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "circulation-rollups");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+                if (closeDays() > 0) {
+                    compact();
+                }
+            } catch (SQLException e) {
+                System.out.println("Circulation rollup flush failed: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void onBorrow(BorrowingRecord record) {
+        int day = (int) record.getBorrowDate().toEpochDay();
+        pending.compute(key(day, record.getBookId()), (key, counters) -> {
+            counters = counters != null ? counters : new int[COUNTERS];
+            counters[LOANS]++;
+            return counters;
+        });
+        addPatron(day, record.getBookId(), record.getPatronId());
+    }
+
+    @Override
+    public void onReturn(BorrowingRecord record) {
+        LocalDate returned = record.getReturnDate() != null ? record.getReturnDate() : LocalDate.now();
+        int day = (int) returned.toEpochDay();
+        boolean late = returned.isAfter(record.getDueDate());
+        pending.compute(key(day, record.getBookId()), (key, counters) -> {
+            counters = counters != null ? counters : new int[COUNTERS];
+            counters[RETURNS]++;
+            if (late) {
+                counters[OVERDUE_RETURNS]++;
+            }
+            return counters;
+        });
+        addPatron(day, record.getBookId(), record.getPatronId());
+    }
+
+    // Add the accumulated deltas to the daily rows in one transaction; they are put back if the write fails
+    public synchronized void flush() throws SQLException {
+        Map<Long, int[]> counters = new HashMap<>();
+        for (Long key : new ArrayList<>(pending.keySet())) {
+            int[] delta = pending.remove(key);
+            if (delta != null) {
+                counters.put(key, delta);
+            }
+        }
+        Map<Long, PatronSketch> patrons = new HashMap<>();
+        for (Long key : new ArrayList<>(pendingPatrons.keySet())) {
+            PatronSketch sketch = pendingPatrons.remove(key);
+            if (sketch != null) {
+                patrons.put(key, sketch);
+            }
+        }
+        if (counters.isEmpty() && patrons.isEmpty()) {
+            return;
+        }
+
+        Map<Integer, int[]> library = new TreeMap<>();
+        for (Map.Entry<Long, int[]> entry : counters.entrySet()) {
+            int[] total = library.computeIfAbsent(dayOf(entry.getKey()), day -> new int[COUNTERS]);
+            for (int i = 0; i < COUNTERS; i++) {
+                total[i] += entry.getValue()[i];
+            }
+        }
+
+        Connection connection = connection();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            try (PreparedStatement statement = connection.prepareStatement(UPSERT_SQL)) {
+                for (Map.Entry<Long, int[]> entry : counters.entrySet()) {
+                    bindUpsert(statement, RollupPeriod.DAY, dayOf(entry.getKey()), bookOf(entry.getKey()),
+                               toLongs(entry.getValue()));
+                    statement.addBatch();
+                }
+                for (Map.Entry<Integer, int[]> entry : library.entrySet()) {
+                    bindUpsert(statement, RollupPeriod.DAY, entry.getKey(), LIBRARY, toLongs(entry.getValue()));
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            for (Map.Entry<Long, PatronSketch> entry : patrons.entrySet()) {
+                mergeSketch(connection, RollupPeriod.DAY, dayOf(entry.getKey()), bookOf(entry.getKey()),
+                            entry.getValue());
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            for (Map.Entry<Long, int[]> entry : counters.entrySet()) {
+                pending.merge(entry.getKey(), entry.getValue(), CirculationRollups::addCounters);
+            }
+            for (Map.Entry<Long, PatronSketch> entry : patrons.entrySet()) {
+                pendingPatrons.merge(entry.getKey(), entry.getValue(), PatronSketch::merge);
+            }
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    // Record the overdue loans of each day that ended since the last close; returns the days closed
+    public synchronized int closeDays() throws SQLException {
+        LocalDate closedThrough = closedThrough();
+        LocalDate yesterday = LocalDate.now().minusDays(1);
+        if (closedThrough == null || !closedThrough.isBefore(yesterday)) {
+            return 0;
+        }
+        LocalDate from = closedThrough.plusDays(1);
+        LocalDate earliest = yesterday.minusDays(MAX_CATCH_UP_DAYS - 1);
+        if (from.isBefore(earliest)) {
+            System.out.println("Circulation rollups: overdue counts before " + earliest
+                               + " were skipped; run a backfill to fill them in");
+            from = earliest;
+        }
+
+        // A loan is overdue on a day after its due date, up to and including the day it comes back.
+        // Only open loans and loans returned since that day qualify, which idx_borrowing_records_return_due
+        // reads as two short ranges instead of scanning the whole history
+        String titleSql = "INSERT INTO circulation_rollups (period, period_start, book_id, overdue_loan_days) "
+                          + "SELECT ?, ?, book_id, COUNT(*) FROM borrowing_records "
+                          + "WHERE (return_date IS NULL OR return_date >= ?) AND due_date < ? GROUP BY book_id "
+                          + "ON DUPLICATE KEY UPDATE overdue_loan_days = VALUES(overdue_loan_days)";
+        // The library row is the sum of the day's title rows
+        String librarySql = "INSERT INTO circulation_rollups (period, period_start, book_id, overdue_loan_days) "
+                            + "SELECT period, period_start, " + LIBRARY + ", SUM(overdue_loan_days) "
+                            + "FROM circulation_rollups WHERE period = ? AND period_start = ? AND book_id <> "
+                            + LIBRARY + " GROUP BY period, period_start "
+                            + "ON DUPLICATE KEY UPDATE overdue_loan_days = VALUES(overdue_loan_days)";
+        Connection connection = connection();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        int closed = 0;
+        try {
+            for (LocalDate day = from; !day.isAfter(yesterday); day = day.plusDays(1)) {
+                try (PreparedStatement statement = connection.prepareStatement(titleSql)) {
+                    statement.setString(1, RollupPeriod.DAY.code);
+                    statement.setDate(2, Date.valueOf(day));
+                    statement.setDate(3, Date.valueOf(day));
+                    statement.setDate(4, Date.valueOf(day));
+                    statement.executeUpdate();
+                }
+                try (PreparedStatement statement = connection.prepareStatement(librarySql)) {
+                    statement.setString(1, RollupPeriod.DAY.code);
+                    statement.setDate(2, Date.valueOf(day));
+                    statement.executeUpdate();
+                }
+                setClosedThrough(connection, day);
+                connection.commit();
+                closed++;
+            }
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        return closed;
+    }
+
+    // Fold days past the daily retention into weeks, and weeks past the weekly retention into months.
+    // Each target bucket is one transaction; returns the buckets written
+    public synchronized int compact() throws SQLException {
+        LocalDate today = LocalDate.now();
+        int compacted = compactTier(RollupPeriod.DAY, RollupPeriod.WEEK, today.minusDays(dailyRetentionDays));
+        compacted += compactTier(RollupPeriod.WEEK, RollupPeriod.MONTH, today.minusDays(weeklyRetentionDays));
+        return compacted;
+    }
+
+    // Buckets of one title, or of the whole library for LIBRARY, overlapping the range, from the rollups alone.
+    // Compacted buckets that reach past either end of the range are included whole and marked partial
+    public synchronized RollupSeries query(int bookId, LocalDate from, LocalDate to) throws SQLException {
+        flush();
+        String sql = "SELECT period, period_start, loans, returns, overdue_returns, overdue_loan_days, patron_sketch "
+                     + "FROM circulation_rollups WHERE book_id = ? AND period_start BETWEEN ? AND ? "
+                     + "ORDER BY period_start";
+        List<RollupBucket> buckets = new ArrayList<>();
+        PatronSketch patrons = null;
+        try (PreparedStatement statement = connection().prepareStatement(sql)) {
+            statement.setInt(1, bookId);
+            // A month bucket starts at most 30 days before any of its days
+            statement.setDate(2, Date.valueOf(from.minusDays(30)));
+            statement.setDate(3, Date.valueOf(to));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    RollupPeriod period = RollupPeriod.of(resultSet.getString(1));
+                    LocalDate start = resultSet.getDate(2).toLocalDate();
+                    LocalDate end = period.end(start);
+                    if (end.isBefore(from)) {
+                        continue;
+                    }
+                    long activePatrons = -1;
+                    byte[] sketchBytes = resultSet.getBytes(7);
+                    if (sketchBytes != null) {
+                        PatronSketch sketch = PatronSketch.fromBytes(sketchBytes);
+                        activePatrons = sketch.estimate();
+                        patrons = patrons != null ? patrons.merge(sketch) : sketch;
+                    }
+                    buckets.add(new RollupBucket(period, start, end, resultSet.getLong(3), resultSet.getLong(4),
+                                                 resultSet.getLong(5), resultSet.getLong(6), activePatrons,
+                                                 start.isBefore(from) || end.isAfter(to)));
+                }
+            }
+        }
+        return new RollupSeries(bookId, from, to, buckets, patrons != null ? patrons.estimate() : -1);
+    }
+
+    // Rebuild every day before today from borrowing_records: book-ID ranges are read in parallel, one title
+    // at a time, and written straight into the tier each day belongs in. Today's rows stay with the listener
+    public synchronized RollupBackfillResult backfill() throws SQLException {
+        long start = System.nanoTime();
+        LocalDate today = LocalDate.now();
+        TierPlan plan = new TierPlan(today, dailyRetentionDays, weeklyRetentionDays);
+
+        Connection connection = connection();
+        try (PreparedStatement statement = connection.prepareStatement(
+                 "DELETE FROM circulation_rollups WHERE period_start < ? LIMIT " + DELETE_CHUNK)) {
+            statement.setDate(1, Date.valueOf(today));
+            while (statement.executeUpdate() == DELETE_CHUNK) {
+                // Short deletes, so live flushes of today's rows are never blocked for long
+            }
+        }
+
+        BackfillTotals totals = new BackfillTotals();
+        int[] bounds = loanBookIdBounds(connection);
+        if (bounds != null) {
+            AtomicLong nextRange = new AtomicLong(bounds[0]);
+            AtomicReference<SQLException> failure = new AtomicReference<>();
+            ExecutorService executor = Executors.newFixedThreadPool(backfillWorkers, backfillThreads());
+            try {
+                for (int i = 0; i < backfillWorkers; i++) {
+                    executor.execute(() -> {
+                        BackfillWorker worker = new BackfillWorker(plan, totals);
+                        try (Connection readConnection = connectionFactory.open();
+                             Connection writeConnection = connectionFactory.open()) {
+                            writeConnection.setAutoCommit(false);
+                            long from;
+                            while (failure.get() == null && (from = nextRange.getAndAdd(RANGE_SIZE)) <= bounds[1]) {
+                                int to = (int) Math.min(from + RANGE_SIZE, Integer.MAX_VALUE);
+                                worker.scanRange(readConnection, writeConnection, (int) from, to);
+                            }
+                            totals.mergeLibrary(worker);
+                        } catch (SQLException e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    });
+                }
+                executor.shutdown();
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    System.out.println("Circulation rollups: backfill still running, " + totals.loans.sum()
+                                       + " loans read...");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Circulation rollup backfill interrupted", e);
+            } finally {
+                executor.shutdownNow();
+            }
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+        }
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            try (PreparedStatement statement = connection.prepareStatement(UPSERT_SQL)) {
+                for (Map.Entry<Long, long[]> entry : totals.library.entrySet()) {
+                    bindUpsert(statement, periodOf(entry.getKey()), startOf(entry.getKey()), LIBRARY, entry.getValue());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            for (Map.Entry<Long, PatronSketch> entry : totals.libraryPatrons.entrySet()) {
+                mergeSketch(connection, periodOf(entry.getKey()), startOf(entry.getKey()), LIBRARY, entry.getValue());
+            }
+            setClosedThrough(connection, today.minusDays(1));
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        return new RollupBackfillResult(totals.loans.sum(), totals.rows.sum() + totals.library.size(),
+                                        System.nanoTime() - start);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        synchronized (this) {
+            if (flusher != null) {
+                flusher.shutdown();
+                flusher = null;
+            }
+        }
+        flush();
+        synchronized (this) {
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+        }
+    }
+
+    private void addPatron(int day, int bookId, int patronId) {
+        for (long bucket : new long[] {key(day, bookId), key(day, LIBRARY)}) {
+            pendingPatrons.compute(bucket, (key, sketch) -> {
+                sketch = sketch != null ? sketch : new PatronSketch();
+                sketch.add(patronId);
+                return sketch;
+            });
+        }
+    }
+
+    private int compactTier(RollupPeriod source, RollupPeriod target, LocalDate cutoff) throws SQLException {
+        Connection connection = connection();
+        List<LocalDate> targets = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                 "SELECT DISTINCT period_start FROM circulation_rollups WHERE period = ? AND period_start < ?")) {
+            statement.setString(1, source.code);
+            statement.setDate(2, Date.valueOf(cutoff));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    LocalDate bucket = target.start(resultSet.getDate(1).toLocalDate());
+                    // Only buckets that have ended before the cutoff; the rest wait for a later run
+                    if (target.end(bucket).isBefore(cutoff) && !targets.contains(bucket)) {
+                        targets.add(bucket);
+                    }
+                }
+            }
+        }
+
+        String sumSql = "INSERT INTO circulation_rollups (period, period_start, book_id, loans, returns, "
+                        + "overdue_returns, overdue_loan_days) SELECT ?, ?, book_id, SUM(loans), SUM(returns), "
+                        + "SUM(overdue_returns), SUM(overdue_loan_days) FROM circulation_rollups "
+                        + "WHERE period = ? AND period_start BETWEEN ? AND ? GROUP BY book_id "
+                        + "ON DUPLICATE KEY UPDATE loans = loans + VALUES(loans), returns = returns + VALUES(returns), "
+                        + "overdue_returns = overdue_returns + VALUES(overdue_returns), "
+                        + "overdue_loan_days = overdue_loan_days + VALUES(overdue_loan_days)";
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            for (LocalDate bucket : targets) {
+                Date first = Date.valueOf(bucket);
+                Date last = Date.valueOf(target.end(bucket));
+                try (PreparedStatement statement = connection.prepareStatement(sumSql)) {
+                    statement.setString(1, target.code);
+                    statement.setDate(2, first);
+                    statement.setString(3, source.code);
+                    statement.setDate(4, first);
+                    statement.setDate(5, last);
+                    statement.executeUpdate();
+                }
+
+                Map<Integer, PatronSketch> patrons = new HashMap<>();
+                try (PreparedStatement statement = connection.prepareStatement(
+                         "SELECT book_id, patron_sketch FROM circulation_rollups WHERE period = ? "
+                         + "AND period_start BETWEEN ? AND ? AND patron_sketch IS NOT NULL")) {
+                    statement.setString(1, source.code);
+                    statement.setDate(2, first);
+                    statement.setDate(3, last);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            patrons.merge(resultSet.getInt(1), PatronSketch.fromBytes(resultSet.getBytes(2)),
+                                          PatronSketch::merge);
+                        }
+                    }
+                }
+                for (Map.Entry<Integer, PatronSketch> entry : patrons.entrySet()) {
+                    mergeSketch(connection, target, (int) bucket.toEpochDay(), entry.getKey(), entry.getValue());
+                }
+
+                try (PreparedStatement statement = connection.prepareStatement(
+                         "DELETE FROM circulation_rollups WHERE period = ? AND period_start BETWEEN ? AND ?")) {
+                    statement.setString(1, source.code);
+                    statement.setDate(2, first);
+                    statement.setDate(3, last);
+                    statement.executeUpdate();
+                }
+                connection.commit();
+            }
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        return targets.size();
+    }
+
+    // The row's sketch is read under a row lock and merged, since sketches don't add in SQL
+    private static void mergeSketch(Connection connection, RollupPeriod period, int startDay, int bookId,
+                                    PatronSketch sketch) throws SQLException {
+        Date start = Date.valueOf(EpochDays.toDate(startDay));
+        PatronSketch merged = sketch;
+        try (PreparedStatement statement = connection.prepareStatement(
+                 "SELECT patron_sketch FROM circulation_rollups WHERE period = ? AND period_start = ? AND book_id = ? "
+                 + "FOR UPDATE")) {
+            statement.setString(1, period.code);
+            statement.setDate(2, start);
+            statement.setInt(3, bookId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next() && resultSet.getBytes(1) != null) {
+                    merged = PatronSketch.fromBytes(resultSet.getBytes(1)).merge(sketch);
+                }
+            }
+        }
+        try (PreparedStatement statement = connection.prepareStatement(SKETCH_SQL)) {
+            bindSketch(statement, period, startDay, bookId, merged);
+            statement.executeUpdate();
+        }
+    }
+
+    private static void bindSketch(PreparedStatement statement, RollupPeriod period, int startDay, int bookId,
+                                   PatronSketch sketch) throws SQLException {
+        statement.setString(1, period.code);
+        statement.setDate(2, Date.valueOf(EpochDays.toDate(startDay)));
+        statement.setInt(3, bookId);
+        statement.setBytes(4, sketch.toBytes());
+    }
+
+    private LocalDate closedThrough() throws SQLException {
+        try (Statement statement = connection().createStatement();
+             ResultSet resultSet = statement.executeQuery(
+                 "SELECT closed_through FROM circulation_rollup_state WHERE id = 1")) {
+            return resultSet.next() ? resultSet.getDate(1).toLocalDate() : null;
+        }
+    }
+
+    private static void setClosedThrough(Connection connection, LocalDate day) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                 "INSERT INTO circulation_rollup_state (id, closed_through) VALUES (1, ?) "
+                 + "ON DUPLICATE KEY UPDATE closed_through = VALUES(closed_through)")) {
+            statement.setDate(1, Date.valueOf(day));
+            statement.executeUpdate();
+        }
+    }
+
+    private static int[] loanBookIdBounds(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT MIN(book_id), MAX(book_id) FROM borrowing_records")) {
+            if (!resultSet.next() || resultSet.getObject(1) == null) {
+                return null;
+            }
+            return new int[] {resultSet.getInt(1), resultSet.getInt(2)};
+        }
+    }
+
+    static void bindUpsert(PreparedStatement statement, RollupPeriod period, int startDay, int bookId, long[] counters)
+            throws SQLException {
+        statement.setString(1, period.code);
+        statement.setDate(2, Date.valueOf(EpochDays.toDate(startDay)));
+        statement.setInt(3, bookId);
+        statement.setLong(4, counters[LOANS]);
+        statement.setLong(5, counters[RETURNS]);
+        statement.setLong(6, counters[OVERDUE_RETURNS]);
+        statement.setLong(7, counters[OVERDUE_LOAN_DAYS]);
+    }
+
+    private static long[] toLongs(int[] counters) {
+        long[] values = new long[COUNTERS];
+        for (int i = 0; i < COUNTERS; i++) {
+            values[i] = counters[i];
+        }
+        return values;
+    }
+
+    private static int[] addCounters(int[] a, int[] b) {
+        for (int i = 0; i < COUNTERS; i++) {
+            a[i] += b[i];
+        }
+        return a;
+    }
+
+    private static long key(int day, int bookId) {
+        return ((long) day << 32) | (bookId & 0xFFFFFFFFL);
+    }
+
+    private static int dayOf(long key) {
+        return (int) (key >> 32);
+    }
+
+    private static int bookOf(long key) {
+        return (int) key;
+    }
+
+    // Backfill buckets are keyed by (start day, period)
+    static long bucketKey(RollupPeriod period, int startDay) {
+        return ((long) startDay << 2) | period.ordinal();
+    }
+
+    static RollupPeriod periodOf(long bucketKey) {
+        return RollupPeriod.values()[(int) (bucketKey & 3)];
+    }
+
+    static int startOf(long bucketKey) {
+        return (int) (bucketKey >> 2);
+    }
+
+    private Connection connection() throws SQLException {
+        if (connection == null || connection.isClosed()) {
+            connection = connectionFactory.open();
+        }
+        return connection;
+    }
+
+    private static java.util.concurrent.ThreadFactory backfillThreads() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "rollup-backfill-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Which tier each past day belongs in as of a given date: the same rule compact() applies over time
+    static final class TierPlan {
+        final int today;
+        private final LocalDate dailyCutoff;
+        private final LocalDate monthlyCutoff;
+
+        TierPlan(LocalDate today, int dailyRetentionDays, int weeklyRetentionDays) {
+            this.today = (int) today.toEpochDay();
+            this.dailyCutoff = today.minusDays(dailyRetentionDays);
+            this.monthlyCutoff = today.minusDays(weeklyRetentionDays);
+        }
+
+        RollupPeriod tierOf(LocalDate day) {
+            if (RollupPeriod.MONTH.end(day).isBefore(monthlyCutoff)) {
+                return RollupPeriod.MONTH;
+            }
+            return RollupPeriod.WEEK.end(day).isBefore(dailyCutoff) ? RollupPeriod.WEEK : RollupPeriod.DAY;
+        }
+    }
+
+    private static final class BackfillTotals {
+        final LongAdder loans = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final Map<Long, long[]> library = new HashMap<>();
+        final Map<Long, PatronSketch> libraryPatrons = new HashMap<>();
+
+        synchronized void mergeLibrary(BackfillWorker worker) {
+            for (Map.Entry<Long, long[]> entry : worker.library.entrySet()) {
+                long[] total = library.computeIfAbsent(entry.getKey(), key -> new long[COUNTERS]);
+                for (int i = 0; i < COUNTERS; i++) {
+                    total[i] += entry.getValue()[i];
+                }
+            }
+            for (Map.Entry<Long, PatronSketch> entry : worker.libraryPatrons.entrySet()) {
+                libraryPatrons.merge(entry.getKey(), entry.getValue(), PatronSketch::merge);
+            }
+        }
+    }
+
+    // Reads a range of titles in book_id order and writes each title's buckets once it has seen all its loans
+    private static final class BackfillWorker {
+        private final TierPlan plan;
+        private final BackfillTotals totals;
+        final Map<Long, long[]> library = new HashMap<>();
+        final Map<Long, PatronSketch> libraryPatrons = new HashMap<>();
+        private final Map<Long, long[]> title = new HashMap<>();
+        private final Map<Long, PatronSketch> titlePatrons = new HashMap<>();
+        private int pendingRows;
+
+        BackfillWorker(TierPlan plan, BackfillTotals totals) {
+            this.plan = plan;
+            this.totals = totals;
+        }
+
+        void scanRange(Connection readConnection, Connection writeConnection, int from, int to) throws SQLException {
+            String sql = "SELECT book_id, patron_id, borrow_date, due_date, return_date FROM borrowing_records "
+                         + "WHERE book_id >= ? AND book_id < ? ORDER BY book_id";
+            try (PreparedStatement statement = readConnection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                                                                               ResultSet.CONCUR_READ_ONLY);
+                 PreparedStatement upsert = writeConnection.prepareStatement(UPSERT_SQL);
+                 PreparedStatement sketches = writeConnection.prepareStatement(SKETCH_SQL)) {
+                StreamingFetch.enable(statement);
+                statement.setInt(1, from);
+                statement.setInt(2, to);
+                int bookId = 0;
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        int rowBookId = resultSet.getInt(1);
+                        if (rowBookId != bookId) {
+                            writeTitle(writeConnection, upsert, sketches, bookId);
+                            bookId = rowBookId;
+                        }
+                        addLoan(resultSet.getInt(2), EpochDays.of(resultSet.getDate(3)),
+                                EpochDays.of(resultSet.getDate(4)), EpochDays.of(resultSet.getDate(5)));
+                        totals.loans.increment();
+                    }
+                }
+                writeTitle(writeConnection, upsert, sketches, bookId);
+                if (pendingRows > 0) {
+                    upsert.executeBatch();
+                    sketches.executeBatch();
+                    writeConnection.commit();
+                    pendingRows = 0;
+                }
+            } catch (SQLException e) {
+                writeConnection.rollback();
+                throw e;
+            }
+        }
+
+        private void addLoan(int patronId, int borrowDay, int dueDay, int returnDay) {
+            if (borrowDay < plan.today) {
+                long bucket = bucketOf(borrowDay);
+                counters(title, bucket)[LOANS]++;
+                counters(library, bucket)[LOANS]++;
+                addPatron(bucket, patronId);
+            }
+            if (returnDay != EpochDays.NONE && returnDay < plan.today) {
+                long bucket = bucketOf(returnDay);
+                counters(title, bucket)[RETURNS]++;
+                counters(library, bucket)[RETURNS]++;
+                if (returnDay > dueDay) {
+                    counters(title, bucket)[OVERDUE_RETURNS]++;
+                    counters(library, bucket)[OVERDUE_RETURNS]++;
+                }
+                addPatron(bucket, patronId);
+            }
+            // Overdue from the day after the due date through the return day, up to yesterday,
+            // added per bucket rather than per day
+            int last = Math.min(returnDay != EpochDays.NONE ? returnDay : Integer.MAX_VALUE, plan.today - 1);
+            for (int day = dueDay + 1; day <= last; ) {
+                LocalDate date = LocalDate.ofEpochDay(day);
+                RollupPeriod period = plan.tierOf(date);
+                long bucket = bucketKey(period, (int) period.start(date).toEpochDay());
+                int end = (int) Math.min(period.end(date).toEpochDay(), last);
+                counters(title, bucket)[OVERDUE_LOAN_DAYS] += end - day + 1;
+                counters(library, bucket)[OVERDUE_LOAN_DAYS] += end - day + 1;
+                day = end + 1;
+            }
+        }
+
+        private void addPatron(long bucket, int patronId) {
+            titlePatrons.computeIfAbsent(bucket, key -> new PatronSketch()).add(patronId);
+            libraryPatrons.computeIfAbsent(bucket, key -> new PatronSketch()).add(patronId);
+        }
+
+        private long bucketOf(int day) {
+            LocalDate date = LocalDate.ofEpochDay(day);
+            RollupPeriod period = plan.tierOf(date);
+            return bucketKey(period, (int) period.start(date).toEpochDay());
+        }
+
+        // A title's buckets are all written here, in one pass, so its sketches can be set rather than merged
+        private void writeTitle(Connection writeConnection, PreparedStatement upsert, PreparedStatement sketches,
+                                int bookId) throws SQLException {
+            for (Map.Entry<Long, long[]> entry : title.entrySet()) {
+                bindUpsert(upsert, periodOf(entry.getKey()), startOf(entry.getKey()), bookId, entry.getValue());
+                upsert.addBatch();
+                PatronSketch patrons = titlePatrons.get(entry.getKey());
+                if (patrons != null) {
+                    bindSketch(sketches, periodOf(entry.getKey()), startOf(entry.getKey()), bookId, patrons);
+                    sketches.addBatch();
+                }
+                totals.rows.increment();
+                if (++pendingRows == UPSERT_CHUNK) {
+                    upsert.executeBatch();
+                    sketches.executeBatch();
+                    writeConnection.commit();
+                    pendingRows = 0;
+                }
+            }
+            title.clear();
+            titlePatrons.clear();
+        }
+
+        private static long[] counters(Map<Long, long[]> buckets, long bucket) {
+            return buckets.computeIfAbsent(bucket, key -> new long[COUNTERS]);
+        }
+    }
+}
+
+// HyperLogLog with 1024 one-byte registers: about 3% error, and two sketches merge by taking register maxima.
+// Most title rows see a handful of patrons, so sketches with few registers set are stored sparsely
+final class PatronSketch {
+    private static final int PRECISION = 10;
+    private static final int REGISTERS = 1 << PRECISION;
+    // Two bytes of register index and one of rank per set register; always shorter than the dense form
+    private static final int SPARSE_ENTRY = 3;
+    private static final int MAX_SPARSE = (REGISTERS - 1) / SPARSE_ENTRY;
+
+    private final byte[] registers;
+
+    PatronSketch() {
+        this.registers = new byte[REGISTERS];
+    }
+
+    private PatronSketch(byte[] registers) {
+        this.registers = registers;
+    }
+
+    static PatronSketch fromBytes(byte[] bytes) {
+        if (bytes == null) {
+            return new PatronSketch();
+        }
+        if (bytes.length == REGISTERS) {
+            return new PatronSketch(bytes.clone());
+        }
+        PatronSketch sketch = new PatronSketch();
+        for (int i = 0; i + SPARSE_ENTRY <= bytes.length; i += SPARSE_ENTRY) {
+            int index = ((bytes[i] & 0xFF) << 8) | (bytes[i + 1] & 0xFF);
+            if (index < REGISTERS) {
+                sketch.registers[index] = bytes[i + 2];
+            }
+        }
+        return sketch;
+    }
+
+    byte[] toBytes() {
+        int set = 0;
+        for (byte register : registers) {
+            if (register != 0) {
+                set++;
+            }
+        }
+        if (set > MAX_SPARSE) {
+            return registers.clone();
+        }
+        byte[] bytes = new byte[set * SPARSE_ENTRY];
+        int offset = 0;
+        for (int index = 0; index < REGISTERS; index++) {
+            if (registers[index] != 0) {
+                bytes[offset++] = (byte) (index >>> 8);
+                bytes[offset++] = (byte) index;
+                bytes[offset++] = registers[index];
+            }
+        }
+        return bytes;
+    }
+
+    void add(int patronId) {
+        long hash = mix(patronId);
+        int index = (int) (hash >>> (64 - PRECISION));
+        // Leading zeros of the remaining bits, capped by a sentinel bit
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    PatronSketch merge(PatronSketch other) {
+        for (int i = 0; i < REGISTERS; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+        return this;
+    }
+
+    long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+        double raw = alpha * REGISTERS * REGISTERS / sum;
+        // Linear counting is more accurate while many registers are still empty
+        if (raw <= 2.5 * REGISTERS && zeros > 0) {
+            return Math.round(REGISTERS * Math.log((double) REGISTERS / zeros));
+        }
+        return Math.round(raw);
+    }
+
+    // SplitMix64 finalizer, so consecutive patron IDs spread over all registers
+    private static long mix(long x) {
+        x += 0x9E3779B97F4A7C15L;
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+}
+
+class RollupBackfillResult {
+    private final long loansRead;
+    private final long rowsWritten;
+    private final long elapsedNanos;
+
+    RollupBackfillResult(long loansRead, long rowsWritten, long elapsedNanos) {
+        this.loansRead = loansRead;
+        this.rowsWritten = rowsWritten;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getLoansRead() { return loansRead; }
+
+    public long getRowsWritten() { return rowsWritten; }
+
+    public long getElapsedNanos() { return elapsedNanos; }
+
+    @Override
+    public String toString() {
+        return "Loans read: " + loansRead + " | Rollup rows written: " + rowsWritten
+               + " | Time: " + String.format("%.2f s", elapsedNanos / 1e9);
+    }
+}
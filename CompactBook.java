@@ -0,0 +1,50 @@
+/**
+ * Compact book
+ * Immutable counterpart of Book for large in-memory working sets.
+ */
+
+final class CompactBook {
+    private final int bookId;
+    private final String title;
+    private final String author;
+    private final String isbn;
+    private final int publicationYear;
+    private final int copiesAvailable;
+
+    public CompactBook(int bookId, String title, String author, String isbn, int publicationYear, int copiesAvailable) {
+        this.bookId = bookId;
+        this.title = title;
+        this.author = author;
+        this.isbn = isbn;
+        this.publicationYear = publicationYear;
+        this.copiesAvailable = copiesAvailable;
+    }
+
+    public static CompactBook from(Book book, StringDictionary authors) {
+        return new CompactBook(book.getBookId(), book.getTitle(), authors.intern(book.getAuthor()), book.getIsbn(),
+                               book.getPublicationYear(), book.getCopiesAvailable());
+    }
+
+    public Book toBook() {
+        return new Book(bookId, title, author, isbn, publicationYear, copiesAvailable);
+    }
+
+    // Getters
+    public int getBookId() { return bookId; }
+
+    public String getTitle() { return title; }
+
+    public String getAuthor() { return author; }
+
+    public String getIsbn() { return isbn; }
+
+    public int getPublicationYear() { return publicationYear; }
+
+    public int getCopiesAvailable() { return copiesAvailable; }
+
+    @Override
+    public String toString() {
+        return "Book ID: " + bookId + " | Title: " + title + " | Author: " + author +
+               " | ISBN: " + isbn + " | Year: " + publicationYear + " | Copies: " + copiesAvailable;
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Compact borrowing record
+ * Immutable counterpart of BorrowingRecord, with dates as epoch days.
+ */
+
+final class CompactBorrowingRecord {
+    private final int recordId;
+    private final int bookId;
+    private final int patronId;
+    private final int borrowDay;
+    private final int dueDay;
+    private final int returnDay;
+
+    public CompactBorrowingRecord(int recordId, int bookId, int patronId, int borrowDay, int dueDay, int returnDay) {
+        this.recordId = recordId;
+        this.bookId = bookId;
+        this.patronId = patronId;
+        this.borrowDay = borrowDay;
+        this.dueDay = dueDay;
+        this.returnDay = returnDay;
+    }
+
+    public static CompactBorrowingRecord from(BorrowingRecord record) {
+        return new CompactBorrowingRecord(record.getRecordId(), record.getBookId(), record.getPatronId(),
+                                          EpochDays.of(record.getBorrowDate()), EpochDays.of(record.getDueDate()),
+                                          EpochDays.of(record.getReturnDate()));
+    }
+
+    public BorrowingRecord toBorrowingRecord() {
+        return new BorrowingRecord(recordId, bookId, patronId, EpochDays.toDate(borrowDay),
+                                   EpochDays.toDate(dueDay), EpochDays.toDate(returnDay));
+    }
+
+    // Getters
+    public int getRecordId() { return recordId; }
+
+    public int getBookId() { return bookId; }
+
+    public int getPatronId() { return patronId; }
+
+    public int getBorrowDay() { return borrowDay; }
+
+    public int getDueDay() { return dueDay; }
+
+    public int getReturnDay() { return returnDay; }
+
+    public boolean isReturned() { return returnDay != EpochDays.NONE; }
+
+    @Override
+    public String toString() {
+        return "Record ID: " + recordId + " | Book ID: " + bookId + " | Patron ID: " + patronId +
+               " | Borrow Date: " + EpochDays.toDate(borrowDay) + " | Due Date: " + EpochDays.toDate(dueDay) +
+               " | Return Date: " + (isReturned() ? EpochDays.toDate(returnDay) : "Not returned");
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Compact patron
+ * Immutable counterpart of Patron, with the registration date as an epoch day.
+ */
+
+import java.time.LocalDate;
+
+final class CompactPatron {
+    private final int patronId;
+    private final String firstName;
+    private final String lastName;
+    private final String email;
+    private final String phone;
+    private final int registrationDay;
+
+    public CompactPatron(int patronId, String firstName, String lastName, String email, String phone, int registrationDay) {
+        this.patronId = patronId;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.email = email;
+        this.phone = phone;
+        this.registrationDay = registrationDay;
+    }
+
+    public static CompactPatron from(Patron patron, StringDictionary names) {
+        return new CompactPatron(patron.getPatronId(), names.intern(patron.getFirstName()),
+                                 names.intern(patron.getLastName()), patron.getEmail(), patron.getPhone(),
+                                 EpochDays.of(patron.getRegistrationDate()));
+    }
+
+    public Patron toPatron() {
+        return new Patron(patronId, firstName, lastName, email, phone, EpochDays.toDate(registrationDay));
+    }
+
+    // Getters
+    public int getPatronId() { return patronId; }
+
+    public String getFirstName() { return firstName; }
+
+    public String getLastName() { return lastName; }
+
+    public String getEmail() { return email; }
+
+    public String getPhone() { return phone; }
+
+    public int getRegistrationDay() { return registrationDay; }
+
+    public LocalDate getRegistrationDate() { return EpochDays.toDate(registrationDay); }
+
+    @Override
+    public String toString() {
+        return "Patron ID: " + patronId + " | Name: " + firstName + " " + lastName +
+               " | Email: " + email + " | Phone: " + phone + " | Registered: " + getRegistrationDate();
+    }
+}
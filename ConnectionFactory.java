@@ -0,0 +1,11 @@
+/**
+ * Connection factory
+ * Opens a new database connection for work that runs on its own thread
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+interface ConnectionFactory {
+    Connection open() throws SQLException;
+}
@@ -0,0 +1,368 @@
+/**
+ * Data export
+ * Streams books, patrons and borrowing_records from a forward-only cursor into
+ * CSV, JSON Lines or a compact binary format. Rows are encoded straight into a
+ * reusable ByteBuffer that is drained to a FileChannel (optionally through gzip),
+ * so no table is ever materialised as a list of objects.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+class DataExporter {
+    public static final String[] TABLES = {"books", "patrons", "borrowing_records"};
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final byte[] BINARY_MAGIC = {'L', 'M', 'S', 'X'};
+    private static final byte BINARY_VERSION = 1;
+
+    private ConnectionFactory connectionFactory;
+
+    public DataExporter(ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    // Export every table in parallel, one connection and one file per table
+    public List<ExportResult> exportAll(Path directory, ExportFormat format, boolean compress)
+            throws SQLException, IOException {
+        Files.createDirectories(directory);
+        ExecutorService executor = Executors.newFixedThreadPool(TABLES.length);
+        try {
+            List<Future<ExportResult>> futures = new ArrayList<>();
+            for (String table : TABLES) {
+                futures.add(executor.submit(() -> {
+                    try (Connection connection = connectionFactory.open()) {
+                        return exportTable(connection, table, directory, format, compress);
+                    }
+                }));
+            }
+
+            List<ExportResult> results = new ArrayList<>();
+            for (Future<ExportResult> future : futures) {
+                results.add(await(future));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public ExportResult exportTable(Connection connection, String table, Path directory,
+                                    ExportFormat format, boolean compress) throws SQLException, IOException {
+        if (!isExportable(table)) {
+            throw new IllegalArgumentException("Unknown table: " + table);
+        }
+
+        Path file = directory.resolve(table + format.getExtension() + (compress ? ".gz" : ""));
+        long start = System.nanoTime();
+        long rows = 0;
+
+        try (Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            StreamingFetch.enable(statement);
+
+            try (ResultSet resultSet = statement.executeQuery("SELECT * FROM " + table);
+                 FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 // Closed even if the export fails, so the deflater's native memory is released
+                 GZIPOutputStream gzip = compress
+                     ? new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE) : null;
+                 RowEncoder encoder = new RowEncoder(channel, gzip)) {
+
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                int columnCount = metaData.getColumnCount();
+                String[] names = new String[columnCount];
+                ColumnKind[] kinds = new ColumnKind[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    names[i] = metaData.getColumnLabel(i + 1);
+                    kinds[i] = ColumnKind.of(metaData.getColumnType(i + 1));
+                }
+
+                writeHeader(encoder, format, names, kinds);
+                while (resultSet.next()) {
+                    writeRow(encoder, format, resultSet, names, kinds);
+                    rows++;
+                }
+                if (format == ExportFormat.BINARY) {
+                    encoder.putByte((byte) 0); // end-of-rows marker
+                }
+
+                encoder.finish();
+                return new ExportResult(table, file, rows, encoder.getEncodedBytes(), channel.size(),
+                                        System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static boolean isExportable(String table) {
+        for (String name : TABLES) {
+            if (name.equals(table)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeHeader(RowEncoder encoder, ExportFormat format, String[] names, ColumnKind[] kinds)
+            throws IOException {
+        switch (format) {
+            case CSV:
+                for (int i = 0; i < names.length; i++) {
+                    if (i > 0) {
+                        encoder.putByte((byte) ',');
+                    }
+                    encoder.putString(TextFormat.csv(names[i]));
+                }
+                encoder.putByte((byte) '\n');
+                break;
+            case BINARY:
+                encoder.putBytes(BINARY_MAGIC);
+                encoder.putByte(BINARY_VERSION);
+                encoder.putVarInt(names.length);
+                for (int i = 0; i < names.length; i++) {
+                    encoder.putLengthPrefixed(names[i]);
+                    encoder.putByte((byte) kinds[i].ordinal());
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void writeRow(RowEncoder encoder, ExportFormat format, ResultSet resultSet, String[] names,
+                          ColumnKind[] kinds) throws SQLException, IOException {
+        switch (format) {
+            case CSV:
+                for (int i = 0; i < names.length; i++) {
+                    if (i > 0) {
+                        encoder.putByte((byte) ',');
+                    }
+                    String value = resultSet.getString(i + 1);
+                    encoder.putString(kinds[i] == ColumnKind.TEXT ? TextFormat.csv(value) : (value != null ? value : ""));
+                }
+                encoder.putByte((byte) '\n');
+                break;
+            case JSON_LINES:
+                encoder.putByte((byte) '{');
+                for (int i = 0; i < names.length; i++) {
+                    String value = resultSet.getString(i + 1);
+                    encoder.putString((i > 0 ? ",\"" : "\"") + names[i] + "\":");
+                    if (value == null) {
+                        encoder.putString("null");
+                    } else if (kinds[i] == ColumnKind.INT || kinds[i] == ColumnKind.LONG) {
+                        encoder.putString(value);
+                    } else {
+                        encoder.putString(TextFormat.json(value));
+                    }
+                }
+                encoder.putString("}\n");
+                break;
+            case BINARY:
+                encoder.putByte((byte) 1); // row marker
+                for (int i = 0; i < names.length; i++) {
+                    writeBinaryValue(encoder, resultSet, i + 1, kinds[i]);
+                }
+                break;
+        }
+    }
+
+    // Each value is a presence byte followed by a fixed-width or length-prefixed payload
+    private void writeBinaryValue(RowEncoder encoder, ResultSet resultSet, int column, ColumnKind kind)
+            throws SQLException, IOException {
+        switch (kind) {
+            case INT: {
+                int value = resultSet.getInt(column);
+                if (resultSet.wasNull()) {
+                    encoder.putByte((byte) 0);
+                } else {
+                    encoder.putByte((byte) 1);
+                    encoder.putInt(value);
+                }
+                break;
+            }
+            case LONG: {
+                long value = resultSet.getLong(column);
+                if (resultSet.wasNull()) {
+                    encoder.putByte((byte) 0);
+                } else {
+                    encoder.putByte((byte) 1);
+                    encoder.putLong(value);
+                }
+                break;
+            }
+            case DATE: {
+                Date value = resultSet.getDate(column);
+                if (value == null) {
+                    encoder.putByte((byte) 0);
+                } else {
+                    encoder.putByte((byte) 1);
+                    encoder.putInt((int) value.toLocalDate().toEpochDay());
+                }
+                break;
+            }
+            default: {
+                String value = resultSet.getString(column);
+                if (value == null) {
+                    encoder.putByte((byte) 0);
+                } else {
+                    encoder.putByte((byte) 1);
+                    encoder.putLengthPrefixed(value);
+                }
+                break;
+            }
+        }
+    }
+
+    private static ExportResult await(Future<ExportResult> future) throws SQLException, IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Export failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    enum ColumnKind {
+        INT, LONG, DATE, TEXT;
+
+        static ColumnKind of(int sqlType) {
+            switch (sqlType) {
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                    return INT;
+                case Types.BIGINT:
+                    return LONG;
+                case Types.DATE:
+                    return DATE;
+                default:
+                    return TEXT;
+            }
+        }
+    }
+
+    // Encodes into one reusable buffer and drains it to the channel whenever it fills up
+    static class RowEncoder implements AutoCloseable {
+        private final FileChannel channel;
+        private final GZIPOutputStream compressed;
+        private final ByteBuffer buffer;
+        private long encodedBytes;
+
+        // compressed is null for uncompressed output
+        RowEncoder(FileChannel channel, GZIPOutputStream compressed) {
+            this.channel = channel;
+            this.compressed = compressed;
+            if (compressed != null) {
+                // gzip needs a backing array; without compression a direct buffer avoids a copy on write
+                this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            } else {
+                this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            }
+        }
+
+        void putByte(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putVarInt(int value) throws IOException {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void putString(String value) throws IOException {
+            putBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void putLengthPrefixed(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putVarInt(bytes.length);
+            putBytes(bytes);
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        long getEncodedBytes() {
+            return encodedBytes + buffer.position();
+        }
+
+        void finish() throws IOException {
+            drain();
+            if (compressed != null) {
+                compressed.flush();
+                compressed.finish();
+            }
+            channel.force(false);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                drain();
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            encodedBytes += buffer.remaining();
+            if (compressed != null) {
+                compressed.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            } else {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // The channel and gzip stream are owned and closed by the caller
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Drift report
+ * Outcome of one InventoryReconciler pass.
+ */
+
+import java.util.List;
+
+class DriftReport {
+    private final long scanned;
+    private final long drifted;
+    private final long absoluteDrift;
+    private final long overcommitted;
+    private final long unrecorded;
+    private final long deferred;
+    private final int repaired;
+    private final int totalsRecorded;
+    private final int changedSinceScan;
+    private final List<TitleDrift> largestDrifts;
+    private final long elapsedNanos;
+
+    DriftReport(long scanned, long drifted, long absoluteDrift, long overcommitted, long unrecorded, long deferred,
+                int repaired, int totalsRecorded, int changedSinceScan, List<TitleDrift> largestDrifts,
+                long elapsedNanos) {
+        this.scanned = scanned;
+        this.drifted = drifted;
+        this.absoluteDrift = absoluteDrift;
+        this.overcommitted = overcommitted;
+        this.unrecorded = unrecorded;
+        this.deferred = deferred;
+        this.repaired = repaired;
+        this.totalsRecorded = totalsRecorded;
+        this.changedSinceScan = changedSinceScan;
+        this.largestDrifts = largestDrifts;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getScanned() { return scanned; }
+
+    public long getDrifted() { return drifted; }
+
+    // Sum of |available - expected| over drifted titles
+    public long getAbsoluteDrift() { return absoluteDrift; }
+
+    // Titles with more active loans than total copies; never repaired automatically
+    public long getOvercommitted() { return overcommitted; }
+
+    public long getUnrecorded() { return unrecorded; }
+
+    // Titles beyond what one run holds; the next run picks them up
+    public long getDeferred() { return deferred; }
+
+    public int getRepaired() { return repaired; }
+
+    public int getTotalsRecorded() { return totalsRecorded; }
+
+    // Titles that moved between the scan and the repair; checked again by the next run
+    public int getChangedSinceScan() { return changedSinceScan; }
+
+    // Drifted titles ordered by the size of their drift
+    public List<TitleDrift> getLargestDrifts() { return largestDrifts; }
+
+    public long getElapsedNanos() { return elapsedNanos; }
+
+    public String getSummary() {
+        return "Titles scanned: " + scanned + " | Drifted: " + drifted + " (total " + absoluteDrift + " copies)"
+               + " | Repaired: " + repaired + " | Totals recorded: " + totalsRecorded
+               + " | Changed since scan: " + changedSinceScan + " | Overcommitted: " + overcommitted
+               + (deferred > 0 ? " | Deferred: " + deferred : "")
+               + " | Time: " + String.format("%.2f s", elapsedNanos / 1e9);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder(getSummary());
+        for (TitleDrift drift : largestDrifts) {
+            report.append(System.lineSeparator()).append("  ").append(drift);
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,20 @@
+/**
+ * Duplicate ISBN
+ * Raised when a book would take an ISBN that another book already holds.
+ */
+
+import java.sql.*;
+
+class DuplicateIsbnException extends SQLException {
+    private static final long serialVersionUID = 1L;
+    
+    private final int existingBookId;
+    
+    public DuplicateIsbnException(String isbn, int existingBookId) {
+        // SQLState 23000 matches the integrity-constraint violation the insert would have raised
+        super("ISBN " + isbn + " is already used by book ID " + existingBookId, "23000");
+        this.existingBookId = existingBookId;
+    }
+    
+    public int getExistingBookId() { return existingBookId; }
+}
@@ -0,0 +1,25 @@
+/**
+ * Epoch days
+ * Epoch-day conversions with a sentinel for missing dates
+ */
+
+import java.time.LocalDate;
+
+final class EpochDays {
+    public static final int NONE = Integer.MIN_VALUE;
+
+    private EpochDays() {
+    }
+
+    public static int of(LocalDate date) {
+        return date != null ? (int) date.toEpochDay() : NONE;
+    }
+
+    public static int of(java.sql.Date date) {
+        return date != null ? (int) date.toLocalDate().toEpochDay() : NONE;
+    }
+
+    public static LocalDate toDate(int epochDay) {
+        return epochDay != NONE ? LocalDate.ofEpochDay(epochDay) : null;
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * Event consumer metrics
+ * Progress and lag of one ChangeEventBus consumer.
+ */
+
+class EventConsumerMetrics {
+    private final String name;
+    private final long processed;
+    private final long lag;
+    private final long batches;
+    private final long failures;
+
+    EventConsumerMetrics(String name, long processed, long lag, long batches, long failures) {
+        this.name = name;
+        this.processed = processed;
+        this.lag = lag;
+        this.batches = batches;
+        this.failures = failures;
+    }
+
+    public String getName() { return name; }
+
+    public long getProcessed() { return processed; }
+
+    public long getLag() { return lag; }
+
+    public long getBatches() { return batches; }
+
+    public long getFailures() { return failures; }
+
+    @Override
+    public String toString() {
+        return "Consumer " + name + " | Processed: " + processed + " | Lag: " + lag + " | Batches: " + batches
+               + " | Failures: " + failures;
+    }
+}
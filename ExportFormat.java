@@ -0,0 +1,20 @@
+/**
+ * Export formats
+ * File formats written by DataExporter.
+ */
+
+enum ExportFormat {
+    CSV(".csv"),
+    JSON_LINES(".jsonl"),
+    BINARY(".bin");
+
+    private final String extension;
+
+    ExportFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+}
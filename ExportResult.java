@@ -0,0 +1,47 @@
+/**
+ * Export result
+ * Rows, bytes and time taken to export one table.
+ */
+
+import java.nio.file.Path;
+
+class ExportResult {
+    private final String table;
+    private final Path file;
+    private final long rows;
+    private final long encodedBytes;
+    private final long fileBytes;
+    private final long elapsedNanos;
+
+    ExportResult(String table, Path file, long rows, long encodedBytes, long fileBytes, long elapsedNanos) {
+        this.table = table;
+        this.file = file;
+        this.rows = rows;
+        this.encodedBytes = encodedBytes;
+        this.fileBytes = fileBytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public String getTable() { return table; }
+
+    public Path getFile() { return file; }
+
+    public long getRows() { return rows; }
+
+    public long getEncodedBytes() { return encodedBytes; }
+
+    public long getFileBytes() { return fileBytes; }
+
+    public long getElapsedNanos() { return elapsedNanos; }
+
+    // Throughput of encoded (uncompressed) output
+    public double getMegabytesPerSecond() {
+        return elapsedNanos == 0 ? 0.0 : (encodedBytes / (1024.0 * 1024.0)) / (elapsedNanos / 1_000_000_000.0);
+    }
+
+    @Override
+    public String toString() {
+        return "Table: " + table + " | Rows: " + rows + " | Bytes: " + encodedBytes + " | File bytes: " + fileBytes
+               + " | Time: " + elapsedNanos / 1_000_000 + " ms | " + String.format("%.1f MB/s", getMegabytesPerSecond());
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Facet query
+ * Author, year-range and availability filters for a FacetedCatalogIndex search,
+ * plus the page of matching IDs to return.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+class FacetQuery {
+    private List<String> authors = new ArrayList<>();
+    private Integer yearFrom;
+    private Integer yearTo;
+    private boolean availableOnly;
+    private int authorFacetLimit = 10;
+    private int offset;
+    private int limit = 20;
+
+    // Books by any of the added authors match
+    public FacetQuery addAuthor(String author) {
+        authors.add(author);
+        return this;
+    }
+
+    public FacetQuery setYearRange(int yearFrom, int yearTo) {
+        this.yearFrom = yearFrom;
+        this.yearTo = yearTo;
+        return this;
+    }
+
+    public FacetQuery setAvailableOnly(boolean availableOnly) {
+        this.availableOnly = availableOnly;
+        return this;
+    }
+
+    public FacetQuery setAuthorFacetLimit(int authorFacetLimit) {
+        this.authorFacetLimit = authorFacetLimit;
+        return this;
+    }
+
+    // Which matching book IDs to return, counted in ascending ID order
+    public FacetQuery setPage(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Page offset and limit must not be negative: " + offset + ", " + limit);
+        }
+        this.offset = offset;
+        this.limit = limit;
+        return this;
+    }
+
+    public List<String> getAuthors() { return authors; }
+
+    public boolean hasYearRange() { return yearFrom != null && yearTo != null; }
+
+    public int getYearFrom() { return yearFrom; }
+
+    public int getYearTo() { return yearTo; }
+
+    public boolean isAvailableOnly() { return availableOnly; }
+
+    public int getAuthorFacetLimit() { return authorFacetLimit; }
+
+    public int getOffset() { return offset; }
+
+    public int getLimit() { return limit; }
+}
@@ -0,0 +1,35 @@
+/**
+ * Facet result
+ * One page of matching book IDs with the total, available and per-facet counts.
+ */
+
+import java.util.Map;
+import java.util.SortedMap;
+
+class FacetResult {
+    private final int[] bookIds;
+    private final int totalCount;
+    private final int availableCount;
+    private final SortedMap<Integer, Integer> yearCounts;
+    private final Map<String, Integer> authorCounts;
+
+    FacetResult(int[] bookIds, int totalCount, int availableCount, SortedMap<Integer, Integer> yearCounts,
+                Map<String, Integer> authorCounts) {
+        this.bookIds = bookIds;
+        this.totalCount = totalCount;
+        this.availableCount = availableCount;
+        this.yearCounts = yearCounts;
+        this.authorCounts = authorCounts;
+    }
+
+    // The requested page of matching book IDs, in ascending order
+    public int[] getBookIds() { return bookIds; }
+
+    public int getTotalCount() { return totalCount; }
+
+    public int getAvailableCount() { return availableCount; }
+
+    public SortedMap<Integer, Integer> getYearCounts() { return yearCounts; }
+
+    public Map<String, Integer> getAuthorCounts() { return authorCounts; }
+}
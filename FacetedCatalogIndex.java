@@ -0,0 +1,245 @@
+/**
+ * Faceted catalog index
+ * In-memory compressed bitmaps of book_ids per author, per publication year and
+ * for "available now", kept in sync through the book and circulation listeners.
+ * Filter combinations are answered with bitmap AND/OR and facet counts with
+ * AND-cardinality, without touching the database.
+ */
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+class FacetedCatalogIndex implements CatalogListener, CirculationListener {
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final RoaringBitmap allBooks = new RoaringBitmap();
+    private final RoaringBitmap available = new RoaringBitmap();
+    private final Map<String, RoaringBitmap> byAuthor = new HashMap<>();
+    private final Map<String, String> authorNames = new HashMap<>();
+    private final TreeMap<Integer, RoaringBitmap> byYear = new TreeMap<>();
+    private final Map<Integer, IndexedBook> books = new HashMap<>();
+
+    // Build the index from the current catalog
+    public void load(BookService bookService) throws SQLException {
+        BookBatch batch = bookService.getAllBooksBatch(new StringDictionary());
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                index(batch.getBookId(i), batch.getAuthor(i), batch.getPublicationYear(i), batch.getCopiesAvailable(i));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public FacetResult search(FacetQuery query) {
+        lock.readLock().lock();
+        try {
+            RoaringBitmap result = allBooks;
+
+            if (!query.getAuthors().isEmpty()) {
+                RoaringBitmap authors = new RoaringBitmap();
+                for (String author : query.getAuthors()) {
+                    RoaringBitmap bitmap = byAuthor.get(authorKey(author));
+                    if (bitmap != null) {
+                        authors = RoaringBitmap.or(authors, bitmap);
+                    }
+                }
+                result = RoaringBitmap.and(result, authors);
+            }
+
+            if (query.hasYearRange()) {
+                RoaringBitmap years = new RoaringBitmap();
+                if (query.getYearFrom() <= query.getYearTo()) {
+                    for (RoaringBitmap bitmap : byYear.subMap(query.getYearFrom(), true, query.getYearTo(), true).values()) {
+                        years = RoaringBitmap.or(years, bitmap);
+                    }
+                }
+                result = RoaringBitmap.and(result, years);
+            }
+
+            if (query.isAvailableOnly()) {
+                result = RoaringBitmap.and(result, available);
+            }
+
+            // Only the requested page is expanded to IDs; the total comes from the container cardinalities
+            return new FacetResult(result.toArray(query.getOffset(), query.getLimit()), result.cardinality(),
+                                   RoaringBitmap.andCardinality(result, available),
+                                   countYears(result), countAuthors(result, query.getAuthorFacetLimit()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void onBookAdded(Book book) {
+        lock.writeLock().lock();
+        try {
+            unindex(book.getBookId());
+            index(book.getBookId(), book.getAuthor(), book.getPublicationYear(), book.getCopiesAvailable());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onBookUpdated(Book book) {
+        lock.writeLock().lock();
+        try {
+            // Keep the tracked copy count; inventory arrives through onInventoryChanged and onReturn
+            IndexedBook previous = books.get(book.getBookId());
+            int copiesAvailable = previous != null ? previous.copiesAvailable : book.getCopiesAvailable();
+            unindex(book.getBookId());
+            index(book.getBookId(), book.getAuthor(), book.getPublicationYear(), copiesAvailable);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onInventoryChanged(int bookId, int delta) {
+        lock.writeLock().lock();
+        try {
+            adjustCopies(bookId, delta);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onBookDeleted(int bookId) {
+        lock.writeLock().lock();
+        try {
+            unindex(bookId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onBorrow(BorrowingRecord record) {
+        // Checkouts take their copy inside BorrowingService, so it is counted here rather than by onInventoryChanged
+        lock.writeLock().lock();
+        try {
+            adjustCopies(record.getBookId(), -1);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onReturn(BorrowingRecord record) {
+        lock.writeLock().lock();
+        try {
+            adjustCopies(record.getBookId(), 1);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void adjustCopies(int bookId, int delta) {
+        IndexedBook book = books.get(bookId);
+        if (book != null) {
+            book.copiesAvailable += delta;
+            if (book.copiesAvailable > 0) {
+                available.add(bookId);
+            } else {
+                available.remove(bookId);
+            }
+        }
+    }
+
+    private void index(int bookId, String author, int year, int copiesAvailable) {
+        String key = authorKey(author);
+        books.put(bookId, new IndexedBook(key, year, copiesAvailable));
+        allBooks.add(bookId);
+        byAuthor.computeIfAbsent(key, k -> new RoaringBitmap()).add(bookId);
+        authorNames.putIfAbsent(key, author != null ? author.trim() : "");
+        byYear.computeIfAbsent(year, y -> new RoaringBitmap()).add(bookId);
+        if (copiesAvailable > 0) {
+            available.add(bookId);
+        }
+    }
+
+    private void unindex(int bookId) {
+        IndexedBook book = books.remove(bookId);
+        if (book == null) {
+            return;
+        }
+        allBooks.remove(bookId);
+        available.remove(bookId);
+        removeFrom(byAuthor, book.authorKey, bookId);
+        if (!byAuthor.containsKey(book.authorKey)) {
+            authorNames.remove(book.authorKey);
+        }
+        removeFrom(byYear, book.year, bookId);
+    }
+
+    private static <K> void removeFrom(Map<K, RoaringBitmap> facet, K key, int bookId) {
+        RoaringBitmap bitmap = facet.get(key);
+        if (bitmap != null) {
+            bitmap.remove(bookId);
+            if (bitmap.isEmpty()) {
+                facet.remove(key);
+            }
+        }
+    }
+
+    private SortedMap<Integer, Integer> countYears(RoaringBitmap result) {
+        SortedMap<Integer, Integer> counts = new TreeMap<>();
+        for (Map.Entry<Integer, RoaringBitmap> entry : byYear.entrySet()) {
+            int count = RoaringBitmap.andCardinality(result, entry.getValue());
+            if (count > 0) {
+                counts.put(entry.getKey(), count);
+            }
+        }
+        return counts;
+    }
+
+    // Largest author facets first; walks whichever is smaller, the result or the author list
+    private Map<String, Integer> countAuthors(RoaringBitmap result, int limit) {
+        Map<String, Integer> counts = new HashMap<>();
+        if (result.cardinality() < byAuthor.size()) {
+            result.forEach(bookId -> counts.merge(books.get(bookId).authorKey, 1, Integer::sum));
+        } else {
+            for (Map.Entry<String, RoaringBitmap> entry : byAuthor.entrySet()) {
+                int count = RoaringBitmap.andCardinality(result, entry.getValue());
+                if (count > 0) {
+                    counts.put(entry.getKey(), count);
+                }
+            }
+        }
+
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Collections.reverseOrder(Map.Entry.comparingByValue()));
+        Map<String, Integer> top = new LinkedHashMap<>();
+        for (int i = 0; i < entries.size() && i < limit; i++) {
+            top.put(authorNames.get(entries.get(i).getKey()), entries.get(i).getValue());
+        }
+        return top;
+    }
+
+    private static String authorKey(String author) {
+        return author != null ? author.trim().toLowerCase(Locale.ROOT) : "";
+    }
+
+    private static class IndexedBook {
+        final String authorKey;
+        final int year;
+        int copiesAvailable;
+
+        IndexedBook(String authorKey, int year, int copiesAvailable) {
+            this.authorKey = authorKey;
+            this.year = year;
+            this.copiesAvailable = copiesAvailable;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Fine schedule
+ * Tiered daily rates by chargeable day, with a per-loan cap
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+class FineSchedule {
+    private final int graceDays;
+    private final long capCents;
+    private final List<long[]> tiers = new ArrayList<>();
+
+    // A cap of 0 or less means fines are uncapped
+    public FineSchedule(int graceDays, long capCents) {
+        this.graceDays = graceDays;
+        this.capCents = capCents;
+    }
+
+    // Charge centsPerDay from the given chargeable day (1-based) until the next tier starts
+    public FineSchedule addTier(int fromDay, long centsPerDay) {
+        tiers.add(new long[] {fromDay, centsPerDay});
+        tiers.sort((a, b) -> Long.compare(a[0], b[0]));
+        return this;
+    }
+
+    public int getGraceDays() { return graceDays; }
+
+    public long getCapCents() { return capCents; }
+
+    // Total owed after the given number of days overdue
+    public long accruedThrough(int daysOverdue) {
+        long chargeable = daysOverdue - graceDays;
+        if (chargeable <= 0) {
+            return 0;
+        }
+        long total = 0;
+        for (int i = 0; i < tiers.size(); i++) {
+            long from = tiers.get(i)[0];
+            long to = i + 1 < tiers.size() ? tiers.get(i + 1)[0] - 1 : Long.MAX_VALUE;
+            if (chargeable >= from) {
+                total += (Math.min(chargeable, to) - from + 1) * tiers.get(i)[1];
+            }
+        }
+        return capCents > 0 ? Math.min(total, capCents) : total;
+    }
+
+    // Amount added on the day the loan reaches the given number of days overdue
+    public long accrualOn(int daysOverdue) {
+        return accruedThrough(daysOverdue) - accruedThrough(daysOverdue - 1);
+    }
+}
@@ -0,0 +1,339 @@
+/**
+ * Fines accrual
+ * Nightly job that streams loans overdue on a given date into fixed-size
+ * primitive batches, computes each batch's accruals from the rate schedule on a
+ * pool of writers, and upserts them into fines_ledger keyed by (record_id,
+ * accrual_date). Amounts depend only on the due date and the accrual date, so
+ * re-running a date rewrites the same rows.
+ */
+
+import java.sql.*;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+class FinesAccrual implements AutoCloseable {
+    private static final int DEFAULT_BATCH_SIZE = 50_000;
+    private static final int UPSERT_CHUNK = 1000;
+    private static final int MAX_CATCH_UP_DAYS = 31;
+
+    private ConnectionFactory connectionFactory;
+    private FineSchedule schedule;
+    private int writers;
+    private int batchSize;
+    private ScheduledExecutorService scheduler;
+
+    public FinesAccrual(ConnectionFactory connectionFactory, FineSchedule schedule, int writers) {
+        this(connectionFactory, schedule, writers, DEFAULT_BATCH_SIZE);
+    }
+
+    public FinesAccrual(ConnectionFactory connectionFactory, FineSchedule schedule, int writers, int batchSize) {
+        this.connectionFactory = connectionFactory;
+        this.schedule = schedule;
+        this.writers = writers;
+        this.batchSize = batchSize;
+    }
+
+    // Accrue fines for loans overdue on the given date; safe to repeat for the same date
+    public FinesAccrualResult run(LocalDate accrualDate) throws SQLException {
+        long start = System.nanoTime();
+        int accrualDay = (int) accrualDate.toEpochDay();
+
+        // Reusable batches bound memory and make the reader wait when writers fall behind
+        BlockingQueue<LoanBatch> freeBatches = new ArrayBlockingQueue<>(writers * 2);
+        for (int i = 0; i < writers * 2; i++) {
+            freeBatches.add(new LoanBatch(batchSize));
+        }
+        BlockingQueue<Connection> writerConnections = new ArrayBlockingQueue<>(writers);
+        List<Connection> opened = new ArrayList<>();
+        AtomicReference<SQLException> failure = new AtomicReference<>();
+        LongAdder finesWritten = new LongAdder();
+        LongAdder totalCents = new LongAdder();
+        long loansScanned = 0;
+
+        ExecutorService executor = Executors.newFixedThreadPool(writers, daemonThreads());
+        try {
+            for (int i = 0; i < writers; i++) {
+                opened.add(openWriterConnection());
+            }
+            writerConnections.addAll(opened);
+
+            // Loans still out at the end of the accrual date and past due by more than the grace period
+            String sql = "SELECT record_id, book_id, patron_id, due_date FROM borrowing_records " +
+                         "WHERE (return_date IS NULL OR return_date > ?) AND borrow_date <= ? AND due_date < ?";
+            try (Connection connection = connectionFactory.open();
+                 PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                                                                           ResultSet.CONCUR_READ_ONLY)) {
+                StreamingFetch.enable(statement);
+                statement.setDate(1, Date.valueOf(accrualDate));
+                statement.setDate(2, Date.valueOf(accrualDate));
+                statement.setDate(3, Date.valueOf(accrualDate.minusDays(schedule.getGraceDays())));
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    LoanBatch batch = takeBatch(freeBatches);
+                    while (failure.get() == null && resultSet.next()) {
+                        batch.add(resultSet.getInt(1), resultSet.getInt(2), resultSet.getInt(3), EpochDays.NONE,
+                                  EpochDays.of(resultSet.getDate(4)), EpochDays.NONE);
+                        loansScanned++;
+                        if (batch.isFull()) {
+                            submit(executor, batch, accrualDate, accrualDay, freeBatches, writerConnections,
+                                   failure, finesWritten, totalCents);
+                            batch = takeBatch(freeBatches);
+                        }
+                    }
+                    if (batch.size() > 0) {
+                        submit(executor, batch, accrualDate, accrualDay, freeBatches, writerConnections,
+                               failure, finesWritten, totalCents);
+                    }
+                }
+            }
+
+            executor.shutdown();
+            awaitWriters(executor);
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+
+            FinesAccrualResult result = new FinesAccrualResult(accrualDate, loansScanned, finesWritten.sum(),
+                                                               totalCents.sum(), System.nanoTime() - start);
+            recordRun(result);
+            return result;
+        } finally {
+            executor.shutdownNow();
+            for (Connection connection : opened) {
+                connection.close();
+            }
+        }
+    }
+
+    // Run every date after the last completed run up to and including the given date
+    public List<FinesAccrualResult> catchUp(LocalDate through) throws SQLException {
+        LocalDate from = through.minusDays(MAX_CATCH_UP_DAYS - 1);
+        try (Connection connection = connectionFactory.open();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT MAX(accrual_date) FROM fines_accrual_runs")) {
+            if (resultSet.next() && resultSet.getDate(1) != null) {
+                LocalDate lastRun = resultSet.getDate(1).toLocalDate();
+                if (lastRun.plusDays(1).isAfter(from)) {
+                    from = lastRun.plusDays(1);
+                }
+            }
+        }
+
+        List<FinesAccrualResult> results = new ArrayList<>();
+        for (LocalDate date = from; !date.isAfter(through); date = date.plusDays(1)) {
+            results.add(run(date));
+        }
+        return results;
+    }
+
+    // Every night at the given time, accrue the day that just ended and any missed before it
+    public synchronized void start(LocalTime runAt) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fines-accrual");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime next = now.toLocalDate().atTime(runAt);
+        if (!next.isAfter(now)) {
+            next = next.plusDays(1);
+        }
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                for (FinesAccrualResult result : catchUp(LocalDate.now().minusDays(1))) {
+                    System.out.println("Fines accrual: " + result);
+                }
+            } catch (SQLException e) {
+                System.out.println("Fines accrual failed: " + e.getMessage());
+            }
+        }, Duration.between(now, next).toMillis(), TimeUnit.DAYS.toMillis(1), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private void submit(ExecutorService executor, LoanBatch batch, LocalDate accrualDate, int accrualDay,
+                        BlockingQueue<LoanBatch> freeBatches, BlockingQueue<Connection> writerConnections,
+                        AtomicReference<SQLException> failure, LongAdder finesWritten, LongAdder totalCents) {
+        executor.execute(() -> {
+            Connection connection = null;
+            try {
+                connection = writerConnections.take();
+                long[] amounts = new long[batch.size()];
+                long[] totals = new long[batch.size()];
+                computeAccruals(batch, accrualDay, amounts, totals);
+                writeAccruals(connection, batch, accrualDate, accrualDay, amounts, totals, finesWritten, totalCents);
+            } catch (SQLException e) {
+                failure.compareAndSet(null, e);
+            } catch (InterruptedException e) {
+                // The batch was never written, so the run must not be recorded as complete
+                failure.compareAndSet(null, new SQLException("Fines accrual interrupted", e));
+                Thread.currentThread().interrupt();
+            } finally {
+                if (connection != null) {
+                    writerConnections.add(connection);
+                }
+                batch.clear();
+                freeBatches.add(batch);
+            }
+        });
+    }
+
+    private void computeAccruals(LoanBatch batch, int accrualDay, long[] amounts, long[] totals) {
+        for (int i = 0; i < batch.size(); i++) {
+            int daysOverdue = accrualDay - batch.dueDays[i];
+            amounts[i] = schedule.accrualOn(daysOverdue);
+            totals[i] = schedule.accruedThrough(daysOverdue);
+        }
+    }
+
+    // Loans past their cap add nothing and are skipped; each chunk commits on its own, which
+    // is safe because a failed run is simply repeated
+    private void writeAccruals(Connection connection, LoanBatch batch, LocalDate accrualDate, int accrualDay,
+                               long[] amounts, long[] totals, LongAdder finesWritten, LongAdder totalCents)
+            throws SQLException {
+        String sql = "INSERT INTO fines_ledger (record_id, accrual_date, patron_id, book_id, days_overdue, " +
+                     "amount_cents, accrued_total_cents) VALUES (?, ?, ?, ?, ?, ?, ?) " +
+                     "ON DUPLICATE KEY UPDATE days_overdue = VALUES(days_overdue), " +
+                     "amount_cents = VALUES(amount_cents), accrued_total_cents = VALUES(accrued_total_cents)";
+        Date date = Date.valueOf(accrualDate);
+        int pending = 0;
+
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < batch.size(); i++) {
+                if (amounts[i] <= 0) {
+                    continue;
+                }
+                statement.setInt(1, batch.recordIds[i]);
+                statement.setDate(2, date);
+                statement.setInt(3, batch.patronIds[i]);
+                statement.setInt(4, batch.bookIds[i]);
+                statement.setInt(5, accrualDay - batch.dueDays[i]);
+                statement.setLong(6, amounts[i]);
+                statement.setLong(7, totals[i]);
+                statement.addBatch();
+                totalCents.add(amounts[i]);
+                if (++pending == UPSERT_CHUNK) {
+                    statement.executeBatch();
+                    connection.commit();
+                    finesWritten.add(pending);
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                statement.executeBatch();
+                connection.commit();
+                finesWritten.add(pending);
+            }
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+
+    private void recordRun(FinesAccrualResult result) throws SQLException {
+        String sql = "INSERT INTO fines_accrual_runs (accrual_date, loans_scanned, fines_written, total_cents, completed_at) " +
+                     "VALUES (?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE loans_scanned = VALUES(loans_scanned), " +
+                     "fines_written = VALUES(fines_written), total_cents = VALUES(total_cents), " +
+                     "completed_at = VALUES(completed_at)";
+        try (Connection connection = connectionFactory.open();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setDate(1, Date.valueOf(result.getAccrualDate()));
+            statement.setLong(2, result.getLoansScanned());
+            statement.setLong(3, result.getFinesWritten());
+            statement.setLong(4, result.getTotalCents());
+            statement.setTimestamp(5, new Timestamp(System.currentTimeMillis()));
+            statement.executeUpdate();
+        }
+    }
+
+    private Connection openWriterConnection() throws SQLException {
+        Connection connection = connectionFactory.open();
+        connection.setAutoCommit(false);
+        return connection;
+    }
+
+    private static LoanBatch takeBatch(BlockingQueue<LoanBatch> freeBatches) throws SQLException {
+        try {
+            return freeBatches.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Fines accrual interrupted", e);
+        }
+    }
+
+    private static void awaitWriters(ExecutorService executor) throws SQLException {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.out.println("Fines accrual: waiting for writers to finish...");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Fines accrual interrupted", e);
+        }
+    }
+
+    private static java.util.concurrent.ThreadFactory daemonThreads() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "fines-writer-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
+
+class FinesAccrualResult {
+    private final LocalDate accrualDate;
+    private final long loansScanned;
+    private final long finesWritten;
+    private final long totalCents;
+    private final long elapsedNanos;
+
+    FinesAccrualResult(LocalDate accrualDate, long loansScanned, long finesWritten, long totalCents, long elapsedNanos) {
+        this.accrualDate = accrualDate;
+        this.loansScanned = loansScanned;
+        this.finesWritten = finesWritten;
+        this.totalCents = totalCents;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public LocalDate getAccrualDate() { return accrualDate; }
+
+    public long getLoansScanned() { return loansScanned; }
+
+    public long getFinesWritten() { return finesWritten; }
+
+    public long getTotalCents() { return totalCents; }
+
+    public long getElapsedNanos() { return elapsedNanos; }
+
+    @Override
+    public String toString() {
+        return accrualDate + " | Overdue loans: " + loansScanned + " | Fines written: " + finesWritten
+               + " | Accrued: " + String.format("%d.%02d", totalCents / 100, totalCents % 100)
+               + " | Time: " + String.format("%.2f s", elapsedNanos / 1e9);
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Admission-controlled book service
+ * BookService that routes every database call through an AdmissionController
+ * under its operation class.
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+class GuardedBookService extends BookService {
+    private final AdmissionController admission;
+
+    public GuardedBookService(Connection connection, AdmissionController admission) {
+        super(connection);
+        this.admission = admission;
+    }
+
+    @Override
+    public int addBook(Book book) throws SQLException {
+        return admission.call(OperationClass.CATALOG_WRITE, () -> super.addBook(book));
+    }
+
+    @Override
+    public Book getBookById(int bookId) throws SQLException {
+        return admission.call(OperationClass.LOOKUP, () -> super.getBookById(bookId));
+    }
+
+    @Override
+    public Book getBookByIsbn(String isbn) throws SQLException {
+        return admission.call(OperationClass.LOOKUP, () -> super.getBookByIsbn(isbn));
+    }
+
+    @Override
+    public Map<Integer, Book> getBooksByIds(Collection<Integer> bookIds) throws SQLException {
+        return admission.call(OperationClass.LOOKUP, () -> super.getBooksByIds(bookIds));
+    }
+
+    @Override
+    public List<Book> getBooksByTitle(String title) throws SQLException {
+        return admission.call(OperationClass.BROWSE, () -> super.getBooksByTitle(title));
+    }
+
+    @Override
+    public List<Book> getAllBooks() throws SQLException {
+        return admission.call(OperationClass.BROWSE, super::getAllBooks);
+    }
+
+    @Override
+    public Map<Integer, String> getTombstonedIsbns() throws SQLException {
+        return admission.call(OperationClass.BROWSE, super::getTombstonedIsbns);
+    }
+
+    @Override
+    public BookBatch getAllBooksBatch(StringDictionary authors) throws SQLException {
+        return admission.call(OperationClass.BROWSE, () -> super.getAllBooksBatch(authors));
+    }
+
+    @Override
+    public UpdateResult tryUpdateBook(Book book) throws SQLException {
+        return admission.call(OperationClass.CATALOG_WRITE, () -> super.tryUpdateBook(book));
+    }
+
+    @Override
+    public boolean adjustCopiesAvailable(int bookId, int delta) throws SQLException {
+        return admission.call(OperationClass.CIRCULATION_WRITE, () -> super.adjustCopiesAvailable(bookId, delta));
+    }
+
+    @Override
+    public boolean adjustTotalCopies(int bookId, int delta) throws SQLException {
+        return admission.call(OperationClass.CATALOG_WRITE, () -> super.adjustTotalCopies(bookId, delta));
+    }
+
+    @Override
+    public boolean addBranchCopies(int bookId, int branchId, int delta) throws SQLException {
+        return admission.call(OperationClass.CATALOG_WRITE, () -> super.addBranchCopies(bookId, branchId, delta));
+    }
+
+    @Override
+    public boolean deleteBook(int bookId) throws SQLException {
+        return admission.call(OperationClass.CATALOG_WRITE, () -> super.deleteBook(bookId));
+    }
+}
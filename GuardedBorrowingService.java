@@ -0,0 +1,78 @@
+/**
+ * Admission-controlled borrowing service
+ * BorrowingService that routes every database call through an AdmissionController
+ * under its operation class.
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+class GuardedBorrowingService extends BorrowingService {
+    private final AdmissionController admission;
+
+    public GuardedBorrowingService(Connection connection, AdmissionController admission) {
+        super(connection);
+        this.admission = admission;
+    }
+
+    @Override
+    public int borrowBook(BorrowingRecord record) throws SQLException {
+        return admission.call(OperationClass.CIRCULATION_WRITE, () -> super.borrowBook(record));
+    }
+
+    @Override
+    public boolean returnBook(int recordId) throws SQLException {
+        return admission.call(OperationClass.CIRCULATION_WRITE, () -> super.returnBook(recordId));
+    }
+
+    @Override
+    public int borrowBookAtBranch(BorrowingRecord record, int branchId) throws SQLException {
+        return admission.call(OperationClass.CIRCULATION_WRITE, () -> super.borrowBookAtBranch(record, branchId));
+    }
+
+    @Override
+    public boolean returnBookAtBranch(int recordId, int branchId) throws SQLException {
+        return admission.call(OperationClass.CIRCULATION_WRITE, () -> super.returnBookAtBranch(recordId, branchId));
+    }
+
+    @Override
+    public BorrowingRecord getBorrowingRecordById(int recordId) throws SQLException {
+        return admission.call(OperationClass.LOOKUP, () -> super.getBorrowingRecordById(recordId));
+    }
+
+    @Override
+    public List<BorrowingRecord> getActiveBorrowings() throws SQLException {
+        return admission.call(OperationClass.BROWSE, super::getActiveBorrowings);
+    }
+
+    @Override
+    public LoanBatch getActiveBorrowingsBatch() throws SQLException {
+        return admission.call(OperationClass.BROWSE, super::getActiveBorrowingsBatch);
+    }
+
+    @Override
+    public List<BorrowingRecord> getPatronBorrowingHistory(int patronId) throws SQLException {
+        return admission.call(OperationClass.LOOKUP, () -> super.getPatronBorrowingHistory(patronId));
+    }
+
+    @Override
+    public List<BorrowingRecord> getPatronBorrowingHistory(int patronId, int offset, int limit) throws SQLException {
+        return admission.call(OperationClass.LOOKUP, () -> super.getPatronBorrowingHistory(patronId, offset, limit));
+    }
+
+    @Override
+    public LoanView getLoanViewById(int recordId) throws SQLException {
+        return admission.call(OperationClass.LOOKUP, () -> super.getLoanViewById(recordId));
+    }
+
+    @Override
+    public List<LoanView> getActiveLoanViews() throws SQLException {
+        return admission.call(OperationClass.BROWSE, super::getActiveLoanViews);
+    }
+
+    @Override
+    public List<LoanView> getPatronLoanViews(int patronId) throws SQLException {
+        return admission.call(OperationClass.LOOKUP, () -> super.getPatronLoanViews(patronId));
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Admission-controlled patron service
+ * PatronService that routes every database call through an AdmissionController
+ * under its operation class.
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+class GuardedPatronService extends PatronService {
+    private final AdmissionController admission;
+
+    public GuardedPatronService(Connection connection, AdmissionController admission) {
+        super(connection);
+        this.admission = admission;
+    }
+
+    @Override
+    public int addPatron(Patron patron) throws SQLException {
+        return admission.call(OperationClass.CATALOG_WRITE, () -> super.addPatron(patron));
+    }
+
+    @Override
+    public Patron getPatronById(int patronId) throws SQLException {
+        return admission.call(OperationClass.LOOKUP, () -> super.getPatronById(patronId));
+    }
+
+    @Override
+    public Map<Integer, Patron> getPatronsByIds(Collection<Integer> patronIds) throws SQLException {
+        return admission.call(OperationClass.LOOKUP, () -> super.getPatronsByIds(patronIds));
+    }
+
+    @Override
+    public List<Patron> getPatronsByName(String name) throws SQLException {
+        return admission.call(OperationClass.BROWSE, () -> super.getPatronsByName(name));
+    }
+
+    @Override
+    public List<Patron> getAllPatrons() throws SQLException {
+        return admission.call(OperationClass.BROWSE, super::getAllPatrons);
+    }
+
+    @Override
+    public UpdateResult tryUpdatePatron(Patron patron) throws SQLException {
+        return admission.call(OperationClass.CATALOG_WRITE, () -> super.tryUpdatePatron(patron));
+    }
+
+    @Override
+    public boolean deletePatron(int patronId) throws SQLException {
+        return admission.call(OperationClass.CATALOG_WRITE, () -> super.deletePatron(patronId));
+    }
+}
@@ -0,0 +1,275 @@
+/**
+ * Idempotency key store
+ * Remembers the outcome of each checkout and return by the client's idempotency
+ * key, so a retried request gets the original result without running again,
+ * and concurrent duplicates wait for the one execution in progress. Outcomes
+ * are kept in memory, bounded in count and expiring after a fixed time, and are
+ * written behind in batches to idempotency_keys so retries survive eviction and
+ * restarts. A Bloom filter of persisted keys means a new key costs no query.
+ */
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+class IdempotencyStore implements AutoCloseable {
+    private static final double BLOOM_FALSE_POSITIVE_RATE = 0.01;
+    private static final int CLEANUP_BATCH = 10_000;
+
+    private final ConnectionFactory connectionFactory;
+    private final int maxEntries;
+    private final long ttlMillis;
+    // In-flight and completed outcomes by operation and key; failed executions are removed so a retry runs again
+    private final ConcurrentHashMap<String, CompletableFuture<Integer>> outcomes = new ConcurrentHashMap<>();
+    // Completed keys in completion order, which is also expiry order
+    private final ConcurrentLinkedQueue<CompletedKey> completed = new ConcurrentLinkedQueue<>();
+    // Outcomes not yet written to idempotency_keys
+    private final ConcurrentHashMap<String, CompletedKey> pending = new ConcurrentHashMap<>();
+    private volatile BloomFilter persisted;
+    private final LongAdder replays = new LongAdder();
+    private Connection connection;
+    private ScheduledExecutorService flusher;
+
+    public IdempotencyStore(ConnectionFactory connectionFactory, int maxEntries, long ttlSeconds) {
+        this.connectionFactory = connectionFactory;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.persisted = new BloomFilter(maxEntries, BLOOM_FALSE_POSITIVE_RATE);
+    }
+
+    // Remove expired rows and rebuild the filter of persisted keys from the rest
+    public synchronized void load() throws SQLException {
+        Connection connection = connection();
+        try (PreparedStatement statement = connection.prepareStatement(
+                 "DELETE FROM idempotency_keys WHERE expires_at < ? LIMIT " + CLEANUP_BATCH)) {
+            statement.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
+            while (statement.executeUpdate() == CLEANUP_BATCH) {
+                // Keep deleting in short statements until no expired rows are left
+            }
+        }
+
+        List<String> keys = new ArrayList<>();
+        try (Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            StreamingFetch.enable(statement);
+            try (ResultSet resultSet = statement.executeQuery("SELECT idempotency_key FROM idempotency_keys")) {
+                while (resultSet.next()) {
+                    keys.add(resultSet.getString(1));
+                }
+            }
+        }
+        BloomFilter filter = new BloomFilter(Math.max(maxEntries, keys.size() * 2), BLOOM_FALSE_POSITIVE_RATE);
+        for (String key : keys) {
+            filter.add(key);
+        }
+        persisted = filter;
+        // execute() adds new keys to whichever filter it last read, possibly the old one. Every such key is
+        // already in pending, and flush() can't drain pending while we hold the lock, so re-adding after the
+        // swap catches them all
+        for (String key : pending.keySet()) {
+            filter.add(key);
+        }
+    }
+
+    // Write outcomes behind every flushPeriodMillis; rebuild the persisted-key filter every cleanupPeriodSeconds
+    public synchronized void start(long flushPeriodMillis, long cleanupPeriodSeconds) {
+        if (flusher != null) {
+            return;
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "idempotency-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (SQLException e) {
+                System.out.println("Idempotency key flush failed: " + e.getMessage());
+            }
+        }, flushPeriodMillis, flushPeriodMillis, TimeUnit.MILLISECONDS);
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                load();
+            } catch (SQLException e) {
+                System.out.println("Idempotency key cleanup failed: " + e.getMessage());
+            }
+        }, cleanupPeriodSeconds, cleanupPeriodSeconds, TimeUnit.SECONDS);
+    }
+
+    // Run the action once per operation and key: a duplicate gets the stored outcome, or waits for the
+    // execution in progress and gets its outcome or exception
+    public int execute(String operation, String key, AdmissionController.SqlCall<Integer> action) throws SQLException {
+        String id = operation + ":" + key;
+        CompletableFuture<Integer> execution = new CompletableFuture<>();
+        CompletableFuture<Integer> existing = outcomes.putIfAbsent(id, execution);
+        if (existing != null) {
+            replays.increment();
+            return await(existing);
+        }
+
+        CompletedKey outcome;
+        try {
+            Integer stored = storedOutcome(id);
+            if (stored != null) {
+                replays.increment();
+                outcome = new CompletedKey(id, stored, System.currentTimeMillis() + ttlMillis);
+            } else {
+                outcome = new CompletedKey(id, action.call(), System.currentTimeMillis() + ttlMillis);
+                // Into pending before the filter, so load() can recover the key if it swaps filters meanwhile
+                pending.put(id, outcome);
+                persisted.add(id);
+            }
+        } catch (SQLException | RuntimeException e) {
+            // Failures are not remembered: duplicates waiting now get the exception, a later retry runs again
+            outcomes.remove(id, execution);
+            execution.completeExceptionally(e);
+            throw e;
+        }
+
+        execution.complete(outcome.result);
+        completed.add(outcome);
+        evict();
+        return outcome.result;
+    }
+
+    public long getReplayCount() {
+        return replays.sum();
+    }
+
+    public int size() {
+        return outcomes.size();
+    }
+
+    // Write pending outcomes in one batch; they are put back if the write fails
+    public synchronized void flush() throws SQLException {
+        List<CompletedKey> batch = new ArrayList<>();
+        for (String id : new ArrayList<>(pending.keySet())) {
+            CompletedKey outcome = pending.remove(id);
+            if (outcome != null) {
+                batch.add(outcome);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        String sql = "INSERT INTO idempotency_keys (idempotency_key, result, expires_at) VALUES (?, ?, ?) "
+                     + "ON DUPLICATE KEY UPDATE result = VALUES(result), expires_at = VALUES(expires_at)";
+        Connection connection = connection();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (CompletedKey outcome : batch) {
+                statement.setString(1, outcome.id);
+                statement.setInt(2, outcome.result);
+                statement.setTimestamp(3, new Timestamp(outcome.expiresAtMillis));
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            for (CompletedKey outcome : batch) {
+                pending.putIfAbsent(outcome.id, outcome);
+            }
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        synchronized (this) {
+            if (flusher != null) {
+                flusher.shutdown();
+                flusher = null;
+            }
+        }
+        flush();
+        synchronized (this) {
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+        }
+    }
+
+    // An outcome evicted from memory, or from before a restart; only keys the filter has seen cost a query
+    private Integer storedOutcome(String id) throws SQLException {
+        CompletedKey unflushed = pending.get(id);
+        if (unflushed != null) {
+            return unflushed.result;
+        }
+        if (!persisted.mightContain(id)) {
+            return null;
+        }
+        synchronized (this) {
+            String sql = "SELECT result FROM idempotency_keys WHERE idempotency_key = ? AND expires_at > ?";
+            try (PreparedStatement statement = connection().prepareStatement(sql)) {
+                statement.setString(1, id);
+                statement.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getInt(1) : null;
+                }
+            }
+        }
+    }
+
+    // Drop expired outcomes, then the oldest ones beyond the size bound
+    private void evict() {
+        long now = System.currentTimeMillis();
+        CompletedKey oldest;
+        while ((oldest = completed.peek()) != null
+               && (oldest.expiresAtMillis <= now || outcomes.size() > maxEntries)) {
+            if (completed.remove(oldest)) {
+                outcomes.computeIfPresent(oldest.id, (id, outcome) -> outcome.isDone() ? null : outcome);
+            }
+        }
+    }
+
+    private static int await(CompletableFuture<Integer> execution) throws SQLException {
+        try {
+            return execution.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a duplicate request", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException(cause);
+        }
+    }
+
+    private Connection connection() throws SQLException {
+        if (connection == null || connection.isClosed()) {
+            connection = connectionFactory.open();
+        }
+        return connection;
+    }
+
+    private static final class CompletedKey {
+        final String id;
+        final int result;
+        final long expiresAtMillis;
+
+        CompletedKey(String id, int result, long expiresAtMillis) {
+            this.id = id;
+            this.result = result;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+/**
+ * Inventory reconciliation
+ * A checkout writes its loan and takes its copy in separate statements, and
+ * branch checkouts reach books.copies_available through a delayed roll-up, so
+ * a failure between the two leaves the title count off for good. This job
+ * recomputes each title's expected availability as total_copies minus its
+ * active loans. It scans book-ID ranges in parallel, one connection per
+ * worker, keeping only the titles that are off. After a settle delay longer
+ * than any roll-up, each of those titles is locked and checked again, and it
+ * is repaired only if nothing has moved since the scan. Repairs go in short,
+ * throttled batches, so the job can run online every hour.
+ */
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+class InventoryReconciler implements AutoCloseable {
+    private static final int RANGE_SIZE = 10_000;
+    // Drifted titles held for one run; the rest are found again by the next run
+    private static final int MAX_CANDIDATES = 50_000;
+    private static final int REPORT_TOP_N = 20;
+
+    private final ConnectionFactory connectionFactory;
+    private final int workers;
+    private final int batchSize;
+    private final long pauseMillis;
+    private final long settleMillis;
+    private final List<CatalogListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile DriftReport lastReport;
+    private ScheduledExecutorService scheduler;
+
+    // settleMillis must exceed the longest delay between a loan and its copy count, e.g. the branch roll-up period
+    public InventoryReconciler(ConnectionFactory connectionFactory, int workers, int batchSize, long pauseMillis,
+                               long settleMillis) {
+        this.connectionFactory = connectionFactory;
+        this.workers = workers;
+        this.batchSize = Math.min(batchSize, SqlInList.CHUNK_SIZE);
+        this.pauseMillis = pauseMillis;
+        this.settleMillis = settleMillis;
+    }
+
+    // Repaired titles are reported through onInventoryChanged so in-memory indexes follow the database
+    public void addCatalogListener(CatalogListener listener) {
+        listeners.add(listener);
+    }
+
+    public synchronized DriftReport run() throws SQLException {
+        long start = System.nanoTime();
+        ScanTotals totals = new ScanTotals();
+        try {
+            scan(totals);
+            List<TitleDrift> candidates = new ArrayList<>(totals.candidates);
+            // Wait out checkouts and returns that were half done when their range was scanned
+            long settledAt = System.currentTimeMillis() + settleMillis;
+            while (!candidates.isEmpty() && System.currentTimeMillis() < settledAt) {
+                Thread.sleep(Math.max(1, settledAt - System.currentTimeMillis()));
+            }
+            int[] outcome = repairAll(candidates);
+
+            List<TitleDrift> largest = new ArrayList<>();
+            for (TitleDrift drift : candidates) {
+                if (!drift.isUnrecorded()) {
+                    largest.add(drift);
+                }
+            }
+            largest.sort(Comparator.comparingInt((TitleDrift drift) -> Math.abs(drift.getDrift())).reversed());
+            largest = new ArrayList<>(largest.subList(0, Math.min(REPORT_TOP_N, largest.size())));
+            DriftReport report = new DriftReport(totals.scanned.sum(), totals.drifted.sum(), totals.absoluteDrift.sum(),
+                                                 totals.overcommitted.sum(), totals.unrecorded.sum(),
+                                                 totals.deferred.sum(), outcome[0], outcome[1], outcome[2], largest,
+                                                 System.nanoTime() - start);
+            lastReport = report;
+            return report;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Inventory reconciliation interrupted", e);
+        }
+    }
+
+    public DriftReport getLastReport() {
+        return lastReport;
+    }
+
+    // Run periodically on a daemon thread
+    public synchronized void start(long periodSeconds) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "inventory-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                DriftReport report = run();
+                if (report.getDrifted() > 0 || report.getOvercommitted() > 0) {
+                    System.out.println("Inventory reconciliation: " + report.getSummary());
+                }
+            } catch (SQLException e) {
+                System.out.println("Inventory reconciliation failed: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void close() {
+        ScheduledExecutorService running;
+        synchronized (this) {
+            running = scheduler;
+            scheduler = null;
+        }
+        if (running != null) {
+            // Interrupts the settle delay and the pauses; a batch in flight commits or rolls back on its own
+            running.shutdownNow();
+        }
+    }
+
+    // Workers take the next unscanned range of book IDs until none are left
+    private void scan(ScanTotals totals) throws SQLException, InterruptedException {
+        int[] bounds = idBounds();
+        if (bounds == null) {
+            return;
+        }
+        AtomicLong nextRange = new AtomicLong(bounds[0]);
+        AtomicReference<SQLException> failure = new AtomicReference<>();
+        ExecutorService executor = Executors.newFixedThreadPool(workers, scanThreads());
+        try {
+            for (int i = 0; i < workers; i++) {
+                executor.execute(() -> {
+                    try (Connection connection = connectionFactory.open()) {
+                        long from;
+                        while (failure.get() == null && (from = nextRange.getAndAdd(RANGE_SIZE)) <= bounds[1]) {
+                            int to = (int) Math.min(from + RANGE_SIZE, Integer.MAX_VALUE);
+                            scanRange(connection, (int) from, to, totals);
+                        }
+                    } catch (SQLException e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.out.println("Inventory reconciliation: waiting for scanners to finish...");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    private int[] idBounds() throws SQLException {
+        try (Connection connection = connectionFactory.open();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(
+                 "SELECT MIN(book_id), MAX(book_id) FROM books WHERE deleted_at IS NULL")) {
+            if (!resultSet.next() || resultSet.getObject(1) == null) {
+                return null;
+            }
+            return new int[] {resultSet.getInt(1), resultSet.getInt(2)};
+        }
+    }
+
+    // One statement per range, so the availability and the loan count it compares come from the same snapshot
+    private void scanRange(Connection connection, int from, int to, ScanTotals totals) throws SQLException {
+        String sql = "SELECT b.book_id, b.copies_available, b.total_copies, COUNT(r.record_id) FROM books b "
+                     + "LEFT JOIN borrowing_records r ON r.book_id = b.book_id AND r.return_date IS NULL "
+                     + "WHERE b.book_id >= ? AND b.book_id < ? AND b.deleted_at IS NULL "
+                     + "GROUP BY b.book_id, b.copies_available, b.total_copies";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, from);
+            statement.setInt(2, to);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    totals.scanned.increment();
+                    int available = resultSet.getInt(2);
+                    int total = resultSet.getInt(3);
+                    boolean recorded = !resultSet.wasNull();
+                    int activeLoans = resultSet.getInt(4);
+                    if (!recorded) {
+                        // Rows from before total_copies existed: record the total the current counts imply
+                        totals.unrecorded.increment();
+                        totals.offer(new TitleDrift(resultSet.getInt(1), available, TitleDrift.UNRECORDED, activeLoans));
+                    } else if (total < activeLoans) {
+                        // More loans than copies: the total itself is wrong and needs a person to look at it
+                        totals.overcommitted.increment();
+                    } else if (available != total - activeLoans) {
+                        TitleDrift drift = new TitleDrift(resultSet.getInt(1), available, total, activeLoans);
+                        totals.drifted.increment();
+                        totals.absoluteDrift.add(Math.abs(drift.getDrift()));
+                        totals.offer(drift);
+                    }
+                }
+            }
+        }
+    }
+
+    // Returns repaired titles, recorded totals and titles skipped because they changed since the scan
+    private int[] repairAll(List<TitleDrift> candidates) throws SQLException, InterruptedException {
+        int[] outcome = new int[3];
+        if (candidates.isEmpty()) {
+            return outcome;
+        }
+        try (Connection connection = connectionFactory.open()) {
+            for (int offset = 0; offset < candidates.size(); offset += batchSize) {
+                long batchStart = System.nanoTime();
+                List<TitleDrift> batch = candidates.subList(offset, Math.min(offset + batchSize, candidates.size()));
+                repairBatch(connection, batch, outcome);
+                if (offset + batchSize < candidates.size()) {
+                    // Throttle: the job is idle for at least as long as it was busy
+                    long busyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batchStart);
+                    Thread.sleep(Math.max(pauseMillis, busyMillis));
+                }
+            }
+        }
+        return outcome;
+    }
+
+    private void repairBatch(Connection connection, List<TitleDrift> batch, int[] outcome) throws SQLException {
+        String in = " IN (" + SqlInList.placeholders(batch.size()) + ")";
+        List<TitleDrift> repaired = new ArrayList<>();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            // Lock the rows, then count loans again; checkouts of these titles wait until the batch commits
+            Map<Integer, int[]> current = new HashMap<>();
+            try (PreparedStatement statement = connection.prepareStatement(
+                     "SELECT book_id, copies_available, total_copies FROM books WHERE book_id" + in
+                     + " AND deleted_at IS NULL FOR UPDATE")) {
+                bindBookIds(statement, batch);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        int total = resultSet.getInt(3);
+                        int recordedTotal = resultSet.wasNull() ? TitleDrift.UNRECORDED : total;
+                        current.put(resultSet.getInt(1), new int[] {resultSet.getInt(2), recordedTotal, 0});
+                    }
+                }
+            }
+            try (PreparedStatement statement = connection.prepareStatement(
+                     "SELECT book_id, COUNT(*) FROM borrowing_records WHERE book_id" + in
+                     + " AND return_date IS NULL GROUP BY book_id")) {
+                bindBookIds(statement, batch);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        int[] row = current.get(resultSet.getInt(1));
+                        if (row != null) {
+                            row[2] = resultSet.getInt(2);
+                        }
+                    }
+                }
+            }
+
+            try (PreparedStatement availability = connection.prepareStatement(
+                     "UPDATE books SET copies_available = ? WHERE book_id = ?");
+                 PreparedStatement totalCopies = connection.prepareStatement(
+                     "UPDATE books SET total_copies = ? WHERE book_id = ?")) {
+                for (TitleDrift drift : batch) {
+                    int[] row = current.get(drift.getBookId());
+                    if (row == null || row[0] != drift.getAvailable() || row[1] != drift.getTotalCopies()
+                            || row[2] != drift.getActiveLoans()) {
+                        outcome[2]++;
+                    } else if (drift.isUnrecorded()) {
+                        totalCopies.setInt(1, drift.getAvailable() + drift.getActiveLoans());
+                        totalCopies.setInt(2, drift.getBookId());
+                        totalCopies.addBatch();
+                        outcome[1]++;
+                    } else {
+                        availability.setInt(1, drift.getExpected());
+                        availability.setInt(2, drift.getBookId());
+                        availability.addBatch();
+                        repaired.add(drift);
+                    }
+                }
+                availability.executeBatch();
+                totalCopies.executeBatch();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+
+        outcome[0] += repaired.size();
+        for (TitleDrift drift : repaired) {
+            for (CatalogListener listener : listeners) {
+                listener.onInventoryChanged(drift.getBookId(), -drift.getDrift());
+            }
+        }
+    }
+
+    private static void bindBookIds(PreparedStatement statement, List<TitleDrift> batch) throws SQLException {
+        int index = 1;
+        for (TitleDrift drift : batch) {
+            statement.setInt(index++, drift.getBookId());
+        }
+    }
+
+    private static java.util.concurrent.ThreadFactory scanThreads() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "inventory-scan-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class ScanTotals {
+        final LongAdder scanned = new LongAdder();
+        final LongAdder drifted = new LongAdder();
+        final LongAdder absoluteDrift = new LongAdder();
+        final LongAdder overcommitted = new LongAdder();
+        final LongAdder unrecorded = new LongAdder();
+        final LongAdder deferred = new LongAdder();
+        final ConcurrentLinkedQueue<TitleDrift> candidates = new ConcurrentLinkedQueue<>();
+        final AtomicInteger held = new AtomicInteger();
+
+        void offer(TitleDrift drift) {
+            if (held.incrementAndGet() <= MAX_CANDIDATES) {
+                candidates.add(drift);
+            } else {
+                deferred.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * ISBN
+ * ISBN-10/13 validation and normalisation to a canonical ISBN-13.
+ */
+
+import java.util.Locale;
+
+final class Isbn {
+    private Isbn() {
+    }
+
+    // Valid ISBN-10s become the equivalent ISBN-13; anything else is stripped of separators and upper-cased
+    public static String canonicalize(String isbn) {
+        if (isbn == null) {
+            return null;
+        }
+        StringBuilder stripped = new StringBuilder(isbn.length());
+        for (int i = 0; i < isbn.length(); i++) {
+            char c = isbn.charAt(i);
+            if (c != '-' && c != ' ') {
+                stripped.append(c);
+            }
+        }
+        String value = stripped.toString().toUpperCase(Locale.ROOT);
+        if (value.isEmpty()) {
+            return null;
+        }
+        if (isValidIsbn10(value)) {
+            String body = "978" + value.substring(0, 9);
+            return body + isbn13CheckDigit(body);
+        }
+        return value;
+    }
+
+    public static boolean isValidIsbn10(String value) {
+        if (value.length() != 10) {
+            return false;
+        }
+        int sum = 0;
+        for (int i = 0; i < 10; i++) {
+            char c = value.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c == 'X' && i == 9) {
+                digit = 10;
+            } else {
+                return false;
+            }
+            sum += digit * (10 - i);
+        }
+        return sum % 11 == 0;
+    }
+
+    private static char isbn13CheckDigit(String first12) {
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            sum += (first12.charAt(i) - '0') * (i % 2 == 0 ? 1 : 3);
+        }
+        return (char) ('0' + (10 - sum % 10) % 10);
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * ISBN lookup index
+ * Maps canonical ISBN-13 strings to book_ids in memory, fronted by a Bloom filter
+ * so that ISBNs which are certainly new can be inserted without a database check.
+ * Kept in sync with the catalog through CatalogListener. Tombstoned books keep
+ * their ISBN until TombstonePurger removes the row.
+ */
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class IsbnIndex implements CatalogListener {
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final int MIN_CAPACITY = 1024;
+
+    private final ConcurrentHashMap<String, Integer> bookIdsByIsbn = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, String> isbnsByBookId = new ConcurrentHashMap<>();
+    // Bloom filters cannot forget, so removals are counted and trigger a rebuild
+    private final AtomicInteger staleEntries = new AtomicInteger();
+    private volatile BloomFilter filter = new BloomFilter(MIN_CAPACITY, FALSE_POSITIVE_RATE);
+
+    public void load(BookService bookService) throws SQLException {
+        BookBatch batch = bookService.getAllBooksBatch(new StringDictionary());
+        for (int i = 0; i < batch.size(); i++) {
+            put(batch.getBookId(i), batch.getIsbn(i));
+        }
+        for (Map.Entry<Integer, String> tombstoned : bookService.getTombstonedIsbns().entrySet()) {
+            put(tombstoned.getKey(), tombstoned.getValue());
+        }
+        rebuildFilter();
+    }
+
+    // False means the ISBN is certainly not in the catalog
+    public boolean mightContain(String isbn) {
+        String canonical = Isbn.canonicalize(isbn);
+        return canonical != null && filter.mightContain(canonical);
+    }
+
+    // Book ID for the ISBN in any accepted form, or 0 if unknown
+    public int lookup(String isbn) {
+        String canonical = Isbn.canonicalize(isbn);
+        if (canonical == null || !filter.mightContain(canonical)) {
+            return 0;
+        }
+        Integer bookId = bookIdsByIsbn.get(canonical);
+        return bookId != null ? bookId : 0;
+    }
+
+    public int size() {
+        return bookIdsByIsbn.size();
+    }
+
+    @Override
+    public void onBookAdded(Book book) {
+        put(book.getBookId(), book.getIsbn());
+    }
+
+    @Override
+    public void onBookUpdated(Book book) {
+        remove(book.getBookId());
+        put(book.getBookId(), book.getIsbn());
+    }
+
+    @Override
+    public void onBookDeleted(int bookId) {
+        // The tombstoned row still holds the ISBN; it is released when the purger removes the row
+    }
+
+    // Called by the purger once the rows are gone
+    public void onBooksPurged(Collection<Integer> bookIds) {
+        for (int bookId : bookIds) {
+            remove(bookId);
+        }
+    }
+
+    private void put(int bookId, String isbn) {
+        String canonical = Isbn.canonicalize(isbn);
+        if (canonical == null) {
+            return;
+        }
+        bookIdsByIsbn.put(canonical, bookId);
+        isbnsByBookId.put(bookId, canonical);
+
+        BloomFilter current = filter;
+        current.add(canonical);
+        if (bookIdsByIsbn.size() > current.getCapacity()) {
+            rebuildFilter();
+        }
+    }
+
+    private void remove(int bookId) {
+        String canonical = isbnsByBookId.remove(bookId);
+        if (canonical != null && bookIdsByIsbn.remove(canonical, bookId)) {
+            if (staleEntries.incrementAndGet() > Math.max(MIN_CAPACITY, bookIdsByIsbn.size() / 4)) {
+                rebuildFilter();
+            }
+        }
+    }
+
+    // Size the filter for twice the current entries. Entries added during the first pass may land
+    // in the old filter, so a second pass after the swap picks them up
+    private synchronized void rebuildFilter() {
+        BloomFilter rebuilt = new BloomFilter(Math.max(MIN_CAPACITY, bookIdsByIsbn.size() * 2), FALSE_POSITIVE_RATE);
+        for (String canonical : bookIdsByIsbn.keySet()) {
+            rebuilt.add(canonical);
+        }
+        staleEntries.set(0);
+        filter = rebuilt;
+        for (String canonical : bookIdsByIsbn.keySet()) {
+            rebuilt.add(canonical);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Latency histogram
+ * Lock-free log-linear histogram for recording latencies from many threads and
+ * reading percentiles without keeping individual samples.
+ */
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Buckets are exact below 128 and then keep 64 sub-buckets per power of two (under 1.6% error)
+final class LatencyHistogram {
+    private static final int SUB_BUCKETS = 64;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+    private static final int MAX_SHIFT = 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray(LINEAR_LIMIT + MAX_SHIFT * SUB_BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private volatile long max;
+
+    void record(long value) {
+        long clamped = Math.max(0, value);
+        counts.incrementAndGet(index(clamped));
+        total.increment();
+        while (clamped > max) {
+            synchronized (this) {
+                if (clamped > max) {
+                    max = clamped;
+                }
+            }
+        }
+    }
+
+    long percentile(double percentile) {
+        long count = total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long threshold = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= threshold) {
+                return Math.min(max, upperBound(i));
+            }
+        }
+        return max;
+    }
+
+    long getMax() {
+        return max;
+    }
+
+    private static int index(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int shift = Math.min(MAX_SHIFT, 63 - Long.numberOfLeadingZeros(value) - 6);
+        long subBucket = Math.min(SUB_BUCKETS - 1, (value >>> shift) - SUB_BUCKETS);
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (int) subBucket;
+    }
+
+    private static long upperBound(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        long subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
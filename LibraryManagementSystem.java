@@ -10,8 +10,13 @@ CREATE TABLE books (
     title VARCHAR(255) NOT NULL,
     author VARCHAR(255) NOT NULL,
     isbn VARCHAR(20) UNIQUE,
+    isbn_normalized VARCHAR(20) UNIQUE,
     publication_year INT,
-    copies_available INT DEFAULT 0
+    copies_available INT DEFAULT 0,
+    total_copies INT NULL,
+    version INT NOT NULL DEFAULT 0,
+    deleted_at TIMESTAMP NULL,
+    INDEX idx_books_deleted_at (deleted_at)
 );
 
 CREATE TABLE patrons (
@@ -20,7 +25,16 @@ CREATE TABLE patrons (
     last_name VARCHAR(100) NOT NULL,
     email VARCHAR(255) UNIQUE,
     phone VARCHAR(20),
-    registration_date DATE
+    registration_date DATE,
+    category VARCHAR(20) NOT NULL DEFAULT 'STANDARD',
+    version INT NOT NULL DEFAULT 0,
+    deleted_at TIMESTAMP NULL,
+    INDEX idx_patrons_deleted_at (deleted_at)
+);
+
+CREATE TABLE patron_categories (
+    category VARCHAR(20) PRIMARY KEY,
+    max_active_loans INT NOT NULL
 );
 
 CREATE TABLE borrowing_records (
@@ -30,21 +44,186 @@ CREATE TABLE borrowing_records (
     borrow_date DATE NOT NULL,
     due_date DATE NOT NULL,
     return_date DATE,
+    branch_id INT,
+    FOREIGN KEY (book_id) REFERENCES books(book_id),
+    FOREIGN KEY (patron_id) REFERENCES patrons(patron_id),
+    INDEX idx_borrowing_records_return_due (return_date, due_date, book_id)
+);
+
+CREATE TABLE book_popularity (
+    book_id INT PRIMARY KEY,
+    total_loans BIGINT NOT NULL DEFAULT 0,
+    active_loans BIGINT NOT NULL DEFAULT 0,
+    FOREIGN KEY (book_id) REFERENCES books(book_id)
+);
+
+CREATE TABLE book_daily_loans (
+    book_id INT NOT NULL,
+    loan_date DATE NOT NULL,
+    loans INT NOT NULL DEFAULT 0,
+    PRIMARY KEY (book_id, loan_date),
+    INDEX idx_book_daily_loans_date (loan_date)
+);
+
+CREATE TABLE branches (
+    branch_id INT PRIMARY KEY AUTO_INCREMENT,
+    name VARCHAR(100) NOT NULL UNIQUE
+);
+
+CREATE TABLE book_branch_copies (
+    book_id INT NOT NULL,
+    branch_id INT NOT NULL,
+    copies_available INT NOT NULL DEFAULT 0,
+    PRIMARY KEY (book_id, branch_id),
     FOREIGN KEY (book_id) REFERENCES books(book_id),
-    FOREIGN KEY (patron_id) REFERENCES patrons(patron_id)
+    FOREIGN KEY (branch_id) REFERENCES branches(branch_id)
+);
+
+CREATE TABLE fines_ledger (
+    record_id INT NOT NULL,
+    accrual_date DATE NOT NULL,
+    patron_id INT NOT NULL,
+    book_id INT NOT NULL,
+    days_overdue INT NOT NULL,
+    amount_cents BIGINT NOT NULL,
+    accrued_total_cents BIGINT NOT NULL,
+    PRIMARY KEY (record_id, accrual_date),
+    INDEX idx_fines_ledger_patron (patron_id, accrual_date)
+);
+
+CREATE TABLE books_archive (
+    book_id INT PRIMARY KEY,
+    title VARCHAR(255) NOT NULL,
+    author VARCHAR(255) NOT NULL,
+    isbn VARCHAR(20),
+    publication_year INT,
+    copies_available INT,
+    total_copies INT NULL,
+    version INT NOT NULL DEFAULT 0,
+    deleted_at TIMESTAMP NULL,
+    archived_at TIMESTAMP NOT NULL
+);
+
+CREATE TABLE patrons_archive (
+    patron_id INT PRIMARY KEY,
+    first_name VARCHAR(100) NOT NULL,
+    last_name VARCHAR(100) NOT NULL,
+    email VARCHAR(255),
+    phone VARCHAR(20),
+    registration_date DATE,
+    category VARCHAR(20),
+    deleted_at TIMESTAMP NULL,
+    archived_at TIMESTAMP NOT NULL
+);
+
+CREATE TABLE borrowing_records_archive (
+    record_id INT PRIMARY KEY,
+    book_id INT,
+    patron_id INT,
+    borrow_date DATE NOT NULL,
+    due_date DATE NOT NULL,
+    return_date DATE,
+    branch_id INT,
+    archived_at TIMESTAMP NOT NULL,
+    INDEX idx_borrowing_archive_book (book_id),
+    INDEX idx_borrowing_archive_patron (patron_id)
+);
+
+CREATE TABLE fines_accrual_runs (
+    accrual_date DATE PRIMARY KEY,
+    loans_scanned BIGINT NOT NULL,
+    fines_written BIGINT NOT NULL,
+    total_cents BIGINT NOT NULL,
+    completed_at TIMESTAMP NOT NULL
+);
+
+CREATE TABLE idempotency_keys (
+    idempotency_key VARCHAR(100) PRIMARY KEY,
+    result INT NOT NULL,
+    expires_at TIMESTAMP NOT NULL,
+    INDEX idx_idempotency_expires (expires_at)
+);
+
+CREATE TABLE circulation_rollups (
+    period CHAR(1) NOT NULL,
+    period_start DATE NOT NULL,
+    book_id INT NOT NULL,
+    loans INT NOT NULL DEFAULT 0,
+    returns INT NOT NULL DEFAULT 0,
+    overdue_returns INT NOT NULL DEFAULT 0,
+    overdue_loan_days INT NOT NULL DEFAULT 0,
+    patron_sketch VARBINARY(1024) NULL,
+    PRIMARY KEY (period, period_start, book_id),
+    INDEX idx_circulation_rollups_book (book_id, period_start)
+);
+
+CREATE TABLE circulation_rollup_state (
+    id TINYINT PRIMARY KEY,
+    closed_through DATE NOT NULL
 );
 */
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
 import java.time.LocalDate;
+import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.UUID;
 
 public class LibraryManagementSystem {
     private static final String DB_URL = "jdbc:mysql://localhost:3306/library_db";
     private static final String USER = "root";
     private static final String PASSWORD = "password";
+    private static final int POPULARITY_WINDOW_DAYS = 30;
+    private static final long POPULARITY_FLUSH_SECONDS = 30;
+    private static final int FILTER_PAGE_SIZE = 20;
+    private static final int EVENT_BUFFER_SIZE = 8192;
+    private static final long EVENT_IDLE_PARK_NANOS = 100_000;
+    private static final long BRANCH_ROLLUP_SECONDS = 5;
+    private static final int FINE_GRACE_DAYS = 0;
+    private static final long FINE_CAP_CENTS = 2000;
+    private static final int FINES_WRITERS = 4;
+    private static final LocalTime FINES_RUN_TIME = LocalTime.of(1, 0);
+    private static final long SLOW_QUERY_MILLIS = 200;
+    private static final Path SLOW_QUERY_LOG = Paths.get("slow-query.log");
+    private static final long QUERY_REPORT_SECONDS = 300;
+    private static final int QUERY_REPORT_TOP_N = 10;
+    private static final int RECOMMENDATION_COUNT = 10;
+    private static final int RECOMMENDATION_BUILD_WORKERS = 4;
+    private static final int TYPEAHEAD_SUGGESTIONS = 10;
+    private static final long TYPEAHEAD_REBUILD_SECONDS = 60;
+    private static final int DEFAULT_LOAN_LIMIT = 5;
+    private static final int PURGE_RETENTION_DAYS = 30;
+    private static final int PURGE_BATCH_SIZE = 500;
+    private static final long PURGE_PAUSE_MILLIS = 200;
+    private static final long PURGE_PERIOD_SECONDS = 3600;
+    private static final int RECONCILE_WORKERS = 4;
+    private static final int RECONCILE_BATCH_SIZE = 200;
+    private static final long RECONCILE_PAUSE_MILLIS = 100;
+    private static final long RECONCILE_PERIOD_SECONDS = 3600;
+    // Longer than a branch roll-up, so half-finished checkouts are never mistaken for drift
+    private static final long RECONCILE_SETTLE_MILLIS = BRANCH_ROLLUP_SECONDS * 2 * 1000;
+    private static final int IDEMPOTENCY_MAX_ENTRIES = 100_000;
+    private static final long IDEMPOTENCY_TTL_SECONDS = 86_400;
+    private static final long IDEMPOTENCY_FLUSH_MILLIS = 100;
+    private static final long IDEMPOTENCY_CLEANUP_SECONDS = 3600;
+    private static final int ROLLUP_DAILY_DAYS = 90;
+    private static final int ROLLUP_WEEKLY_DAYS = 730;
+    private static final int ROLLUP_BACKFILL_WORKERS = 4;
+    private static final long ROLLUP_FLUSH_SECONDS = 10;
+    private static final long TIMELINE_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final int HISTORY_PAGE_SIZE = 20;
     
     // Main method to run the application
     public static void main(String[] args) {
@@ -52,20 +231,141 @@ public class LibraryManagementSystem {
             // Load the JDBC driver
             Class.forName("com.mysql.cj.jdbc.Driver");
             
-            // Create database connection
-            Connection connection = DriverManager.getConnection(DB_URL, USER, PASSWORD);
+            // Create database connections; background jobs get their own so their transactions stay separate
+            ConnectionFactory connectionFactory = () -> DriverManager.getConnection(DB_URL, USER, PASSWORD);
+            Connection backgroundConnection = DriverManager.getConnection(DB_URL, USER, PASSWORD);
+            Connection inventoryConnection = DriverManager.getConnection(DB_URL, USER, PASSWORD);
             System.out.println("Connected to database successfully!");
             
-            // Initialize services
-            BookService bookService = new BookService(connection);
-            PatronService patronService = new PatronService(connection);
-            BorrowingService borrowingService = new BorrowingService(connection);
+            // Service statements are timed per normalized SQL; slow ones are logged with their plans
+            QueryProfiler profiler = new QueryProfiler(connectionFactory, SLOW_QUERY_MILLIS, SLOW_QUERY_LOG);
+            profiler.start(QUERY_REPORT_SECONDS, QUERY_REPORT_TOP_N);
+            Connection connection = profiler.wrap(DriverManager.getConnection(DB_URL, USER, PASSWORD));
+            
+            // Initialize services behind admission control
+            AdmissionController admission = new AdmissionController();
+            BookService bookService = new GuardedBookService(connection, admission);
+            PatronService patronService = new GuardedPatronService(connection, admission);
+            BorrowingService borrowingService = new GuardedBorrowingService(connection, admission);
+            CirculationAnalytics analytics = new CirculationAnalytics(connection);
+            DataExporter exporter = new DataExporter(connectionFactory);
+            
+            // Change events from every committed mutation, consumed off the request path
+            ChangeEventBus eventBus = new ChangeEventBus(EVENT_BUFFER_SIZE, WaitStrategy.sleeping(EVENT_IDLE_PARK_NANOS));
+            
+            // Popularity counters follow every checkout and return
+            PopularityCounters popularity = new PopularityCounters(backgroundConnection, POPULARITY_WINDOW_DAYS);
+            popularity.load();
+            popularity.start(POPULARITY_FLUSH_SECONDS);
+            eventBus.addConsumer("popularity", ChangeEventHandler.forCirculation(popularity));
+            
+            // ISBN index screens duplicates before inserts and serves ISBN lookups
+            IsbnIndex isbnIndex = new IsbnIndex();
+            isbnIndex.load(bookService);
+            bookService.setIsbnIndex(isbnIndex);
+            
+            // Faceted catalog index follows catalog edits, checkouts and returns
+            FacetedCatalogIndex catalogIndex = new FacetedCatalogIndex();
+            catalogIndex.load(bookService);
+            bookService.addCatalogListener(catalogIndex);
+            borrowingService.addCirculationListener(catalogIndex);
+            
+            // "Borrowed together" recommendations are built once and then follow checkouts
+            BorrowedTogether recommendations = new BorrowedTogether(connectionFactory, RECOMMENDATION_COUNT,
+                                                                    RECOMMENDATION_BUILD_WORKERS);
+            recommendations.build();
+            eventBus.addConsumer("recommendations", ChangeEventHandler.forCirculation(recommendations));
+            
+            // Typeahead takes new books as they are added and is re-ranked by loan counts in the background
+            TitleTypeahead typeahead = new TitleTypeahead(popularity, TYPEAHEAD_SUGGESTIONS);
+            typeahead.load(bookService);
+            typeahead.start(TYPEAHEAD_REBUILD_SECONDS);
+            bookService.addCatalogListener(typeahead);
+            
+            // Daily circulation rollups follow checkouts and returns, compacting to weeks and months with age
+            CirculationRollups rollups = new CirculationRollups(connectionFactory, ROLLUP_DAILY_DAYS,
+                                                                ROLLUP_WEEKLY_DAYS, ROLLUP_BACKFILL_WORKERS);
+            rollups.load();
+            rollups.start(ROLLUP_FLUSH_SECONDS);
+            eventBus.addConsumer("rollups", ChangeEventHandler.forCirculation(rollups));
+            // Services only publish to the bus once its consumers are running
+            eventBus.start();
+            bookService.addCatalogListener(eventBus);
+            patronService.addPatronListener(eventBus);
+            borrowingService.addCirculationListener(eventBus);
+            
+            // Branch inventory answers availability per branch from memory and rolls title totals up in batches
+            BranchInventory branchInventory = new BranchInventory(inventoryConnection);
+            branchInventory.load();
+            branchInventory.start(BRANCH_ROLLUP_SECONDS);
+            bookService.setBranchInventory(branchInventory);
+            borrowingService.setBranchInventory(branchInventory);
+            
+            // Loan limits per patron category, checked against in-memory active-loan counts
+            LoanLimits loanLimits = new LoanLimits(connectionFactory, DEFAULT_LOAN_LIMIT);
+            loanLimits.load();
+            patronService.addPatronListener(loanLimits);
+            borrowingService.setLoanLimits(loanLimits);
+            
+            // Recently used patrons and their loan histories, kept current by checkouts and returns
+            PatronTimelineCache timelines = new PatronTimelineCache(TIMELINE_CACHE_BYTES);
+            patronService.addPatronListener(timelines);
+            borrowingService.addCirculationListener(timelines);
+            patronService.setTimelineCache(timelines);
+            borrowingService.setTimelineCache(timelines);
+            
+            // Outcomes of keyed checkouts and returns, so a retried kiosk request isn't applied twice
+            IdempotencyStore idempotency = new IdempotencyStore(connectionFactory, IDEMPOTENCY_MAX_ENTRIES,
+                                                                IDEMPOTENCY_TTL_SECONDS);
+            idempotency.load();
+            idempotency.start(IDEMPOTENCY_FLUSH_MILLIS, IDEMPOTENCY_CLEANUP_SECONDS);
+            borrowingService.setIdempotencyStore(idempotency);
+            
+            // Due dates of active loans per title, for "when will a copy be free" without a query
+            AvailabilityForecast forecast = new AvailabilityForecast();
+            forecast.load(bookService, borrowingService);
+            bookService.addCatalogListener(forecast);
+            borrowingService.addCirculationListener(forecast);
+            
+            // Fines: 25 cents a day for the first two weeks overdue, 50 cents after that, capped per loan
+            FineSchedule fineSchedule = new FineSchedule(FINE_GRACE_DAYS, FINE_CAP_CENTS).addTier(1, 25).addTier(15, 50);
+            FinesAccrual fines = new FinesAccrual(connectionFactory, fineSchedule, FINES_WRITERS);
+            fines.start(FINES_RUN_TIME);
+            
+            // Deleted books and patrons are tombstoned; the purger archives and removes them in batches later
+            TombstonePurger purger = new TombstonePurger(connectionFactory, PURGE_RETENTION_DAYS, PURGE_BATCH_SIZE,
+                                                         PURGE_PAUSE_MILLIS);
+            purger.setTimelineCache(timelines);
+            purger.setIsbnIndex(isbnIndex);
+            purger.start(PURGE_PERIOD_SECONDS);
+            
+            // Each title's copy count is checked hourly against its total copies and active loans
+            InventoryReconciler reconciler = new InventoryReconciler(connectionFactory, RECONCILE_WORKERS,
+                                                                     RECONCILE_BATCH_SIZE, RECONCILE_PAUSE_MILLIS,
+                                                                     RECONCILE_SETTLE_MILLIS);
+            reconciler.addCatalogListener(catalogIndex);
+            reconciler.addCatalogListener(forecast);
+            reconciler.start(RECONCILE_PERIOD_SECONDS);
             
             // Display menu and handle user input
-            displayMenu(bookService, patronService, borrowingService);
+            displayMenu(bookService, patronService, borrowingService, analytics, exporter, popularity, catalogIndex,
+                        admission, eventBus, branchInventory, fines, profiler, recommendations,
+                        typeahead, loanLimits, purger, forecast, reconciler, rollups, timelines);
             
-            // Close connection
+            // Drain change events, flush pending counters and close connections
+            reconciler.close();
+            purger.close();
+            idempotency.close();
+            typeahead.close();
+            fines.close();
+            eventBus.close();
+            rollups.close();
+            popularity.close();
+            branchInventory.close();
+            inventoryConnection.close();
+            backgroundConnection.close();
             connection.close();
+            profiler.close();
             System.out.println("Connection closed.");
         } catch (ClassNotFoundException e) {
             System.out.println("JDBC Driver not found: " + e.getMessage());
@@ -74,7 +374,14 @@ public class LibraryManagementSystem {
         }
     }
     
-    private static void displayMenu(BookService bookService, PatronService patronService, BorrowingService borrowingService) {
+    private static void displayMenu(BookService bookService, PatronService patronService, BorrowingService borrowingService,
+                                    CirculationAnalytics analytics, DataExporter exporter, PopularityCounters popularity,
+                                    FacetedCatalogIndex catalogIndex, AdmissionController admission,
+                                    ChangeEventBus eventBus, BranchInventory branchInventory, FinesAccrual fines,
+                                    QueryProfiler profiler, BorrowedTogether recommendations,
+                                    TitleTypeahead typeahead, LoanLimits loanLimits, TombstonePurger purger,
+                                    AvailabilityForecast forecast, InventoryReconciler reconciler,
+                                    CirculationRollups rollups, PatronTimelineCache timelines) {
         Scanner scanner = new Scanner(System.in);
         boolean running = true;
         
@@ -83,6 +390,13 @@ public class LibraryManagementSystem {
             System.out.println("1. Book Management");
             System.out.println("2. Patron Management");
             System.out.println("3. Borrowing Management");
+            System.out.println("4. Circulation Reports");
+            System.out.println("5. Export Data");
+            System.out.println("6. Service Load Metrics");
+            System.out.println("7. Run Fines Accrual");
+            System.out.println("8. Purge Deleted Records");
+            System.out.println("9. Reconcile Inventory");
+            System.out.println("10. Circulation Trends");
             System.out.println("0. Exit");
             System.out.print("Enter your choice: ");
             
@@ -91,13 +405,36 @@ public class LibraryManagementSystem {
             
             switch (choice) {
                 case 1:
-                    handleBookManagement(scanner, bookService);
+                    handleBookManagement(scanner, bookService, popularity, catalogIndex, branchInventory,
+                                         recommendations, typeahead);
                     break;
                 case 2:
                     handlePatronManagement(scanner, patronService);
                     break;
                 case 3:
-                    handleBorrowingManagement(scanner, borrowingService, bookService, patronService);
+                    handleBorrowingManagement(scanner, borrowingService, bookService, patronService, branchInventory,
+                                              loanLimits, forecast);
+                    break;
+                case 4:
+                    generateCirculationReport(scanner, analytics);
+                    break;
+                case 5:
+                    exportData(scanner, exporter);
+                    break;
+                case 6:
+                    showLoadMetrics(admission, eventBus, profiler, timelines);
+                    break;
+                case 7:
+                    runFinesAccrual(scanner, fines);
+                    break;
+                case 8:
+                    purgeDeletedRecords(purger);
+                    break;
+                case 9:
+                    reconcileInventory(reconciler);
+                    break;
+                case 10:
+                    showCirculationTrends(scanner, rollups);
                     break;
                 case 0:
                     running = false;
@@ -111,7 +448,9 @@ public class LibraryManagementSystem {
         scanner.close();
     }
     
-    private static void handleBookManagement(Scanner scanner, BookService bookService) {
+    private static void handleBookManagement(Scanner scanner, BookService bookService, PopularityCounters popularity,
+                                             FacetedCatalogIndex catalogIndex, BranchInventory branchInventory,
+                                             BorrowedTogether recommendations, TitleTypeahead typeahead) {
         boolean running = true;
         
         while (running) {
@@ -122,6 +461,10 @@ public class LibraryManagementSystem {
             System.out.println("4. Update book information");
             System.out.println("5. Delete a book");
             System.out.println("6. List all books");
+            System.out.println("7. Filter catalog");
+            System.out.println("8. Find a book by ISBN");
+            System.out.println("9. Stock copies at a branch");
+            System.out.println("10. Suggest titles");
             System.out.println("0. Back to main menu");
             System.out.print("Enter your choice: ");
             
@@ -133,7 +476,7 @@ public class LibraryManagementSystem {
                     addBook(scanner, bookService);
                     break;
                 case 2:
-                    findBookById(scanner, bookService);
+                    findBookById(scanner, bookService, popularity, branchInventory, recommendations);
                     break;
                 case 3:
                     findBooksByTitle(scanner, bookService);
@@ -147,6 +490,18 @@ public class LibraryManagementSystem {
                 case 6:
                     listAllBooks(bookService);
                     break;
+                case 7:
+                    filterCatalog(scanner, bookService, catalogIndex);
+                    break;
+                case 8:
+                    findBookByIsbn(scanner, bookService);
+                    break;
+                case 9:
+                    stockBranchCopies(scanner, bookService, branchInventory);
+                    break;
+                case 10:
+                    suggestTitles(scanner, typeahead);
+                    break;
                 case 0:
                     running = false;
                     break;
@@ -201,7 +556,9 @@ public class LibraryManagementSystem {
         }
     }
     
-    private static void handleBorrowingManagement(Scanner scanner, BorrowingService borrowingService, BookService bookService, PatronService patronService) {
+    private static void handleBorrowingManagement(Scanner scanner, BorrowingService borrowingService, BookService bookService,
+                                                  PatronService patronService, BranchInventory branchInventory,
+                                                  LoanLimits loanLimits, AvailabilityForecast forecast) {
         boolean running = true;
         
         while (running) {
@@ -211,6 +568,7 @@ public class LibraryManagementSystem {
             System.out.println("3. View borrowing record");
             System.out.println("4. List all active borrowings");
             System.out.println("5. List patron's borrowing history");
+            System.out.println("6. When will copies be free");
             System.out.println("0. Back to main menu");
             System.out.print("Enter your choice: ");
             
@@ -219,10 +577,11 @@ public class LibraryManagementSystem {
             
             switch (choice) {
                 case 1:
-                    borrowBook(scanner, borrowingService, bookService, patronService);
+                    borrowBook(scanner, borrowingService, bookService, patronService, branchInventory, loanLimits,
+                               forecast);
                     break;
                 case 2:
-                    returnBook(scanner, borrowingService);
+                    returnBook(scanner, borrowingService, branchInventory);
                     break;
                 case 3:
                     viewBorrowingRecord(scanner, borrowingService);
@@ -231,7 +590,10 @@ public class LibraryManagementSystem {
                     listActiveBorrowings(borrowingService);
                     break;
                 case 5:
-                    viewPatronBorrowingHistory(scanner, borrowingService, patronService);
+                    viewPatronBorrowingHistory(scanner, borrowingService, bookService, patronService);
+                    break;
+                case 6:
+                    showAvailabilityForecast(scanner, forecast);
                     break;
                 case 0:
                     running = false;
@@ -271,7 +633,8 @@ public class LibraryManagementSystem {
         }
     }
     
-    private static void findBookById(Scanner scanner, BookService bookService) {
+    private static void findBookById(Scanner scanner, BookService bookService, PopularityCounters popularity,
+                                     BranchInventory branchInventory, BorrowedTogether recommendations) {
         System.out.println("\n----- Find Book by ID -----");
         
         System.out.print("Enter book ID: ");
@@ -281,6 +644,18 @@ public class LibraryManagementSystem {
             Book book = bookService.getBookById(bookId);
             if (book != null) {
                 System.out.println(book);
+                System.out.println("Total loans: " + popularity.getTotalLoans(bookId)
+                                   + " | Active loans: " + popularity.getActiveLoans(bookId)
+                                   + " | Loans in last " + popularity.getWindowDays() + " days: "
+                                   + popularity.getWindowLoans(bookId));
+                if (branchInventory.hasBranchStock(bookId)) {
+                    System.out.println("Available now: " + branchInventory.getAvailable(bookId));
+                    for (Map.Entry<Integer, Integer> entry : branchInventory.getAvailabilityByBranch(bookId).entrySet()) {
+                        System.out.println("  " + branchInventory.getBranches().get(entry.getKey()) + " (branch "
+                                           + entry.getKey() + "): " + entry.getValue());
+                    }
+                }
+                showBorrowedTogether(bookService, recommendations, bookId);
             } else {
                 System.out.println("Book not found with ID: " + bookId);
             }
@@ -289,6 +664,79 @@ public class LibraryManagementSystem {
         }
     }
     
+    private static void showBorrowedTogether(BookService bookService, BorrowedTogether recommendations, int bookId)
+            throws SQLException {
+        List<Integer> neighbours = new ArrayList<>();
+        for (int neighbour : recommendations.getNeighbours(bookId)) {
+            neighbours.add(neighbour);
+        }
+        if (neighbours.isEmpty()) {
+            return;
+        }
+        
+        System.out.println("Patrons who borrowed this also borrowed:");
+        Map<Integer, Book> books = bookService.getBooksByIds(neighbours);
+        for (int neighbour : neighbours) {
+            Book book = books.get(neighbour);
+            if (book != null) {
+                System.out.println("  " + book.getTitle() + " by " + book.getAuthor() + " (ID " + neighbour + ", "
+                                   + recommendations.getCoBorrowCount(bookId, neighbour) + " patrons)");
+            }
+        }
+    }
+    
+    private static void stockBranchCopies(Scanner scanner, BookService bookService, BranchInventory branchInventory) {
+        System.out.println("\n----- Stock Copies at a Branch -----");
+        
+        if (branchInventory.getBranches().isEmpty()) {
+            System.out.println("No branches are set up.");
+            return;
+        }
+        for (Map.Entry<Integer, String> entry : branchInventory.getBranches().entrySet()) {
+            System.out.println(entry.getKey() + ". " + entry.getValue());
+        }
+        
+        System.out.print("Enter book ID: ");
+        int bookId = scanner.nextInt();
+        
+        System.out.print("Enter branch ID: ");
+        int branchId = scanner.nextInt();
+        
+        System.out.print("Enter number of copies to add (negative to withdraw): ");
+        int copies = scanner.nextInt();
+        
+        try {
+            if (bookService.getBookById(bookId) == null) {
+                System.out.println("Book not found with ID: " + bookId);
+            } else if (bookService.addBranchCopies(bookId, branchId, copies)) {
+                System.out.println("Branch " + branchId + " now has " + branchInventory.getAvailable(bookId, branchId)
+                                   + " copies available.");
+            } else {
+                System.out.println("Branch " + branchId + " does not have that many copies available.");
+            }
+        } catch (SQLException e) {
+            System.out.println("Failed to update branch stock: " + e.getMessage());
+        }
+    }
+    
+    private static void findBookByIsbn(Scanner scanner, BookService bookService) {
+        System.out.println("\n----- Find Book by ISBN -----");
+        
+        System.out.print("Enter ISBN: ");
+        String isbn = scanner.nextLine();
+        
+        try {
+            Book book = bookService.getBookByIsbn(isbn);
+            if (book != null) {
+                System.out.println(book);
+            } else {
+                System.out.println("Book not found with ISBN: " + isbn);
+            }
+        } catch (SQLException e) {
+            System.out.println("Error finding book: " + e.getMessage());
+        }
+    }
+    
     private static void findBooksByTitle(Scanner scanner, BookService bookService) {
         System.out.println("\n----- Find Books by Title -----");
         
@@ -310,6 +758,25 @@ public class LibraryManagementSystem {
         }
     }
     
+    private static void suggestTitles(Scanner scanner, TitleTypeahead typeahead) {
+        System.out.println("\n----- Suggest Titles -----");
+        
+        System.out.print("Enter the start of a title or author: ");
+        String prefix = scanner.nextLine();
+        
+        long start = System.nanoTime();
+        List<TypeaheadSuggestion> suggestions = typeahead.suggest(prefix, TYPEAHEAD_SUGGESTIONS);
+        long micros = (System.nanoTime() - start) / 1000;
+        if (suggestions.isEmpty()) {
+            System.out.println("No suggestions for: " + prefix);
+        } else {
+            for (TypeaheadSuggestion suggestion : suggestions) {
+                System.out.println(suggestion);
+            }
+        }
+        System.out.println("(" + micros + " us)");
+    }
+    
     private static void updateBook(Scanner scanner, BookService bookService) {
         System.out.println("\n----- Update Book Information -----");
         
@@ -352,16 +819,23 @@ public class LibraryManagementSystem {
             
             System.out.print("Enter new number of copies (or -1 to keep current): ");
             int copies = scanner.nextInt();
-            if (copies != -1) {
-                book.setCopiesAvailable(copies);
+            
+            UpdateResult result = bookService.tryUpdateBook(book);
+            if (result == UpdateResult.CONFLICT) {
+                System.out.println("Book was changed by someone else in the meantime. Please reload and try again.");
+                return;
+            } else if (result == UpdateResult.NOT_FOUND) {
+                System.out.println("Failed to update book. It may have been deleted.");
+                return;
             }
             
-            boolean success = bookService.updateBook(book);
-            if (success) {
-                System.out.println("Book updated successfully!");
-            } else {
-                System.out.println("Failed to update book.");
+            // Apply the copy count as a delta so checkouts since the book was read are kept
+            if (copies != -1 && copies != book.getCopiesAvailable()
+                    && !bookService.adjustTotalCopies(bookId, copies - book.getCopiesAvailable())) {
+                System.out.println("Book details updated, but the number of copies could not be changed.");
+                return;
             }
+            System.out.println("Book updated successfully!");
         } catch (SQLException e) {
             System.out.println("Error updating book: " + e.getMessage());
         }
@@ -378,7 +852,7 @@ public class LibraryManagementSystem {
             if (success) {
                 System.out.println("Book deleted successfully!");
             } else {
-                System.out.println("Failed to delete book. It may be referenced by borrowing records.");
+                System.out.println("Book not found with ID: " + bookId);
             }
         } catch (SQLException e) {
             System.out.println("Error deleting book: " + e.getMessage());
@@ -403,6 +877,56 @@ public class LibraryManagementSystem {
         }
     }
     
+    private static void filterCatalog(Scanner scanner, BookService bookService, FacetedCatalogIndex catalogIndex) {
+        System.out.println("\n----- Filter Catalog -----");
+        
+        FacetQuery query = new FacetQuery();
+        
+        System.out.print("Enter authors separated by commas (or press Enter for any): ");
+        String authors = scanner.nextLine();
+        for (String author : authors.split(",")) {
+            if (!author.trim().isEmpty()) {
+                query.addAuthor(author.trim());
+            }
+        }
+        
+        System.out.print("Enter earliest publication year (or 0 for any): ");
+        int yearFrom = scanner.nextInt();
+        System.out.print("Enter latest publication year (or 0 for any): ");
+        int yearTo = scanner.nextInt();
+        scanner.nextLine(); // Consume newline
+        if (yearFrom != 0 || yearTo != 0) {
+            query.setYearRange(yearFrom != 0 ? yearFrom : Integer.MIN_VALUE, yearTo != 0 ? yearTo : Integer.MAX_VALUE);
+        }
+        
+        System.out.print("Only books available now? (y/n): ");
+        query.setAvailableOnly(scanner.nextLine().trim().equalsIgnoreCase("y"));
+        query.setPage(0, FILTER_PAGE_SIZE);
+        
+        FacetResult result = catalogIndex.search(query);
+        System.out.println("Matching books: " + result.getTotalCount() + " (available now: " + result.getAvailableCount() + ")");
+        System.out.println("By year: " + result.getYearCounts());
+        System.out.println("Top authors: " + result.getAuthorCounts());
+        
+        try {
+            List<Integer> page = new ArrayList<>();
+            for (int bookId : result.getBookIds()) {
+                page.add(bookId);
+            }
+            Map<Integer, Book> books = bookService.getBooksByIds(page);
+            for (int bookId : page) {
+                if (books.containsKey(bookId)) {
+                    System.out.println(books.get(bookId));
+                }
+            }
+            if (result.getTotalCount() > page.size()) {
+                System.out.println("... and " + (result.getTotalCount() - page.size()) + " more");
+            }
+        } catch (SQLException e) {
+            System.out.println("Error retrieving books: " + e.getMessage());
+        }
+    }
+    
     // Patron management methods
     private static void registerPatron(Scanner scanner, PatronService patronService) {
         System.out.println("\n----- Register a New Patron -----");
@@ -419,7 +943,13 @@ public class LibraryManagementSystem {
         System.out.print("Enter phone number: ");
         String phone = scanner.nextLine();
         
+        System.out.print("Enter category (or press Enter for " + LoanLimits.DEFAULT_CATEGORY + "): ");
+        String category = scanner.nextLine().trim();
+        
         Patron patron = new Patron(0, firstName, lastName, email, phone, LocalDate.now());
+        if (!category.isEmpty()) {
+            patron.setCategory(category.toUpperCase(Locale.ROOT));
+        }
         
         try {
             int patronId = patronService.addPatron(patron);
@@ -508,9 +1038,17 @@ public class LibraryManagementSystem {
                 patron.setPhone(phone);
             }
             
-            boolean success = patronService.updatePatron(patron);
-            if (success) {
+            System.out.print("Enter new category (or press Enter to keep current): ");
+            String category = scanner.nextLine().trim();
+            if (!category.isEmpty()) {
+                patron.setCategory(category.toUpperCase(Locale.ROOT));
+            }
+            
+            UpdateResult result = patronService.tryUpdatePatron(patron);
+            if (result == UpdateResult.UPDATED) {
                 System.out.println("Patron updated successfully!");
+            } else if (result == UpdateResult.CONFLICT) {
+                System.out.println("Patron was changed by someone else in the meantime. Please reload and try again.");
             } else {
                 System.out.println("Failed to update patron.");
             }
@@ -530,7 +1068,7 @@ public class LibraryManagementSystem {
             if (success) {
                 System.out.println("Patron deleted successfully!");
             } else {
-                System.out.println("Failed to delete patron. They may have active borrowings.");
+                System.out.println("Patron not found with ID: " + patronId);
             }
         } catch (SQLException e) {
             System.out.println("Error deleting patron: " + e.getMessage());
@@ -557,7 +1095,9 @@ public class LibraryManagementSystem {
     
     // Borrowing management methods
     private static void borrowBook(Scanner scanner, BorrowingService borrowingService, 
-                                  BookService bookService, PatronService patronService) {
+                                  BookService bookService, PatronService patronService,
+                                  BranchInventory branchInventory, LoanLimits loanLimits,
+                                  AvailabilityForecast forecast) {
         System.out.println("\n----- Borrow a Book -----");
         
         System.out.print("Enter patron ID: ");
@@ -574,6 +1114,12 @@ public class LibraryManagementSystem {
                 return;
             }
             
+            // Advisory check before taking a copy; the limit itself is enforced when the loan is recorded
+            if (loanLimits.getActiveLoans(patronId) >= loanLimits.getLimit(patronId)) {
+                System.out.println("Patron already has the maximum of " + loanLimits.getLimit(patronId) + " loans.");
+                return;
+            }
+            
             // Check if book exists and has copies available
             Book book = bookService.getBookById(bookId);
             if (book == null) {
@@ -581,52 +1127,92 @@ public class LibraryManagementSystem {
                 return;
             }
             
-            if (book.getCopiesAvailable() <= 0) {
-                System.out.println("No copies available for borrowing. Please try later.");
-                return;
-            }
-            
             // Calculate due date (default: 2 weeks from today)
             LocalDate borrowDate = LocalDate.now();
             LocalDate dueDate = borrowDate.plusWeeks(2);
             
-            // Create borrowing record
-            BorrowingRecord record = new BorrowingRecord(0, bookId, patronId, borrowDate, dueDate, null);
+            // Titles stocked at branches are lent from a specific branch
+            if (branchInventory.hasBranchStock(bookId)) {
+                System.out.print("Enter branch ID (0 for any branch): ");
+                int branchId = branchInventory.chooseBranch(bookId, scanner.nextInt());
+                BorrowingRecord record = new BorrowingRecord(0, bookId, patronId, borrowDate, dueDate, null);
+                int recordId = branchId > 0
+                    ? runKeyed(scanner, key -> borrowingService.borrowBookAtBranch(record, branchId, key))
+                    : 0;
+                if (recordId > 0) {
+                    System.out.println("Book borrowed successfully from branch " + branchId + "!");
+                    System.out.println("Due date: " + dueDate);
+                } else if (recordId == 0) {
+                    printNoCopiesAvailable(forecast, bookId);
+                }
+                return;
+            }
             
-            int recordId = borrowingService.borrowBook(record);
+            if (book.getCopiesAvailable() <= 0) {
+                printNoCopiesAvailable(forecast, bookId);
+                return;
+            }
+            
+            BorrowingRecord record = new BorrowingRecord(0, bookId, patronId, borrowDate, dueDate, null);
+            int recordId = runKeyed(scanner, key -> borrowingService.borrowBook(record, key));
             if (recordId > 0) {
-                // Update book copies available
-                book.setCopiesAvailable(book.getCopiesAvailable() - 1);
-                bookService.updateBook(book);
-                
                 System.out.println("Book borrowed successfully!");
                 System.out.println("Due date: " + dueDate);
-            } else {
-                System.out.println("Failed to borrow book.");
+            } else if (recordId == 0) {
+                printNoCopiesAvailable(forecast, bookId);
             }
         } catch (SQLException e) {
             System.out.println("Error processing borrowing: " + e.getMessage());
         }
     }
     
-    private static void returnBook(Scanner scanner, BorrowingService borrowingService) {
+    private static void returnBook(Scanner scanner, BorrowingService borrowingService, BranchInventory branchInventory) {
         System.out.println("\n----- Return a Book -----");
         
         System.out.print("Enter borrowing record ID: ");
         int recordId = scanner.nextInt();
         
-        try {
-            boolean success = borrowingService.returnBook(recordId);
-            if (success) {
-                System.out.println("Book returned successfully!");
-            } else {
-                System.out.println("Failed to return book. Record may not exist or book may already be returned.");
+        int branchId = 0;
+        if (!branchInventory.getBranches().isEmpty()) {
+            System.out.print("Enter return branch ID (0 for the lending branch): ");
+            branchId = scanner.nextInt();
+        }
+        
+        int returnBranchId = branchId;
+        int returned = runKeyed(scanner, key -> (returnBranchId > 0
+            ? borrowingService.returnBookAtBranch(recordId, returnBranchId, key)
+            : borrowingService.returnBook(recordId, key)) ? 1 : 0);
+        if (returned == 1) {
+            System.out.println("Book returned successfully!");
+        } else if (returned == 0) {
+            System.out.println("Failed to return book. Record may not exist or book may already be returned.");
+        }
+    }
+    
+    // Runs a checkout or return under one request key, offering to resend it with the same key when it fails,
+    // so a request that did commit before the error is not applied twice. Returns -1 if the user gives up
+    private static int runKeyed(Scanner scanner, KeyedCall call) {
+        String key = UUID.randomUUID().toString();
+        while (true) {
+            try {
+                return call.run(key);
+            } catch (LoanLimitExceededException e) {
+                System.out.println("Patron already has the maximum of " + e.getLimit() + " loans.");
+                return -1;
+            } catch (SQLException e) {
+                System.out.println("Error processing request: " + e.getMessage());
+                System.out.print("Retry the same request? (y/n): ");
+                if (!scanner.next().trim().equalsIgnoreCase("y")) {
+                    return -1;
+                }
             }
-        } catch (SQLException e) {
-            System.out.println("Error processing return: " + e.getMessage());
         }
     }
     
+    private interface KeyedCall {
+        int run(String idempotencyKey) throws SQLException;
+    }
+    
     private static void viewBorrowingRecord(Scanner scanner, BorrowingService borrowingService) {
         System.out.println("\n----- View Borrowing Record -----");
         
@@ -634,9 +1220,10 @@ public class LibraryManagementSystem {
         int recordId = scanner.nextInt();
         
         try {
-            BorrowingRecord record = borrowingService.getBorrowingRecordById(recordId);
-            if (record != null) {
-                System.out.println(record);
+            LoanView view = borrowingService.getLoanViewById(recordId);
+            if (view != null) {
+                BorrowingRecord record = view.getRecord();
+                System.out.println(view);
                 
                 // Check if the book is overdue
                 if (record.getReturnDate() == null && record.getDueDate().isBefore(LocalDate.now())) {
@@ -662,10 +1249,11 @@ public class LibraryManagementSystem {
         System.out.println("\n----- Active Borrowings -----");
         
         try {
-            List<BorrowingRecord> records = borrowingService.getActiveBorrowings();
-            if (!records.isEmpty()) {
-                for (BorrowingRecord record : records) {
-                    System.out.println(record);
+            List<LoanView> views = borrowingService.getActiveLoanViews();
+            if (!views.isEmpty()) {
+                for (LoanView view : views) {
+                    BorrowingRecord record = view.getRecord();
+                    System.out.println(view);
                     
                     if (record.getDueDate().isBefore(LocalDate.now())) {
                         System.out.println("STATUS: OVERDUE");
@@ -678,7 +1266,7 @@ public class LibraryManagementSystem {
                     }
                     System.out.println("---------------------------");
                 }
-                System.out.println("Total active borrowings: " + records.size());
+                System.out.println("Total active borrowings: " + views.size());
             } else {
                 System.out.println("No active borrowings found.");
             }
@@ -687,11 +1275,13 @@ public class LibraryManagementSystem {
         }
     }
     
-    private static void viewPatronBorrowingHistory(Scanner scanner, BorrowingService borrowingService, PatronService patronService) {
+    private static void viewPatronBorrowingHistory(Scanner scanner, BorrowingService borrowingService,
+                                                   BookService bookService, PatronService patronService) {
         System.out.println("\n----- Patron's Borrowing History -----");
         
         System.out.print("Enter patron ID: ");
         int patronId = scanner.nextInt();
+        scanner.nextLine(); // Consume newline
         
         try {
             Patron patron = patronService.getPatronById(patronId);
@@ -700,11 +1290,27 @@ public class LibraryManagementSystem {
                 return;
             }
             
-            List<BorrowingRecord> records = borrowingService.getPatronBorrowingHistory(patronId);
-            if (!records.isEmpty()) {
-                System.out.println("Borrowing history for " + patron.getFirstName() + " " + patron.getLastName() + ":");
-                for (BorrowingRecord record : records) {
-                    System.out.println(record);
+            // Most recent loans first, a page at a time, so heavy readers don't print thousands of records
+            int shown = 0;
+            while (true) {
+                List<BorrowingRecord> page = borrowingService.getPatronBorrowingHistory(patronId, shown,
+                                                                                        HISTORY_PAGE_SIZE);
+                if (page.isEmpty()) {
+                    break;
+                }
+                if (shown == 0) {
+                    System.out.println("Borrowing history for " + patron.getFirstName() + " " + patron.getLastName() + ":");
+                }
+                
+                Collection<Integer> bookIds = new LinkedHashSet<>();
+                for (BorrowingRecord record : page) {
+                    bookIds.add(record.getBookId());
+                }
+                Map<Integer, Book> books = bookService.getBooksByIds(bookIds);
+                
+                for (BorrowingRecord record : page) {
+                    Book book = books.get(record.getBookId());
+                    System.out.println(record + "\nTitle: " + (book != null ? book.getTitle() : "(unknown book)"));
                     
                     if (record.getReturnDate() == null && record.getDueDate().isBefore(LocalDate.now())) {
                         System.out.println("STATUS: OVERDUE");
@@ -715,7 +1321,19 @@ public class LibraryManagementSystem {
                     }
                     System.out.println("---------------------------");
                 }
-                System.out.println("Total records: " + records.size());
+                shown += page.size();
+                
+                if (page.size() < HISTORY_PAGE_SIZE) {
+                    break;
+                }
+                System.out.print("Show older loans? (y/n): ");
+                if (!scanner.nextLine().trim().equalsIgnoreCase("y")) {
+                    break;
+                }
+            }
+            
+            if (shown > 0) {
+                System.out.println("Records shown: " + shown);
             } else {
                 System.out.println("No borrowing history found for this patron.");
             }
@@ -723,521 +1341,195 @@ public class LibraryManagementSystem {
             System.out.println("Error retrieving borrowing history: " + e.getMessage());
         }
     }
-}
-
-// Model classes
-class Book {
-    private int bookId;
-    private String title;
-    private String author;
-    private String isbn;
-    private int publicationYear;
-    private int copiesAvailable;
-    
-    public Book(int bookId, String title, String author, String isbn, int publicationYear, int copiesAvailable) {
-        this.bookId = bookId;
-        this.title = title;
-        this.author = author;
-        this.isbn = isbn;
-        this.publicationYear = publicationYear;
-        this.copiesAvailable = copiesAvailable;
-    }
-    
-    // Getters and setters
-    public int getBookId() { return bookId; }
-    public void setBookId(int bookId) { this.bookId = bookId; }
-    
-    public String getTitle() { return title; }
-    public void setTitle(String title) { this.title = title; }
-    
-    public String getAuthor() { return author; }
-    public void setAuthor(String author) { this.author = author; }
-    
-    public String getIsbn() { return isbn; }
-    public void setIsbn(String isbn) { this.isbn = isbn; }
-    
-    public int getPublicationYear() { return publicationYear; }
-    public void setPublicationYear(int publicationYear) { this.publicationYear = publicationYear; }
-    
-    public int getCopiesAvailable() { return copiesAvailable; }
-    public void setCopiesAvailable(int copiesAvailable) { this.copiesAvailable = copiesAvailable; }
-    
-    @Override
-    public String toString() {
-        return "Book ID: " + bookId + " | Title: " + title + " | Author: " + author + 
-               " | ISBN: " + isbn + " | Year: " + publicationYear + " | Copies: " + copiesAvailable;
-    }
-}
-
-class Patron {
-    private int patronId;
-    private String firstName;
-    private String lastName;
-    private String email;
-    private String phone;
-    private LocalDate registrationDate;
-    
-    public Patron(int patronId, String firstName, String lastName, String email, String phone, LocalDate registrationDate) {
-        this.patronId = patronId;
-        this.firstName = firstName;
-        this.lastName = lastName;
-        this.email = email;
-        this.phone = phone;
-        this.registrationDate = registrationDate;
-    }
-    
-    // Getters and setters
-    public int getPatronId() { return patronId; }
-    public void setPatronId(int patronId) { this.patronId = patronId; }
-    
-    public String getFirstName() { return firstName; }
-    public void setFirstName(String firstName) { this.firstName = firstName; }
-    
-    public String getLastName() { return lastName; }
-    public void setLastName(String lastName) { this.lastName = lastName; }
-    
-    public String getEmail() { return email; }
-    public void setEmail(String email) { this.email = email; }
-    
-    public String getPhone() { return phone; }
-    public void setPhone(String phone) { this.phone = phone; }
-    
-    public LocalDate getRegistrationDate() { return registrationDate; }
-    public void setRegistrationDate(LocalDate registrationDate) { this.registrationDate = registrationDate; }
-    
-    @Override
-    public String toString() {
-        return "Patron ID: " + patronId + " | Name: " + firstName + " " + lastName + 
-               " | Email: " + email + " | Phone: " + phone + " | Registered: " + registrationDate;
-    }
-}
-
-class BorrowingRecord {
-    private int recordId;
-    private int bookId;
-    private int patronId;
-    private LocalDate borrowDate;
-    private LocalDate dueDate;
-    private LocalDate returnDate;
-    
-    public BorrowingRecord(int recordId, int bookId, int patronId, LocalDate borrowDate, LocalDate dueDate, LocalDate returnDate) {
-        this.recordId = recordId;
-        this.bookId = bookId;
-        this.patronId = patronId;
-        this.borrowDate = borrowDate;
-        this.dueDate = dueDate;
-        this.returnDate = returnDate;
-    }
-    
-    // Getters and setters
-    public int getRecordId() { return recordId; }
-    public void setRecordId(int recordId) { this.recordId = recordId; }
-
-    public int getBookId() { return bookId; }
-    public void setBookId(int bookId) { this.bookId = bookId; }
-    
-    public int getPatronId() { return patronId; }
-    public void setPatronId(int patronId) { this.patronId = patronId; }
-    
-    public LocalDate getBorrowDate() { return borrowDate; }
-    public void setBorrowDate(LocalDate borrowDate) { this.borrowDate = borrowDate; }
-    
-    public LocalDate getDueDate() { return dueDate; }
-    public void setDueDate(LocalDate dueDate) { this.dueDate = dueDate; }
-    
-    public LocalDate getReturnDate() { return returnDate; }
-    public void setReturnDate(LocalDate returnDate) { this.returnDate = returnDate; }
-    
-    @Override
-    public String toString() {
-        return "Record ID: " + recordId + " | Book ID: " + bookId + " | Patron ID: " + patronId + 
-               " | Borrow Date: " + borrowDate + " | Due Date: " + dueDate + 
-               " | Return Date: " + (returnDate != null ? returnDate : "Not returned");
-    }
-}
-
-// Service classes
-class BookService {
-    private Connection connection;
-    
-    public BookService(Connection connection) {
-        this.connection = connection;
-    }
-    
-    // Create
-    public int addBook(Book book) throws SQLException {
-        String sql = "INSERT INTO books (title, author, isbn, publication_year, copies_available) VALUES (?, ?, ?, ?, ?)";
-        
-        try (PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            statement.setString(1, book.getTitle());
-            statement.setString(2, book.getAuthor());
-            statement.setString(3, book.getIsbn());
-            statement.setInt(4, book.getPublicationYear());
-            statement.setInt(5, book.getCopiesAvailable());
-            
-            int affectedRows = statement.executeUpdate();
-            if (affectedRows == 0) {
-                throw new SQLException("Creating book failed, no rows affected.");
-            }
-            
-            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
-                if (generatedKeys.next()) {
-                    int bookId = generatedKeys.getInt(1);
-                    book.setBookId(bookId);
-                    return bookId;
-                } else {
-                    throw new SQLException("Creating book failed, no ID obtained.");
-                }
-            }
-        }
-    }
     
-    // Read
-    public Book getBookById(int bookId) throws SQLException {
-        String sql = "SELECT * FROM books WHERE book_id = ?";
+    // Reporting methods
+    private static void generateCirculationReport(Scanner scanner, CirculationAnalytics analytics) {
+        System.out.println("\n----- Circulation Reports -----");
         
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setInt(1, bookId);
-            
-            try (ResultSet resultSet = statement.executeQuery()) {
-                if (resultSet.next()) {
-                    return extractBookFromResultSet(resultSet);
-                }
-            }
-        }
+        System.out.print("Enter number of top titles to include: ");
+        int topN = scanner.nextInt();
+        scanner.nextLine(); // Consume newline
         
-        return null;
-    }
-    
-    public List<Book> getBooksByTitle(String title) throws SQLException {
-        List<Book> books = new ArrayList<>();
-        String sql = "SELECT * FROM books WHERE title LIKE ?";
+        System.out.print("Enter output directory: ");
+        String directory = scanner.nextLine();
         
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, "%" + title + "%");
+        System.out.print("Enter format (csv/json): ");
+        String format = scanner.nextLine().trim().toLowerCase();
+        
+        try {
+            long start = System.nanoTime();
+            CirculationReport report = analytics.run(topN, LocalDate.now());
+            Path outputDir = Paths.get(directory);
             
-            try (ResultSet resultSet = statement.executeQuery()) {
-                while (resultSet.next()) {
-                    books.add(extractBookFromResultSet(resultSet));
+            if (format.equals("json")) {
+                Files.createDirectories(outputDir);
+                try (Writer writer = Files.newBufferedWriter(outputDir.resolve("circulation.json"), StandardCharsets.UTF_8)) {
+                    report.writeJson(writer);
                 }
+            } else {
+                report.writeCsv(outputDir);
             }
+            
+            System.out.println("Report written to " + outputDir.toAbsolutePath());
+            System.out.println("Loans analysed: " + report.getLoanCount() + " in "
+                               + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } catch (SQLException e) {
+            System.out.println("Error generating report: " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("Error writing report: " + e.getMessage());
         }
-        
-        return books;
     }
     
-    public List<Book> getAllBooks() throws SQLException {
-        List<Book> books = new ArrayList<>();
-        String sql = "SELECT * FROM books";
-        
-        try (Statement statement = connection.createStatement();
-             ResultSet resultSet = statement.executeQuery(sql)) {
-            
-            while (resultSet.next()) {
-                books.add(extractBookFromResultSet(resultSet));
-            }
+    private static void exportData(Scanner scanner, DataExporter exporter) {
+        System.out.println("\n----- Export Data -----");
+        
+        System.out.print("Enter output directory: ");
+        String directory = scanner.nextLine();
+        
+        System.out.print("Enter format (csv/jsonl/binary): ");
+        String formatName = scanner.nextLine().trim().toLowerCase();
+        ExportFormat format;
+        if (formatName.equals("jsonl")) {
+            format = ExportFormat.JSON_LINES;
+        } else if (formatName.equals("binary")) {
+            format = ExportFormat.BINARY;
+        } else {
+            format = ExportFormat.CSV;
         }
         
-        return books;
-    }
-    
-    // Update
-    public boolean updateBook(Book book) throws SQLException {
-        String sql = "UPDATE books SET title = ?, author = ?, isbn = ?, publication_year = ?, copies_available = ? WHERE book_id = ?";
-        
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, book.getTitle());
-            statement.setString(2, book.getAuthor());
-            statement.setString(3, book.getIsbn());
-            statement.setInt(4, book.getPublicationYear());
-            statement.setInt(5, book.getCopiesAvailable());
-            statement.setInt(6, book.getBookId());
-            
-            int affectedRows = statement.executeUpdate();
-            return affectedRows > 0;
+        System.out.print("Compress output with gzip? (y/n): ");
+        boolean compress = scanner.nextLine().trim().equalsIgnoreCase("y");
+        
+        try {
+            List<ExportResult> results = exporter.exportAll(Paths.get(directory), format, compress);
+            for (ExportResult result : results) {
+                System.out.println(result);
+            }
+        } catch (SQLException e) {
+            System.out.println("Error reading data for export: " + e.getMessage());
+        } catch (IOException e) {
+            System.out.println("Error writing export: " + e.getMessage());
         }
     }
     
-    // Delete
-    public boolean deleteBook(int bookId) throws SQLException {
-        String sql = "DELETE FROM books WHERE book_id = ?";
+    private static void runFinesAccrual(Scanner scanner, FinesAccrual fines) {
+        System.out.println("\n----- Run Fines Accrual -----");
         
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setInt(1, bookId);
-            
-            int affectedRows = statement.executeUpdate();
-            return affectedRows > 0;
+        System.out.print("Enter accrual date (YYYY-MM-DD, blank for yesterday): ");
+        String input = scanner.nextLine().trim();
+        
+        try {
+            LocalDate accrualDate = input.isEmpty() ? LocalDate.now().minusDays(1) : LocalDate.parse(input);
+            System.out.println(fines.run(accrualDate));
+        } catch (java.time.format.DateTimeParseException e) {
+            System.out.println("Invalid date: " + input);
+        } catch (SQLException e) {
+            System.out.println("Fines accrual failed: " + e.getMessage());
         }
     }
     
-    // Helper method
-    private Book extractBookFromResultSet(ResultSet resultSet) throws SQLException {
-        int bookId = resultSet.getInt("book_id");
-        String title = resultSet.getString("title");
-        String author = resultSet.getString("author");
-        String isbn = resultSet.getString("isbn");
-        int publicationYear = resultSet.getInt("publication_year");
-        int copiesAvailable = resultSet.getInt("copies_available");
-        
-        return new Book(bookId, title, author, isbn, publicationYear, copiesAvailable);
-    }
-}
-
-class PatronService {
-    private Connection connection;
-    
-    public PatronService(Connection connection) {
-        this.connection = connection;
-    }
-    
-    // Create
-    public int addPatron(Patron patron) throws SQLException {
-        String sql = "INSERT INTO patrons (first_name, last_name, email, phone, registration_date) VALUES (?, ?, ?, ?, ?)";
-        
-        try (PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            statement.setString(1, patron.getFirstName());
-            statement.setString(2, patron.getLastName());
-            statement.setString(3, patron.getEmail());
-            statement.setString(4, patron.getPhone());
-            statement.setDate(5, Date.valueOf(patron.getRegistrationDate()));
-            
-            int affectedRows = statement.executeUpdate();
-            if (affectedRows == 0) {
-                throw new SQLException("Creating patron failed, no rows affected.");
-            }
-            
-            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
-                if (generatedKeys.next()) {
-                    int patronId = generatedKeys.getInt(1);
-                    patron.setPatronId(patronId);
-                    return patronId;
-                } else {
-                    throw new SQLException("Creating patron failed, no ID obtained.");
-                }
-            }
+    private static void printNoCopiesAvailable(AvailabilityForecast forecast, int bookId) {
+        System.out.println("No copies available for borrowing.");
+        AvailabilityEstimate estimate = forecast.nextAvailable(bookId);
+        if (estimate != null && estimate.getExpectedDate() != null) {
+            System.out.println("Next copy due back: " + estimate.getExpectedDate()
+                               + (estimate.isOverdue() ? " (overdue)" : ""));
         }
     }
     
-    // Read
-    public Patron getPatronById(int patronId) throws SQLException {
-        String sql = "SELECT * FROM patrons WHERE patron_id = ?";
+    private static void showAvailabilityForecast(Scanner scanner, AvailabilityForecast forecast) {
+        System.out.println("\n----- When Will Copies Be Free -----");
         
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setInt(1, patronId);
-            
-            try (ResultSet resultSet = statement.executeQuery()) {
-                if (resultSet.next()) {
-                    return extractPatronFromResultSet(resultSet);
-                }
-            }
-        }
+        System.out.print("Enter book ID: ");
+        int bookId = scanner.nextInt();
         
-        return null;
-    }
-    
-    public List<Patron> getPatronsByName(String name) throws SQLException {
-        List<Patron> patrons = new ArrayList<>();
-        String sql = "SELECT * FROM patrons WHERE first_name LIKE ? OR last_name LIKE ?";
+        System.out.print("Enter number of copies needed (or queue position): ");
+        int copies = scanner.nextInt();
         
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, "%" + name + "%");
-            statement.setString(2, "%" + name + "%");
-            
-            try (ResultSet resultSet = statement.executeQuery()) {
-                while (resultSet.next()) {
-                    patrons.add(extractPatronFromResultSet(resultSet));
-                }
-            }
+        AvailabilityEstimate estimate = forecast.whenAvailable(bookId, Math.max(1, copies));
+        if (estimate == null) {
+            System.out.println("Book not found with ID: " + bookId);
+        } else {
+            System.out.println(estimate);
         }
-        
-        return patrons;
     }
     
-    public List<Patron> getAllPatrons() throws SQLException {
-        List<Patron> patrons = new ArrayList<>();
-        String sql = "SELECT * FROM patrons";
+    private static void purgeDeletedRecords(TombstonePurger purger) {
+        System.out.println("\n----- Purge Deleted Records -----");
+        System.out.println("Archiving books and patrons deleted more than " + PURGE_RETENTION_DAYS + " days ago...");
         
-        try (Statement statement = connection.createStatement();
-             ResultSet resultSet = statement.executeQuery(sql)) {
-            
-            while (resultSet.next()) {
-                patrons.add(extractPatronFromResultSet(resultSet));
-            }
+        try {
+            System.out.println(purger.run());
+        } catch (SQLException e) {
+            System.out.println("Purge failed: " + e.getMessage());
         }
-        
-        return patrons;
     }
     
-    // Update
-    public boolean updatePatron(Patron patron) throws SQLException {
-        String sql = "UPDATE patrons SET first_name = ?, last_name = ?, email = ?, phone = ? WHERE patron_id = ?";
-        
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, patron.getFirstName());
-            statement.setString(2, patron.getLastName());
-            statement.setString(3, patron.getEmail());
-            statement.setString(4, patron.getPhone());
-            statement.setInt(5, patron.getPatronId());
-            
-            int affectedRows = statement.executeUpdate();
-            return affectedRows > 0;
+    private static void reconcileInventory(InventoryReconciler reconciler) {
+        System.out.println("\n----- Reconcile Inventory -----");
+        DriftReport last = reconciler.getLastReport();
+        if (last != null) {
+            System.out.println("Last run: " + last.getSummary());
         }
-    }
-    
-    // Delete
-    public boolean deletePatron(int patronId) throws SQLException {
-        String sql = "DELETE FROM patrons WHERE patron_id = ?";
+        System.out.println("Checking every title's available copies against its total and active loans...");
         
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setInt(1, patronId);
-            
-            int affectedRows = statement.executeUpdate();
-            return affectedRows > 0;
-        }
-    }
-    
-    // Helper method
-    private Patron extractPatronFromResultSet(ResultSet resultSet) throws SQLException {
-        int patronId = resultSet.getInt("patron_id");
-        String firstName = resultSet.getString("first_name");
-        String lastName = resultSet.getString("last_name");
-        String email = resultSet.getString("email");
-        String phone = resultSet.getString("phone");
-        LocalDate registrationDate = resultSet.getDate("registration_date").toLocalDate();
-        
-        return new Patron(patronId, firstName, lastName, email, phone, registrationDate);
-    }
-}
-
-class BorrowingService {
-    private Connection connection;
-    
-    public BorrowingService(Connection connection) {
-        this.connection = connection;
-    }
-    
-    // Create - Borrow a book
-    public int borrowBook(BorrowingRecord record) throws SQLException {
-        String sql = "INSERT INTO borrowing_records (book_id, patron_id, borrow_date, due_date) VALUES (?, ?, ?, ?)";
-        
-        try (PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            statement.setInt(1, record.getBookId());
-            statement.setInt(2, record.getPatronId());
-            statement.setDate(3, Date.valueOf(record.getBorrowDate()));
-            statement.setDate(4, Date.valueOf(record.getDueDate()));
-            
-            int affectedRows = statement.executeUpdate();
-            if (affectedRows == 0) {
-                throw new SQLException("Creating borrowing record failed, no rows affected.");
-            }
-            
-            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
-                if (generatedKeys.next()) {
-                    int recordId = generatedKeys.getInt(1);
-                    record.setRecordId(recordId);
-                    return recordId;
-                } else {
-                    throw new SQLException("Creating borrowing record failed, no ID obtained.");
-                }
-            }
+        try {
+            System.out.println(reconciler.run());
+        } catch (SQLException e) {
+            System.out.println("Reconciliation failed: " + e.getMessage());
         }
     }
     
-    // Update - Return a book
-    public boolean returnBook(int recordId) throws SQLException {
-        // First, get the borrowing record
-        BorrowingRecord record = getBorrowingRecordById(recordId);
-        if (record == null || record.getReturnDate() != null) {
-            return false; // Record doesn't exist or book already returned
-        }
+    private static void showCirculationTrends(Scanner scanner, CirculationRollups rollups) {
+        System.out.println("\n----- Circulation Trends -----");
         
-        // Update the borrowing record with return date
-        String updateSql = "UPDATE borrowing_records SET return_date = ? WHERE record_id = ?";
-        LocalDate returnDate = LocalDate.now();
-        
-        try (PreparedStatement statement = connection.prepareStatement(updateSql)) {
-            statement.setDate(1, Date.valueOf(returnDate));
-            statement.setInt(2, recordId);
-            
-            int affectedRows = statement.executeUpdate();
-            if (affectedRows == 0) {
-                return false;
-            }
-        }
-        
-        // Update the book's available copies
-        String bookSql = "UPDATE books SET copies_available = copies_available + 1 WHERE book_id = ?";
-        
-        try (PreparedStatement statement = connection.prepareStatement(bookSql)) {
-            statement.setInt(1, record.getBookId());
-            statement.executeUpdate();
-        }
+        System.out.print("Enter book ID (0 for the whole library): ");
+        int bookId = scanner.nextInt();
+        scanner.nextLine(); // Consume newline
         
-        return true;
-    }
-    
-    // Read - Get borrowing record by ID
-    public BorrowingRecord getBorrowingRecordById(int recordId) throws SQLException {
-        String sql = "SELECT * FROM borrowing_records WHERE record_id = ?";
+        System.out.print("Enter start date (YYYY-MM-DD, blank for 30 days ago): ");
+        String fromInput = scanner.nextLine().trim();
+        System.out.print("Enter end date (YYYY-MM-DD, blank for today): ");
+        String toInput = scanner.nextLine().trim();
         
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setInt(1, recordId);
-            
-            try (ResultSet resultSet = statement.executeQuery()) {
-                if (resultSet.next()) {
-                    return extractBorrowingRecordFromResultSet(resultSet);
-                }
+        try {
+            LocalDate to = toInput.isEmpty() ? LocalDate.now() : LocalDate.parse(toInput);
+            LocalDate from = fromInput.isEmpty() ? to.minusDays(30) : LocalDate.parse(fromInput);
+            RollupSeries series = rollups.query(bookId, from, to);
+            for (RollupBucket bucket : series.getBuckets()) {
+                System.out.println(bucket);
             }
+            System.out.println(series);
+        } catch (java.time.format.DateTimeParseException e) {
+            System.out.println("Invalid date: " + e.getParsedString());
+        } catch (SQLException e) {
+            System.out.println("Error reading circulation trends: " + e.getMessage());
         }
-        
-        return null;
     }
     
-    // Read - Get active borrowings (not returned yet)
-    public List<BorrowingRecord> getActiveBorrowings() throws SQLException {
-        List<BorrowingRecord> records = new ArrayList<>();
-        String sql = "SELECT * FROM borrowing_records WHERE return_date IS NULL";
+    private static void showLoadMetrics(AdmissionController admission, ChangeEventBus eventBus,
+                                        QueryProfiler profiler, PatronTimelineCache timelines) {
+        System.out.println("\n----- Service Load Metrics -----");
         
-        try (Statement statement = connection.createStatement();
-             ResultSet resultSet = statement.executeQuery(sql)) {
-            
-            while (resultSet.next()) {
-                records.add(extractBorrowingRecordFromResultSet(resultSet));
-            }
+        for (AdmissionMetrics metrics : admission.getMetrics()) {
+            System.out.println(metrics);
         }
         
-        return records;
-    }
-    
-    // Read - Get borrowing history for a patron
-    public List<BorrowingRecord> getPatronBorrowingHistory(int patronId) throws SQLException {
-        List<BorrowingRecord> records = new ArrayList<>();
-        String sql = "SELECT * FROM borrowing_records WHERE patron_id = ? ORDER BY borrow_date DESC";
-        
-        try (PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setInt(1, patronId);
-            
-            try (ResultSet resultSet = statement.executeQuery()) {
-                while (resultSet.next()) {
-                    records.add(extractBorrowingRecordFromResultSet(resultSet));
-                }
-            }
+        System.out.println("Change events published: " + eventBus.getPublishedCount());
+        if (eventBus.getDroppedCount() > 0) {
+            System.out.println("Change events dropped (bus closed or not started): " + eventBus.getDroppedCount());
+        }
+        for (EventConsumerMetrics metrics : eventBus.getMetrics()) {
+            System.out.println(metrics);
         }
         
-        return records;
-    }
-    
-    // Helper method
-    private BorrowingRecord extractBorrowingRecordFromResultSet(ResultSet resultSet) throws SQLException {
-        int recordId = resultSet.getInt("record_id");
-        int bookId = resultSet.getInt("book_id");
-        int patronId = resultSet.getInt("patron_id");
-        LocalDate borrowDate = resultSet.getDate("borrow_date").toLocalDate();
-        LocalDate dueDate = resultSet.getDate("due_date").toLocalDate();
-        
-        Date returnDateDb = resultSet.getDate("return_date");
-        LocalDate returnDate = (returnDateDb != null) ? returnDateDb.toLocalDate() : null;
-        
-        return new BorrowingRecord(recordId, bookId, patronId, borrowDate, dueDate, returnDate);
+        System.out.println("Top statements by total time:");
+        for (QueryStats statement : profiler.getTopStatements(QUERY_REPORT_TOP_N)) {
+            System.out.println(statement);
+        }
+        if (profiler.getDroppedSlowQueries() > 0) {
+            System.out.println("Slow queries not logged (queue full): " + profiler.getDroppedSlowQueries());
+        }
+        System.out.println(timelines.getStats());
     }
 }
\ No newline at end of file
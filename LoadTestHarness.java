@@ -0,0 +1,628 @@
+/**
+ * Load-test harness
+ * Seeds a database with synthetic books, patrons and loan history, then replays
+ * an open-loop mix of searches, checkouts, returns and history lookups through
+ * the service classes at a fixed arrival rate and reports throughput, latency
+ * percentiles and error rates per operation.
+ *
+ * Runs against any JDBC URL; for a fully local run put an embedded driver on the
+ * classpath, e.g.
+ *   java -cp .:h2.jar LoadTestHarness --url=jdbc:h2:./loadtest;MODE=MySQL --create-schema --seed
+ *        --books=1000000 --patrons=200000 --loans=5000000 --rate=2000 --duration=60
+ */
+
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+public class LoadTestHarness {
+    static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS books (" +
+        "book_id INT PRIMARY KEY AUTO_INCREMENT, title VARCHAR(255) NOT NULL, author VARCHAR(255) NOT NULL, " +
+        "isbn VARCHAR(20) UNIQUE, isbn_normalized VARCHAR(20) UNIQUE, publication_year INT, " +
+        "copies_available INT DEFAULT 0, total_copies INT NULL, version INT NOT NULL DEFAULT 0, deleted_at TIMESTAMP NULL, INDEX idx_books_deleted_at (deleted_at))",
+        "CREATE TABLE IF NOT EXISTS patrons (" +
+        "patron_id INT PRIMARY KEY AUTO_INCREMENT, first_name VARCHAR(100) NOT NULL, " +
+        "last_name VARCHAR(100) NOT NULL, email VARCHAR(255) UNIQUE, phone VARCHAR(20), " +
+        "registration_date DATE, category VARCHAR(20) NOT NULL DEFAULT 'STANDARD', version INT NOT NULL DEFAULT 0, " +
+        "deleted_at TIMESTAMP NULL, INDEX idx_patrons_deleted_at (deleted_at))",
+        "CREATE TABLE IF NOT EXISTS borrowing_records (" +
+        "record_id INT PRIMARY KEY AUTO_INCREMENT, book_id INT, patron_id INT, borrow_date DATE NOT NULL, " +
+        "due_date DATE NOT NULL, return_date DATE, branch_id INT, " +
+        "FOREIGN KEY (book_id) REFERENCES books(book_id), FOREIGN KEY (patron_id) REFERENCES patrons(patron_id))",
+        "CREATE TABLE IF NOT EXISTS idempotency_keys (" +
+        "idempotency_key VARCHAR(100) PRIMARY KEY, result INT NOT NULL, expires_at TIMESTAMP NOT NULL, " +
+        "INDEX idx_idempotency_expires (expires_at))"
+    };
+    static final int IDEMPOTENCY_MAX_ENTRIES = 100_000;
+    static final long IDEMPOTENCY_TTL_SECONDS = 3600;
+    static final long IDEMPOTENCY_FLUSH_MILLIS = 100;
+    static final long IDEMPOTENCY_CLEANUP_SECONDS = 600;
+
+    static final String[] TITLE_WORDS = {
+        "Silent", "River", "Garden", "Shadow", "Empire", "Winter", "Stone", "Ocean", "Secret", "Light",
+        "Forest", "Crown", "Journey", "Mirror", "Storm", "City", "Harvest", "Night", "Glass", "Memory"
+    };
+    static final String[] FIRST_NAMES = {
+        "Alex", "Sam", "Jordan", "Taylor", "Morgan", "Casey", "Riley", "Jamie", "Avery", "Quinn"
+    };
+    static final String[] LAST_NAMES = {
+        "Smith", "Patel", "Garcia", "Kim", "Okafor", "Novak", "Silva", "Chen", "Murphy", "Haddad"
+    };
+
+    public static void main(String[] args) {
+        LoadTestConfig config;
+        try {
+            config = LoadTestConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(LoadTestConfig.USAGE);
+            return;
+        }
+
+        List<Connection> connections = new ArrayList<>();
+        IdempotencyStore idempotency = null;
+        try {
+            try (Connection connection = config.openConnection()) {
+                if (config.createSchema) {
+                    try (Statement statement = connection.createStatement()) {
+                        for (String ddl : SCHEMA) {
+                            statement.execute(ddl);
+                        }
+                    }
+                }
+                if (config.seed) {
+                    new WorkloadSeeder(connection, config).seed();
+                }
+            }
+
+            // Checkouts and returns carry request keys, as kiosk clients send them
+            idempotency = new IdempotencyStore(config::openConnection, IDEMPOTENCY_MAX_ENTRIES, IDEMPOTENCY_TTL_SECONDS);
+            idempotency.load();
+            idempotency.start(IDEMPOTENCY_FLUSH_MILLIS, IDEMPOTENCY_CLEANUP_SECONDS);
+            
+            // One connection and set of services per worker, all sharing one admission controller
+            AdmissionController admission = new AdmissionController();
+            List<WorkerServices> lanes = new ArrayList<>();
+            for (int i = 0; i < config.threads; i++) {
+                Connection connection = config.openConnection();
+                connections.add(connection);
+                WorkerServices lane = config.admission
+                    ? new WorkerServices(new GuardedBookService(connection, admission),
+                                         new GuardedBorrowingService(connection, admission))
+                    : new WorkerServices(new BookService(connection), new BorrowingService(connection));
+                lane.borrowingService.setIdempotencyStore(idempotency);
+                lanes.add(lane);
+            }
+
+            LoadTestResult result = new LoadTestDriver(config, lanes).run();
+            result.print();
+            if (config.admission) {
+                for (AdmissionMetrics metrics : admission.getMetrics()) {
+                    System.out.println(metrics);
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println("Load test failed: " + e.getMessage());
+        } finally {
+            if (idempotency != null) {
+                try {
+                    idempotency.close();
+                } catch (SQLException e) {
+                    System.out.println("Error closing idempotency store: " + e.getMessage());
+                }
+            }
+            for (Connection connection : connections) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    System.out.println("Error closing connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    static class WorkerServices {
+        final BookService bookService;
+        final BorrowingService borrowingService;
+
+        WorkerServices(BookService bookService, BorrowingService borrowingService) {
+            this.bookService = bookService;
+            this.borrowingService = borrowingService;
+        }
+    }
+}
+
+class LoadTestConfig {
+    static final String USAGE =
+        "Usage: java LoadTestHarness --url=<jdbc url> [--user=] [--password=] [--create-schema] [--seed]\n" +
+        "  [--books=100000] [--patrons=20000] [--loans=500000] [--skew=0.99]\n" +
+        "  [--rate=500] [--duration=60] [--warmup=10] [--threads=16] [--no-admission]\n" +
+        "  [--mix=search:40,checkout:20,return:20,history:20]";
+
+    String url;
+    String user;
+    String password;
+    boolean createSchema;
+    boolean seed;
+    boolean admission = true;
+    int books = 100_000;
+    int patrons = 20_000;
+    int loans = 500_000;
+    double skew = 0.99;
+    int rate = 500;
+    int durationSeconds = 60;
+    int warmupSeconds = 10;
+    int threads = 16;
+    final Map<WorkloadOperation, Integer> mix = new EnumMap<>(WorkloadOperation.class);
+
+    static LoadTestConfig parse(String[] args) {
+        LoadTestConfig config = new LoadTestConfig();
+        config.mix.put(WorkloadOperation.SEARCH, 40);
+        config.mix.put(WorkloadOperation.CHECKOUT, 20);
+        config.mix.put(WorkloadOperation.RETURN, 20);
+        config.mix.put(WorkloadOperation.HISTORY, 20);
+
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            String key = equals < 0 ? arg : arg.substring(0, equals);
+            String value = equals < 0 ? null : arg.substring(equals + 1);
+            try {
+                switch (key) {
+                    case "--url": config.url = value; break;
+                    case "--user": config.user = value; break;
+                    case "--password": config.password = value; break;
+                    case "--create-schema": config.createSchema = true; break;
+                    case "--seed": config.seed = true; break;
+                    case "--no-admission": config.admission = false; break;
+                    case "--books": config.books = Integer.parseInt(value); break;
+                    case "--patrons": config.patrons = Integer.parseInt(value); break;
+                    case "--loans": config.loans = Integer.parseInt(value); break;
+                    case "--skew": config.skew = Double.parseDouble(value); break;
+                    case "--rate": config.rate = Integer.parseInt(value); break;
+                    case "--duration": config.durationSeconds = Integer.parseInt(value); break;
+                    case "--warmup": config.warmupSeconds = Integer.parseInt(value); break;
+                    case "--threads": config.threads = Integer.parseInt(value); break;
+                    case "--mix": config.parseMix(value); break;
+                    default: throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            } catch (NumberFormatException | NullPointerException e) {
+                throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+            }
+        }
+
+        if (config.url == null) {
+            throw new IllegalArgumentException("--url is required");
+        }
+        if (config.rate <= 0 || config.threads <= 0 || config.durationSeconds <= 0 || config.skew <= 0 || config.skew >= 1) {
+            throw new IllegalArgumentException("Rate, threads and duration must be positive and skew between 0 and 1");
+        }
+        return config;
+    }
+
+    private void parseMix(String value) {
+        mix.clear();
+        for (String part : value.split(",")) {
+            String[] pair = part.split(":");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry: " + part);
+            }
+            mix.put(WorkloadOperation.valueOf(pair[0].trim().toUpperCase()), Integer.parseInt(pair[1].trim()));
+        }
+    }
+
+    Connection openConnection() throws SQLException {
+        return user != null ? DriverManager.getConnection(url, user, password) : DriverManager.getConnection(url);
+    }
+}
+
+enum WorkloadOperation {
+    SEARCH,
+    CHECKOUT,
+    RETURN,
+    HISTORY
+}
+
+// Zipfian ranks in [0, n) with constant-time sampling (Gray et al., "Quickly generating billion-record synthetic databases")
+final class ZipfianGenerator {
+    // Prime multiplier, so rank * SCRAMBLE mod n is a permutation and popular items are spread over the ID range
+    private static final long SCRAMBLE = 2654435761L;
+
+    private final int items;
+    private final double theta;
+    private final double alpha;
+    private final double zetaN;
+    private final double eta;
+    private final double halfPowTheta;
+
+    ZipfianGenerator(int items, double theta) {
+        this.items = items;
+        this.theta = theta;
+        this.zetaN = zeta(items, theta);
+        this.alpha = 1.0 / (1.0 - theta);
+        this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+        this.halfPowTheta = 1 + Math.pow(0.5, theta);
+    }
+
+    // Rank 0 is the most popular
+    int nextRank(Random random) {
+        double u = random.nextDouble();
+        double uz = u * zetaN;
+        if (uz < 1.0) {
+            return 0;
+        }
+        if (uz < halfPowTheta) {
+            return Math.min(1, items - 1);
+        }
+        return Math.min(items - 1, (int) (items * Math.pow(eta * u - eta + 1, alpha)));
+    }
+
+    // Rank mapped to a fixed pseudo-random position in [0, n)
+    int nextScrambled(Random random) {
+        return (int) (nextRank(random) * SCRAMBLE % items);
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1.0 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+}
+
+class WorkloadSeeder {
+    private static final int BATCH_SIZE = 1000;
+    private static final int HISTORY_DAYS = 3 * 365;
+    private static final int LOAN_DAYS = 14;
+    private static final int ACTIVE_WINDOW_DAYS = 21;
+
+    private final Connection connection;
+    private final LoadTestConfig config;
+    private final Random random = new Random(42);
+
+    WorkloadSeeder(Connection connection, LoadTestConfig config) {
+        this.connection = connection;
+        this.config = config;
+    }
+
+    public void seed() throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            long start = System.nanoTime();
+            int[] copies = seedBooks();
+            seedPatrons();
+            int[] active = seedLoans(copies);
+            updateAvailability(copies, active);
+            System.out.printf("Seeded %d books, %d patrons and %d loans in %.1f s%n", config.books, config.patrons,
+                              config.loans, (System.nanoTime() - start) / 1e9);
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    // Books get explicit IDs 1..n so the workload can address them without a lookup
+    private int[] seedBooks() throws SQLException {
+        String sql = "INSERT INTO books (book_id, title, author, isbn, isbn_normalized, publication_year, " +
+                     "copies_available) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        int authors = Math.max(1, config.books / 20);
+        ZipfianGenerator authorPopularity = new ZipfianGenerator(authors, config.skew);
+        int[] copies = new int[config.books + 1];
+
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int bookId = 1; bookId <= config.books; bookId++) {
+                copies[bookId] = 1 + random.nextInt(10);
+                statement.setInt(1, bookId);
+                statement.setString(2, title(bookId));
+                // Prolific authors are skewed as well
+                statement.setString(3, "Author " + (authorPopularity.nextScrambled(random) + 1));
+                String isbn = String.format("978%010d", bookId);
+                statement.setString(4, isbn);
+                statement.setString(5, Isbn.canonicalize(isbn));
+                statement.setInt(6, 1900 + random.nextInt(125));
+                statement.setInt(7, copies[bookId]);
+                addBatch(statement, bookId, config.books, "books");
+            }
+        }
+        return copies;
+    }
+
+    private void seedPatrons() throws SQLException {
+        String sql = "INSERT INTO patrons (patron_id, first_name, last_name, email, phone, registration_date) " +
+                     "VALUES (?, ?, ?, ?, ?, ?)";
+        LocalDate today = LocalDate.now();
+
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int patronId = 1; patronId <= config.patrons; patronId++) {
+                statement.setInt(1, patronId);
+                statement.setString(2, LoadTestHarness.FIRST_NAMES[random.nextInt(LoadTestHarness.FIRST_NAMES.length)]);
+                statement.setString(3, LoadTestHarness.LAST_NAMES[random.nextInt(LoadTestHarness.LAST_NAMES.length)]);
+                statement.setString(4, "patron" + patronId + "@example.org");
+                statement.setString(5, String.format("555-%07d", patronId));
+                statement.setDate(6, Date.valueOf(today.minusDays(random.nextInt(10 * 365))));
+                addBatch(statement, patronId, config.patrons, "patrons");
+            }
+        }
+    }
+
+    // Historical loans follow Zipfian title popularity; recent loans stay active while copies remain
+    private int[] seedLoans(int[] copies) throws SQLException {
+        String sql = "INSERT INTO borrowing_records (book_id, patron_id, borrow_date, due_date, return_date) " +
+                     "VALUES (?, ?, ?, ?, ?)";
+        ZipfianGenerator titlePopularity = new ZipfianGenerator(config.books, config.skew);
+        int[] active = new int[config.books + 1];
+        long today = LocalDate.now().toEpochDay();
+
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 1; i <= config.loans; i++) {
+                int bookId = titlePopularity.nextScrambled(random) + 1;
+                long borrowDay = today - random.nextInt(HISTORY_DAYS);
+                statement.setInt(1, bookId);
+                statement.setInt(2, 1 + random.nextInt(config.patrons));
+                statement.setDate(3, Date.valueOf(LocalDate.ofEpochDay(borrowDay)));
+                statement.setDate(4, Date.valueOf(LocalDate.ofEpochDay(borrowDay + LOAN_DAYS)));
+                if (today - borrowDay < ACTIVE_WINDOW_DAYS && active[bookId] < copies[bookId]) {
+                    active[bookId]++;
+                    statement.setNull(5, java.sql.Types.DATE);
+                } else {
+                    long returnDay = Math.min(today, borrowDay + 1 + random.nextInt(LOAN_DAYS * 2));
+                    statement.setDate(5, Date.valueOf(LocalDate.ofEpochDay(returnDay)));
+                }
+                addBatch(statement, i, config.loans, "loans");
+            }
+        }
+        return active;
+    }
+
+    private void updateAvailability(int[] copies, int[] active) throws SQLException {
+        String sql = "UPDATE books SET copies_available = ? WHERE book_id = ?";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            int updates = 0;
+            for (int bookId = 1; bookId < active.length; bookId++) {
+                if (active[bookId] > 0) {
+                    statement.setInt(1, copies[bookId] - active[bookId]);
+                    statement.setInt(2, bookId);
+                    statement.addBatch();
+                    if (++updates % BATCH_SIZE == 0) {
+                        statement.executeBatch();
+                    }
+                }
+            }
+            statement.executeBatch();
+            connection.commit();
+        }
+    }
+
+    private void addBatch(PreparedStatement statement, int row, int total, String label) throws SQLException {
+        statement.addBatch();
+        if (row % BATCH_SIZE == 0 || row == total) {
+            statement.executeBatch();
+            connection.commit();
+        }
+        if (total >= 10 && row % (total / 10) == 0) {
+            System.out.println("Seeding " + label + ": " + row + "/" + total);
+        }
+    }
+
+    private String title(int bookId) {
+        String[] words = LoadTestHarness.TITLE_WORDS;
+        return "The " + words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)] + " " + bookId;
+    }
+}
+
+class LoadTestDriver {
+    private static final long DRAIN_TIMEOUT_SECONDS = 60;
+    private static final int LOAN_DAYS = 14;
+
+    private final LoadTestConfig config;
+    private final ConcurrentLinkedQueue<LoadTestHarness.WorkerServices> freeLanes;
+    private final ThreadLocal<LoadTestHarness.WorkerServices> lane;
+    private final ZipfianGenerator titlePopularity;
+    private final ConcurrentLinkedQueue<Integer> activeLoans = new ConcurrentLinkedQueue<>();
+    private final WorkloadOperation[] mixTable;
+    private final Map<WorkloadOperation, OperationStats> stats = new EnumMap<>(WorkloadOperation.class);
+    private volatile boolean recording;
+
+    LoadTestDriver(LoadTestConfig config, List<LoadTestHarness.WorkerServices> lanes) {
+        this.config = config;
+        this.freeLanes = new ConcurrentLinkedQueue<>(lanes);
+        // Pool threads equal lanes, so each thread keeps the lane it first picks up
+        this.lane = ThreadLocal.withInitial(freeLanes::poll);
+        this.titlePopularity = new ZipfianGenerator(config.books, config.skew);
+
+        List<WorkloadOperation> table = new ArrayList<>();
+        for (Map.Entry<WorkloadOperation, Integer> entry : config.mix.entrySet()) {
+            for (int i = 0; i < entry.getValue(); i++) {
+                table.add(entry.getKey());
+            }
+        }
+        if (table.isEmpty()) {
+            throw new IllegalArgumentException("Workload mix is empty");
+        }
+        this.mixTable = table.toArray(new WorkloadOperation[0]);
+        for (WorkloadOperation operation : WorkloadOperation.values()) {
+            stats.put(operation, new OperationStats());
+        }
+    }
+
+    public LoadTestResult run() throws SQLException {
+        LoadTestHarness.WorkerServices loader = freeLanes.peek();
+        LoanBatch batch = loader.borrowingService.getActiveBorrowingsBatch();
+        for (int i = 0; i < batch.size(); i++) {
+            activeLoans.add(batch.recordIds[i]);
+        }
+        System.out.println("Replaying at " + config.rate + " ops/s for " + config.durationSeconds + " s after "
+                           + config.warmupSeconds + " s warmup (" + activeLoans.size() + " active loans)");
+
+        // Unbounded queue: arrivals never wait for completions, so a saturated system shows up as latency
+        ExecutorService executor = new ThreadPoolExecutor(config.threads, config.threads, 0, TimeUnit.MILLISECONDS,
+                                                          new LinkedBlockingQueue<>(), daemonThreads());
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / config.rate;
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(config.warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(config.durationSeconds);
+        long scheduled = 0;
+
+        for (long intended = start; intended < end; intended += intervalNanos) {
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            if (!recording && intended >= measureFrom) {
+                recording = true;
+            }
+            long intendedStart = intended;
+            WorkloadOperation operation = mixTable[ThreadLocalRandom.current().nextInt(mixTable.length)];
+            executor.execute(() -> execute(operation, intendedStart));
+            scheduled++;
+        }
+
+        executor.shutdown();
+        boolean drained;
+        try {
+            drained = executor.awaitTermination(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
+        if (!drained) {
+            executor.shutdownNow();
+        }
+        long elapsed = System.nanoTime() - measureFrom;
+        return new LoadTestResult(config.rate, scheduled, elapsed, drained, stats);
+    }
+
+    // Latency is measured from the intended start, so queueing behind a slow system is counted
+    private void execute(WorkloadOperation operation, long intendedStart) {
+        LoadTestHarness.WorkerServices services = lane.get();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        OperationStats operationStats = stats.get(operation);
+        boolean failed = false;
+        boolean rejected = false;
+        boolean skipped = false;
+
+        try {
+            switch (operation) {
+                case SEARCH:
+                    String[] words = LoadTestHarness.TITLE_WORDS;
+                    services.bookService.getBooksByTitle(words[random.nextInt(words.length)] + " "
+                                                         + words[random.nextInt(words.length)]);
+                    break;
+                case CHECKOUT:
+                    skipped = !checkout(services, random);
+                    break;
+                case RETURN:
+                    Integer recordId = activeLoans.poll();
+                    skipped = recordId == null
+                              || !services.borrowingService.returnBook(recordId, UUID.randomUUID().toString());
+                    break;
+                case HISTORY:
+                    services.borrowingService.getPatronLoanViews(1 + random.nextInt(config.patrons));
+                    break;
+                default:
+                    break;
+            }
+        } catch (AdmissionRejectedException e) {
+            rejected = true;
+        } catch (SQLException | RuntimeException e) {
+            failed = true;
+            operationStats.recordError(e);
+        }
+
+        if (recording) {
+            operationStats.record((System.nanoTime() - intendedStart) / 1000, failed, rejected, skipped);
+        }
+    }
+
+    // Keyed like a kiosk request, so the idempotency store's cost is part of every checkout
+    private boolean checkout(LoadTestHarness.WorkerServices services, ThreadLocalRandom random) throws SQLException {
+        int bookId = titlePopularity.nextScrambled(random) + 1;
+        LocalDate today = LocalDate.now();
+        BorrowingRecord record = new BorrowingRecord(0, bookId, 1 + random.nextInt(config.patrons), today,
+                                                     today.plusDays(LOAN_DAYS), null);
+        int recordId = services.borrowingService.borrowBook(record, UUID.randomUUID().toString());
+        if (recordId == 0) {
+            return false;
+        }
+        activeLoans.add(recordId);
+        return true;
+    }
+
+    private static java.util.concurrent.ThreadFactory daemonThreads() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "load-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
+
+class LoadTestResult {
+    private final int targetRate;
+    private final long scheduled;
+    private final long elapsedNanos;
+    private final boolean drained;
+    private final Map<WorkloadOperation, OperationStats> stats;
+
+    LoadTestResult(int targetRate, long scheduled, long elapsedNanos, boolean drained,
+                   Map<WorkloadOperation, OperationStats> stats) {
+        this.targetRate = targetRate;
+        this.scheduled = scheduled;
+        this.elapsedNanos = elapsedNanos;
+        this.drained = drained;
+        this.stats = stats;
+    }
+
+    public void print() {
+        double seconds = elapsedNanos / 1e9;
+        long completed = 0;
+        long errors = 0;
+        System.out.println("\n----- Load Test Results -----");
+        System.out.printf("%-9s %9s %9s %8s %8s %8s %9s %9s %9s %9s %9s%n", "Operation", "Count", "Ops/s", "Errors",
+                          "Rejected", "Skipped", "p50 us", "p90 us", "p99 us", "p99.9 us", "Max us");
+        for (Map.Entry<WorkloadOperation, OperationStats> entry : stats.entrySet()) {
+            OperationStats operation = entry.getValue();
+            long count = operation.completed.sum();
+            completed += count;
+            errors += operation.errors.sum();
+            System.out.printf("%-9s %9d %9.1f %8d %8d %8d %9d %9d %9d %9d %9d%n", entry.getKey(), count, count / seconds,
+                              operation.errors.sum(), operation.rejected.sum(), operation.skipped.sum(),
+                              operation.latencies.percentile(50), operation.latencies.percentile(90),
+                              operation.latencies.percentile(99), operation.latencies.percentile(99.9),
+                              operation.latencies.getMax());
+        }
+        System.out.printf("Target rate: %d ops/s | Achieved: %.1f ops/s | Error rate: %.2f%% | Scheduled: %d%n",
+                          targetRate, completed / seconds, completed == 0 ? 0.0 : 100.0 * errors / completed, scheduled);
+        if (!drained) {
+            System.out.println("Warning: work was still queued when the drain timeout expired; the system could not keep up");
+        }
+        for (Map.Entry<WorkloadOperation, OperationStats> entry : stats.entrySet()) {
+            for (Map.Entry<String, Integer> error : entry.getValue().getErrorMessages().entrySet()) {
+                System.out.println(entry.getKey() + " error x" + error.getValue() + ": " + error.getKey());
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Loan batch
+ * Loans held column-wise in parallel int arrays, dates as epoch days.
+ */
+
+import java.util.Arrays;
+
+final class LoanBatch {
+    int[] recordIds;
+    int[] bookIds;
+    int[] patronIds;
+    int[] borrowDays;
+    int[] dueDays;
+    int[] returnDays;
+    private int size;
+
+    // Streamed scans refill one batch per chunk and flush it when isFull(); adding past capacity grows it
+    public LoanBatch(int capacity) {
+        recordIds = new int[capacity];
+        bookIds = new int[capacity];
+        patronIds = new int[capacity];
+        borrowDays = new int[capacity];
+        dueDays = new int[capacity];
+        returnDays = new int[capacity];
+    }
+
+    public void add(int recordId, int bookId, int patronId, int borrowDay, int dueDay, int returnDay) {
+        if (isFull()) {
+            grow();
+        }
+        recordIds[size] = recordId;
+        bookIds[size] = bookId;
+        patronIds[size] = patronId;
+        borrowDays[size] = borrowDay;
+        dueDays[size] = dueDay;
+        returnDays[size] = returnDay;
+        size++;
+    }
+
+    public int size() { return size; }
+
+    public int capacity() { return recordIds.length; }
+
+    public boolean isFull() { return size == recordIds.length; }
+
+    public void clear() { size = 0; }
+
+    private void grow() {
+        int capacity = Math.max(16, recordIds.length + (recordIds.length >> 1));
+        recordIds = Arrays.copyOf(recordIds, capacity);
+        bookIds = Arrays.copyOf(bookIds, capacity);
+        patronIds = Arrays.copyOf(patronIds, capacity);
+        borrowDays = Arrays.copyOf(borrowDays, capacity);
+        dueDays = Arrays.copyOf(dueDays, capacity);
+        returnDays = Arrays.copyOf(returnDays, capacity);
+    }
+
+    public CompactBorrowingRecord get(int index) {
+        return new CompactBorrowingRecord(recordIds[index], bookIds[index], patronIds[index],
+                                          borrowDays[index], dueDays[index], returnDays[index]);
+    }
+}
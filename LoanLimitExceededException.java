@@ -0,0 +1,23 @@
+/**
+ * Loan limit exceeded
+ * Raised when a checkout would take a patron past their category's loan limit.
+ */
+
+import java.sql.*;
+
+class LoanLimitExceededException extends SQLException {
+    private static final long serialVersionUID = 1L;
+
+    private final int patronId;
+    private final int limit;
+
+    public LoanLimitExceededException(int patronId, int limit) {
+        super("Patron " + patronId + " already has the maximum of " + limit + " loans");
+        this.patronId = patronId;
+        this.limit = limit;
+    }
+
+    public int getPatronId() { return patronId; }
+
+    public int getLimit() { return limit; }
+}
@@ -0,0 +1,126 @@
+/**
+ * Per-patron loan limits
+ * Holds each patron's active-loan count and the limit for their category in
+ * memory. A checkout takes a slot with a compare-and-set before its record is
+ * written and a return gives it back, so the limit holds exactly even when one
+ * patron checks out at several desks at once, without counting loans per request.
+ */
+
+import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class LoanLimits implements PatronListener {
+    public static final String DEFAULT_CATEGORY = "STANDARD";
+
+    private final ConnectionFactory connections;
+    private final int defaultLimit;
+    private volatile Map<String, Integer> categoryLimits = new HashMap<>();
+    private final ConcurrentHashMap<Integer, PatronLoans> patrons = new ConcurrentHashMap<>();
+
+    // Categories missing from patron_categories get the default limit
+    public LoanLimits(ConnectionFactory connections, int defaultLimit) {
+        this.connections = connections;
+        this.defaultLimit = defaultLimit;
+    }
+
+    // Load category limits, every patron's category and the current active-loan counts
+    public void load() throws SQLException {
+        Map<String, Integer> limits = new HashMap<>();
+        Map<Integer, PatronLoans> loaded = new HashMap<>();
+        try (Connection connection = connections.open();
+             Statement statement = connection.createStatement()) {
+            try (ResultSet resultSet = statement.executeQuery(
+                     "SELECT category, max_active_loans FROM patron_categories")) {
+                while (resultSet.next()) {
+                    limits.put(resultSet.getString("category"), resultSet.getInt("max_active_loans"));
+                }
+            }
+            categoryLimits = limits;
+
+            try (ResultSet resultSet = statement.executeQuery(
+                     "SELECT patron_id, category FROM patrons WHERE deleted_at IS NULL")) {
+                while (resultSet.next()) {
+                    loaded.put(resultSet.getInt("patron_id"), new PatronLoans(limitFor(resultSet.getString("category"))));
+                }
+            }
+            try (ResultSet resultSet = statement.executeQuery(
+                     "SELECT patron_id, COUNT(*) FROM borrowing_records WHERE return_date IS NULL GROUP BY patron_id")) {
+                while (resultSet.next()) {
+                    loaded.computeIfAbsent(resultSet.getInt(1), key -> new PatronLoans(defaultLimit))
+                          .active.set(resultSet.getInt(2));
+                }
+            }
+        }
+        patrons.clear();
+        patrons.putAll(loaded);
+    }
+
+    // Take a loan slot for the patron; false if they are at their limit
+    public boolean tryAcquire(int patronId) {
+        PatronLoans loans = loans(patronId);
+        while (true) {
+            int active = loans.active.get();
+            if (active >= loans.limit) {
+                return false;
+            }
+            if (loans.active.compareAndSet(active, active + 1)) {
+                return true;
+            }
+        }
+    }
+
+    // Give back a slot after a return, or after a checkout that took one and then failed
+    public void release(int patronId) {
+        PatronLoans loans = patrons.get(patronId);
+        if (loans != null) {
+            loans.active.updateAndGet(active -> Math.max(0, active - 1));
+        }
+    }
+
+    public int getActiveLoans(int patronId) {
+        PatronLoans loans = patrons.get(patronId);
+        return loans != null ? loans.active.get() : 0;
+    }
+
+    public int getLimit(int patronId) {
+        return loans(patronId).limit;
+    }
+
+    public int limitFor(String category) {
+        Integer limit = categoryLimits.get(category != null ? category : DEFAULT_CATEGORY);
+        return limit != null ? limit : defaultLimit;
+    }
+
+    @Override
+    public void onPatronAdded(Patron patron) {
+        loans(patron.getPatronId()).limit = limitFor(patron.getCategory());
+    }
+
+    @Override
+    public void onPatronUpdated(Patron patron) {
+        // A lower limit leaves existing loans alone and blocks new ones until enough are returned
+        loans(patron.getPatronId()).limit = limitFor(patron.getCategory());
+    }
+
+    @Override
+    public void onPatronDeleted(int patronId) {
+        patrons.remove(patronId);
+    }
+
+    // Patrons registered elsewhere since load() start out with the default limit
+    private PatronLoans loans(int patronId) {
+        return patrons.computeIfAbsent(patronId, key -> new PatronLoans(defaultLimit));
+    }
+
+    private static final class PatronLoans {
+        volatile int limit;
+        final AtomicInteger active = new AtomicInteger();
+
+        PatronLoans(int limit) {
+            this.limit = limit;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * Loan view
+ * Loan joined with its book title and patron name, for display
+ */
+
+class LoanView {
+    private BorrowingRecord record;
+    private String title;
+    private String patronName;
+    
+    public LoanView(BorrowingRecord record, String title, String patronName) {
+        this.record = record;
+        this.title = title;
+        this.patronName = patronName;
+    }
+    
+    // Getters
+    public BorrowingRecord getRecord() { return record; }
+    
+    public String getTitle() { return title; }
+    
+    public String getPatronName() { return patronName; }
+    
+    @Override
+    public String toString() {
+        return record + "\nTitle: " + (title != null ? title : "(unknown book)") +
+               " | Patron: " + (patronName != null ? patronName : "(unknown patron)");
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ * Operation classes
+ * Classes of database work under admission control, each with its own
+ * concurrency limit and queue. Declared in priority order, highest first.
+ */
+
+enum OperationClass {
+    CIRCULATION_WRITE(16, 200, 2000, 50),
+    CATALOG_WRITE(8, 50, 1000, 100),
+    LOOKUP(16, 100, 500, 20),
+    BROWSE(4, 20, 200, 200);
+
+    private final int initialLimit;
+    private final int maxQueued;
+    private final long maxWaitMillis;
+    private final long targetLatencyMillis;
+
+    OperationClass(int initialLimit, int maxQueued, long maxWaitMillis, long targetLatencyMillis) {
+        this.initialLimit = initialLimit;
+        this.maxQueued = maxQueued;
+        this.maxWaitMillis = maxWaitMillis;
+        this.targetLatencyMillis = targetLatencyMillis;
+    }
+
+    public int getInitialLimit() { return initialLimit; }
+
+    public int getMaxQueued() { return maxQueued; }
+
+    public long getMaxWaitMillis() { return maxWaitMillis; }
+
+    public long getTargetLatencyMillis() { return targetLatencyMillis; }
+}
@@ -0,0 +1,41 @@
+/**
+ * Operation statistics
+ * Per-operation counters and a log-linear latency histogram in microseconds
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+class OperationStats {
+    private static final int ERROR_SAMPLES = 5;
+
+    final LongAdder completed = new LongAdder();
+    final LongAdder errors = new LongAdder();
+    final LongAdder rejected = new LongAdder();
+    final LongAdder skipped = new LongAdder();
+    final LatencyHistogram latencies = new LatencyHistogram();
+    private final Map<String, Integer> errorMessages = new HashMap<>();
+
+    void record(long latencyMicros, boolean failed, boolean wasRejected, boolean wasSkipped) {
+        completed.increment();
+        latencies.record(latencyMicros);
+        if (failed) {
+            errors.increment();
+        } else if (wasRejected) {
+            rejected.increment();
+        } else if (wasSkipped) {
+            skipped.increment();
+        }
+    }
+
+    synchronized void recordError(Exception e) {
+        if (errorMessages.size() < ERROR_SAMPLES || errorMessages.containsKey(e.getMessage())) {
+            errorMessages.merge(String.valueOf(e.getMessage()), 1, Integer::sum);
+        }
+    }
+
+    synchronized Map<String, Integer> getErrorMessages() {
+        return new HashMap<>(errorMessages);
+    }
+}
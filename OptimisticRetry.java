@@ -0,0 +1,35 @@
+/**
+ * Optimistic retry
+ * Re-runs a versioned read-modify-write with a short randomised backoff
+ * for as long as it conflicts, up to a fixed number of attempts.
+ */
+
+import java.sql.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+final class OptimisticRetry {
+    interface Attempt {
+        // Re-read, re-apply and write; called again while it returns CONFLICT
+        UpdateResult attempt() throws SQLException;
+    }
+    
+    private OptimisticRetry() {
+    }
+    
+    public static UpdateResult run(int maxAttempts, Attempt attempt) throws SQLException {
+        for (int i = 1; ; i++) {
+            UpdateResult result = attempt.attempt();
+            if (result != UpdateResult.CONFLICT || i >= maxAttempts) {
+                return result;
+            }
+            // Short randomised backoff so contending writers do not retry in lockstep
+            long backoffMillis = ThreadLocalRandom.current().nextLong(1L << Math.min(i, 6));
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return result;
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Patron
+ * A registered library member and their contact details.
+ */
+
+import java.time.LocalDate;
+
+class Patron {
+    private int patronId;
+    private String firstName;
+    private String lastName;
+    private String email;
+    private String phone;
+    private LocalDate registrationDate;
+    private String category = LoanLimits.DEFAULT_CATEGORY;
+    private int version;
+    
+    public Patron(int patronId, String firstName, String lastName, String email, String phone, LocalDate registrationDate) {
+        this.patronId = patronId;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.email = email;
+        this.phone = phone;
+        this.registrationDate = registrationDate;
+    }
+    
+    // Getters and setters
+    public int getPatronId() { return patronId; }
+    public void setPatronId(int patronId) { this.patronId = patronId; }
+    
+    public String getFirstName() { return firstName; }
+    public void setFirstName(String firstName) { this.firstName = firstName; }
+    
+    public String getLastName() { return lastName; }
+    public void setLastName(String lastName) { this.lastName = lastName; }
+    
+    public String getEmail() { return email; }
+    public void setEmail(String email) { this.email = email; }
+    
+    public String getPhone() { return phone; }
+    public void setPhone(String phone) { this.phone = phone; }
+    
+    public LocalDate getRegistrationDate() { return registrationDate; }
+    public void setRegistrationDate(LocalDate registrationDate) { this.registrationDate = registrationDate; }
+    
+    public String getCategory() { return category; }
+    public void setCategory(String category) { this.category = category; }
+    
+    public int getVersion() { return version; }
+    public void setVersion(int version) { this.version = version; }
+    
+    @Override
+    public String toString() {
+        return "Patron ID: " + patronId + " | Name: " + firstName + " " + lastName + 
+               " | Email: " + email + " | Phone: " + phone + " | Registered: " + registrationDate +
+               " | Category: " + category;
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * Patron listener
+ * Notified by PatronService after each committed change to the patrons table.
+ */
+
+interface PatronListener {
+    // Called after a patron has been inserted and given its ID
+    void onPatronAdded(Patron patron);
+    
+    // Called after a patron row has been updated with the given values
+    void onPatronUpdated(Patron patron);
+    
+    // Called after a patron row has been deleted
+    void onPatronDeleted(int patronId);
+}
@@ -0,0 +1,235 @@
+/**
+ * Patron service
+ * CRUD operations on the patrons table; patron listeners are told about
+ * every committed change.
+ */
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+class PatronService {
+    private Connection connection;
+    private List<PatronListener> listeners = new CopyOnWriteArrayList<>();
+    private PatronTimelineCache timelineCache;
+    
+    public PatronService(Connection connection) {
+        this.connection = connection;
+    }
+    
+    public void addPatronListener(PatronListener listener) {
+        listeners.add(listener);
+    }
+    
+    public void setTimelineCache(PatronTimelineCache timelineCache) {
+        this.timelineCache = timelineCache;
+    }
+    
+    // Create
+    public int addPatron(Patron patron) throws SQLException {
+        String sql = "INSERT INTO patrons (first_name, last_name, email, phone, registration_date, category) VALUES (?, ?, ?, ?, ?, ?)";
+        
+        try (PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            statement.setString(1, patron.getFirstName());
+            statement.setString(2, patron.getLastName());
+            statement.setString(3, patron.getEmail());
+            statement.setString(4, patron.getPhone());
+            statement.setDate(5, Date.valueOf(patron.getRegistrationDate()));
+            statement.setString(6, patron.getCategory());
+            
+            int affectedRows = statement.executeUpdate();
+            if (affectedRows == 0) {
+                throw new SQLException("Creating patron failed, no rows affected.");
+            }
+            
+            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                if (generatedKeys.next()) {
+                    int patronId = generatedKeys.getInt(1);
+                    patron.setPatronId(patronId);
+                    for (PatronListener listener : listeners) {
+                        listener.onPatronAdded(patron);
+                    }
+                    return patronId;
+                } else {
+                    throw new SQLException("Creating patron failed, no ID obtained.");
+                }
+            }
+        }
+    }
+    
+    // Read - Served from the timeline cache when the patron is in it
+    public Patron getPatronById(int patronId) throws SQLException {
+        if (timelineCache == null) {
+            return readPatron(patronId);
+        }
+        Patron cached = timelineCache.getPatron(patronId);
+        if (cached != null) {
+            return cached;
+        }
+        long stamp = timelineCache.stamp(patronId);
+        Patron patron = readPatron(patronId);
+        if (patron != null) {
+            timelineCache.putPatron(patronId, stamp, patron);
+        }
+        return patron;
+    }
+    
+    private Patron readPatron(int patronId) throws SQLException {
+        String sql = "SELECT * FROM patrons WHERE patron_id = ? AND deleted_at IS NULL";
+        
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, patronId);
+            
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    return extractPatronFromResultSet(resultSet);
+                }
+            }
+        }
+        
+        return null;
+    }
+    
+    // Read - Many patrons in chunked IN queries, keyed by patron ID; unknown IDs are absent
+    public Map<Integer, Patron> getPatronsByIds(Collection<Integer> patronIds) throws SQLException {
+        Map<Integer, Patron> patrons = new HashMap<>();
+        
+        for (List<Integer> chunk : SqlInList.chunks(patronIds)) {
+            String sql = "SELECT * FROM patrons WHERE patron_id IN (" + SqlInList.placeholders(chunk.size()) + ") "
+                         + "AND deleted_at IS NULL";
+            
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    statement.setInt(i + 1, chunk.get(i));
+                }
+                
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        Patron patron = extractPatronFromResultSet(resultSet);
+                        patrons.put(patron.getPatronId(), patron);
+                    }
+                }
+            }
+        }
+        
+        return patrons;
+    }
+    
+    public List<Patron> getPatronsByName(String name) throws SQLException {
+        List<Patron> patrons = new ArrayList<>();
+        String sql = "SELECT * FROM patrons WHERE (first_name LIKE ? OR last_name LIKE ?) AND deleted_at IS NULL";
+        
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, "%" + name + "%");
+            statement.setString(2, "%" + name + "%");
+            
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    patrons.add(extractPatronFromResultSet(resultSet));
+                }
+            }
+        }
+        
+        return patrons;
+    }
+    
+    public List<Patron> getAllPatrons() throws SQLException {
+        List<Patron> patrons = new ArrayList<>();
+        String sql = "SELECT * FROM patrons WHERE deleted_at IS NULL";
+        
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            
+            while (resultSet.next()) {
+                patrons.add(extractPatronFromResultSet(resultSet));
+            }
+        }
+        
+        return patrons;
+    }
+    
+    // Update - Only if the row still has the version the patron was read with
+    public UpdateResult tryUpdatePatron(Patron patron) throws SQLException {
+        String sql = "UPDATE patrons SET first_name = ?, last_name = ?, email = ?, phone = ?, category = ?, "
+                     + "version = version + 1 WHERE patron_id = ? AND version = ? AND deleted_at IS NULL";
+        
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, patron.getFirstName());
+            statement.setString(2, patron.getLastName());
+            statement.setString(3, patron.getEmail());
+            statement.setString(4, patron.getPhone());
+            statement.setString(5, patron.getCategory());
+            statement.setInt(6, patron.getPatronId());
+            statement.setInt(7, patron.getVersion());
+            
+            int affectedRows = statement.executeUpdate();
+            if (affectedRows == 0) {
+                // The version read was stale, possibly from the cache; the retry must see the row itself
+                if (timelineCache != null) {
+                    timelineCache.evict(patron.getPatronId());
+                }
+                return getPatronById(patron.getPatronId()) != null ? UpdateResult.CONFLICT : UpdateResult.NOT_FOUND;
+            }
+        }
+        
+        patron.setVersion(patron.getVersion() + 1);
+        for (PatronListener listener : listeners) {
+            listener.onPatronUpdated(patron);
+        }
+        return UpdateResult.UPDATED;
+    }
+    
+    public boolean updatePatron(Patron patron) throws SQLException {
+        return tryUpdatePatron(patron) == UpdateResult.UPDATED;
+    }
+    
+    // Update - Read the current row, apply the change and write it, retrying on conflict
+    public UpdateResult modifyPatron(int patronId, Consumer<Patron> change, int maxAttempts) throws SQLException {
+        return OptimisticRetry.run(maxAttempts, () -> {
+            Patron patron = getPatronById(patronId);
+            if (patron == null) {
+                return UpdateResult.NOT_FOUND;
+            }
+            change.accept(patron);
+            return tryUpdatePatron(patron);
+        });
+    }
+    
+    // Delete - Tombstone the row; the purger archives and removes it once it has no recent loans
+    public boolean deletePatron(int patronId) throws SQLException {
+        String sql = "UPDATE patrons SET deleted_at = NOW(), version = version + 1 WHERE patron_id = ? AND deleted_at IS NULL";
+        
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setInt(1, patronId);
+            
+            int affectedRows = statement.executeUpdate();
+            if (affectedRows > 0) {
+                for (PatronListener listener : listeners) {
+                    listener.onPatronDeleted(patronId);
+                }
+            }
+            return affectedRows > 0;
+        }
+    }
+    
+    // Helper method
+    private Patron extractPatronFromResultSet(ResultSet resultSet) throws SQLException {
+        int patronId = resultSet.getInt("patron_id");
+        String firstName = resultSet.getString("first_name");
+        String lastName = resultSet.getString("last_name");
+        String email = resultSet.getString("email");
+        String phone = resultSet.getString("phone");
+        LocalDate registrationDate = resultSet.getDate("registration_date").toLocalDate();
+        
+        Patron patron = new Patron(patronId, firstName, lastName, email, phone, registrationDate);
+        patron.setCategory(resultSet.getString("category"));
+        patron.setVersion(resultSet.getInt("version"));
+        return patron;
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Patron timeline
+ * One patron's loans in (borrow date, record ID) order. Not thread-safe; the cache guards it
+ */
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+final class PatronTimeline {
+    private static final int BLOCK_SIZE = 64;
+    private static final int ACTIVE = Integer.MIN_VALUE;
+
+    // Per loan: zigzag varints of record ID, borrow day and book ID as deltas from the previous loan
+    // (absolute at the start of each block), then due day minus borrow day, then branch ID
+    private byte[] data = new byte[32];
+    private int length;
+    // Byte offset of each block's first loan
+    private int[] blockOffsets = new int[1];
+    // Return day minus borrow day per loan, or ACTIVE
+    private int[] returnOffsets = new int[8];
+    private int count;
+    private int lastRecordId;
+    private int lastBorrowDay;
+    private int lastBookId;
+    private int maxRecordId;
+
+    public int size() {
+        return count;
+    }
+
+    // Append a loan newer than every loan already held; loads must add in (borrow date, record ID) order
+    void append(int recordId, int bookId, int borrowDay, int dueDay, int returnDay, int branchId) {
+        if (count % BLOCK_SIZE == 0) {
+            int block = count / BLOCK_SIZE;
+            if (block == blockOffsets.length) {
+                blockOffsets = Arrays.copyOf(blockOffsets, block * 2);
+            }
+            blockOffsets[block] = length;
+            lastRecordId = 0;
+            lastBorrowDay = 0;
+            lastBookId = 0;
+        }
+        ensureCapacity(5 * 5);
+        writeSigned(recordId - lastRecordId);
+        writeSigned(borrowDay - lastBorrowDay);
+        writeSigned(bookId - lastBookId);
+        writeSigned(dueDay - borrowDay);
+        writeSigned(branchId);
+        if (count == returnOffsets.length) {
+            returnOffsets = Arrays.copyOf(returnOffsets, count + (count >> 1));
+        }
+        returnOffsets[count++] = returnDay == EpochDays.NONE ? ACTIVE : returnDay - borrowDay;
+        lastRecordId = recordId;
+        lastBorrowDay = borrowDay;
+        lastBookId = bookId;
+        maxRecordId = Math.max(maxRecordId, recordId);
+    }
+
+    // Apply a checkout; false if it can't be appended in order and the timeline must be reloaded
+    boolean add(BorrowingRecord record) {
+        int borrowDay = EpochDays.of(record.getBorrowDate());
+        if (record.getRecordId() <= maxRecordId) {
+            // Already loaded together with the timeline
+            return indexOf(record.getRecordId()) >= 0;
+        }
+        if (count > 0 && borrowDay < lastBorrowDay) {
+            return false;
+        }
+        append(record.getRecordId(), record.getBookId(), borrowDay, EpochDays.of(record.getDueDate()),
+               EpochDays.of(record.getReturnDate()), record.getBranchId());
+        return true;
+    }
+
+    // Set a loan's return day; false if the loan isn't in the timeline
+    boolean setReturned(int recordId, int returnDay) {
+        int index = indexOf(recordId);
+        if (index < 0) {
+            return false;
+        }
+        returnOffsets[index] = returnDay - borrowDayAt(index);
+        return true;
+    }
+
+    // Loans from offset to offset + limit counted from the most recent, newest first
+    List<BorrowingRecord> page(int patronId, int offset, int limit) {
+        List<BorrowingRecord> records = new ArrayList<>();
+        int high = count - 1 - offset;
+        int low = (int) Math.max(0, (long) high - limit + 1);
+        if (high < 0 || limit <= 0) {
+            return records;
+        }
+        int[][] block = new int[5][BLOCK_SIZE];
+        for (int b = high / BLOCK_SIZE; b >= low / BLOCK_SIZE; b--) {
+            int first = b * BLOCK_SIZE;
+            int decoded = decodeBlock(b, block);
+            for (int i = Math.min(high, first + decoded - 1); i >= Math.max(low, first); i--) {
+                int j = i - first;
+                int borrowDay = block[1][j];
+                LocalDate returnDate = returnOffsets[i] == ACTIVE ? null : EpochDays.toDate(borrowDay + returnOffsets[i]);
+                BorrowingRecord record = new BorrowingRecord(block[0][j], block[2][j], patronId,
+                                                             EpochDays.toDate(borrowDay), EpochDays.toDate(block[3][j]),
+                                                             returnDate);
+                record.setBranchId(block[4][j]);
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    long footprint() {
+        return data.length + 4L * (blockOffsets.length + returnOffsets.length) + 64;
+    }
+
+    // Newest blocks first, since loans being returned are usually recent
+    private int indexOf(int recordId) {
+        int[][] block = new int[5][BLOCK_SIZE];
+        for (int b = (count - 1) / BLOCK_SIZE; b >= 0; b--) {
+            int decoded = decodeBlock(b, block);
+            for (int j = decoded - 1; j >= 0; j--) {
+                if (block[0][j] == recordId) {
+                    return b * BLOCK_SIZE + j;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private int borrowDayAt(int index) {
+        int[][] block = new int[5][BLOCK_SIZE];
+        decodeBlock(index / BLOCK_SIZE, block);
+        return block[1][index % BLOCK_SIZE];
+    }
+
+    // Decode one block into record IDs, borrow days, book IDs, due days and branch IDs; returns the loans decoded
+    private int decodeBlock(int block, int[][] out) {
+        int first = block * BLOCK_SIZE;
+        int decoded = Math.min(BLOCK_SIZE, count - first);
+        int[] position = {blockOffsets[block]};
+        int recordId = 0;
+        int borrowDay = 0;
+        int bookId = 0;
+        for (int j = 0; j < decoded; j++) {
+            recordId += readSigned(position);
+            borrowDay += readSigned(position);
+            bookId += readSigned(position);
+            out[0][j] = recordId;
+            out[1][j] = borrowDay;
+            out[2][j] = bookId;
+            out[3][j] = borrowDay + readSigned(position);
+            out[4][j] = readSigned(position);
+        }
+        return decoded;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > data.length) {
+            data = Arrays.copyOf(data, Math.max(length + extra, data.length + (data.length >> 1)));
+        }
+    }
+
+    private void writeSigned(int value) {
+        int zigzag = (value << 1) ^ (value >> 31);
+        while ((zigzag & ~0x7F) != 0) {
+            data[length++] = (byte) ((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        data[length++] = (byte) zigzag;
+    }
+
+    private int readSigned(int[] position) {
+        int zigzag = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[position[0]++];
+            zigzag |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
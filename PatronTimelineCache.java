@@ -0,0 +1,238 @@
+/**
+ * Patron timeline cache
+ * Keeps recently used patrons and their full loan history in memory, so desk
+ * lookups of a patron and their history skip the database. Each history is a
+ * compact timeline: loans in borrow order, encoded as varint deltas of record
+ * ID, epoch day and book ID in one byte array, with return dates in a
+ * parallel int array so they can be set in place. Every 64th loan is stored
+ * in full, so the most recent page decodes from the end without reading the
+ * rest of the history. Checkouts and returns are applied to cached timelines
+ * as they happen; patrons are evicted least recently used first once the
+ * cache is over its memory budget.
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+class PatronTimelineCache implements PatronListener, CirculationListener {
+    // Rough per-entry cost of the map node, entry and timeline objects
+    private static final long ENTRY_OVERHEAD_BYTES = 160;
+    private static final long PATRON_BYTES = 256;
+    private static final int STAMP_STRIPES = 1024;
+
+    private final long memoryBudgetBytes;
+    // Access order, so iteration starts at the least recently used patron
+    private final LinkedHashMap<Integer, CachedPatron> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Bumped before every change to a patron, so a load that raced with it is not cached
+    private final AtomicLongArray stamps = new AtomicLongArray(STAMP_STRIPES);
+    private long bytesUsed;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public PatronTimelineCache(long memoryBudgetBytes) {
+        this.memoryBudgetBytes = memoryBudgetBytes;
+    }
+
+    // Read before loading a patron or timeline from the database, and passed back to put
+    public long stamp(int patronId) {
+        return stamps.get(stripe(patronId));
+    }
+
+    // A copy of the cached patron, or null if not cached
+    public synchronized Patron getPatron(int patronId) {
+        CachedPatron entry = entries.get(patronId);
+        if (entry == null || entry.patron == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return copyOf(entry.patron);
+    }
+
+    public synchronized void putPatron(int patronId, long stamp, Patron patron) {
+        if (stamp(patronId) != stamp) {
+            return;
+        }
+        CachedPatron entry = entry(patronId);
+        bytesUsed -= entry.footprint();
+        entry.patron = copyOf(patron);
+        bytesUsed += entry.footprint();
+        evictOverBudget();
+    }
+
+    // One page of the patron's loans, most recent first, or null if the timeline is not cached
+    public synchronized List<BorrowingRecord> getHistoryPage(int patronId, int offset, int limit) {
+        CachedPatron entry = entries.get(patronId);
+        if (entry == null || entry.timeline == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.timeline.page(patronId, offset, limit);
+    }
+
+    public synchronized void putTimeline(int patronId, long stamp, PatronTimeline timeline) {
+        if (stamp(patronId) != stamp) {
+            return;
+        }
+        CachedPatron entry = entry(patronId);
+        bytesUsed -= entry.footprint();
+        entry.timeline = timeline;
+        bytesUsed += entry.footprint();
+        evictOverBudget();
+    }
+
+    // Drop a patron whose cached row turned out to be stale
+    public synchronized void evict(int patronId) {
+        stamps.incrementAndGet(stripe(patronId));
+        CachedPatron entry = entries.remove(patronId);
+        if (entry != null) {
+            bytesUsed -= entry.footprint();
+        }
+    }
+
+    // Drop everything, after loans were removed behind the services' back
+    public synchronized void invalidateAll() {
+        for (int i = 0; i < STAMP_STRIPES; i++) {
+            stamps.incrementAndGet(i);
+        }
+        entries.clear();
+        bytesUsed = 0;
+    }
+
+    @Override
+    public synchronized void onPatronAdded(Patron patron) {
+        stamps.incrementAndGet(stripe(patron.getPatronId()));
+        // A new patron has no loans yet, so the empty timeline is already complete
+        CachedPatron entry = entry(patron.getPatronId());
+        bytesUsed -= entry.footprint();
+        entry.patron = copyOf(patron);
+        entry.timeline = new PatronTimeline();
+        bytesUsed += entry.footprint();
+        evictOverBudget();
+    }
+
+    @Override
+    public synchronized void onPatronUpdated(Patron patron) {
+        stamps.incrementAndGet(stripe(patron.getPatronId()));
+        CachedPatron entry = entries.get(patron.getPatronId());
+        if (entry != null && entry.patron != null) {
+            entry.patron = copyOf(patron);
+        }
+    }
+
+    @Override
+    public void onPatronDeleted(int patronId) {
+        evict(patronId);
+    }
+
+    @Override
+    public synchronized void onBorrow(BorrowingRecord record) {
+        stamps.incrementAndGet(stripe(record.getPatronId()));
+        CachedPatron entry = entries.get(record.getPatronId());
+        if (entry == null || entry.timeline == null) {
+            return;
+        }
+        bytesUsed -= entry.footprint();
+        if (!entry.timeline.add(record)) {
+            // Out of borrow order; the next read reloads it sorted
+            entry.timeline = null;
+        }
+        bytesUsed += entry.footprint();
+        evictOverBudget();
+    }
+
+    @Override
+    public synchronized void onReturn(BorrowingRecord record) {
+        stamps.incrementAndGet(stripe(record.getPatronId()));
+        CachedPatron entry = entries.get(record.getPatronId());
+        if (entry == null || entry.timeline == null || record.getReturnDate() == null) {
+            return;
+        }
+        if (!entry.timeline.setReturned(record.getRecordId(), EpochDays.of(record.getReturnDate()))) {
+            bytesUsed -= entry.footprint();
+            entry.timeline = null;
+            bytesUsed += entry.footprint();
+        }
+    }
+
+    public synchronized TimelineCacheStats getStats() {
+        return new TimelineCacheStats(entries.size(), bytesUsed, memoryBudgetBytes, hits, misses, evictions);
+    }
+
+    private CachedPatron entry(int patronId) {
+        return entries.computeIfAbsent(patronId, key -> new CachedPatron());
+    }
+
+    private void evictOverBudget() {
+        Iterator<CachedPatron> iterator = entries.values().iterator();
+        while (bytesUsed > memoryBudgetBytes && iterator.hasNext()) {
+            bytesUsed -= iterator.next().footprint();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    private static int stripe(int patronId) {
+        return patronId & (STAMP_STRIPES - 1);
+    }
+
+    // Patrons are mutable and callers edit what they read, so the cache never shares its copy
+    private static Patron copyOf(Patron patron) {
+        Patron copy = new Patron(patron.getPatronId(), patron.getFirstName(), patron.getLastName(), patron.getEmail(),
+                                 patron.getPhone(), patron.getRegistrationDate());
+        copy.setCategory(patron.getCategory());
+        copy.setVersion(patron.getVersion());
+        return copy;
+    }
+
+    private static final class CachedPatron {
+        Patron patron;
+        PatronTimeline timeline;
+
+        long footprint() {
+            return ENTRY_OVERHEAD_BYTES + (patron != null ? PATRON_BYTES : 0)
+                   + (timeline != null ? timeline.footprint() : 0);
+        }
+    }
+}
+
+class TimelineCacheStats {
+    private final int patrons;
+    private final long bytesUsed;
+    private final long memoryBudgetBytes;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+
+    TimelineCacheStats(int patrons, long bytesUsed, long memoryBudgetBytes, long hits, long misses, long evictions) {
+        this.patrons = patrons;
+        this.bytesUsed = bytesUsed;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    public int getPatrons() { return patrons; }
+
+    public long getBytesUsed() { return bytesUsed; }
+
+    public long getHits() { return hits; }
+
+    public long getMisses() { return misses; }
+
+    public long getEvictions() { return evictions; }
+
+    @Override
+    public String toString() {
+        long lookups = hits + misses;
+        return "Patron timeline cache | Patrons: " + patrons + " | Memory: " + bytesUsed / 1024 + " / "
+               + memoryBudgetBytes / 1024 + " KB | Hit rate: "
+               + (lookups > 0 ? String.format("%.1f%%", 100.0 * hits / lookups) : "n/a")
+               + " | Evictions: " + evictions;
+    }
+}
@@ -0,0 +1,315 @@
+/**
+ * Per-title popularity counters
+ * Keeps total, active and rolling-window loan counts per book_id in memory,
+ * updated from the checkout and return paths, and flushes the accumulated
+ * deltas in batches to book_popularity and book_daily_loans. Deltas not yet
+ * flushed when the process dies are recovered on the next load, which rebuilds
+ * the summary tables whenever their totals are behind borrowing_records.
+ * Loans archived with a purged patron still count towards their book, so the
+ * check and the rebuild read borrowing_records_archive for books that remain.
+ */
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+class PopularityCounters implements CirculationListener, AutoCloseable {
+    // Loans archived by a patron purge; a book purge drops the book's summary rows along with its loans
+    private static final String ARCHIVED_LOANS_SQL =
+        "SELECT a.book_id, a.return_date FROM borrowing_records_archive a JOIN books b ON b.book_id = a.book_id";
+
+    private Connection connection;
+    private int windowDays;
+    private ConcurrentHashMap<Integer, TitleCounter> counters = new ConcurrentHashMap<>();
+    // Unflushed loans keyed by (book_id, epoch day), unflushed returns keyed by book_id
+    private ConcurrentHashMap<Long, Integer> pendingLoans = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<Integer, Integer> pendingReturns = new ConcurrentHashMap<>();
+    private ScheduledExecutorService flusher;
+
+    // The connection is used only for loading and flushing and should not be shared with the services
+    public PopularityCounters(Connection connection, int windowDays) {
+        this.connection = connection;
+        this.windowDays = windowDays;
+    }
+
+    // Load persisted counters; rebuilds the summary tables first if they missed loans or returns
+    public void load() throws SQLException {
+        if (isSummaryBehind()) {
+            rebuild();
+        }
+
+        counters.clear();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(
+                 "SELECT book_id, total_loans, active_loans FROM book_popularity")) {
+            while (resultSet.next()) {
+                TitleCounter counter = counter(resultSet.getInt("book_id"));
+                counter.totalLoans.add(resultSet.getLong("total_loans"));
+                counter.activeLoans.add(resultSet.getLong("active_loans"));
+            }
+        }
+
+        String sql = "SELECT book_id, loan_date, loans FROM book_daily_loans WHERE loan_date > ?";
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setDate(1, Date.valueOf(LocalDate.now().minusDays(windowDays)));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    int day = (int) resultSet.getDate("loan_date").toLocalDate().toEpochDay();
+                    counter(resultSet.getInt("book_id")).recordWindowLoans(day, resultSet.getInt("loans"), windowDays);
+                }
+            }
+        }
+    }
+
+    // Recompute both summary tables from borrowing_records and the archived loans of live books
+    public void rebuild() throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM book_popularity");
+            statement.executeUpdate("DELETE FROM book_daily_loans");
+            statement.executeUpdate(
+                "INSERT INTO book_popularity (book_id, total_loans, active_loans) "
+                + "SELECT book_id, COUNT(*), SUM(CASE WHEN return_date IS NULL THEN 1 ELSE 0 END) "
+                + "FROM (SELECT book_id, return_date FROM borrowing_records UNION ALL " + ARCHIVED_LOANS_SQL
+                + ") loans GROUP BY book_id");
+
+            String dailySql = "INSERT INTO book_daily_loans (book_id, loan_date, loans) "
+                              + "SELECT book_id, borrow_date, COUNT(*) FROM borrowing_records "
+                              + "WHERE borrow_date > ? GROUP BY book_id, borrow_date";
+            try (PreparedStatement daily = connection.prepareStatement(dailySql)) {
+                daily.setDate(1, Date.valueOf(LocalDate.now().minusDays(windowDays)));
+                daily.executeUpdate();
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    // Flush periodically on a daemon thread
+    public synchronized void start(long periodSeconds) {
+        if (flusher != null) {
+            return;
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "popularity-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (SQLException e) {
+                System.out.println("Popularity flush failed: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void onBorrow(BorrowingRecord record) {
+        int day = (int) record.getBorrowDate().toEpochDay();
+        TitleCounter counter = counter(record.getBookId());
+        counter.totalLoans.increment();
+        counter.activeLoans.increment();
+        counter.recordWindowLoans(day, 1, windowDays);
+        pendingLoans.merge(dailyKey(record.getBookId(), day), 1, Integer::sum);
+    }
+
+    @Override
+    public void onReturn(BorrowingRecord record) {
+        counter(record.getBookId()).activeLoans.decrement();
+        pendingReturns.merge(record.getBookId(), 1, Integer::sum);
+    }
+
+    // O(1) reads, no database access
+    public long getTotalLoans(int bookId) {
+        TitleCounter counter = counters.get(bookId);
+        return counter != null ? counter.totalLoans.sum() : 0;
+    }
+
+    public long getActiveLoans(int bookId) {
+        TitleCounter counter = counters.get(bookId);
+        return counter != null ? counter.activeLoans.sum() : 0;
+    }
+
+    public int getWindowLoans(int bookId) {
+        TitleCounter counter = counters.get(bookId);
+        return counter != null ? counter.windowLoans((int) LocalDate.now().toEpochDay(), windowDays) : 0;
+    }
+
+    public int getWindowDays() {
+        return windowDays;
+    }
+
+    // Write accumulated deltas in one transaction; deltas are put back if the write fails
+    public synchronized void flush() throws SQLException {
+        Map<Long, Integer> loans = drain(pendingLoans);
+        Map<Integer, Integer> returns = drain(pendingReturns);
+        if (loans.isEmpty() && returns.isEmpty()) {
+            return;
+        }
+
+        Map<Integer, long[]> summaryDeltas = new HashMap<>();
+        for (Map.Entry<Long, Integer> entry : loans.entrySet()) {
+            long[] delta = summaryDeltas.computeIfAbsent(bookIdOf(entry.getKey()), key -> new long[2]);
+            delta[0] += entry.getValue();
+            delta[1] += entry.getValue();
+        }
+        for (Map.Entry<Integer, Integer> entry : returns.entrySet()) {
+            summaryDeltas.computeIfAbsent(entry.getKey(), key -> new long[2])[1] -= entry.getValue();
+        }
+
+        String summarySql = "INSERT INTO book_popularity (book_id, total_loans, active_loans) VALUES (?, ?, ?) "
+                            + "ON DUPLICATE KEY UPDATE total_loans = total_loans + VALUES(total_loans), "
+                            + "active_loans = active_loans + VALUES(active_loans)";
+        String dailySql = "INSERT INTO book_daily_loans (book_id, loan_date, loans) VALUES (?, ?, ?) "
+                          + "ON DUPLICATE KEY UPDATE loans = loans + VALUES(loans)";
+        String pruneSql = "DELETE FROM book_daily_loans WHERE loan_date <= ?";
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement summary = connection.prepareStatement(summarySql);
+             PreparedStatement daily = connection.prepareStatement(dailySql);
+             PreparedStatement prune = connection.prepareStatement(pruneSql)) {
+            for (Map.Entry<Integer, long[]> entry : summaryDeltas.entrySet()) {
+                summary.setInt(1, entry.getKey());
+                summary.setLong(2, entry.getValue()[0]);
+                summary.setLong(3, entry.getValue()[1]);
+                summary.addBatch();
+            }
+            summary.executeBatch();
+
+            for (Map.Entry<Long, Integer> entry : loans.entrySet()) {
+                daily.setInt(1, bookIdOf(entry.getKey()));
+                daily.setDate(2, Date.valueOf(LocalDate.ofEpochDay(dayOf(entry.getKey()))));
+                daily.setInt(3, entry.getValue());
+                daily.addBatch();
+            }
+            daily.executeBatch();
+
+            prune.setDate(1, Date.valueOf(LocalDate.now().minusDays(windowDays)));
+            prune.executeUpdate();
+
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            restore(pendingLoans, loans);
+            restore(pendingReturns, returns);
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        synchronized (this) {
+            if (flusher != null) {
+                flusher.shutdown();
+                flusher = null;
+            }
+        }
+        flush();
+    }
+
+    // True on first use and after a crash lost unflushed deltas. Archived loans are always returned,
+    // so they count towards total loans only
+    private boolean isSummaryBehind() throws SQLException {
+        String sql = "SELECT (SELECT COUNT(*) FROM borrowing_records) "
+                     + "+ (SELECT COUNT(*) FROM (" + ARCHIVED_LOANS_SQL + ") archived), "
+                     + "(SELECT COUNT(*) FROM borrowing_records WHERE return_date IS NULL), "
+                     + "(SELECT COALESCE(SUM(total_loans), 0) FROM book_popularity), "
+                     + "(SELECT COALESCE(SUM(active_loans), 0) FROM book_popularity)";
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql)) {
+            return resultSet.next()
+                   && (resultSet.getLong(1) != resultSet.getLong(3) || resultSet.getLong(2) != resultSet.getLong(4));
+        }
+    }
+
+    private TitleCounter counter(int bookId) {
+        return counters.computeIfAbsent(bookId, key -> new TitleCounter(windowDays));
+    }
+
+    // merge() and remove() are atomic per key, so no increment is lost between the two
+    private static <K> Map<K, Integer> drain(ConcurrentHashMap<K, Integer> pending) {
+        Map<K, Integer> drained = new HashMap<>();
+        List<K> keys = new ArrayList<>(pending.keySet());
+        for (K key : keys) {
+            Integer count = pending.remove(key);
+            if (count != null && count != 0) {
+                drained.put(key, count);
+            }
+        }
+        return drained;
+    }
+
+    private static <K> void restore(ConcurrentHashMap<K, Integer> pending, Map<K, Integer> drained) {
+        for (Map.Entry<K, Integer> entry : drained.entrySet()) {
+            pending.merge(entry.getKey(), entry.getValue(), Integer::sum);
+        }
+    }
+
+    private static long dailyKey(int bookId, int day) {
+        return ((long) bookId << 32) | (day & 0xFFFFFFFFL);
+    }
+
+    private static int bookIdOf(long key) {
+        return (int) (key >>> 32);
+    }
+
+    private static int dayOf(long key) {
+        return (int) key;
+    }
+
+    static class TitleCounter {
+        final LongAdder totalLoans = new LongAdder();
+        final LongAdder activeLoans = new LongAdder();
+        // One slot per day of the window; each slot packs (epoch day << 32 | loans)
+        final AtomicLongArray dayBuckets;
+
+        TitleCounter(int windowDays) {
+            dayBuckets = new AtomicLongArray(windowDays);
+        }
+
+        void recordWindowLoans(int day, int loans, int windowDays) {
+            int slot = Math.floorMod(day, windowDays);
+            while (true) {
+                long current = dayBuckets.get(slot);
+                int slotDay = (int) (current >>> 32);
+                if (slotDay > day) {
+                    return; // slot already holds a newer day
+                }
+                int count = slotDay == day ? (int) current + loans : loans;
+                if (dayBuckets.compareAndSet(slot, current, ((long) day << 32) | (count & 0xFFFFFFFFL))) {
+                    return;
+                }
+            }
+        }
+
+        int windowLoans(int today, int windowDays) {
+            int total = 0;
+            for (int slot = 0; slot < dayBuckets.length(); slot++) {
+                long current = dayBuckets.get(slot);
+                int slotDay = (int) (current >>> 32);
+                if (slotDay > today - windowDays && slotDay <= today) {
+                    total += (int) current;
+                }
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,523 @@
+/**
+ * Query profiler and slow-query log
+ * Wraps a JDBC Connection so that every statement it creates is timed, from
+ * execution through the last row read, with rows read or affected counted.
+ * Statistics are kept per normalized SQL text. Statements over the slow
+ * threshold are logged off the request path together with their bound
+ * parameters and an EXPLAIN plan captured on a separate connection.
+ */
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+class QueryProfiler implements AutoCloseable {
+    private static final int MAX_TRACKED_STATEMENTS = 1000;
+    private static final int MAX_NORMALIZED_CACHE = 10_000;
+    private static final int SLOW_QUEUE_CAPACITY = 1000;
+    private static final int RECENT_SLOW_QUERIES = 100;
+    private static final int MAX_PARAMETER_LENGTH = 100;
+    private static final long PLAN_COOLDOWN_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final String OTHER_STATEMENTS = "(other statements)";
+    private static final Pattern IN_LIST = Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)+\\s*\\)");
+    private static final Pattern EXPLAINABLE = Pattern.compile("^\\s*(SELECT|INSERT|UPDATE|DELETE|REPLACE)\\b",
+                                                               Pattern.CASE_INSENSITIVE);
+
+    private final ConnectionFactory explainConnections;
+    private final long slowThresholdNanos;
+    private final Path logFile;
+    private final ConcurrentHashMap<String, StatementStats> stats = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> normalized = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> lastPlanCapture = new ConcurrentHashMap<>();
+    private final Deque<String> recentSlowQueries = new ArrayDeque<>();
+    private final LongAdder droppedSlowQueries = new LongAdder();
+    // One background thread captures plans and writes the log, so the request path only enqueues
+    private final ThreadPoolExecutor slowLogWriter;
+    private ScheduledExecutorService reporter;
+    private Connection explainConnection;
+
+    // A null log file sends slow-query entries and reports to standard output
+    public QueryProfiler(ConnectionFactory explainConnections, long slowThresholdMillis, Path logFile) {
+        this.explainConnections = explainConnections;
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis);
+        this.logFile = logFile;
+        this.slowLogWriter = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                                                    new ArrayBlockingQueue<>(SLOW_QUEUE_CAPACITY), runnable -> {
+            Thread thread = new Thread(runnable, "slow-query-log");
+            thread.setDaemon(true);
+            return thread;
+        }, (runnable, executor) -> droppedSlowQueries.increment());
+    }
+
+    // Statements, prepared statements and result sets obtained through the returned connection are profiled
+    public Connection wrap(Connection connection) {
+        return proxy(Connection.class, new ConnectionHandler(connection));
+    }
+
+    // Write the top statements by total time to the log periodically
+    public synchronized void start(long periodSeconds, int topN) {
+        if (reporter != null) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "query-stats-report");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleWithFixedDelay(() -> slowLogWriter.execute(() -> {
+            StringBuilder report = new StringBuilder("# " + LocalDateTime.now() + " top statements by total time\n");
+            for (QueryStats statement : getTopStatements(topN)) {
+                report.append(statement).append('\n');
+            }
+            write(report.toString());
+        }), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    public List<QueryStats> getTopStatements(int topN) {
+        List<QueryStats> snapshot = new ArrayList<>();
+        for (Map.Entry<String, StatementStats> entry : stats.entrySet()) {
+            snapshot.add(entry.getValue().snapshot(entry.getKey()));
+        }
+        snapshot.sort((a, b) -> Long.compare(b.getTotalNanos(), a.getTotalNanos()));
+        return snapshot.size() > topN ? new ArrayList<>(snapshot.subList(0, topN)) : snapshot;
+    }
+
+    public List<String> getRecentSlowQueries() {
+        synchronized (recentSlowQueries) {
+            return new ArrayList<>(recentSlowQueries);
+        }
+    }
+
+    public long getDroppedSlowQueries() {
+        return droppedSlowQueries.sum();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (reporter != null) {
+                reporter.shutdownNow();
+                reporter = null;
+            }
+        }
+        slowLogWriter.shutdown();
+        try {
+            slowLogWriter.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeExplainConnection();
+    }
+
+    // Literals become ?, whitespace collapses and IN lists of any length look the same
+    static String normalize(String sql) {
+        StringBuilder out = new StringBuilder(sql.length());
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = out.length() > 0;
+                continue;
+            }
+            if (space) {
+                out.append(' ');
+                space = false;
+            }
+            if (c == '\'') {
+                i++;
+                while (i < sql.length() && (sql.charAt(i) != '\'' || (i + 1 < sql.length() && sql.charAt(i + 1) == '\''))) {
+                    i += sql.charAt(i) == '\'' ? 2 : 1;
+                }
+                out.append('?');
+            } else if (Character.isDigit(c) && (out.length() == 0 || !isIdentifierPart(out.charAt(out.length() - 1)))) {
+                while (i + 1 < sql.length() && (Character.isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.')) {
+                    i++;
+                }
+                out.append('?');
+            } else {
+                out.append(c);
+            }
+        }
+        return IN_LIST.matcher(out).replaceAll("(?, ...)");
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.';
+    }
+
+    private void record(String sql, Map<Integer, Object> parameters, int batchSize, long elapsedNanos, long rows) {
+        String key = normalized.get(sql);
+        if (key == null) {
+            key = normalize(sql);
+            if (normalized.size() < MAX_NORMALIZED_CACHE) {
+                normalized.put(sql, key);
+            }
+        }
+        StatementStats statementStats = stats.get(key);
+        if (statementStats == null) {
+            statementStats = stats.size() < MAX_TRACKED_STATEMENTS
+                ? stats.computeIfAbsent(key, k -> new StatementStats())
+                : stats.computeIfAbsent(OTHER_STATEMENTS, k -> new StatementStats());
+        }
+        statementStats.record(elapsedNanos, rows);
+
+        if (elapsedNanos >= slowThresholdNanos) {
+            String normalizedSql = key;
+            Map<Integer, Object> snapshot = new TreeMap<>(parameters);
+            slowLogWriter.execute(() -> logSlowQuery(sql, normalizedSql, snapshot, batchSize, elapsedNanos, rows));
+        }
+    }
+
+    private void logSlowQuery(String sql, String normalizedSql, Map<Integer, Object> parameters, int batchSize,
+                              long elapsedNanos, long rows) {
+        StringBuilder entry = new StringBuilder();
+        entry.append("# ").append(LocalDateTime.now())
+             .append(" slow query: ").append(elapsedNanos / 1_000_000).append(" ms, rows: ").append(rows);
+        if (batchSize > 0) {
+            entry.append(", batch of ").append(batchSize);
+        }
+        entry.append('\n').append(sql.trim()).append('\n');
+        if (!parameters.isEmpty()) {
+            entry.append("Parameters: ").append(formatParameters(parameters)).append('\n');
+        }
+
+        // One plan per statement shape per cooldown is enough to see what the optimizer chose
+        long now = System.nanoTime();
+        Long last = lastPlanCapture.get(normalizedSql);
+        if (EXPLAINABLE.matcher(sql).find() && (last == null || now - last > PLAN_COOLDOWN_NANOS)) {
+            lastPlanCapture.put(normalizedSql, now);
+            entry.append(explain(sql, parameters));
+        }
+
+        String text = entry.toString();
+        synchronized (recentSlowQueries) {
+            if (recentSlowQueries.size() == RECENT_SLOW_QUERIES) {
+                recentSlowQueries.removeFirst();
+            }
+            recentSlowQueries.addLast(text);
+        }
+        write(text);
+    }
+
+    private String explain(String sql, Map<Integer, Object> parameters) {
+        StringBuilder plan = new StringBuilder("Plan:\n");
+        try {
+            if (explainConnection == null || explainConnection.isClosed()) {
+                explainConnection = explainConnections.open();
+            }
+            try (PreparedStatement statement = explainConnection.prepareStatement("EXPLAIN " + sql)) {
+                for (Map.Entry<Integer, Object> parameter : parameters.entrySet()) {
+                    statement.setObject(parameter.getKey(), parameter.getValue());
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    ResultSetMetaData metaData = resultSet.getMetaData();
+                    while (resultSet.next()) {
+                        plan.append("  ");
+                        for (int column = 1; column <= metaData.getColumnCount(); column++) {
+                            plan.append(column > 1 ? " | " : "").append(metaData.getColumnLabel(column)).append('=')
+                                .append(resultSet.getString(column));
+                        }
+                        plan.append('\n');
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            closeExplainConnection();
+            plan.append("  (plan unavailable: ").append(e.getMessage()).append(")\n");
+        }
+        return plan.toString();
+    }
+
+    private void write(String text) {
+        if (logFile == null) {
+            System.out.print(text);
+            return;
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8,
+                                                             StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(text);
+        } catch (IOException e) {
+            System.out.println("Failed to write slow-query log: " + e.getMessage());
+        }
+    }
+
+    private void closeExplainConnection() {
+        if (explainConnection != null) {
+            try {
+                explainConnection.close();
+            } catch (SQLException e) {
+                // Already unusable; a new one is opened on the next capture
+            }
+            explainConnection = null;
+        }
+    }
+
+    private static String formatParameters(Map<Integer, Object> parameters) {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<Integer, Object> parameter : parameters.entrySet()) {
+            Object value = parameter.getValue();
+            String text = value == null ? "NULL"
+                        : value instanceof String ? "'" + value + "'"
+                        : String.valueOf(value);
+            if (text.length() > MAX_PARAMETER_LENGTH) {
+                text = text.substring(0, MAX_PARAMETER_LENGTH) + "...";
+            }
+            out.append(out.length() > 0 ? ", " : "").append(parameter.getKey()).append('=').append(text);
+        }
+        return out.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(QueryProfiler.class.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private class ConnectionHandler implements InvocationHandler {
+        private final Connection target;
+
+        ConnectionHandler(Connection target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = QueryProfiler.invoke(target, method, args);
+            switch (method.getName()) {
+                case "createStatement":
+                    return proxy(Statement.class, new StatementHandler((Statement) result, null, (Connection) proxy));
+                case "prepareStatement":
+                    return proxy(PreparedStatement.class,
+                                 new StatementHandler((Statement) result, (String) args[0], (Connection) proxy));
+                case "prepareCall":
+                    return proxy(CallableStatement.class,
+                                 new StatementHandler((Statement) result, (String) args[0], (Connection) proxy));
+                default:
+                    return result;
+            }
+        }
+    }
+
+    private class StatementHandler implements InvocationHandler {
+        private final Statement target;
+        private final String preparedSql;
+        private final Connection connection;
+        private final Map<Integer, Object> parameters = new TreeMap<>();
+        private List<String> batchSql;
+        private int batchSize;
+        private ResultSetHandler openResult;
+        // Time spent in execute() for a statement whose result set is fetched afterwards
+        private long pendingExecuteNanos;
+
+        StatementHandler(Statement target, String preparedSql, Connection connection) {
+            this.target = target;
+            this.preparedSql = preparedSql;
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            int argCount = args == null ? 0 : args.length;
+
+            if (name.startsWith("execute")) {
+                return execute(proxy, method, args, name);
+            }
+            if (name.startsWith("set") && argCount >= 2 && args[0] instanceof Integer && preparedSql != null) {
+                parameters.put((Integer) args[0], name.equals("setNull") ? null : args[1]);
+            } else if (name.equals("clearParameters")) {
+                parameters.clear();
+            } else if (name.equals("addBatch")) {
+                batchSize++;
+                if (argCount == 1) {
+                    if (batchSql == null) {
+                        batchSql = new ArrayList<>();
+                    }
+                    batchSql.add((String) args[0]);
+                }
+            } else if (name.equals("clearBatch")) {
+                batchSize = 0;
+                batchSql = null;
+            } else if (name.equals("getConnection")) {
+                return connection;
+            } else if (name.equals("close")) {
+                finishOpenResult();
+            }
+
+            Object result = QueryProfiler.invoke(target, method, args);
+            if (name.equals("getResultSet") && result != null) {
+                return wrapResult(proxy, (ResultSet) result, currentSql(args), 0);
+            }
+            return result;
+        }
+
+        private Object execute(Object proxy, Method method, Object[] args, String name) throws Throwable {
+            finishOpenResult();
+            String sql = currentSql(args);
+            long start = System.nanoTime();
+            Object result = QueryProfiler.invoke(target, method, args);
+            long elapsed = System.nanoTime() - start;
+
+            switch (name) {
+                case "executeQuery":
+                    return wrapResult(proxy, (ResultSet) result, sql, elapsed);
+                case "executeUpdate":
+                case "executeLargeUpdate":
+                    record(sql, parameters, 0, elapsed, ((Number) result).longValue());
+                    return result;
+                case "executeBatch":
+                case "executeLargeBatch":
+                    record(sql, parameters, batchSize, elapsed, sumCounts(result));
+                    batchSize = 0;
+                    batchSql = null;
+                    return result;
+                default:
+                    // execute(): a result set, if any, is fetched through getResultSet and timed from there
+                    if (Boolean.FALSE.equals(result)) {
+                        record(sql, parameters, 0, elapsed, Math.max(0, target.getUpdateCount()));
+                    } else {
+                        pendingExecuteNanos = elapsed;
+                    }
+                    return result;
+            }
+        }
+
+        private ResultSet wrapResult(Object statementProxy, ResultSet resultSet, String sql, long executeNanos) {
+            long elapsed = executeNanos + pendingExecuteNanos;
+            pendingExecuteNanos = 0;
+            openResult = new ResultSetHandler(resultSet, (Statement) statementProxy, sql, parameters, elapsed);
+            return proxy(ResultSet.class, openResult);
+        }
+
+        private void finishOpenResult() {
+            if (openResult != null) {
+                openResult.finish();
+                openResult = null;
+            }
+        }
+
+        private String currentSql(Object[] args) {
+            if (args != null && args.length > 0 && args[0] instanceof String) {
+                return (String) args[0];
+            }
+            if (preparedSql != null) {
+                return preparedSql;
+            }
+            if (batchSql != null && !batchSql.isEmpty()) {
+                return batchSql.get(0);
+            }
+            return "(unknown statement)";
+        }
+
+        private long sumCounts(Object counts) {
+            long total = 0;
+            if (counts instanceof int[]) {
+                for (int count : (int[]) counts) {
+                    total += Math.max(0, count);
+                }
+            } else if (counts instanceof long[]) {
+                for (long count : (long[]) counts) {
+                    total += Math.max(0, count);
+                }
+            }
+            return total;
+        }
+    }
+
+    // Counts rows and adds fetch time; the execution is recorded once, when the result set is closed
+    private class ResultSetHandler implements InvocationHandler {
+        private final ResultSet target;
+        private final Statement statement;
+        private final String sql;
+        private final Map<Integer, Object> parameters;
+        private long elapsedNanos;
+        private long rows;
+        private boolean finished;
+
+        ResultSetHandler(ResultSet target, Statement statement, String sql, Map<Integer, Object> parameters,
+                         long elapsedNanos) {
+            this.target = target;
+            this.statement = statement;
+            this.sql = sql;
+            this.parameters = new TreeMap<>(parameters);
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "next":
+                    long start = System.nanoTime();
+                    Object hasRow = QueryProfiler.invoke(target, method, args);
+                    elapsedNanos += System.nanoTime() - start;
+                    if (Boolean.TRUE.equals(hasRow)) {
+                        rows++;
+                    }
+                    return hasRow;
+                case "close":
+                    finish();
+                    return QueryProfiler.invoke(target, method, args);
+                case "getStatement":
+                    return statement;
+                default:
+                    return QueryProfiler.invoke(target, method, args);
+            }
+        }
+
+        void finish() {
+            if (!finished) {
+                finished = true;
+                record(sql, parameters, 0, elapsedNanos, rows);
+            }
+        }
+    }
+
+    private static class StatementStats {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LatencyHistogram latencyMicros = new LatencyHistogram();
+
+        void record(long elapsedNanos, long rowCount) {
+            count.increment();
+            totalNanos.add(elapsedNanos);
+            rows.add(rowCount);
+            latencyMicros.record(elapsedNanos / 1000);
+        }
+
+        QueryStats snapshot(String sql) {
+            return new QueryStats(sql, count.sum(), totalNanos.sum(), rows.sum(), latencyMicros.percentile(50),
+                                  latencyMicros.percentile(99), latencyMicros.getMax());
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Query statistics
+ * Counts, rows and latency percentiles of one normalized statement.
+ */
+
+class QueryStats {
+    private final String sql;
+    private final long count;
+    private final long totalNanos;
+    private final long rows;
+    private final long p50Micros;
+    private final long p99Micros;
+    private final long maxMicros;
+
+    QueryStats(String sql, long count, long totalNanos, long rows, long p50Micros, long p99Micros, long maxMicros) {
+        this.sql = sql;
+        this.count = count;
+        this.totalNanos = totalNanos;
+        this.rows = rows;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    public String getSql() { return sql; }
+
+    public long getCount() { return count; }
+
+    public long getTotalNanos() { return totalNanos; }
+
+    public long getRows() { return rows; }
+
+    public long getP50Micros() { return p50Micros; }
+
+    public long getP99Micros() { return p99Micros; }
+
+    public long getMaxMicros() { return maxMicros; }
+
+    @Override
+    public String toString() {
+        return "Count: " + count + " | Total: " + totalNanos / 1_000_000 + " ms | p50: " + p50Micros + " us | p99: "
+               + p99Micros + " us | Max: " + maxMicros + " us | Rows/exec: " + (count == 0 ? 0 : rows / count)
+               + " | " + sql;
+    }
+}
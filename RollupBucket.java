@@ -0,0 +1,64 @@
+/**
+ * Rollup bucket
+ * Circulation totals for one day, week or month.
+ */
+
+import java.time.LocalDate;
+
+class RollupBucket {
+    private final RollupPeriod period;
+    private final LocalDate start;
+    private final LocalDate end;
+    private final long loans;
+    private final long returns;
+    private final long overdueReturns;
+    private final long overdueLoanDays;
+    private final long activePatrons;
+    private final boolean partial;
+
+    RollupBucket(RollupPeriod period, LocalDate start, LocalDate end, long loans, long returns, long overdueReturns,
+                 long overdueLoanDays, long activePatrons, boolean partial) {
+        this.period = period;
+        this.start = start;
+        this.end = end;
+        this.loans = loans;
+        this.returns = returns;
+        this.overdueReturns = overdueReturns;
+        this.overdueLoanDays = overdueLoanDays;
+        this.activePatrons = activePatrons;
+        this.partial = partial;
+    }
+
+    public RollupPeriod getPeriod() { return period; }
+
+    public LocalDate getStart() { return start; }
+
+    public LocalDate getEnd() { return end; }
+
+    public int getDays() { return (int) (end.toEpochDay() - start.toEpochDay()) + 1; }
+
+    public long getLoans() { return loans; }
+
+    public long getReturns() { return returns; }
+
+    public long getOverdueReturns() { return overdueReturns; }
+
+    // Overdue loans summed over the bucket's days; for a single day, the loans overdue that day
+    public long getOverdueLoanDays() { return overdueLoanDays; }
+
+    public double getAverageOverdue() { return (double) overdueLoanDays / getDays(); }
+
+    // Estimated distinct patrons who borrowed or returned; -1 for single titles
+    public long getActivePatrons() { return activePatrons; }
+
+    // The bucket reaches outside the queried range
+    public boolean isPartial() { return partial; }
+
+    @Override
+    public String toString() {
+        return period + " " + start + (getDays() > 1 ? " to " + end : "") + (partial ? " (partial)" : "")
+               + " | Loans: " + loans + " | Returns: " + returns + " | Late returns: " + overdueReturns
+               + " | Avg overdue: " + String.format("%.1f", getAverageOverdue())
+               + (activePatrons >= 0 ? " | Active patrons: ~" + activePatrons : "");
+    }
+}
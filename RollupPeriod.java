@@ -0,0 +1,58 @@
+/**
+ * Rollup periods
+ * Granularities the circulation rollups are kept at.
+ */
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+
+enum RollupPeriod {
+    DAY("D"),
+    // Monday to Sunday, cut at month boundaries so months add up exactly from weeks
+    WEEK("W"),
+    MONTH("M");
+
+    final String code;
+
+    RollupPeriod(String code) {
+        this.code = code;
+    }
+
+    static RollupPeriod of(String code) {
+        for (RollupPeriod period : values()) {
+            if (period.code.equals(code)) {
+                return period;
+            }
+        }
+        throw new IllegalArgumentException("Unknown rollup period: " + code);
+    }
+
+    LocalDate start(LocalDate day) {
+        switch (this) {
+            case WEEK: {
+                LocalDate monday = day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                LocalDate firstOfMonth = day.withDayOfMonth(1);
+                return monday.isBefore(firstOfMonth) ? firstOfMonth : monday;
+            }
+            case MONTH:
+                return day.withDayOfMonth(1);
+            default:
+                return day;
+        }
+    }
+
+    LocalDate end(LocalDate day) {
+        switch (this) {
+            case WEEK: {
+                LocalDate sunday = day.with(TemporalAdjusters.nextOrSame(DayOfWeek.SUNDAY));
+                LocalDate endOfMonth = day.with(TemporalAdjusters.lastDayOfMonth());
+                return sunday.isAfter(endOfMonth) ? endOfMonth : sunday;
+            }
+            case MONTH:
+                return day.with(TemporalAdjusters.lastDayOfMonth());
+            default:
+                return day;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Rollup series
+ * Consecutive rollup buckets over a date range.
+ */
+
+import java.time.LocalDate;
+import java.util.List;
+
+class RollupSeries {
+    private final int bookId;
+    private final LocalDate from;
+    private final LocalDate to;
+    private final List<RollupBucket> buckets;
+    private final long activePatrons;
+
+    RollupSeries(int bookId, LocalDate from, LocalDate to, List<RollupBucket> buckets, long activePatrons) {
+        this.bookId = bookId;
+        this.from = from;
+        this.to = to;
+        this.buckets = buckets;
+        this.activePatrons = activePatrons;
+    }
+
+    public int getBookId() { return bookId; }
+
+    public LocalDate getFrom() { return from; }
+
+    public LocalDate getTo() { return to; }
+
+    public List<RollupBucket> getBuckets() { return buckets; }
+
+    public long getLoans() {
+        return buckets.stream().mapToLong(RollupBucket::getLoans).sum();
+    }
+
+    public long getReturns() {
+        return buckets.stream().mapToLong(RollupBucket::getReturns).sum();
+    }
+
+    public long getOverdueReturns() {
+        return buckets.stream().mapToLong(RollupBucket::getOverdueReturns).sum();
+    }
+
+    public long getOverdueLoanDays() {
+        return buckets.stream().mapToLong(RollupBucket::getOverdueLoanDays).sum();
+    }
+
+    // Estimated distinct patrons over the whole range, merged from the buckets' sketches; -1 for single titles
+    public long getActivePatrons() { return activePatrons; }
+
+    @Override
+    public String toString() {
+        return (bookId == CirculationRollups.LIBRARY ? "Library" : "Book ID " + bookId) + " " + from + " to " + to
+               + " | Loans: " + getLoans() + " | Returns: " + getReturns() + " | Late returns: " + getOverdueReturns()
+               + " | Overdue loan-days: " + getOverdueLoanDays()
+               + (activePatrons >= 0 ? " | Active patrons: ~" + activePatrons : "");
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * SQL IN-list builder
+ * Builds chunked IN (...) lists so multi-get queries stay under driver parameter limits
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+final class SqlInList {
+    public static final int CHUNK_SIZE = 500;
+    
+    private SqlInList() {
+    }
+    
+    public static String placeholders(int count) {
+        StringBuilder builder = new StringBuilder(count * 3);
+        for (int i = 0; i < count; i++) {
+            builder.append(i == 0 ? "?" : ", ?");
+        }
+        return builder.toString();
+    }
+    
+    // Distinct IDs split into chunks of at most CHUNK_SIZE
+    public static List<List<Integer>> chunks(Collection<Integer> ids) {
+        List<Integer> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        List<List<Integer>> chunks = new ArrayList<>();
+        for (int from = 0; from < distinct.size(); from += CHUNK_SIZE) {
+            chunks.add(distinct.subList(from, Math.min(distinct.size(), from + CHUNK_SIZE)));
+        }
+        return chunks;
+    }
+}
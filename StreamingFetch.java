@@ -0,0 +1,23 @@
+/**
+ * Streaming fetch
+ * Asks the driver to stream a large result set rather than buffer it whole.
+ * MySQL Connector/J only streams for the Integer.MIN_VALUE fetch size, which
+ * other drivers (and the JDBC contract) reject, so the sentinel is used only
+ * against MySQL and a positive fetch size everywhere else.
+ */
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+final class StreamingFetch {
+    // Rows per round trip for drivers that honour a positive fetch size
+    static final int FETCH_SIZE = 1000;
+
+    private StreamingFetch() {
+    }
+
+    static void enable(Statement statement) throws SQLException {
+        String product = statement.getConnection().getMetaData().getDatabaseProductName();
+        statement.setFetchSize("MySQL".equalsIgnoreCase(product) ? Integer.MIN_VALUE : FETCH_SIZE);
+    }
+}
@@ -0,0 +1,482 @@
+/**
+ * Circulation stress test
+ * Creates a few hot titles with a handful of copies each, then runs
+ * checkouts, returns, racing double returns, stock changes and detail edits
+ * against them from many threads at once, through the same service calls the
+ * console uses. Afterwards it checks the circulation invariants and reports
+ * throughput next to the result:
+ *   - available copies never go negative, also sampled while the run is going
+ *   - active loans plus available copies equal total copies for every title
+ *   - no loan is returned twice
+ * Exits with status 1 if an invariant is broken.
+ *
+ * Runs against any JDBC URL; for a fully local run put an embedded driver on the
+ * classpath, e.g.
+ *   java -cp .:h2.jar StressTestHarness --url=jdbc:h2:mem:stress;MODE=MySQL;DB_CLOSE_DELAY=-1 --create-schema
+ *        --titles=4 --copies=3 --threads=32 --duration=30
+ */
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public class StressTestHarness {
+    public static void main(String[] args) {
+        StressTestConfig config;
+        try {
+            config = StressTestConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(StressTestConfig.USAGE);
+            return;
+        }
+
+        List<Connection> connections = new ArrayList<>();
+        boolean passed = false;
+        try {
+            if (config.createSchema) {
+                try (Connection connection = config.openConnection();
+                     Statement statement = connection.createStatement()) {
+                    for (String ddl : LoadTestHarness.SCHEMA) {
+                        statement.execute(ddl);
+                    }
+                }
+            }
+
+            // One connection and set of services per worker, as with concurrent desks
+            List<LoadTestHarness.WorkerServices> lanes = new ArrayList<>();
+            for (int i = 0; i < config.threads; i++) {
+                Connection connection = config.openConnection();
+                connections.add(connection);
+                lanes.add(new LoadTestHarness.WorkerServices(new BookService(connection), new BorrowingService(connection)));
+            }
+            Connection setupConnection = config.openConnection();
+            connections.add(setupConnection);
+
+            StressTestDriver driver = new StressTestDriver(config, lanes, setupConnection);
+            driver.setUp();
+            StressTestResult result = driver.run();
+            result.print();
+            passed = result.passed();
+        } catch (SQLException e) {
+            System.out.println("Stress test failed: " + e.getMessage());
+        } finally {
+            for (Connection connection : connections) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    System.out.println("Error closing connection: " + e.getMessage());
+                }
+            }
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+}
+
+class StressTestConfig {
+    static final String USAGE =
+        "Usage: java StressTestHarness --url=<jdbc url> [--user=] [--password=] [--create-schema]\n" +
+        "  [--titles=4] [--copies=3] [--patrons=50] [--threads=32] [--duration=30]\n" +
+        "  [--mix=checkout:35,return:25,double_return:15,restock:10,edit:15]";
+
+    String url;
+    String user;
+    String password;
+    boolean createSchema;
+    int titles = 4;
+    int copies = 3;
+    int patrons = 50;
+    int threads = 32;
+    int durationSeconds = 30;
+    final Map<StressOperation, Integer> mix = new EnumMap<>(StressOperation.class);
+
+    static StressTestConfig parse(String[] args) {
+        StressTestConfig config = new StressTestConfig();
+        config.mix.put(StressOperation.CHECKOUT, 35);
+        config.mix.put(StressOperation.RETURN, 25);
+        config.mix.put(StressOperation.DOUBLE_RETURN, 15);
+        config.mix.put(StressOperation.RESTOCK, 10);
+        config.mix.put(StressOperation.EDIT, 15);
+
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            String key = equals < 0 ? arg : arg.substring(0, equals);
+            String value = equals < 0 ? null : arg.substring(equals + 1);
+            try {
+                switch (key) {
+                    case "--url": config.url = value; break;
+                    case "--user": config.user = value; break;
+                    case "--password": config.password = value; break;
+                    case "--create-schema": config.createSchema = true; break;
+                    case "--titles": config.titles = Integer.parseInt(value); break;
+                    case "--copies": config.copies = Integer.parseInt(value); break;
+                    case "--patrons": config.patrons = Integer.parseInt(value); break;
+                    case "--threads": config.threads = Integer.parseInt(value); break;
+                    case "--duration": config.durationSeconds = Integer.parseInt(value); break;
+                    case "--mix": config.parseMix(value); break;
+                    default: throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            } catch (NumberFormatException | NullPointerException e) {
+                throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+            }
+        }
+
+        if (config.url == null) {
+            throw new IllegalArgumentException("--url is required");
+        }
+        if (config.titles <= 0 || config.copies <= 0 || config.patrons <= 0 || config.threads <= 0
+                || config.durationSeconds <= 0) {
+            throw new IllegalArgumentException("Titles, copies, patrons, threads and duration must be positive");
+        }
+        return config;
+    }
+
+    private void parseMix(String value) {
+        mix.clear();
+        for (String part : value.split(",")) {
+            String[] pair = part.split(":");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry: " + part);
+            }
+            mix.put(StressOperation.valueOf(pair[0].trim().toUpperCase()), Integer.parseInt(pair[1].trim()));
+        }
+    }
+
+    Connection openConnection() throws SQLException {
+        return user != null ? DriverManager.getConnection(url, user, password) : DriverManager.getConnection(url);
+    }
+}
+
+enum StressOperation {
+    CHECKOUT,
+    RETURN,
+    // Returns a loan another thread may be returning right now, or one already returned
+    DOUBLE_RETURN,
+    // Adds or withdraws a copy, changing the title's total
+    RESTOCK,
+    EDIT
+}
+
+class StressTestDriver {
+    private static final int LOAN_DAYS = 14;
+    private static final int EDIT_ATTEMPTS = 5;
+    private static final int RETURNED_RING_SIZE = 1024;
+    private static final long SAMPLE_INTERVAL_MILLIS = 20;
+    private static final int VIOLATION_SAMPLES = 5;
+
+    private final StressTestConfig config;
+    private final List<LoadTestHarness.WorkerServices> lanes;
+    private final Connection checkConnection;
+    private final StressOperation[] mixTable;
+    private final Map<StressOperation, OperationStats> stats = new EnumMap<>(StressOperation.class);
+    private int[] bookIds;
+    private int[] patronIds;
+    // Totals as the harness changed them, to check total_copies against
+    private AtomicIntegerArray expectedTotals;
+    private final ConcurrentLinkedQueue<Integer> activeLoans = new ConcurrentLinkedQueue<>();
+    // Successful returns per record; any count above one is a double return
+    private final ConcurrentHashMap<Integer, AtomicInteger> returns = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<Integer> recentlyReturned = new AtomicReferenceArray<>(RETURNED_RING_SIZE);
+    private final AtomicLong returnedCursor = new AtomicLong();
+    private final LongAdder loansCreated = new LongAdder();
+    private volatile int lowestSampled = Integer.MAX_VALUE;
+    private final LongAdder negativeSamples = new LongAdder();
+    private final LongAdder samples = new LongAdder();
+
+    StressTestDriver(StressTestConfig config, List<LoadTestHarness.WorkerServices> lanes, Connection checkConnection) {
+        this.config = config;
+        this.lanes = lanes;
+        this.checkConnection = checkConnection;
+        List<StressOperation> table = new ArrayList<>();
+        for (Map.Entry<StressOperation, Integer> entry : config.mix.entrySet()) {
+            for (int i = 0; i < entry.getValue(); i++) {
+                table.add(entry.getKey());
+            }
+        }
+        if (table.isEmpty()) {
+            throw new IllegalArgumentException("Operation mix is empty");
+        }
+        this.mixTable = table.toArray(new StressOperation[0]);
+        for (StressOperation operation : StressOperation.values()) {
+            stats.put(operation, new OperationStats());
+        }
+    }
+
+    // Fresh titles and patrons for every run, so earlier runs and other data don't affect the checks
+    void setUp() throws SQLException {
+        LoadTestHarness.WorkerServices services = lanes.get(0);
+        PatronService patronService = new PatronService(checkConnection);
+        String run = Long.toString(System.currentTimeMillis(), 36);
+        bookIds = new int[config.titles];
+        expectedTotals = new AtomicIntegerArray(config.titles);
+        for (int i = 0; i < config.titles; i++) {
+            bookIds[i] = services.bookService.addBook(new Book(0, "Stress " + run + " Title " + i, "Stress Author",
+                                                               "S" + run + "-" + i, 2000, config.copies));
+            expectedTotals.set(i, config.copies);
+        }
+        patronIds = new int[config.patrons];
+        for (int i = 0; i < config.patrons; i++) {
+            patronIds[i] = patronService.addPatron(new Patron(0, "Stress", "Patron " + i,
+                                                              "stress-" + run + "-" + i + "@example.com", null,
+                                                              LocalDate.now()));
+        }
+        System.out.println("Stress run " + run + ": " + config.titles + " titles x " + config.copies + " copies, "
+                           + config.patrons + " patrons, " + config.threads + " threads for "
+                           + config.durationSeconds + " s");
+    }
+
+    StressTestResult run() throws SQLException {
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(config.durationSeconds);
+        CountDownLatch ready = new CountDownLatch(lanes.size());
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (LoadTestHarness.WorkerServices services : lanes) {
+            Thread worker = new Thread(() -> work(services, ready, go, end), "stress-worker-" + (workers.size() + 1));
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+
+        try {
+            ready.await();
+            long measuredStart = System.nanoTime();
+            go.countDown();
+            // Availability must never be seen below zero, not just at the end
+            while (System.nanoTime() < end) {
+                sampleAvailability();
+                Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long elapsed = System.nanoTime() - measuredStart;
+            return new StressTestResult(elapsed, stats, checkInvariants());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Stress test interrupted", e);
+        }
+    }
+
+    private void work(LoadTestHarness.WorkerServices services, CountDownLatch ready, CountDownLatch go, long end) {
+        ready.countDown();
+        try {
+            go.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < end) {
+            StressOperation operation = mixTable[random.nextInt(mixTable.length)];
+            OperationStats operationStats = stats.get(operation);
+            long started = System.nanoTime();
+            boolean failed = false;
+            boolean skipped = false;
+            try {
+                skipped = !execute(operation, services, random);
+            } catch (SQLException | RuntimeException e) {
+                failed = true;
+                operationStats.recordError(e);
+            }
+            operationStats.record((System.nanoTime() - started) / 1000, failed, false, skipped);
+        }
+    }
+
+    // Returns false when the operation had nothing to do, e.g. no copy on the shelf
+    private boolean execute(StressOperation operation, LoadTestHarness.WorkerServices services,
+                            ThreadLocalRandom random) throws SQLException {
+        int title = random.nextInt(bookIds.length);
+        switch (operation) {
+            case CHECKOUT:
+                return checkout(services, bookIds[title], patronIds[random.nextInt(patronIds.length)]);
+            case RETURN: {
+                Integer recordId = activeLoans.poll();
+                return recordId != null && returnLoan(services, recordId);
+            }
+            case DOUBLE_RETURN: {
+                Integer recordId = random.nextBoolean() ? activeLoans.peek()
+                                 : recentlyReturned.get(random.nextInt(RETURNED_RING_SIZE));
+                return recordId != null && returnLoan(services, recordId);
+            }
+            case RESTOCK: {
+                // Withdraw only down to one copy, so the titles stay hot
+                int delta = random.nextBoolean() || expectedTotals.get(title) <= 1 ? 1 : -1;
+                if (!services.bookService.adjustTotalCopies(bookIds[title], delta)) {
+                    return false;
+                }
+                expectedTotals.addAndGet(title, delta);
+                return true;
+            }
+            case EDIT:
+                return services.bookService.modifyBookDetails(bookIds[title],
+                    book -> book.setPublicationYear(1900 + random.nextInt(125)), EDIT_ATTEMPTS) == UpdateResult.UPDATED;
+            default:
+                return false;
+        }
+    }
+
+    private boolean checkout(LoadTestHarness.WorkerServices services, int bookId, int patronId) throws SQLException {
+        LocalDate today = LocalDate.now();
+        BorrowingRecord record = new BorrowingRecord(0, bookId, patronId, today, today.plusDays(LOAN_DAYS), null);
+        int recordId = services.borrowingService.borrowBook(record);
+        if (recordId == 0) {
+            return false;
+        }
+        loansCreated.increment();
+        activeLoans.add(recordId);
+        return true;
+    }
+
+    private boolean returnLoan(LoadTestHarness.WorkerServices services, int recordId) throws SQLException {
+        if (!services.borrowingService.returnBook(recordId)) {
+            return false;
+        }
+        returns.computeIfAbsent(recordId, key -> new AtomicInteger()).incrementAndGet();
+        recentlyReturned.set((int) (returnedCursor.getAndIncrement() % RETURNED_RING_SIZE), recordId);
+        return true;
+    }
+
+    private void sampleAvailability() throws SQLException {
+        String sql = "SELECT MIN(copies_available) FROM books WHERE book_id IN ("
+                     + SqlInList.placeholders(bookIds.length) + ")";
+        try (PreparedStatement statement = checkConnection.prepareStatement(sql)) {
+            for (int i = 0; i < bookIds.length; i++) {
+                statement.setInt(i + 1, bookIds[i]);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    int lowest = resultSet.getInt(1);
+                    samples.increment();
+                    if (lowest < 0) {
+                        negativeSamples.increment();
+                    }
+                    lowestSampled = Math.min(lowestSampled, lowest);
+                }
+            }
+        }
+    }
+
+    // Run once every worker has stopped, so the non-transactional paths have settled
+    private List<String> checkInvariants() throws SQLException {
+        List<String> violations = new ArrayList<>();
+        if (negativeSamples.sum() > 0) {
+            violations.add("Available copies seen below zero in " + negativeSamples.sum() + " of " + samples.sum()
+                           + " samples (lowest " + lowestSampled + ")");
+        }
+
+        long activeTotal = 0;
+        String sql = "SELECT b.copies_available, b.total_copies, "
+                     + "(SELECT COUNT(*) FROM borrowing_records r WHERE r.book_id = b.book_id AND r.return_date IS NULL) "
+                     + "FROM books b WHERE b.book_id = ?";
+        try (PreparedStatement statement = checkConnection.prepareStatement(sql)) {
+            for (int i = 0; i < bookIds.length; i++) {
+                statement.setInt(1, bookIds[i]);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        violations.add("Book " + bookIds[i] + " is missing");
+                        continue;
+                    }
+                    int available = resultSet.getInt(1);
+                    int total = resultSet.getInt(2);
+                    int active = resultSet.getInt(3);
+                    activeTotal += active;
+                    if (available < 0) {
+                        violations.add("Book " + bookIds[i] + ": " + available + " copies available");
+                    }
+                    if (active + available != total) {
+                        violations.add("Book " + bookIds[i] + ": " + active + " on loan + " + available
+                                       + " available != " + total + " total copies");
+                    }
+                    if (total != expectedTotals.get(i)) {
+                        violations.add("Book " + bookIds[i] + ": total copies " + total + ", expected "
+                                       + expectedTotals.get(i));
+                    }
+                }
+            }
+        }
+
+        int doubleReturns = 0;
+        for (Map.Entry<Integer, AtomicInteger> entry : returns.entrySet()) {
+            if (entry.getValue().get() > 1 && doubleReturns++ < VIOLATION_SAMPLES) {
+                violations.add("Loan " + entry.getKey() + " was returned " + entry.getValue().get() + " times");
+            }
+        }
+        if (doubleReturns > VIOLATION_SAMPLES) {
+            violations.add("... " + (doubleReturns - VIOLATION_SAMPLES) + " more loans returned more than once");
+        }
+        long expectedActive = loansCreated.sum() - returns.size();
+        if (activeTotal != expectedActive) {
+            violations.add(activeTotal + " loans active in the database, expected " + expectedActive + " ("
+                           + loansCreated.sum() + " created, " + returns.size() + " returned)");
+        }
+        return violations;
+    }
+}
+
+class StressTestResult {
+    private final long elapsedNanos;
+    private final Map<StressOperation, OperationStats> stats;
+    private final List<String> violations;
+
+    StressTestResult(long elapsedNanos, Map<StressOperation, OperationStats> stats, List<String> violations) {
+        this.elapsedNanos = elapsedNanos;
+        this.stats = stats;
+        this.violations = violations;
+    }
+
+    public boolean passed() {
+        return violations.isEmpty();
+    }
+
+    public void print() {
+        double seconds = elapsedNanos / 1e9;
+        long completed = 0;
+        System.out.println("\n----- Stress Test Results -----");
+        System.out.printf("%-13s %9s %9s %8s %8s %9s %9s %9s%n", "Operation", "Count", "Ops/s", "Errors", "Skipped",
+                          "p50 us", "p99 us", "Max us");
+        for (Map.Entry<StressOperation, OperationStats> entry : stats.entrySet()) {
+            OperationStats operation = entry.getValue();
+            long count = operation.completed.sum();
+            completed += count;
+            System.out.printf("%-13s %9d %9.1f %8d %8d %9d %9d %9d%n", entry.getKey(), count, count / seconds,
+                              operation.errors.sum(), operation.skipped.sum(), operation.latencies.percentile(50),
+                              operation.latencies.percentile(99), operation.latencies.getMax());
+        }
+        System.out.printf("Total: %.1f ops/s over %.1f s%n", completed / seconds, seconds);
+        for (Map.Entry<StressOperation, OperationStats> entry : stats.entrySet()) {
+            for (Map.Entry<String, Integer> error : entry.getValue().getErrorMessages().entrySet()) {
+                System.out.println(entry.getKey() + " error x" + error.getValue() + ": " + error.getKey());
+            }
+        }
+
+        if (passed()) {
+            System.out.println("Invariants: PASSED");
+        } else {
+            System.out.println("Invariants: FAILED");
+            for (String violation : violations) {
+                System.out.println("  " + violation);
+            }
+        }
+    }
+}
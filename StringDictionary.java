@@ -0,0 +1,50 @@
+/**
+ * String dictionary
+ * Dictionary encoding for repeated strings such as author and patron names.
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+final class StringDictionary {
+    public static final int NULL_CODE = -1;
+
+    private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[64];
+    private int size;
+
+    public int encode(String value) {
+        if (value == null) {
+            return NULL_CODE;
+        }
+        Integer code = codes.get(value);
+        return code != null ? code : add(value);
+    }
+
+    public String decode(int code) {
+        return code == NULL_CODE ? null : values[code];
+    }
+
+    // Canonical instance for the value, so equal strings share one object
+    public String intern(String value) {
+        return decode(encode(value));
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private synchronized int add(String value) {
+        Integer existing = codes.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        // Publish the array slot before the code so readers never see an unset entry
+        values[size] = value;
+        codes.put(value, size);
+        return size++;
+    }
+}
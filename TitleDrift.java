@@ -0,0 +1,51 @@
+/**
+ * Title drift
+ * Stored and expected available copies of one title, as seen by the reconciler.
+ */
+
+class TitleDrift {
+    // total_copies not yet recorded for the title
+    static final int UNRECORDED = -1;
+
+    private final int bookId;
+    private final int available;
+    private final int totalCopies;
+    private final int activeLoans;
+
+    TitleDrift(int bookId, int available, int totalCopies, int activeLoans) {
+        this.bookId = bookId;
+        this.available = available;
+        this.totalCopies = totalCopies;
+        this.activeLoans = activeLoans;
+    }
+
+    public int getBookId() { return bookId; }
+
+    public int getAvailable() { return available; }
+
+    public int getTotalCopies() { return totalCopies; }
+
+    public int getActiveLoans() { return activeLoans; }
+
+    public boolean isUnrecorded() { return totalCopies == UNRECORDED; }
+
+    public int getExpected() {
+        return isUnrecorded() ? available : totalCopies - activeLoans;
+    }
+
+    // Positive when the title shows more copies on the shelf than it has
+    public int getDrift() {
+        return available - getExpected();
+    }
+
+    @Override
+    public String toString() {
+        if (isUnrecorded()) {
+            return "Book ID: " + bookId + " | Total copies not recorded | Available: " + available
+                   + " | On loan: " + activeLoans;
+        }
+        return "Book ID: " + bookId + " | Available: " + available + " | Expected: " + getExpected()
+               + " | Total: " + totalCopies + " | On loan: " + activeLoans
+               + " | Drift: " + (getDrift() > 0 ? "+" : "") + getDrift();
+    }
+}
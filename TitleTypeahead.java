@@ -0,0 +1,386 @@
+/**
+ * Title typeahead
+ * Prefix completion over normalized titles and authors, matched at the start
+ * of any word, with the most borrowed titles first. The index is an immutable
+ * radix tree in which every node keeps the best candidates of its subtree, so
+ * a lookup walks the typed prefix and re-ranks a short list. New and edited
+ * books are path-copied into the live tree. A background rebuild re-ranks
+ * everything with current loan counts and swaps the new tree in atomically.
+ */
+
+import java.sql.SQLException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntToLongFunction;
+
+class TitleTypeahead implements CatalogListener {
+    // Later words of long titles add little and would multiply the keys per book
+    private static final int MAX_WORD_STARTS = 6;
+    private static final int MAX_KEY_LENGTH = 100;
+
+    private final int candidates;
+    private final IntToLongFunction score;
+    private volatile Node root = Node.EMPTY;
+    private final ConcurrentHashMap<Integer, TypeaheadEntry> books = new ConcurrentHashMap<>();
+    // Guarded by this: books added or edited while a rebuild was running, replayed onto the new tree
+    private Set<Integer> changedDuringRebuild;
+    private ScheduledExecutorService rebuilder;
+
+    // Nodes keep twice the suggestion limit so live loan counts can reorder them between rebuilds
+    public TitleTypeahead(PopularityCounters popularity, int maxSuggestions) {
+        this.candidates = maxSuggestions * 2;
+        this.score = popularity::getTotalLoans;
+    }
+
+    public void load(BookService bookService) throws SQLException {
+        BookBatch batch = bookService.getAllBooksBatch(new StringDictionary());
+        for (int i = 0; i < batch.size(); i++) {
+            books.put(batch.getBookId(i), new TypeaheadEntry(batch.getBookId(i), batch.getTitle(i), batch.getAuthor(i)));
+        }
+        rebuild();
+    }
+
+    // Rebuild periodically on a daemon thread
+    public synchronized void start(long periodSeconds) {
+        if (rebuilder != null) {
+            return;
+        }
+        rebuilder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "typeahead-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+        rebuilder.scheduleWithFixedDelay(this::rebuild, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void close() {
+        if (rebuilder != null) {
+            rebuilder.shutdownNow();
+            rebuilder = null;
+        }
+    }
+
+    // Build a new tree from the tracked books and swap it in; changes made meanwhile are replayed onto it
+    public void rebuild() {
+        List<TypeaheadEntry> snapshot;
+        synchronized (this) {
+            changedDuringRebuild = new HashSet<>();
+            snapshot = new ArrayList<>(books.values());
+        }
+
+        // Loan counts are read once so the whole tree is ranked against the same numbers
+        Map<Integer, Long> scores = new HashMap<>();
+        List<String> keys = new ArrayList<>();
+        List<Integer> keyBooks = new ArrayList<>();
+        for (TypeaheadEntry entry : snapshot) {
+            scores.put(entry.bookId, score.applyAsLong(entry.bookId));
+            for (String key : keys(entry)) {
+                keys.add(key);
+                keyBooks.add(entry.bookId);
+            }
+        }
+        Integer[] order = new Integer[keys.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> keys.get(a).compareTo(keys.get(b)));
+        String[] sortedKeys = new String[order.length];
+        int[] sortedBooks = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedKeys[i] = keys.get(order[i]);
+            sortedBooks[i] = keyBooks.get(order[i]);
+        }
+        Node built = sortedKeys.length == 0 ? Node.EMPTY
+                   : build(sortedKeys, sortedBooks, 0, sortedKeys.length, 0, scores);
+
+        synchronized (this) {
+            Set<Integer> replay = changedDuringRebuild;
+            changedDuringRebuild = null;
+            for (int bookId : replay) {
+                TypeaheadEntry entry = books.get(bookId);
+                if (entry != null) {
+                    built = insert(built, entry);
+                }
+            }
+            root = built;
+        }
+    }
+
+    // Up to limit suggestions whose title or author has a word starting with the prefix, most borrowed first
+    public List<TypeaheadSuggestion> suggest(String prefix, int limit) {
+        String key = normalize(prefix);
+        if (key.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // Deleted books stay in the tree until the next rebuild and are skipped here
+        List<TypeaheadSuggestion> suggestions = new ArrayList<>();
+        for (int bookId : root.find(key)) {
+            TypeaheadEntry entry = books.get(bookId);
+            if (entry != null) {
+                suggestions.add(new TypeaheadSuggestion(bookId, entry.title, entry.author, score.applyAsLong(bookId)));
+            }
+        }
+        suggestions.sort((a, b) -> a.getTotalLoans() != b.getTotalLoans()
+                                   ? Long.compare(b.getTotalLoans(), a.getTotalLoans())
+                                   : Integer.compare(a.getBookId(), b.getBookId()));
+        return suggestions.size() > limit ? new ArrayList<>(suggestions.subList(0, limit)) : suggestions;
+    }
+
+    @Override
+    public void onBookAdded(Book book) {
+        track(book);
+    }
+
+    @Override
+    public void onBookUpdated(Book book) {
+        track(book);
+    }
+
+    @Override
+    public void onBookDeleted(int bookId) {
+        books.remove(bookId);
+    }
+
+    // The old title's keys stay in the tree until the next rebuild, but suggestions always show the current one
+    private synchronized void track(Book book) {
+        TypeaheadEntry entry = new TypeaheadEntry(book.getBookId(), book.getTitle(), book.getAuthor());
+        books.put(entry.bookId, entry);
+        root = insert(root, entry);
+        if (changedDuringRebuild != null) {
+            changedDuringRebuild.add(entry.bookId);
+        }
+    }
+
+    private Node insert(Node tree, TypeaheadEntry entry) {
+        for (String key : keys(entry)) {
+            tree = tree.insert(key, 0, entry.bookId, candidates, score);
+        }
+        return tree;
+    }
+
+    // Keys in [from, to) are sorted and share their first depth characters
+    private Node build(String[] keys, int[] bookIds, int from, int to, int depth, Map<Integer, Long> scores) {
+        String first = keys[from];
+        String last = keys[to - 1];
+        int end = depth;
+        while (end < first.length() && end < last.length() && first.charAt(end) == last.charAt(end)) {
+            end++;
+        }
+        String label = first.substring(depth, end);
+
+        Set<Integer> subtreeBooks = new HashSet<>();
+        int start = from;
+        while (start < to && keys[start].length() == end) {
+            subtreeBooks.add(bookIds[start++]);
+        }
+
+        List<Node> children = new ArrayList<>();
+        while (start < to) {
+            char c = keys[start].charAt(end);
+            int groupEnd = start + 1;
+            while (groupEnd < to && keys[groupEnd].charAt(end) == c) {
+                groupEnd++;
+            }
+            Node child = build(keys, bookIds, start, groupEnd, end, scores);
+            children.add(child);
+            for (int bookId : child.top) {
+                subtreeBooks.add(bookId);
+            }
+            start = groupEnd;
+        }
+
+        // A subtree's best books are among its children's best, so each node ranks only a short list
+        List<Integer> ranked = new ArrayList<>(subtreeBooks);
+        ranked.sort((a, b) -> !scores.get(a).equals(scores.get(b)) ? Long.compare(scores.get(b), scores.get(a))
+                                                                    : Integer.compare(a, b));
+        int[] top = new int[Math.min(candidates, ranked.size())];
+        for (int i = 0; i < top.length; i++) {
+            top[i] = ranked.get(i);
+        }
+
+        char[] firsts = new char[children.size()];
+        for (int i = 0; i < firsts.length; i++) {
+            firsts[i] = children.get(i).label.charAt(0);
+        }
+        return new Node(label, firsts, children.toArray(new Node[0]), top);
+    }
+
+    // Every word start of the normalized title and author
+    private static Set<String> keys(TypeaheadEntry entry) {
+        Set<String> keys = new LinkedHashSet<>();
+        addWordStarts(keys, normalize(entry.title));
+        addWordStarts(keys, normalize(entry.author));
+        return keys;
+    }
+
+    private static void addWordStarts(Set<String> keys, String text) {
+        int words = 0;
+        for (int i = 0; i < text.length() && words < MAX_WORD_STARTS; i++) {
+            if (i == 0 || text.charAt(i - 1) == ' ') {
+                String key = text.substring(i);
+                keys.add(key.length() > MAX_KEY_LENGTH ? key.substring(0, MAX_KEY_LENGTH) : key);
+                words++;
+            }
+        }
+    }
+
+    // Lower case without accents or punctuation, single spaces between words
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFKD).toLowerCase(Locale.ROOT);
+        StringBuilder out = new StringBuilder(decomposed.length());
+        boolean space = false;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                if (space && out.length() > 0) {
+                    out.append(' ');
+                }
+                out.append(c);
+                space = false;
+            } else if (c != '\'') {
+                space = true;
+            }
+        }
+        return out.toString();
+    }
+
+    // Immutable radix tree node; top holds the best book IDs in the subtree, best first
+    private static final class Node {
+        static final Node EMPTY = new Node("", new char[0], new Node[0], new int[0]);
+
+        final String label;
+        final char[] firsts;
+        final Node[] children;
+        final int[] top;
+
+        Node(String label, char[] firsts, Node[] children, int[] top) {
+            this.label = label;
+            this.firsts = firsts;
+            this.children = children;
+            this.top = top;
+        }
+
+        int[] find(String prefix) {
+            Node node = this;
+            int matched = 0;
+            while (true) {
+                int length = Math.min(node.label.length(), prefix.length() - matched);
+                if (!prefix.regionMatches(matched, node.label, 0, length)) {
+                    return new int[0];
+                }
+                matched += length;
+                if (matched == prefix.length()) {
+                    return node.top;
+                }
+                int child = Arrays.binarySearch(node.firsts, prefix.charAt(matched));
+                if (child < 0) {
+                    return new int[0];
+                }
+                node = node.children[child];
+            }
+        }
+
+        // A copy of this subtree with the key added below depth; nodes off the key's path are shared
+        Node insert(String key, int depth, int bookId, int limit, IntToLongFunction score) {
+            int common = 0;
+            while (common < label.length() && depth + common < key.length()
+                   && label.charAt(common) == key.charAt(depth + common)) {
+                common++;
+            }
+            int[] nextTop = offer(top, bookId, limit, score);
+
+            if (common < label.length()) {
+                // Split this edge where the key leaves it
+                Node tail = new Node(label.substring(common), firsts, children, top);
+                if (depth + common == key.length()) {
+                    return new Node(label.substring(0, common), new char[] {tail.label.charAt(0)},
+                                    new Node[] {tail}, nextTop);
+                }
+                Node leaf = leaf(key.substring(depth + common), bookId);
+                boolean leafFirst = leaf.label.charAt(0) < tail.label.charAt(0);
+                return new Node(label.substring(0, common),
+                                leafFirst ? new char[] {leaf.label.charAt(0), tail.label.charAt(0)}
+                                          : new char[] {tail.label.charAt(0), leaf.label.charAt(0)},
+                                leafFirst ? new Node[] {leaf, tail} : new Node[] {tail, leaf}, nextTop);
+            }
+
+            int next = depth + common;
+            if (next == key.length()) {
+                return nextTop == top ? this : new Node(label, firsts, children, nextTop);
+            }
+            int child = Arrays.binarySearch(firsts, key.charAt(next));
+            if (child >= 0) {
+                Node[] nextChildren = children.clone();
+                nextChildren[child] = children[child].insert(key, next, bookId, limit, score);
+                return new Node(label, firsts, nextChildren, nextTop);
+            }
+            int position = -child - 1;
+            char[] nextFirsts = new char[firsts.length + 1];
+            Node[] nextChildren = new Node[children.length + 1];
+            System.arraycopy(firsts, 0, nextFirsts, 0, position);
+            System.arraycopy(children, 0, nextChildren, 0, position);
+            nextFirsts[position] = key.charAt(next);
+            nextChildren[position] = leaf(key.substring(next), bookId);
+            System.arraycopy(firsts, position, nextFirsts, position + 1, firsts.length - position);
+            System.arraycopy(children, position, nextChildren, position + 1, children.length - position);
+            return new Node(label, nextFirsts, nextChildren, nextTop);
+        }
+
+        private static Node leaf(String label, int bookId) {
+            return new Node(label, new char[0], new Node[0], new int[] {bookId});
+        }
+
+        // The top list with bookId ranked in by score, or the same array if it does not make the cut
+        static int[] offer(int[] top, int bookId, int limit, IntToLongFunction score) {
+            for (int existing : top) {
+                if (existing == bookId) {
+                    return top;
+                }
+            }
+            long bookScore = score.applyAsLong(bookId);
+            int position = top.length;
+            while (position > 0 && score.applyAsLong(top[position - 1]) < bookScore) {
+                position--;
+            }
+            if (position >= limit) {
+                return top;
+            }
+            int size = Math.min(limit, top.length + 1);
+            int[] next = new int[size];
+            System.arraycopy(top, 0, next, 0, position);
+            next[position] = bookId;
+            System.arraycopy(top, position, next, position + 1, size - position - 1);
+            return next;
+        }
+    }
+}
+
+final class TypeaheadEntry {
+    final int bookId;
+    final String title;
+    final String author;
+
+    TypeaheadEntry(int bookId, String title, String author) {
+        this.bookId = bookId;
+        this.title = title;
+        this.author = author;
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ * Tombstone purger
+ * Books and patrons are deleted by setting deleted_at, which hides them from
+ * every service read at once. This job later moves rows that have been
+ * tombstoned past the retention period and have no recent loans into the
+ * archive tables, together with their returned loans, and then hard-deletes
+ * them. Each batch is one short transaction, followed by a pause at least as
+ * long as the batch took, so a large weeding run never holds locks for long or
+ * takes more than half of the database's time away from circulation.
+ */
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+class TombstonePurger implements AutoCloseable {
+    private final ConnectionFactory connectionFactory;
+    private final int retentionDays;
+    private final int batchSize;
+    private final long pauseMillis;
+    private PatronTimelineCache timelineCache;
+    private IsbnIndex isbnIndex;
+    private ScheduledExecutorService scheduler;
+
+    public TombstonePurger(ConnectionFactory connectionFactory, int retentionDays, int batchSize, long pauseMillis) {
+        this.connectionFactory = connectionFactory;
+        this.retentionDays = retentionDays;
+        this.batchSize = Math.min(batchSize, SqlInList.CHUNK_SIZE);
+        this.pauseMillis = pauseMillis;
+    }
+
+    // Cached patron timelines are dropped whenever archived loans leave borrowing_records
+    public void setTimelineCache(PatronTimelineCache timelineCache) {
+        this.timelineCache = timelineCache;
+    }
+
+    // A purged book's ISBN becomes free once its row is gone
+    public void setIsbnIndex(IsbnIndex isbnIndex) {
+        this.isbnIndex = isbnIndex;
+    }
+
+    // Purge every eligible book, then every eligible patron
+    public synchronized PurgeResult run() throws SQLException {
+        long start = System.nanoTime();
+        LocalDate cutoff = LocalDate.now().minusDays(retentionDays);
+        long[] books = new long[2];
+        long[] patrons = new long[2];
+
+        try (Connection connection = connectionFactory.open()) {
+            purgeAll(connection, PurgeTarget.BOOKS, cutoff, books);
+            purgeAll(connection, PurgeTarget.PATRONS, cutoff, patrons);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Purge interrupted", e);
+        }
+        return new PurgeResult(books[0], patrons[0], books[1] + patrons[1], System.nanoTime() - start);
+    }
+
+    // Run periodically on a daemon thread
+    public synchronized void start(long periodSeconds) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tombstone-purger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                PurgeResult result = run();
+                if (result.getBooksPurged() > 0 || result.getPatronsPurged() > 0) {
+                    System.out.println("Tombstone purge: " + result);
+                }
+            } catch (SQLException e) {
+                System.out.println("Tombstone purge failed: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void close() {
+        ScheduledExecutorService running;
+        synchronized (this) {
+            running = scheduler;
+            scheduler = null;
+        }
+        if (running != null) {
+            // Interrupts the pause between batches; a batch in flight commits or rolls back on its own
+            running.shutdownNow();
+        }
+    }
+
+    // counts[0] accumulates purged rows, counts[1] archived loans
+    private void purgeAll(Connection connection, PurgeTarget target, LocalDate cutoff, long[] counts)
+            throws SQLException, InterruptedException {
+        while (true) {
+            long batchStart = System.nanoTime();
+            List<Integer> ids = findEligible(connection, target, cutoff);
+            if (ids.isEmpty()) {
+                return;
+            }
+            int[] purged = purgeBatch(connection, target, ids, cutoff);
+            counts[0] += purged[0];
+            counts[1] += purged[1];
+            if (purged[1] > 0 && timelineCache != null) {
+                timelineCache.invalidateAll();
+            }
+            if (ids.size() < batchSize) {
+                return;
+            }
+            // Throttle: the job is idle for at least as long as it was busy
+            long busyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batchStart);
+            Thread.sleep(Math.max(pauseMillis, busyMillis));
+        }
+    }
+
+    // Oldest tombstones first; the index on deleted_at keeps this from scanning live rows
+    private List<Integer> findEligible(Connection connection, PurgeTarget target, LocalDate cutoff) throws SQLException {
+        String sql = "SELECT " + target.idColumn + " FROM " + target.table + " t WHERE t.deleted_at IS NOT NULL "
+                     + "AND t.deleted_at < ? AND " + noRecentLoans(target) + " ORDER BY t.deleted_at LIMIT ?";
+        List<Integer> ids = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setDate(1, Date.valueOf(cutoff));
+            statement.setDate(2, Date.valueOf(cutoff));
+            statement.setInt(3, batchSize);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    ids.add(resultSet.getInt(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    // Archive and delete one batch in a single transaction; returns purged rows and archived loans
+    private int[] purgeBatch(Connection connection, PurgeTarget target, List<Integer> candidates, LocalDate cutoff)
+            throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            // Lock the rows and re-check them; a loan written since the scan keeps its row for a later run
+            List<Integer> ids = new ArrayList<>();
+            String lockSql = "SELECT " + target.idColumn + " FROM " + target.table + " t WHERE " + target.idColumn
+                             + " IN (" + SqlInList.placeholders(candidates.size()) + ") AND t.deleted_at IS NOT NULL AND "
+                             + noRecentLoans(target) + " FOR UPDATE";
+            try (PreparedStatement statement = connection.prepareStatement(lockSql)) {
+                int index = bindIds(statement, 1, candidates);
+                statement.setDate(index, Date.valueOf(cutoff));
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        ids.add(resultSet.getInt(1));
+                    }
+                }
+            }
+            if (ids.isEmpty()) {
+                connection.commit();
+                return new int[2];
+            }
+
+            String in = " IN (" + SqlInList.placeholders(ids.size()) + ")";
+            int loans = execute(connection,
+                "INSERT INTO borrowing_records_archive (record_id, book_id, patron_id, borrow_date, due_date, "
+                + "return_date, branch_id, archived_at) SELECT record_id, book_id, patron_id, borrow_date, due_date, "
+                + "return_date, branch_id, NOW() FROM borrowing_records WHERE " + target.idColumn + in, ids);
+            execute(connection, "DELETE FROM borrowing_records WHERE " + target.idColumn + in, ids);
+            for (String dependent : target.dependentTables) {
+                execute(connection, "DELETE FROM " + dependent + " WHERE " + target.idColumn + in, ids);
+            }
+            execute(connection, "INSERT INTO " + target.table + "_archive (" + target.archiveColumns + ", archived_at) "
+                                + "SELECT " + target.archiveColumns + ", NOW() FROM " + target.table
+                                + " WHERE " + target.idColumn + in, ids);
+            int purged = execute(connection, "DELETE FROM " + target.table + " WHERE " + target.idColumn + in, ids);
+            connection.commit();
+            if (target == PurgeTarget.BOOKS && isbnIndex != null) {
+                isbnIndex.onBooksPurged(ids);
+            }
+            return new int[] {purged, loans};
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    // The last loan must have been returned before the cutoff, so pending counter flushes are long done
+    private static String noRecentLoans(PurgeTarget target) {
+        return "NOT EXISTS (SELECT 1 FROM borrowing_records r WHERE r." + target.idColumn + " = t." + target.idColumn
+               + " AND (r.return_date IS NULL OR r.return_date >= ?))";
+    }
+
+    private static int execute(Connection connection, String sql, List<Integer> ids) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            bindIds(statement, 1, ids);
+            return statement.executeUpdate();
+        }
+    }
+
+    private static int bindIds(PreparedStatement statement, int index, List<Integer> ids) throws SQLException {
+        for (int id : ids) {
+            statement.setInt(index++, id);
+        }
+        return index;
+    }
+
+    private enum PurgeTarget {
+        BOOKS("books", "book_id", "book_id, title, author, isbn, publication_year, copies_available, total_copies, "
+              + "version, deleted_at", "book_branch_copies", "book_popularity", "book_daily_loans"),
+        PATRONS("patrons", "patron_id", "patron_id, first_name, last_name, email, phone, registration_date, "
+                + "category, deleted_at");
+
+        final String table;
+        final String idColumn;
+        final String archiveColumns;
+        final String[] dependentTables;
+
+        PurgeTarget(String table, String idColumn, String archiveColumns, String... dependentTables) {
+            this.table = table;
+            this.idColumn = idColumn;
+            this.archiveColumns = archiveColumns;
+            this.dependentTables = dependentTables;
+        }
+    }
+}
+
+class PurgeResult {
+    private final long booksPurged;
+    private final long patronsPurged;
+    private final long loansArchived;
+    private final long elapsedNanos;
+
+    PurgeResult(long booksPurged, long patronsPurged, long loansArchived, long elapsedNanos) {
+        this.booksPurged = booksPurged;
+        this.patronsPurged = patronsPurged;
+        this.loansArchived = loansArchived;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getBooksPurged() { return booksPurged; }
+
+    public long getPatronsPurged() { return patronsPurged; }
+
+    public long getLoansArchived() { return loansArchived; }
+
+    public long getElapsedNanos() { return elapsedNanos; }
+
+    @Override
+    public String toString() {
+        return "Books purged: " + booksPurged + " | Patrons purged: " + patronsPurged
+               + " | Loans archived: " + loansArchived + " | Time: " + String.format("%.2f s", elapsedNanos / 1e9);
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Typeahead suggestion
+ * One title offered for a typed prefix.
+ */
+
+class TypeaheadSuggestion {
+    private final int bookId;
+    private final String title;
+    private final String author;
+    private final long totalLoans;
+
+    TypeaheadSuggestion(int bookId, String title, String author, long totalLoans) {
+        this.bookId = bookId;
+        this.title = title;
+        this.author = author;
+        this.totalLoans = totalLoans;
+    }
+
+    public int getBookId() { return bookId; }
+
+    public String getTitle() { return title; }
+
+    public String getAuthor() { return author; }
+
+    public long getTotalLoans() { return totalLoans; }
+
+    @Override
+    public String toString() {
+        return title + " by " + author + " (ID " + bookId + ", " + totalLoans + " loans)";
+    }
+}
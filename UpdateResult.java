@@ -0,0 +1,10 @@
+/**
+ * Optimistic update result
+ * Outcome of a versioned row update.
+ */
+
+enum UpdateResult {
+    UPDATED,
+    CONFLICT,  // the row exists but its version has moved on since it was read
+    NOT_FOUND
+}
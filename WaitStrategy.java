@@ -0,0 +1,88 @@
+/**
+ * Wait strategy
+ * How an idle consumer waits for the next event
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+interface WaitStrategy {
+    int SPIN_TRIES = 100;
+
+    // Called each time a consumer finds nothing new; returns the updated idle counter
+    int idle(int counter);
+
+    // Called by producers after publishing
+    default void signalAll() {
+    }
+
+    // Lowest latency, burns a core per consumer
+    static WaitStrategy busySpin() {
+        return counter -> counter + 1;
+    }
+
+    // Spins briefly, then yields the CPU between checks
+    static WaitStrategy yielding() {
+        return counter -> {
+            if (counter < SPIN_TRIES) {
+                return counter + 1;
+            }
+            Thread.yield();
+            return counter;
+        };
+    }
+
+    // Spins, yields, then parks for the given time; near-zero CPU when idle
+    static WaitStrategy sleeping(long parkNanos) {
+        return counter -> {
+            if (counter < SPIN_TRIES) {
+                return counter + 1;
+            }
+            if (counter < SPIN_TRIES * 2) {
+                Thread.yield();
+                return counter + 1;
+            }
+            LockSupport.parkNanos(parkNanos);
+            return counter;
+        };
+    }
+
+    // Consumers sleep on a condition; producers only take the lock while someone is waiting
+    static WaitStrategy blocking() {
+        return new WaitStrategy() {
+            private final ReentrantLock lock = new ReentrantLock();
+            private final Condition published = lock.newCondition();
+            private volatile int waiting;
+
+            @Override
+            public int idle(int counter) {
+                lock.lock();
+                try {
+                    waiting++;
+                    // The timeout bounds the delay if a signal races with going to sleep
+                    published.await(1, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    waiting--;
+                    lock.unlock();
+                }
+                return counter;
+            }
+
+            @Override
+            public void signalAll() {
+                if (waiting > 0) {
+                    lock.lock();
+                    try {
+                        published.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        };
+    }
+}